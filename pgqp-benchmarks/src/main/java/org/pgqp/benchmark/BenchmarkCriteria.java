@@ -0,0 +1,24 @@
+package org.pgqp.benchmark;
+
+/**
+ * Criteria bean whose fields are addressed by index so a benchmark can
+ * populate any number of restrictions.
+ */
+public class BenchmarkCriteria {
+
+	private final Object[] values;
+
+	public BenchmarkCriteria(int size) {
+		this.values = new Object[size];
+	}
+
+	public Object get(int index) {
+		return values[index];
+	}
+
+	public BenchmarkCriteria set(int index, Object value) {
+		values[index] = value;
+		return this;
+	}
+
+}
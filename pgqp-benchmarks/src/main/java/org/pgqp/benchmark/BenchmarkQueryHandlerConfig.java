@@ -0,0 +1,126 @@
+package org.pgqp.benchmark;
+
+import static org.pgqp.jpa.JpaCriteriaHandlers.CONTAINS_FIELD_HANDLER;
+import static org.pgqp.jpa.JpaCriteriaHandlers.LIKE_FIELD_HANDLER;
+import static org.pgqp.jpa.JpaCriteriaHandlers.STARTS_WITH_FIELD_HANDLER;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.pgqp.benchmark.entity.Business;
+import org.pgqp.benchmark.entity.Business_;
+import org.pgqp.benchmark.entity.Person;
+import org.pgqp.benchmark.entity.Person_;
+import org.pgqp.jpa.AttributeInfo;
+import org.pgqp.jpa.JoinDefinition;
+import org.pgqp.jpa.JpaQueryHandler;
+import org.pgqp.jpa.QueryContext;
+import org.pgqp.jpa.RestrictionDefinition;
+import org.pgqp.jpa.RestrictionMapping;
+import org.pgqp.jpa.SortDefinition;
+
+/**
+ * Scaled-up version of the Person/Business test model. The join chain
+ * alternates between a person's employer and a business' owner up to
+ * {@link #MAX_JOIN_DEPTH} joins away from the root, and every level has two
+ * restrictable (and sortable) columns. Three one-to-many restrictions
+ * (children, grandchildren and the employees of the root's employer) go
+ * through the sub-query path.
+ */
+public class BenchmarkQueryHandlerConfig {
+
+	public static final int MAX_JOIN_DEPTH = 6;
+	public static final int MAX_ONE_TO_MANY_RESTRICTIONS = 3;
+	public static final int COLUMNS_PER_LEVEL = 2;
+	public static final int SINGLE_RESTRICTIONS = (MAX_JOIN_DEPTH + 1) * COLUMNS_PER_LEVEL;
+	public static final int RESTRICTIONS = SINGLE_RESTRICTIONS + MAX_ONE_TO_MANY_RESTRICTIONS;
+
+	private final JoinDefinition<?, Person> root = new JoinDefinition<>("person", Person.class);
+	private final List<JoinDefinition<?, ?>> levels = new ArrayList<>();
+	private final List<RestrictionMapping<BenchmarkCriteria, ?, ?, ?, ?>> restrictions = new ArrayList<>();
+	private final List<SortDefinition<Integer, ?, ?>> sorts = new ArrayList<>();
+
+	public BenchmarkQueryHandlerConfig() {
+		levels.add(root);
+		for (int level = 1; level <= MAX_JOIN_DEPTH; level++) {
+			levels.add(level % 2 == 1 ? employer(levels.get(level - 1)) : owner(levels.get(level - 1)));
+		}
+		for (int level = 0; level <= MAX_JOIN_DEPTH; level++) {
+			addLevel(level);
+		}
+
+		JoinDefinition<Person, Person> child = new JoinDefinition<>("child", Person.class, root,
+				new AttributeInfo<>(Person_.children));
+		JoinDefinition<Person, Person> grandchild = new JoinDefinition<>("grandchild", Person.class, child,
+				new AttributeInfo<>(Person_.children));
+		@SuppressWarnings("unchecked")
+		JoinDefinition<Person, Business> employer = (JoinDefinition<Person, Business>) levels.get(1);
+		JoinDefinition<Business, Person> coworker = new JoinDefinition<>("coworker", Person.class, employer,
+				new AttributeInfo<>(Business_.employees));
+		addRestriction(child, Person_.firstName, LIKE_FIELD_HANDLER);
+		addRestriction(grandchild, Person_.firstName, LIKE_FIELD_HANDLER);
+		addRestriction(coworker, Person_.lastName, LIKE_FIELD_HANDLER);
+	}
+
+	/**
+	 * Returns the index of the {@code n}-th restriction (or sort) that is
+	 * spread round robin over the levels up to {@code joinDepth}.
+	 *
+	 * @param n
+	 *            position of the restriction
+	 * @param joinDepth
+	 *            deepest level to use
+	 * @return index of the restriction mapping (or sort identifier)
+	 */
+	public static int columnIndex(int n, int joinDepth) {
+		int levels = joinDepth + 1;
+		return (n % levels) * COLUMNS_PER_LEVEL + (n / levels) % COLUMNS_PER_LEVEL;
+	}
+
+	public JpaQueryHandler<Person, Integer, BenchmarkCriteria, Integer> getQueryHandler(EntityManager entityManager) {
+		return new JpaQueryHandler<>(entityManager, Person.class, Integer.class, root, r -> r.get(Person_.id),
+				restrictions, sorts);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addLevel(int level) {
+		if (level % 2 == 0) {
+			JoinDefinition<?, Person> person = (JoinDefinition<?, Person>) levels.get(level);
+			addRestriction(person, Person_.firstName, CONTAINS_FIELD_HANDLER);
+			addRestriction(person, Person_.lastName, LIKE_FIELD_HANDLER);
+			sorts.add(new SortDefinition<>(sorts.size(), person, Person_.firstName));
+			sorts.add(new SortDefinition<>(sorts.size(), person, Person_.lastName));
+		} else {
+			JoinDefinition<?, Business> business = (JoinDefinition<?, Business>) levels.get(level);
+			addRestriction(business, Business_.name, LIKE_FIELD_HANDLER);
+			addRestriction(business, Business_.address, STARTS_WITH_FIELD_HANDLER);
+			sorts.add(new SortDefinition<>(sorts.size(), business, Business_.name));
+			sorts.add(new SortDefinition<>(sorts.size(), business, Business_.address));
+		}
+	}
+
+	private <P, T> void addRestriction(JoinDefinition<P, T> joinDefinition, SingularAttribute<T, String> attribute,
+			BiFunction<QueryContext<?, String>, String, Predicate> handler) {
+		int index = restrictions.size();
+		restrictions.add(new RestrictionMapping<BenchmarkCriteria, P, T, String, String>(
+				c -> (String) c.get(index), new RestrictionDefinition<>(joinDefinition, attribute, handler)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JoinDefinition<?, ?> employer(JoinDefinition<?, ?> person) {
+		return new JoinDefinition<>("employer" + person.getJoinIdentifier(), Business.class,
+				(JoinDefinition<?, Person>) person, new AttributeInfo<>(Person_.employer));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JoinDefinition<?, ?> owner(JoinDefinition<?, ?> business) {
+		return new JoinDefinition<>("owner" + business.getJoinIdentifier(), Person.class,
+				(JoinDefinition<?, Business>) business, new AttributeInfo<>(Business_.owner));
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.pgqp.benchmark;
+
+import static org.pgqp.benchmark.BenchmarkQueryHandlerConfig.SINGLE_RESTRICTIONS;
+import static org.pgqp.benchmark.BenchmarkQueryHandlerConfig.RESTRICTIONS;
+import static org.pgqp.benchmark.BenchmarkQueryHandlerConfig.columnIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.SortInfo.Direction;
+import org.pgqp.benchmark.entity.Person;
+import org.pgqp.jpa.JpaQueryHandler;
+
+/**
+ * Measures the cost of building entity and count queries with
+ * {@link JpaQueryHandler}. Only query construction is measured; the queries
+ * are never executed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuildBenchmark {
+
+	/** Number of populated single-valued restrictions. */
+	@Param({ "0", "2", "4", "8" })
+	private int restrictions;
+
+	/** Deepest join level the restrictions and sorts are spread over. */
+	@Param({ "0", "2", "4" })
+	private int joinDepth;
+
+	/** Number of populated restrictions that go through the sub-query. */
+	@Param({ "0", "1", "2" })
+	private int oneToManyRestrictions;
+
+	/** Number of sorts. */
+	@Param({ "0", "1", "3" })
+	private int sorts;
+
+	private EntityManagerFactory entityManagerFactory;
+	private EntityManager entityManager;
+	private JpaQueryHandler<Person, Integer, BenchmarkCriteria, Integer> queryHandler;
+	private QueryDefinition<BenchmarkCriteria, Integer> queryDefinition;
+
+	@Setup
+	public void setUp() {
+		entityManagerFactory = new HibernatePersistenceProvider().createEntityManagerFactory("benchmark", null);
+		entityManager = entityManagerFactory.createEntityManager();
+		queryHandler = new BenchmarkQueryHandlerConfig().getQueryHandler(entityManager);
+
+		BenchmarkCriteria criteria = new BenchmarkCriteria(RESTRICTIONS);
+		for (int i = 0; i < restrictions; i++) {
+			criteria.set(columnIndex(i, joinDepth), "value" + i);
+		}
+		for (int i = 0; i < oneToManyRestrictions; i++) {
+			criteria.set(SINGLE_RESTRICTIONS + i, "child" + i);
+		}
+		List<SortInfo<Integer>> sortInfos = new ArrayList<>();
+		for (int i = 0; i < sorts; i++) {
+			sortInfos.add(new SortInfo<>(columnIndex(i, joinDepth), i % 2 == 0 ? Direction.ASC : Direction.DESC));
+		}
+		queryDefinition = new QueryDefinition<>(criteria, sortInfos);
+	}
+
+	@TearDown
+	public void tearDown() {
+		entityManager.close();
+		entityManagerFactory.close();
+	}
+
+	@Benchmark
+	public CriteriaQuery<Person> toEntityQuery() {
+		return queryHandler.toEntityQuery(queryDefinition);
+	}
+
+	@Benchmark
+	public CriteriaQuery<Long> toCountQuery() {
+		return queryHandler.toCountQuery(queryDefinition);
+	}
+
+}
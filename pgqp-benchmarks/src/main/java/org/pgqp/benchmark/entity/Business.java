@@ -0,0 +1,46 @@
+package org.pgqp.benchmark.entity;
+
+import java.util.Set;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+
+@Entity
+public class Business {
+
+	@Id
+	private Integer id;
+
+	private String name;
+
+	private String address;
+
+	@ManyToOne
+	private Person owner;
+
+	@OneToMany(mappedBy = "employer")
+	private Set<Person> employees;
+
+	public Integer getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getAddress() {
+		return address;
+	}
+
+	public Person getOwner() {
+		return owner;
+	}
+
+	public Set<Person> getEmployees() {
+		return employees;
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.pgqp.benchmark.entity;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+
+@Entity
+public class Person {
+
+	@Id
+	private Integer id;
+
+	private String firstName;
+
+	private String lastName;
+
+	private LocalDate birthdate;
+
+	@ManyToOne
+	private Person parent;
+
+	@ManyToOne
+	private Business employer;
+
+	@OneToMany(mappedBy = "parent")
+	private Collection<Person> children;
+
+	public Integer getId() {
+		return id;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	public String getLastName() {
+		return lastName;
+	}
+
+	public LocalDate getBirthdate() {
+		return birthdate;
+	}
+
+	public Person getParent() {
+		return parent;
+	}
+
+	public Business getEmployer() {
+		return employer;
+	}
+
+	public Collection<Person> getChildren() {
+		return children;
+	}
+
+}
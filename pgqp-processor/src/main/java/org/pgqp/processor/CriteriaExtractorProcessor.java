@@ -0,0 +1,369 @@
+package org.pgqp.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import org.pgqp.CriteriaField;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.annotation.Restriction;
+import org.pgqp.jpa.annotation.Sort;
+
+/**
+ * Generates a {@code <Criteria>Extractor} class for each criteria class with
+ * {@link Restriction} fields and a {@code <Enum>Definitions} class for each
+ * sort enum with {@link Sort} constants. The generated code references the JPA
+ * metamodel classes ({@code <Entity>_}), so this processor runs alongside the
+ * metamodel generator, e.g., as a second processor of the
+ * {@code maven-processor-plugin} execution.
+ */
+@SupportedAnnotationTypes({ "org.pgqp.jpa.annotation.Restriction", "org.pgqp.jpa.annotation.Sort" })
+@SupportedSourceVersion(SourceVersion.RELEASE_8)
+public class CriteriaExtractorProcessor extends AbstractProcessor {
+
+	private static final String GENERATED = "@javax.annotation.Generated(\""
+			+ CriteriaExtractorProcessor.class.getName() + "\")";
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+		Set<TypeElement> criteriaClasses = new LinkedHashSet<>();
+		for (Element field : roundEnvironment.getElementsAnnotatedWith(Restriction.class)) {
+			criteriaClasses.add((TypeElement) field.getEnclosingElement());
+		}
+		for (TypeElement criteriaClass : criteriaClasses) {
+			generateExtractor(criteriaClass);
+		}
+		Set<TypeElement> sortEnums = new LinkedHashSet<>();
+		for (Element constant : roundEnvironment.getElementsAnnotatedWith(Sort.class)) {
+			if (constant.getKind() != ElementKind.ENUM_CONSTANT) {
+				error(constant, "@Sort is only applicable to enum constants");
+			} else {
+				sortEnums.add((TypeElement) constant.getEnclosingElement());
+			}
+		}
+		for (TypeElement sortEnum : sortEnums) {
+			generateSortDefinitions(sortEnum);
+		}
+		return true;
+	}
+
+	private void generateExtractor(TypeElement criteriaClass) {
+		String criteria = criteriaClass.getQualifiedName().toString();
+		List<VariableElement> fields = new ArrayList<>();
+		List<String> accessors = new ArrayList<>();
+		List<Boolean> criteriaFields = new ArrayList<>();
+		List<String> definitions = new ArrayList<>();
+		for (VariableElement field : ElementFilter.fieldsIn(criteriaClass.getEnclosedElements())) {
+			Restriction restriction = field.getAnnotation(Restriction.class);
+			if (restriction == null) {
+				continue;
+			}
+			if (field.asType().getKind().isPrimitive()) {
+				error(field, "Restriction fields must not be primitive since null means not populated");
+				continue;
+			}
+			boolean criteriaField = isCriteriaField(field.asType());
+			String definition = toRestrictionDefinition(field, restriction, criteriaField);
+			if (definition == null) {
+				continue;
+			}
+			fields.add(field);
+			accessors.add(toAccessor(criteriaClass, field));
+			criteriaFields.add(criteriaField);
+			definitions.add(definition);
+		}
+
+		String name = criteriaClass.getSimpleName() + "Extractor";
+		try (PrintWriter out = createSource(criteriaClass, name)) {
+			out.println("/**");
+			out.println(" * Reads the restrictions of {@link " + criteria + "}; generated from its");
+			out.println(" * {@link org.pgqp.jpa.annotation.Restriction} fields.");
+			out.println(" */");
+			out.println(GENERATED);
+			out.println("public final class " + name + " implements org.pgqp.jpa.CriteriaExtractor<" + criteria + "> {");
+			out.println();
+			out.println("\tpublic static final int RESTRICTION_COUNT = " + fields.size() + ";");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic int getRestrictionCount() {");
+			out.println("\t\treturn RESTRICTION_COUNT;");
+			out.println("\t}");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic void extract(" + criteria + " criteria, Object[] values, long[] bitset, int offset) {");
+			int words = (fields.size() + 63) >>> 6;
+			for (int w = 0; w < words; w++) {
+				out.println("\t\tlong word" + w + " = 0;");
+			}
+			out.println("\t\tObject value;");
+			for (int i = 0; i < fields.size(); i++) {
+				out.println("\t\tvalue = " + accessors.get(i).replace("$", "criteria") + ";");
+				out.println(criteriaFields.get(i)
+						? "\t\tif (value != null && ((org.pgqp.CriteriaField<?>) value).hasValue()) {"
+						: "\t\tif (value != null) {");
+				out.println("\t\t\tvalues[" + i + "] = value;");
+				out.println("\t\t\tword" + (i >>> 6) + " |= 1L << " + (i & 63) + ";");
+				out.println("\t\t}");
+			}
+			for (int w = 0; w < words; w++) {
+				out.println("\t\tbitset[offset + " + w + "] |= word" + w + ";");
+			}
+			out.println("\t}");
+			out.println();
+			out.println("\t/**");
+			out.println("\t * Creates the restriction mappings, one per annotated field in declaration");
+			out.println("\t * order.");
+			out.println("\t *");
+			out.println("\t * @param joins");
+			out.println("\t *            join definitions, looked up by identifier");
+			out.println("\t * @param definitions");
+			out.println("\t *            restriction definitions supplied at runtime, by name");
+			out.println("\t * @return the restriction mappings");
+			out.println("\t */");
+			out.println("\t@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+			out.println("\tpublic static java.util.List<org.pgqp.jpa.RestrictionMapping<" + criteria
+					+ ", ?, ?, ?, ?>> toRestrictions(");
+			out.println("\t\t\tjava.util.Collection<? extends org.pgqp.jpa.JoinDefinition<?, ?>> joins,");
+			out.println("\t\t\tjava.util.Map<String, ? extends org.pgqp.jpa.RestrictionDefinition<?, ?, ?, ?>> definitions) {");
+			out.println("\t\tjava.util.List<org.pgqp.jpa.RestrictionMapping<" + criteria
+					+ ", ?, ?, ?, ?>> restrictions = new java.util.ArrayList<>(RESTRICTION_COUNT);");
+			for (int i = 0; i < fields.size(); i++) {
+				String getter = "(java.util.function.Function<" + criteria + ", Object>) c -> "
+						+ accessors.get(i).replace("$", "c");
+				out.println("\t\trestrictions.add(new org.pgqp.jpa.RestrictionMapping(");
+				if (criteriaFields.get(i)) {
+					out.println("\t\t\t\t(java.util.function.Predicate<" + criteria + ">) c -> "
+							+ accessors.get(i).replace("$", "c") + " != null && "
+							+ accessors.get(i).replace("$", "c") + ".hasValue(),");
+				}
+				out.println("\t\t\t\t" + getter + ",");
+				out.println("\t\t\t\t" + definitions.get(i) + "));");
+			}
+			out.println("\t\treturn restrictions;");
+			out.println("\t}");
+			printLookups(out, true);
+			out.println();
+			out.println("}");
+		}
+	}
+
+	private void generateSortDefinitions(TypeElement sortEnum) {
+		String identifier = sortEnum.getQualifiedName().toString();
+		String name = sortEnum.getSimpleName() + "Definitions";
+		List<String> sorts = new ArrayList<>();
+		for (VariableElement constant : ElementFilter.fieldsIn(sortEnum.getEnclosedElements())) {
+			Sort sort = constant.getAnnotation(Sort.class);
+			if (sort != null) {
+				TypeElement entity = getEntity(sort);
+				sorts.add("new org.pgqp.jpa.SortDefinition(" + identifier + "." + constant.getSimpleName() + ", join(joins, \""
+						+ sort.join() + "\"), " + entity.getQualifiedName() + "_." + sort.attribute() + ")");
+			}
+		}
+		try (PrintWriter out = createSource(sortEnum, name)) {
+			out.println("/**");
+			out.println(" * Creates the sort definitions of {@link " + identifier + "}; generated from");
+			out.println(" * its {@link org.pgqp.jpa.annotation.Sort} constants.");
+			out.println(" */");
+			out.println(GENERATED);
+			out.println("public final class " + name + " {");
+			out.println();
+			out.println("\t/**");
+			out.println("\t * Creates the sort definitions, one per annotated constant in declaration");
+			out.println("\t * order.");
+			out.println("\t *");
+			out.println("\t * @param joins");
+			out.println("\t *            join definitions, looked up by identifier");
+			out.println("\t * @return the sort definitions");
+			out.println("\t */");
+			out.println("\t@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+			out.println("\tpublic static java.util.List<org.pgqp.jpa.SortDefinition<" + identifier
+					+ ", ?, ?>> toSorts(java.util.Collection<? extends org.pgqp.jpa.JoinDefinition<?, ?>> joins) {");
+			out.println("\t\tjava.util.List<org.pgqp.jpa.SortDefinition<" + identifier
+					+ ", ?, ?>> sorts = new java.util.ArrayList<>(" + sorts.size() + ");");
+			for (String sort : sorts) {
+				out.println("\t\tsorts.add(" + sort + ");");
+			}
+			out.println("\t\treturn sorts;");
+			out.println("\t}");
+			printLookups(out, false);
+			out.println();
+			out.println("\tprivate " + name + "() {");
+			out.println("\t\tassert false;");
+			out.println("\t}");
+			out.println();
+			out.println("}");
+		}
+	}
+
+	private static void printLookups(PrintWriter out, boolean definitions) {
+		out.println();
+		out.println("\tprivate static org.pgqp.jpa.JoinDefinition join(");
+		out.println("\t\t\tjava.util.Collection<? extends org.pgqp.jpa.JoinDefinition<?, ?>> joins, String identifier) {");
+		out.println("\t\tfor (org.pgqp.jpa.JoinDefinition<?, ?> join : joins) {");
+		out.println("\t\t\tif (join.getJoinIdentifier().equals(identifier)) {");
+		out.println("\t\t\t\treturn join;");
+		out.println("\t\t\t}");
+		out.println("\t\t}");
+		out.println("\t\tthrow new IllegalArgumentException(\"No join definition \" + identifier);");
+		out.println("\t}");
+		if (definitions) {
+			out.println();
+			out.println("\tprivate static org.pgqp.jpa.RestrictionDefinition definition(");
+			out.println("\t\t\tjava.util.Map<String, ? extends org.pgqp.jpa.RestrictionDefinition<?, ?, ?, ?>> definitions,");
+			out.println("\t\t\tString name) {");
+			out.println("\t\torg.pgqp.jpa.RestrictionDefinition<?, ?, ?, ?> definition = definitions.get(name);");
+			out.println("\t\tif (definition == null) {");
+			out.println("\t\t\tthrow new IllegalArgumentException(\"No restriction definition \" + name);");
+			out.println("\t\t}");
+			out.println("\t\treturn definition;");
+			out.println("\t}");
+		}
+	}
+
+	/**
+	 * Returns the expression creating the restriction definition of a field or
+	 * {@code null} after reporting an error.
+	 */
+	private String toRestrictionDefinition(VariableElement field, Restriction restriction, boolean criteriaField) {
+		if (!restriction.definition().isEmpty()) {
+			if (!restriction.join().isEmpty() || !restriction.attribute().isEmpty()
+					|| restriction.operation().length > 0) {
+				error(field, "A restriction with a definition must not have a join, attribute or operation");
+				return null;
+			}
+			return "definition(definitions, \"" + restriction.definition() + "\")";
+		}
+		TypeElement entity = getEntity(restriction);
+		if (restriction.join().isEmpty() || restriction.attribute().isEmpty() || entity == null) {
+			error(field, "A restriction needs a definition or a join, entity and attribute");
+			return null;
+		}
+		String handler;
+		if (criteriaField) {
+			if (restriction.operation().length > 0) {
+				error(field, "CriteriaField restrictions use the operation of the field");
+				return null;
+			}
+			handler = toCriteriaFieldHandler((DeclaredType) field.asType());
+		} else {
+			if (restriction.operation().length != 1) {
+				error(field, "A restriction on a field that is not a CriteriaField needs one operation");
+				return null;
+			}
+			StandardOperation operation = restriction.operation()[0];
+			if ((operation == StandardOperation.NULL || operation == StandardOperation.NOT_NULL)
+					&& !isType(field.asType(), Boolean.class)) {
+				error(field, operation + " restrictions need a Boolean field");
+				return null;
+			}
+			handler = operation.name() + "_FIELD_HANDLER";
+		}
+		return "new org.pgqp.jpa.RestrictionDefinition(join(joins, \"" + restriction.join() + "\"), "
+				+ entity.getQualifiedName() + "_." + restriction.attribute() + ", (java.util.function.BiFunction) "
+				+ "org.pgqp.jpa.JpaCriteriaHandlers." + handler + ")";
+	}
+
+	private String toCriteriaFieldHandler(DeclaredType type) {
+		TypeMirror value = type.getTypeArguments().isEmpty() ? null : type.getTypeArguments().get(0);
+		if (value == null || value.getKind() != TypeKind.DECLARED) {
+			return "SIMPLE_FIELD_HANDLER";
+		} else if (isType(value, String.class)) {
+			return "STRING_FIELD_HANDLER";
+		} else if (isType(value, Boolean.class)) {
+			return "BOOLEAN_FIELD_HANDLER";
+		} else if (processingEnv.getTypeUtils().isAssignable(value, processingEnv.getTypeUtils()
+				.erasure(processingEnv.getElementUtils().getTypeElement(Comparable.class.getName()).asType()))) {
+			return "COMPARABLE_FIELD_HANDLER";
+		}
+		return "SIMPLE_FIELD_HANDLER";
+	}
+
+	/**
+	 * Returns the expression reading a field, with {@code $} standing for the
+	 * criteria: its getter if declared (or generated by Lombok, which this
+	 * processor may not see), or the field itself if it is not private.
+	 */
+	private static String toAccessor(TypeElement criteriaClass, VariableElement field) {
+		String name = field.getSimpleName().toString();
+		String getter = "get" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		for (ExecutableElement method : ElementFilter.methodsIn(criteriaClass.getEnclosedElements())) {
+			if (method.getSimpleName().contentEquals(getter) && method.getParameters().isEmpty()) {
+				return "$." + getter + "()";
+			}
+		}
+		return field.getModifiers().contains(Modifier.PRIVATE) ? "$." + getter + "()" : "$." + name;
+	}
+
+	private boolean isCriteriaField(TypeMirror type) {
+		return type.getKind() == TypeKind.DECLARED
+				&& ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName()
+						.contentEquals(CriteriaField.class.getName());
+	}
+
+	private boolean isType(TypeMirror type, Class<?> clazz) {
+		return processingEnv.getTypeUtils().isSameType(type,
+				processingEnv.getElementUtils().getTypeElement(clazz.getName()).asType());
+	}
+
+	private static TypeElement getEntity(Restriction restriction) {
+		try {
+			restriction.entity();
+		} catch (MirroredTypeException e) {
+			return e.getTypeMirror().getKind() == TypeKind.DECLARED
+					? (TypeElement) ((DeclaredType) e.getTypeMirror()).asElement()
+					: null;
+		}
+		throw new IllegalStateException("Class values are only available as type mirrors");
+	}
+
+	private static TypeElement getEntity(Sort sort) {
+		try {
+			sort.entity();
+		} catch (MirroredTypeException e) {
+			return (TypeElement) ((DeclaredType) e.getTypeMirror()).asElement();
+		}
+		throw new IllegalStateException("Class values are only available as type mirrors");
+	}
+
+	private PrintWriter createSource(TypeElement element, String name) {
+		String packageName = processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+		try {
+			PrintWriter out = new PrintWriter(processingEnv.getFiler()
+					.createSourceFile(packageName.isEmpty() ? name : packageName + "." + name, element)
+					.openWriter());
+			if (!packageName.isEmpty()) {
+				out.println("package " + packageName + ";");
+				out.println();
+			}
+			return out;
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot create " + name, e);
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.pgqp.processor;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.junit.After;
+import org.junit.Test;
+import org.pgqp.CriteriaField;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.SortInfo.Direction;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.AttributeInfo;
+import org.pgqp.jpa.JoinDefinition;
+import org.pgqp.jpa.JpaQueryHandler;
+import org.pgqp.jpa.RestrictionDefinition;
+import org.pgqp.jpa.RestrictionMapping;
+import org.pgqp.processor.model.Business;
+import org.pgqp.processor.model.Business_;
+import org.pgqp.processor.model.Person;
+import org.pgqp.processor.model.PersonCriteria;
+import org.pgqp.processor.model.PersonCriteriaExtractor;
+import org.pgqp.processor.model.PersonSort;
+import org.pgqp.processor.model.PersonSortDefinitions;
+import org.pgqp.processor.model.Person_;
+
+public class CriteriaExtractorProcessorTests {
+
+	/* Created first since it initializes the metamodel. */
+	private final EntityManagerFactory entityManagerFactory = new HibernatePersistenceProvider()
+			.createEntityManagerFactory("test", null);
+	private final EntityManager entityManager = entityManagerFactory.createEntityManager();
+
+	private final JoinDefinition<?, Person> personTable = new JoinDefinition<>("person", Person.class);
+	private final JoinDefinition<Person, Business> businessTable = new JoinDefinition<>("business", Business.class,
+			personTable, new AttributeInfo<>(Person_.employer));
+	private final JoinDefinition<Person, Person> childTable = new JoinDefinition<>("child", Person.class, personTable,
+			new AttributeInfo<>(Person_.children));
+	private final RestrictionDefinition<?, Person, Integer, Boolean> hasChildren = new RestrictionDefinition<>(
+			childTable, Person_.id, (context, value) -> value ? context.getPath().isNotNull()
+					: context.getCriteriaBuilder().disjunction());
+	private final List<RestrictionMapping<PersonCriteria, ?, ?, ?, ?>> restrictions = PersonCriteriaExtractor
+			.toRestrictions(asList(personTable, businessTable, childTable),
+					Collections.singletonMap("hasChildren", hasChildren));
+
+	public CriteriaExtractorProcessorTests() {
+		entityManager.getTransaction().begin();
+		Business acme = new Business(1, "Acme");
+		entityManager.persist(acme);
+		Business hal = new Business(2, "HAL");
+		entityManager.persist(hal);
+		Person bob = new Person(1, "Bob", "Smith");
+		bob.setEmployer(acme);
+		entityManager.persist(bob);
+		Person molly = new Person(2, "Molly", "Smith");
+		molly.setParent(bob);
+		entityManager.persist(molly);
+		Person suzy = new Person(3, "Suzy", "Johnson");
+		suzy.setEmployer(hal);
+		entityManager.persist(suzy);
+		entityManager.persist(new Person(4, "Ernie", "Banana"));
+		entityManager.getTransaction().commit();
+		entityManager.clear();
+	}
+
+	@After
+	public void close() {
+		entityManager.close();
+		entityManagerFactory.close();
+	}
+
+	@Test
+	public void testExtractorReadsPopulatedRestrictions() {
+		PersonCriteria criteria = new PersonCriteria().setFirstName("o")
+				.setLastName(new CriteriaField<>(StandardOperation.EQ, null)).setEmployed(true)
+				.setNotMapped("ignored");
+		Object[] values = new Object[PersonCriteriaExtractor.RESTRICTION_COUNT];
+		long[] bitset = new long[2];
+		new PersonCriteriaExtractor().extract(criteria, values, bitset, 1);
+		assertArrayEquals(new Object[] { "o", null, null, null, true, null }, values);
+		assertArrayEquals(new long[] { 0, 1 | 1 << 4 }, bitset);
+	}
+
+	@Test
+	public void testExtractorMatchesRestrictionMappings() {
+		PersonCriteriaExtractor extractor = new PersonCriteriaExtractor();
+		for (PersonCriteria criteria : asList(new PersonCriteria(),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.NE, "Smith")),
+				new PersonCriteria().setCompanyName("A%").setChildName("M%").setHasChildren(false))) {
+			Object[] values = new Object[restrictions.size()];
+			extractor.extract(criteria, values, new long[1], 0);
+			for (int i = 0; i < values.length; i++) {
+				assertEquals(criteria + "/" + i, restrictions.get(i).getValue(criteria), values[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testGeneratedMappingsQuery() {
+		JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> queryHandler = new JpaQueryHandler<>(
+				entityManager, Person.class, Integer.class, personTable, r -> r.get(Person_.id), restrictions,
+				PersonSortDefinitions.toSorts(asList(personTable, businessTable)));
+		queryHandler.setCriteriaExtractor(new PersonCriteriaExtractor());
+		assertEquals(asList("Bob", "Suzy"), findFirstNames(queryHandler, new QueryDefinition<>(
+				new PersonCriteria().setEmployed(true), PersonSort.BUSINESS_NAME)));
+		assertEquals(asList("Bob"), findFirstNames(queryHandler, new QueryDefinition<>(
+				new PersonCriteria().setFirstName("o").setCompanyName("%A%"),
+				asList(new SortInfo<>(PersonSort.FIRST_NAME, Direction.DESC)))));
+		assertEquals(asList("Molly", "Bob"), findFirstNames(queryHandler, new QueryDefinition<>(
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.EQ, "Smith")),
+				asList(new SortInfo<>(PersonSort.FIRST_NAME, Direction.DESC)))));
+		assertEquals(asList("Bob"), findFirstNames(queryHandler, new QueryDefinition<>(
+				new PersonCriteria().setChildName("M%").setHasChildren(true), PersonSort.NO_MAPPING)));
+	}
+
+	private List<String> findFirstNames(JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> queryHandler,
+			QueryDefinition<PersonCriteria, PersonSort> queryDefinition) {
+		return entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition)).getResultList().stream()
+				.map(Person::getFirstName).collect(toList());
+	}
+
+}
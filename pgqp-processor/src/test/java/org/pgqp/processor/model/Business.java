@@ -0,0 +1,28 @@
+package org.pgqp.processor.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@Entity
+public class Business {
+
+	@Id
+	private Integer id;
+
+	private String name;
+
+	public Business() {
+		super();
+	}
+
+	public Business(Integer id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+}
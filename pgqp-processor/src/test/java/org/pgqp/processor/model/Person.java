@@ -0,0 +1,44 @@
+package org.pgqp.processor.model;
+
+import java.util.Collection;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@Entity
+public class Person {
+
+	@Id
+	private Integer id;
+
+	private String firstName;
+
+	private String lastName;
+
+	@ManyToOne
+	private Person parent;
+
+	@ManyToOne
+	private Business employer;
+
+	@OneToMany(mappedBy = "parent")
+	private Collection<Person> children;
+
+	public Person() {
+		super();
+	}
+
+	public Person(Integer id, String firstName, String lastName) {
+		this.id = id;
+		this.firstName = firstName;
+		this.lastName = lastName;
+	}
+
+}
@@ -0,0 +1,34 @@
+package org.pgqp.processor.model;
+
+import org.pgqp.CriteriaField;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.annotation.Restriction;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+@Data
+@Accessors(chain = true)
+public class PersonCriteria {
+
+	@Restriction(join = "person", entity = Person.class, attribute = "firstName", operation = StandardOperation.CONTAINS)
+	private String firstName;
+
+	@Restriction(join = "person", entity = Person.class, attribute = "lastName")
+	private CriteriaField<String> lastName;
+
+	@Restriction(join = "business", entity = Business.class, attribute = "name", operation = StandardOperation.LIKE)
+	private String companyName;
+
+	@Restriction(join = "child", entity = Person.class, attribute = "firstName", operation = StandardOperation.LIKE)
+	private String childName;
+
+	@Restriction(join = "person", entity = Person.class, attribute = "employer", operation = StandardOperation.NOT_NULL)
+	private Boolean employed;
+
+	@Restriction(definition = "hasChildren")
+	private Boolean hasChildren;
+
+	private String notMapped;
+
+}
@@ -0,0 +1,13 @@
+package org.pgqp.processor.model;
+
+import org.pgqp.jpa.annotation.Sort;
+
+public enum PersonSort {
+	@Sort(join = "person", entity = Person.class, attribute = "firstName")
+	FIRST_NAME,
+	@Sort(join = "person", entity = Person.class, attribute = "lastName")
+	LAST_NAME,
+	@Sort(join = "business", entity = Business.class, attribute = "name")
+	BUSINESS_NAME,
+	NO_MAPPING
+}
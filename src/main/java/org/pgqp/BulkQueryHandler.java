@@ -0,0 +1,31 @@
+package org.pgqp;
+
+import java.util.List;
+
+/**
+ * Converts many {@link QueryDefinition}s into few data/entity queries, e.g., to
+ * resolve thousands of small criteria objects in a handful of round trips
+ * instead of one query each. Every row of a bulk query starts with a
+ * discriminator column holding the index, in the given list, of the query
+ * definition it was selected for.
+ *
+ * @param <QB>
+ *            type of bulk query returned
+ * @param <C>
+ *            type of criteria
+ * @param <S>
+ *            type of sort
+ */
+public interface BulkQueryHandler<QB, C, S> {
+
+	/**
+	 * Converts {@link QueryDefinition}s to bulk data/entity queries. Together,
+	 * the queries select the rows of all query definitions.
+	 *
+	 * @param queryDefinitions
+	 *            query definitions to use for constructing the queries
+	 * @return bulk data/entity queries
+	 */
+	List<QB> toBulkEntityQueries(List<QueryDefinition<C, S>> queryDefinitions);
+
+}
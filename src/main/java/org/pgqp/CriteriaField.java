@@ -1,5 +1,7 @@
 package org.pgqp;
 
+import java.util.Objects;
+
 /**
  * Convenience class for combining an operation with a value.
  *
@@ -53,4 +55,26 @@ public class CriteriaField<V> {
 		return value != null;
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof CriteriaField)) {
+			return false;
+		}
+		CriteriaField<?> criteriaField = (CriteriaField<?>) other;
+		return op == criteriaField.op && Objects.equals(value, criteriaField.value);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Objects.hashCode(op) + Objects.hashCode(value);
+	}
+
+	@Override
+	public String toString() {
+		return "CriteriaField[op=" + op + ", value=" + value + "]";
+	}
+
 }
@@ -0,0 +1,122 @@
+package org.pgqp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Position in a keyset (seek) paginated result: the values of the sort columns
+ * of the last row seen plus its id. A {@link QueryDefinition} with a cursor
+ * returns the rows after that position, ordered by its sorts and then by id.
+ * <p>
+ * Keyset pagination requires the sort columns of the rows being paged over to
+ * be non-null.
+ */
+public final class Cursor {
+
+	private static final Cursor FIRST = new Cursor(Collections.emptyList(), null);
+
+	private final List<Object> sortValues;
+	private final Object id;
+
+	private Cursor(List<Object> sortValues, Object id) {
+		this.sortValues = sortValues;
+		this.id = id;
+	}
+
+	/**
+	 * Returns the cursor of the first page: no rows are skipped but the query
+	 * is ordered by id after its sorts so that the cursor of the next page can
+	 * be used.
+	 *
+	 * @return the cursor of the first page
+	 */
+	public static Cursor first() {
+		return FIRST;
+	}
+
+	/**
+	 * Creates a cursor positioned after the row with the given id and sort
+	 * column values.
+	 *
+	 * @param id
+	 *            id of the last row seen
+	 * @param sortValues
+	 *            sort column values of the last row seen, in sort order
+	 * @return a cursor positioned after the row
+	 */
+	public static Cursor after(Object id, Object... sortValues) {
+		return after(id, Arrays.asList(sortValues));
+	}
+
+	/**
+	 * Creates a cursor positioned after the row with the given id and sort
+	 * column values.
+	 *
+	 * @param id
+	 *            id of the last row seen
+	 * @param sortValues
+	 *            sort column values of the last row seen, in sort order
+	 * @return a cursor positioned after the row
+	 */
+	public static Cursor after(Object id, List<?> sortValues) {
+		if (id == null) {
+			throw new IllegalArgumentException("The id of a cursor must not be null");
+		}
+		if (sortValues.contains(null)) {
+			throw new IllegalArgumentException("Keyset pagination does not support null sort values: " + sortValues);
+		}
+		return new Cursor(Collections.unmodifiableList(Arrays.asList(sortValues.toArray())), id);
+	}
+
+	/**
+	 * Returns whether this is the cursor of the first page.
+	 *
+	 * @return whether this is the cursor of the first page
+	 */
+	public boolean isFirst() {
+		return id == null;
+	}
+
+	/**
+	 * Returns the sort column values of the last row seen.
+	 *
+	 * @return the sort column values of the last row seen
+	 */
+	public List<Object> getSortValues() {
+		return sortValues;
+	}
+
+	/**
+	 * Returns the id of the last row seen.
+	 *
+	 * @return the id of the last row seen or {@code null} for the first page
+	 */
+	public Object getId() {
+		return id;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof Cursor)) {
+			return false;
+		}
+		Cursor cursor = (Cursor) other;
+		return Objects.equals(id, cursor.id) && sortValues.equals(cursor.sortValues);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Objects.hashCode(id) + sortValues.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return isFirst() ? "Cursor[first]" : "Cursor[id=" + id + ", sortValues=" + sortValues + "]";
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.pgqp;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A page of query results together with the total number of results. The
+ * total is obtained from a supplier the first time it is requested, which
+ * allows it to be computed concurrently with the page or lazily.
+ *
+ * @param <T>
+ *            type of the results
+ */
+public class Page<T> {
+
+	private final List<T> content;
+	private final int offset;
+	private final int pageSize;
+	private Supplier<Long> totalSupplier;
+	private volatile Long total;
+
+	/**
+	 * Creates a new page.
+	 *
+	 * @param content
+	 *            results of the page
+	 * @param offset
+	 *            index of the first result of the page
+	 * @param pageSize
+	 *            requested maximum number of results of the page
+	 * @param totalSupplier
+	 *            supplier of the total number of results; called at most once
+	 */
+	public Page(List<T> content, int offset, int pageSize, Supplier<Long> totalSupplier) {
+		this.content = content;
+		this.offset = offset;
+		this.pageSize = pageSize;
+		this.totalSupplier = totalSupplier;
+	}
+
+	/**
+	 * Returns the results of the page.
+	 *
+	 * @return the results of the page
+	 */
+	public List<T> getContent() {
+		return content;
+	}
+
+	/**
+	 * Returns the index of the first result of the page.
+	 *
+	 * @return the index of the first result of the page
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the requested maximum number of results of the page.
+	 *
+	 * @return the requested maximum number of results of the page
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Returns the total number of results, waiting for (or running) the count
+	 * query if it has not completed yet.
+	 *
+	 * @return the total number of results
+	 */
+	public long getTotal() {
+		Long result = total;
+		if (result == null) {
+			synchronized (this) {
+				result = total;
+				if (result == null) {
+					result = totalSupplier.get();
+					total = result;
+					totalSupplier = null;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether there are results after this page.
+	 *
+	 * @return whether there are results after this page
+	 */
+	public boolean hasNext() {
+		return content.size() == pageSize && offset + content.size() < getTotal();
+	}
+
+	@Override
+	public String toString() {
+		return "Page[offset=" + offset + ", pageSize=" + pageSize + ", content=" + content + "]";
+	}
+
+}
@@ -1,11 +1,18 @@
 package org.pgqp;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Defines the restriction and sort portion of a query.
+ * <p>
+ * Query definitions are equal if their criteria, sorts and cursors are equal,
+ * so they can be used as cache keys if the criteria type implements
+ * {@code equals} and {@code hashCode}; a missing sort list equals an empty
+ * one. Criteria used as keys must not be modified afterwards.
  * 
  * @param <C>
  *            criteria type
@@ -16,6 +23,7 @@ public class QueryDefinition<C, S> {
 
 	private final C criteria;
 	private final List<SortInfo<S>> sorts;
+	private final Cursor cursor;
 
 	/**
 	 * Creates a new {@link QueryDefinition} object with the given restriction
@@ -53,8 +61,37 @@ public class QueryDefinition<C, S> {
 	 *            information about how to sort the query
 	 */
 	public QueryDefinition(C criteria, List<SortInfo<S>> sorts) {
+		this(criteria, sorts, null);
+	}
+
+	/**
+	 * Creates a new {@link QueryDefinition} object with the given restriction
+	 * {@code criteria}, sort information and keyset pagination
+	 * {@code cursor}.
+	 * 
+	 * @param criteria
+	 *            query restriction information
+	 * @param sorts
+	 *            information about how to sort the query
+	 * @param cursor
+	 *            position to continue a keyset paginated query after; may be
+	 *            {@code null}
+	 */
+	public QueryDefinition(C criteria, List<SortInfo<S>> sorts, Cursor cursor) {
 		this.criteria = criteria;
 		this.sorts = sorts;
+		this.cursor = cursor;
+	}
+
+	/**
+	 * Returns a copy of this query definition positioned at {@code cursor}.
+	 * 
+	 * @param cursor
+	 *            position to continue a keyset paginated query after
+	 * @return a copy of this query definition with the given cursor
+	 */
+	public QueryDefinition<C, S> withCursor(Cursor cursor) {
+		return new QueryDefinition<>(criteria, sorts, cursor);
 	}
 
 	/**
@@ -66,6 +103,26 @@ public class QueryDefinition<C, S> {
 		return criteria;
 	}
 
+	/**
+	 * Returns the keyset pagination cursor of the query definition.
+	 * 
+	 * @return the keyset pagination cursor or {@code null} if the query is not
+	 *         keyset paginated
+	 */
+	public Cursor getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * Returns the sort portion of the query definition as a non-null
+	 * {@link List} of {@link SortInfo} objects.
+	 * 
+	 * @return the sort portion of the query definition
+	 */
+	public List<SortInfo<S>> getSorts() {
+		return sorts == null ? Collections.emptyList() : sorts;
+	}
+
 	/**
 	 * Returns the sort portion of the query definition as a non-null
 	 * {@link Stream} of {@link SortInfo} objects.
@@ -76,4 +133,27 @@ public class QueryDefinition<C, S> {
 		return sorts == null ? Stream.empty() : sorts.stream();
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof QueryDefinition)) {
+			return false;
+		}
+		QueryDefinition<?, ?> queryDefinition = (QueryDefinition<?, ?>) other;
+		return Objects.equals(criteria, queryDefinition.criteria) && getSorts().equals(queryDefinition.getSorts())
+				&& Objects.equals(cursor, queryDefinition.cursor);
+	}
+
+	@Override
+	public int hashCode() {
+		return (31 * Objects.hashCode(criteria) + getSorts().hashCode()) * 31 + Objects.hashCode(cursor);
+	}
+
+	@Override
+	public String toString() {
+		return "QueryDefinition[criteria=" + criteria + ", sorts=" + getSorts() + ", cursor=" + cursor + "]";
+	}
+
 }
@@ -0,0 +1,81 @@
+package org.pgqp;
+
+import java.util.List;
+
+/**
+ * A page of query results without a total: whether there are results after
+ * it is known from fetching one result more than the page size, so no count
+ * query is needed.
+ *
+ * @param <T>
+ *            type of the results
+ */
+public class Slice<T> {
+
+	private final List<T> content;
+	private final int offset;
+	private final int pageSize;
+	private final boolean hasNext;
+
+	/**
+	 * Creates a new slice.
+	 *
+	 * @param content
+	 *            results of the slice
+	 * @param offset
+	 *            index of the first result of the slice
+	 * @param pageSize
+	 *            requested maximum number of results of the slice
+	 * @param hasNext
+	 *            whether there are results after the slice
+	 */
+	public Slice(List<T> content, int offset, int pageSize, boolean hasNext) {
+		this.content = content;
+		this.offset = offset;
+		this.pageSize = pageSize;
+		this.hasNext = hasNext;
+	}
+
+	/**
+	 * Returns the results of the slice.
+	 *
+	 * @return the results of the slice
+	 */
+	public List<T> getContent() {
+		return content;
+	}
+
+	/**
+	 * Returns the index of the first result of the slice.
+	 *
+	 * @return the index of the first result of the slice
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the requested maximum number of results of the slice.
+	 *
+	 * @return the requested maximum number of results of the slice
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Returns whether there are results after this slice.
+	 *
+	 * @return whether there are results after this slice
+	 */
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	@Override
+	public String toString() {
+		return "Slice[offset=" + offset + ", pageSize=" + pageSize + ", hasNext=" + hasNext + ", content=" + content
+				+ "]";
+	}
+
+}
@@ -2,6 +2,8 @@ package org.pgqp;
 
 import static org.pgqp.SortInfo.Direction.ASC;
 
+import java.util.Objects;
+
 /**
  * Combines a sort definition (how to construct an order by clause on a column
  * in a table) with a sort direction (asc/desc).
@@ -74,4 +76,26 @@ public class SortInfo<S> {
 		return direction;
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof SortInfo)) {
+			return false;
+		}
+		SortInfo<?> sortInfo = (SortInfo<?>) other;
+		return Objects.equals(sortIdentifier, sortInfo.sortIdentifier) && direction == sortInfo.direction;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Objects.hashCode(sortIdentifier) + Objects.hashCode(direction);
+	}
+
+	@Override
+	public String toString() {
+		return sortIdentifier + " " + direction;
+	}
+
 }
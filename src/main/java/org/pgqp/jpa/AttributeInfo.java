@@ -1,10 +1,15 @@
 package org.pgqp.jpa;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
 import java.util.Objects;
 
 import javax.persistence.criteria.Expression;
 import javax.persistence.criteria.From;
 import javax.persistence.criteria.JoinType;
+import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.CollectionAttribute;
 import javax.persistence.metamodel.ListAttribute;
 import javax.persistence.metamodel.SetAttribute;
@@ -62,6 +67,24 @@ public class AttributeInfo<P, C> {
 		return joinInfo;
 	}
 	
+	/**
+	 * Returns the attribute of the join, whatever its type.
+	 * 
+	 * @return the attribute of the join
+	 */
+	public Attribute<P, ?> getAttribute() {
+		if (singluarAttribute != null) {
+			return singluarAttribute;
+		} else if (collectionAttribute != null) {
+			return collectionAttribute;
+		} else if (listAttribute != null) {
+			return listAttribute;
+		} else if (setAttribute != null) {
+			return setAttribute;
+		}
+		throw new AssertionError("[Internal error] None of the attributes are set");
+	}
+
 	public Expression<?> get(From<?, P> from) {
 		Expression<?> exp;
 		if (singluarAttribute != null) {
@@ -78,6 +101,68 @@ public class AttributeInfo<P, C> {
 		return exp;
 	}
 
+	/**
+	 * Returns the child entity of a parent entity.
+	 * 
+	 * @param parent
+	 *            parent entity
+	 * @return the child entity
+	 * @throws IllegalStateException
+	 *             if the join is one-to-many
+	 */
+	public C getValue(P parent) {
+		if (singluarAttribute == null) {
+			throw new IllegalStateException("Cannot get a single value through a one-to-many join");
+		}
+		@SuppressWarnings("unchecked")
+		C value = (C) getAttributeValue(singluarAttribute, parent);
+		return value;
+	}
+
+	/**
+	 * Reads the value of an attribute of an entity. For field-based
+	 * attributes, a public getter is preferred over the field so that lazy
+	 * proxies are initialized.
+	 * 
+	 * @param attribute
+	 *            attribute to read
+	 * @param entity
+	 *            entity to read the attribute of
+	 * @return the value of the attribute
+	 */
+	static Object getAttributeValue(Attribute<?, ?> attribute, Object entity) {
+		Member member = attribute.getJavaMember();
+		try {
+			if (member instanceof Field) {
+				Method getter = findGetter(entity.getClass(), (Field) member);
+				if (getter != null) {
+					return getter.invoke(entity);
+				}
+				Field field = (Field) member;
+				field.setAccessible(true);
+				return field.get(entity);
+			} else if (member instanceof Method) {
+				return ((Method) member).invoke(entity);
+			}
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Unable to read " + attribute.getName() + " of " + entity, e);
+		}
+		throw new IllegalStateException("Unsupported member for " + attribute.getName() + ": " + member);
+	}
+
+	private static Method findGetter(Class<?> entityClass, Field field) {
+		String name = field.getName();
+		String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		for (String prefix : new String[] { "get", "is" }) {
+			try {
+				return entityClass.getMethod(prefix + suffix);
+			} catch (NoSuchMethodException e) {
+				// try the next prefix
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Returns whether the join from the parent to the child potentially
 	 * consists of more than one row.
@@ -0,0 +1,314 @@
+package org.pgqp.jpa;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.pgqp.QueryDefinition;
+
+/**
+ * Bounded, thread-safe, stale-while-revalidate cache of the results of count
+ * queries, keyed by the query handler and the criteria of the query
+ * definition (sorts and cursors do not change a count). The criteria type
+ * must implement {@code equals} and {@code hashCode}, and cached criteria must
+ * not be modified.
+ * <p>
+ * A count younger than the freshness threshold is returned as is. An older
+ * count is still returned immediately, but refreshed in the background; only
+ * one refresh per key runs at a time. A count older than the maximum
+ * staleness is never returned: the caller waits for a new count, sharing it
+ * with concurrent callers. The least recently used counts are evicted to keep
+ * at most a maximum number of counts.
+ */
+public final class CountCache {
+
+	/** Default maximum number of counts kept by a cache. */
+	public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+	private final int maximumSize;
+	private final long freshness;
+	private final long maximumStaleness;
+	private final LongSupplier clock;
+	private final Map<CountKey, CountEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder staleHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder refreshes = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a cache holding at most {@link #DEFAULT_MAXIMUM_SIZE} counts.
+	 *
+	 * @param freshness
+	 *            age after which a count is refreshed in the background
+	 * @param maximumStaleness
+	 *            age after which a count is no longer returned
+	 * @param unit
+	 *            unit of {@code freshness} and {@code maximumStaleness}
+	 */
+	public CountCache(long freshness, long maximumStaleness, TimeUnit unit) {
+		this(DEFAULT_MAXIMUM_SIZE, freshness, maximumStaleness, unit);
+	}
+
+	/**
+	 * Creates a cache holding at most {@code maximumSize} counts.
+	 *
+	 * @param maximumSize
+	 *            maximum number of counts to keep
+	 * @param freshness
+	 *            age after which a count is refreshed in the background
+	 * @param maximumStaleness
+	 *            age after which a count is no longer returned
+	 * @param unit
+	 *            unit of {@code freshness} and {@code maximumStaleness}
+	 */
+	public CountCache(int maximumSize, long freshness, long maximumStaleness, TimeUnit unit) {
+		this(maximumSize, unit.toNanos(freshness), unit.toNanos(maximumStaleness), System::nanoTime);
+	}
+
+	CountCache(int maximumSize, long freshness, long maximumStaleness, LongSupplier clock) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+		}
+		if (freshness < 0 || maximumStaleness < freshness) {
+			throw new IllegalArgumentException("Freshness must be between zero and the maximum staleness: "
+					+ freshness + ", " + maximumStaleness);
+		}
+		this.maximumSize = maximumSize;
+		this.freshness = freshness;
+		this.maximumStaleness = maximumStaleness;
+		this.clock = clock;
+	}
+
+	/**
+	 * Returns the count of {@code queryDefinition}: a completed future if a
+	 * count not older than the maximum staleness is cached, otherwise the
+	 * future of the count running on {@code executor}. Stale counts are
+	 * refreshed on {@code executor}.
+	 *
+	 * @param queryHandler
+	 *            handler creating the count query
+	 * @param queryDefinition
+	 *            query definition to count
+	 * @param counter
+	 *            runs the count query
+	 * @param executor
+	 *            executor running the count queries
+	 * @return the future count
+	 */
+	public CompletableFuture<Long> getCount(Object queryHandler, QueryDefinition<?, ?> queryDefinition,
+			Supplier<Long> counter, Executor executor) {
+		CountKey key = new CountKey(queryHandler, queryDefinition.getCriteria());
+		long now = clock.getAsLong();
+		CountEntry entry;
+		CompletableFuture<Long> result;
+		CompletableFuture<Long> started = null;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if (entry != null && entry.count != null && now - entry.loadedAt < maximumStaleness) {
+				result = CompletableFuture.completedFuture(entry.count);
+				if (now - entry.loadedAt < freshness) {
+					hits.increment();
+					return result;
+				}
+				staleHits.increment();
+				if (entry.loading != null) {
+					return result;
+				}
+				refreshes.increment();
+				started = entry.loading = new CompletableFuture<>();
+			} else {
+				if (entry == null) {
+					entry = new CountEntry();
+					entries.put(key, entry);
+					evict();
+				}
+				if (entry.loading == null) {
+					misses.increment();
+					started = entry.loading = new CompletableFuture<>();
+				}
+				result = entry.loading;
+			}
+		}
+		if (started != null) {
+			load(key, entry, started, counter, executor);
+		}
+		return result;
+	}
+
+	private void load(CountKey key, CountEntry entry, CompletableFuture<Long> loading, Supplier<Long> counter,
+			Executor executor) {
+		try {
+			executor.execute(() -> {
+				Long count;
+				try {
+					count = counter.get();
+				} catch (RuntimeException | Error e) {
+					fail(key, entry, loading, e);
+					return;
+				}
+				synchronized (entries) {
+					entry.count = count;
+					entry.loadedAt = clock.getAsLong();
+					entry.loading = null;
+				}
+				loading.complete(count);
+			});
+		} catch (RuntimeException e) {
+			fail(key, entry, loading, e);
+		}
+	}
+
+	private void fail(CountKey key, CountEntry entry, CompletableFuture<Long> loading, Throwable failure) {
+		failures.increment();
+		synchronized (entries) {
+			entry.loading = null;
+			if (entry.count == null) {
+				entries.remove(key, entry);
+			}
+		}
+		loading.completeExceptionally(failure);
+	}
+
+	private void evict() {
+		Iterator<CountEntry> eldest = entries.values().iterator();
+		while (entries.size() > maximumSize) {
+			eldest.next();
+			eldest.remove();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Removes all cached counts. Running counts complete their futures but are
+	 * not cached. The counters are not reset.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of counts currently cached or being counted.
+	 *
+	 * @return the number of cached counts
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that returned a fresh count.
+	 *
+	 * @return the number of fresh hits
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that returned a stale count.
+	 *
+	 * @return the number of stale hits
+	 */
+	public long getStaleHitCount() {
+		return staleHits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that started a count query they had to
+	 * wait for.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of background refreshes of stale counts.
+	 *
+	 * @return the number of refreshes
+	 */
+	public long getRefreshCount() {
+		return refreshes.sum();
+	}
+
+	/**
+	 * Returns the number of count queries, waited for or refreshes, that
+	 * failed.
+	 *
+	 * @return the number of failed count queries
+	 */
+	public long getFailureCount() {
+		return failures.sum();
+	}
+
+	/**
+	 * Returns the number of counts removed to keep the cache within its
+	 * maximum size.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Key of a count: the identity of its handler and its criteria by value.
+	 */
+	private static final class CountKey {
+
+		private final Object queryHandler;
+		private final Object criteria;
+		private final int hashCode;
+
+		CountKey(Object queryHandler, Object criteria) {
+			this.queryHandler = queryHandler;
+			this.criteria = criteria;
+			this.hashCode = System.identityHashCode(queryHandler) * 31 + Objects.hashCode(criteria);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof CountKey)) {
+				return false;
+			}
+			CountKey key = (CountKey) other;
+			return queryHandler == key.queryHandler && Objects.equals(criteria, key.criteria);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+	}
+
+	/**
+	 * Last count of a key and the count running for it, if any; guarded by
+	 * the lock of the entries.
+	 */
+	private static final class CountEntry {
+
+		Long count;
+		long loadedAt;
+		CompletableFuture<Long> loading;
+
+	}
+
+}
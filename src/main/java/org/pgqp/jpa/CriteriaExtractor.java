@@ -0,0 +1,40 @@
+package org.pgqp.jpa;
+
+/**
+ * Reads all restriction values of a criteria object in one pass, replacing the
+ * getters and predicates of the {@link RestrictionMapping}s when the shape of
+ * a request is computed. Extractors are usually generated from annotated
+ * criteria classes (see {@link org.pgqp.jpa.annotation.Restriction}) by the
+ * {@code pgqp-processor} module.
+ *
+ * @param <C>
+ *            type of the criteria
+ */
+public interface CriteriaExtractor<C> {
+
+	/**
+	 * Returns the number of restrictions read, which must be the number of
+	 * restriction mappings of the query handler.
+	 *
+	 * @return the number of restrictions
+	 */
+	int getRestrictionCount();
+
+	/**
+	 * Stores the value of each populated restriction of {@code criteria} at its
+	 * index in {@code values} and sets the bit of its index in the words of
+	 * {@code bitset} starting at {@code offset}. A restriction is populated
+	 * under the same conditions as its {@link RestrictionMapping#getValue}.
+	 *
+	 * @param criteria
+	 *            criteria to read
+	 * @param values
+	 *            array receiving the values of the populated restrictions
+	 * @param bitset
+	 *            array receiving the bitset of the populated restrictions
+	 * @param offset
+	 *            index of the first bitset word
+	 */
+	void extract(C criteria, Object[] values, long[] bitset, int offset);
+
+}
@@ -0,0 +1,382 @@
+package org.pgqp.jpa;
+
+import static org.pgqp.jpa.IndexRecommendation.Kind.JOIN;
+import static org.pgqp.jpa.IndexRecommendation.Kind.RESTRICTION;
+import static org.pgqp.jpa.IndexRecommendation.Kind.SORT;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.jpa.IndexRecommendation.Kind;
+import org.pgqp.jpa.QueryMetrics.ShapeMetrics;
+
+/**
+ * Recommends indexes for the queries of a {@link JpaQueryHandler} from its
+ * restriction mappings, join definitions and sort definitions, weighted by a
+ * workload of query shapes: the shapes observed by {@link QueryMetrics} or
+ * supplied query definitions. For every shape it considers
+ * <ul>
+ * <li>an index on the foreign key column of every join,</li>
+ * <li>per joined table, a composite index on the equality columns of the
+ * restrictions followed by one range column,</li>
+ * <li>an index on the column of every restriction that is part of a
+ * disjunction (see {@link RestrictionGroup}), since a disjunction can only use
+ * one index per member,</li>
+ * <li>if all sorts are on one joined table, a sort-aligned index on the
+ * equality columns of the restrictions on that table followed by the sort
+ * columns, so the database can read the rows of a page in order.</li>
+ * </ul>
+ * Indexes that are a prefix of another index of the same table are merged
+ * into the longer one. Restrictions with custom handlers are not considered,
+ * and restrictions with non-sargable handlers (see
+ * {@link #getNonSargableMappings()}) cannot use an index. The names are taken
+ * from a {@link SqlMetadata}:
+ *
+ * <pre>
+ * IndexAdvisor&lt;PersonCriteria, PersonSort&gt; advisor = new IndexAdvisor&lt;&gt;(queryHandler, new SqlMetadata());
+ * advisor.addShapes(queryMetrics);
+ * advisor.getRecommendations(connection).stream().filter(index -&gt; !index.isExisting())
+ * 		.forEach(System.out::println);
+ * </pre>
+ *
+ * @param <C>
+ *            type of the criteria
+ * @param <S>
+ *            type of the sort identifier
+ */
+public final class IndexAdvisor<C, S> {
+
+	private enum Access {
+		EQUALITY, RANGE, NON_SARGABLE
+	}
+
+	private static final Map<BiFunction<?, ?, ?>, Access> ACCESSES = new IdentityHashMap<>();
+
+	static {
+		ACCESSES.put(JpaCriteriaHandlers.EQ_FIELD_HANDLER, Access.EQUALITY);
+		ACCESSES.put(JpaCriteriaHandlers.NULL_FIELD_HANDLER, Access.EQUALITY);
+		ACCESSES.put(JpaCriteriaHandlers.NOT_NULL_FIELD_HANDLER, Access.EQUALITY);
+		ACCESSES.put(JpaCriteriaHandlers.BOOLEAN_FIELD_HANDLER, Access.EQUALITY);
+		ACCESSES.put(JpaCriteriaHandlers.GT_FIELD_HANDLER, Access.RANGE);
+		ACCESSES.put(JpaCriteriaHandlers.GTE_FIELD_HANDLER, Access.RANGE);
+		ACCESSES.put(JpaCriteriaHandlers.LT_FIELD_HANDLER, Access.RANGE);
+		ACCESSES.put(JpaCriteriaHandlers.LTE_FIELD_HANDLER, Access.RANGE);
+		ACCESSES.put(JpaCriteriaHandlers.LIKE_FIELD_HANDLER, Access.RANGE);
+		ACCESSES.put(JpaCriteriaHandlers.STARTS_WITH_FIELD_HANDLER, Access.RANGE);
+		// the operation of criteria fields is only known per request
+		ACCESSES.put(JpaCriteriaHandlers.STRING_FIELD_HANDLER, Access.RANGE);
+		ACCESSES.put(JpaCriteriaHandlers.COMPARABLE_FIELD_HANDLER, Access.RANGE);
+		ACCESSES.put(JpaCriteriaHandlers.SIMPLE_FIELD_HANDLER, Access.RANGE);
+		ACCESSES.put(JpaCriteriaHandlers.CONTAINS_FIELD_HANDLER, Access.NON_SARGABLE);
+		ACCESSES.put(JpaCriteriaHandlers.STARTS_WITH_CI_FIELD_HANDLER, Access.NON_SARGABLE);
+		ACCESSES.put(JpaCriteriaHandlers.CONTAINS_CI_FIELD_HANDLER, Access.NON_SARGABLE);
+	}
+
+	private final JpaQueryHandler<?, ?, C, S> queryHandler;
+	private final SqlMetadata metadata;
+	private final Map<List<String>, Candidate> candidates = new LinkedHashMap<>();
+
+	/**
+	 * Creates an advisor without workload.
+	 *
+	 * @param queryHandler
+	 *            handler whose queries are advised on
+	 * @param metadata
+	 *            table and column names of the entities of the handler
+	 */
+	public IndexAdvisor(JpaQueryHandler<?, ?, C, S> queryHandler, SqlMetadata metadata) {
+		this.queryHandler = queryHandler;
+		this.metadata = metadata;
+	}
+
+	/**
+	 * Adds the shapes observed by the metrics of the handler, weighted by
+	 * their execution counts, or their build counts if they were not executed
+	 * by an executor.
+	 *
+	 * @param metrics
+	 *            metrics listening to the handler
+	 */
+	public void addShapes(QueryMetrics metrics) {
+		for (ShapeMetrics shape : metrics.getShapes()) {
+			long weight = shape.getExecutionCount() > 0 ? shape.getExecutionCount() : shape.getBuildCount();
+			addShape(shape.getRestrictionMappings(), shape.getSortDefinitions(), weight);
+		}
+	}
+
+	/**
+	 * Adds the shape of a query definition.
+	 *
+	 * @param queryDefinition
+	 *            query definition
+	 * @param weight
+	 *            weight of the query, e.g., its expected frequency
+	 */
+	public void addQuery(QueryDefinition<C, S> queryDefinition, long weight) {
+		List<RestrictionMapping<C, ?, ?, ?, ?>> restrictions = new ArrayList<>();
+		for (RestrictionMapping<C, ?, ?, ?, ?> restriction : queryHandler.getRestrictionMappings()) {
+			if (restriction.getValue(queryDefinition.getCriteria()) != null) {
+				restrictions.add(restriction);
+			}
+		}
+		List<SortDefinition<S, ?, ?>> sorts = new ArrayList<>();
+		for (SortInfo<S> sortInfo : queryDefinition.getSorts()) {
+			SortDefinition<S, ?, ?> sort = queryHandler.getSortDefinitions().stream()
+					.filter(s -> s.getIdentifier().equals(sortInfo.getSortIdentifier())).findFirst()
+					.orElseThrow(() -> new IllegalArgumentException(
+							"No sort definition for " + sortInfo.getSortIdentifier()));
+			sorts.add(sort);
+		}
+		addShape(restrictions, sorts, weight);
+	}
+
+	private void addShape(List<? extends RestrictionMapping<?, ?, ?, ?, ?>> restrictions,
+			List<? extends SortDefinition<?, ?, ?>> sorts, long weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("Weight must not be negative: " + weight);
+		}
+		Set<JoinDefinition<?, ?>> joins = new LinkedHashSet<>();
+		Map<JoinDefinition<?, ?>, Columns> tables = new LinkedHashMap<>();
+		Set<RestrictionMapping<?, ?, ?, ?, ?>> disjunctive = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (RestrictionGroup<C> group : queryHandler.getRestrictionGroups()) {
+			addDisjunctive(disjunctive, group, false);
+		}
+		for (RestrictionMapping<?, ?, ?, ?, ?> restriction : restrictions) {
+			RestrictionDefinition<?, ?, ?, ?> definition = restriction.getRestrictionDefinition();
+			Collections.addAll(joins, definition.getJoinDefinition().getRootPath());
+			Access access = ACCESSES.get(definition.getToPredicate());
+			if ((access == Access.EQUALITY || access == Access.RANGE) && disjunctive.contains(restriction)) {
+				add(definition.getJoinDefinition(),
+						Collections.singletonList(metadata.getColumnName(definition.getAttribute())), RESTRICTION,
+						weight);
+			} else if (access == Access.EQUALITY || access == Access.RANGE) {
+				Columns columns = tables.computeIfAbsent(definition.getJoinDefinition(), j -> new Columns());
+				String column = metadata.getColumnName(definition.getAttribute());
+				List<String> columnNames = access == Access.EQUALITY ? columns.equality : columns.range;
+				if (!columnNames.contains(column)) {
+					columnNames.add(column);
+				}
+			}
+		}
+		tables.forEach((join, columns) -> {
+			List<String> columnNames = new ArrayList<>(columns.equality);
+			columns.range.stream().filter(column -> !columnNames.contains(column)).findFirst()
+					.ifPresent(columnNames::add);
+			add(join, columnNames, RESTRICTION, weight);
+		});
+		if (!sorts.isEmpty()) {
+			JoinDefinition<?, ?> sortJoin = sorts.get(0).getJoinDefinition();
+			Columns columns = tables.get(sortJoin);
+			List<String> columnNames = columns != null ? new ArrayList<>(columns.equality) : new ArrayList<>();
+			for (SortDefinition<?, ?, ?> sort : sorts) {
+				Collections.addAll(joins, sort.getJoinDefinition().getRootPath());
+				String column = metadata.getColumnName(sort.getAttribute());
+				if (!columnNames.contains(column)) {
+					columnNames.add(column);
+				}
+			}
+			if (sorts.stream().allMatch(sort -> sort.getJoinDefinition().equals(sortJoin))) {
+				add(sortJoin, columnNames, SORT, weight);
+			}
+		}
+		for (JoinDefinition<?, ?> join : joins) {
+			JoinDefinition<?, ?> parent = join.getParentJoinDefinition();
+			if (parent != null) {
+				String[] foreignKey = metadata.getForeignKey(parent.getTableClass(),
+						join.getAttributeInfo().getAttribute());
+				if (foreignKey != null) {
+					add(foreignKey[0], Collections.singletonList(foreignKey[1]), JOIN, weight);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the restriction mappings of {@code group} that are below a
+	 * disjunction.
+	 */
+	private static void addDisjunctive(Set<RestrictionMapping<?, ?, ?, ?, ?>> disjunctive, RestrictionGroup<?> group,
+			boolean belowDisjunction) {
+		boolean disjunction = belowDisjunction || group.isDisjunction();
+		if (disjunction) {
+			disjunctive.addAll(group.getMappings());
+		}
+		for (RestrictionGroup<?> nested : group.getGroups()) {
+			addDisjunctive(disjunctive, nested, disjunction);
+		}
+	}
+
+	private void add(JoinDefinition<?, ?> join, List<String> columnNames, Kind kind, long weight) {
+		add(metadata.getTableName(join.getTableClass()), columnNames, kind, weight);
+	}
+
+	private void add(String tableName, List<String> columnNames, Kind kind, long weight) {
+		List<String> key = new ArrayList<>(columnNames.size() + 1);
+		key.add(tableName);
+		key.addAll(columnNames);
+		candidates.computeIfAbsent(key, k -> new Candidate(tableName, columnNames, kind)).weight += weight;
+	}
+
+	/**
+	 * Returns the recommended indexes, the most used first; indexes of the
+	 * same weight are in the order they were first considered.
+	 *
+	 * @return the recommended indexes
+	 */
+	public List<IndexRecommendation> getRecommendations() {
+		return toRecommendations(Collections.emptyMap());
+	}
+
+	/**
+	 * Returns the recommended indexes, the most used first, marking the ones
+	 * whose columns are the leading columns of an existing index. The existing
+	 * indexes are read through the JDBC metadata of the connection, which H2
+	 * reads from {@code INFORMATION_SCHEMA.INDEXES}.
+	 *
+	 * @param connection
+	 *            connection to the database of the entities
+	 * @return the recommended indexes
+	 * @throws SQLException
+	 *             if the indexes cannot be read
+	 */
+	public List<IndexRecommendation> getRecommendations(Connection connection) throws SQLException {
+		Set<String> tableNames = new LinkedHashSet<>();
+		candidates.values().forEach(candidate -> tableNames.add(candidate.tableName));
+		return toRecommendations(readIndexes(connection, tableNames));
+	}
+
+	private List<IndexRecommendation> toRecommendations(Map<String, List<List<String>>> existingIndexes) {
+		List<Candidate> merged = new ArrayList<>();
+		candidates.values().forEach(candidate -> merged.add(candidate.copy()));
+		merged.removeIf(candidate -> {
+			Candidate longest = null;
+			for (Candidate other : merged) {
+				if (other.tableName.equals(candidate.tableName)
+						&& other.columnNames.size() > candidate.columnNames.size()
+						&& startsWith(other.columnNames, candidate.columnNames)
+						&& (longest == null || other.columnNames.size() > longest.columnNames.size())) {
+					longest = other;
+				}
+			}
+			if (longest == null) {
+				return false;
+			}
+			longest.weight += candidate.weight;
+			return true;
+		});
+		merged.sort(Comparator.comparingLong((Candidate candidate) -> candidate.weight).reversed());
+		List<IndexRecommendation> recommendations = new ArrayList<>(merged.size());
+		for (Candidate candidate : merged) {
+			boolean existing = existingIndexes.getOrDefault(candidate.tableName, Collections.emptyList()).stream()
+					.anyMatch(index -> startsWith(index, candidate.columnNames));
+			recommendations.add(new IndexRecommendation(candidate.tableName,
+					Collections.unmodifiableList(candidate.columnNames), candidate.kind, candidate.weight, existing));
+		}
+		return recommendations;
+	}
+
+	private static boolean startsWith(List<String> columnNames, List<String> prefix) {
+		if (columnNames.size() < prefix.size()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.size(); i++) {
+			if (!prefix.get(i).equalsIgnoreCase(columnNames.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Map<String, List<List<String>>> readIndexes(Connection connection, Set<String> tableNames)
+			throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		Map<String, List<List<String>>> indexes = new HashMap<>();
+		for (String tableName : tableNames) {
+			String storedName = metaData.storesUpperCaseIdentifiers() ? tableName.toUpperCase(Locale.ROOT)
+					: metaData.storesLowerCaseIdentifiers() ? tableName.toLowerCase(Locale.ROOT) : tableName;
+			Map<String, List<String>> columnsByIndex = new LinkedHashMap<>();
+			try (ResultSet resultSet = metaData.getIndexInfo(connection.getCatalog(), null, storedName, false,
+					true)) {
+				while (resultSet.next()) {
+					String indexName = resultSet.getString("INDEX_NAME");
+					String columnName = resultSet.getString("COLUMN_NAME");
+					int position = resultSet.getInt("ORDINAL_POSITION");
+					if (indexName == null || columnName == null || position < 1) {
+						continue;
+					}
+					List<String> columns = columnsByIndex.computeIfAbsent(indexName, name -> new ArrayList<>());
+					while (columns.size() < position) {
+						columns.add("");
+					}
+					columns.set(position - 1, columnName);
+				}
+			}
+			indexes.put(tableName, new ArrayList<>(columnsByIndex.values()));
+		}
+		return indexes;
+	}
+
+	/**
+	 * Returns the restriction mappings of the handler whose predicates cannot
+	 * use a plain index on their column: {@code CONTAINS_FIELD_HANDLER} and
+	 * {@code CONTAINS_CI_FIELD_HANDLER} (leading wildcard) and
+	 * {@code STARTS_WITH_CI_FIELD_HANDLER} ({@code lower()} of the column,
+	 * which needs an expression index where the database supports them).
+	 *
+	 * @return the non-sargable restriction mappings
+	 */
+	public List<RestrictionMapping<C, ?, ?, ?, ?>> getNonSargableMappings() {
+		List<RestrictionMapping<C, ?, ?, ?, ?>> mappings = new ArrayList<>();
+		for (RestrictionMapping<C, ?, ?, ?, ?> restriction : queryHandler.getRestrictionMappings()) {
+			if (ACCESSES.get(restriction.getRestrictionDefinition().getToPredicate()) == Access.NON_SARGABLE) {
+				mappings.add(restriction);
+			}
+		}
+		return mappings;
+	}
+
+	private static final class Columns {
+
+		final List<String> equality = new ArrayList<>();
+		final List<String> range = new ArrayList<>();
+
+	}
+
+	private static final class Candidate {
+
+		final String tableName;
+		final List<String> columnNames;
+		final Kind kind;
+		long weight;
+
+		Candidate(String tableName, List<String> columnNames, Kind kind) {
+			this.tableName = tableName;
+			this.columnNames = columnNames;
+			this.kind = kind;
+		}
+
+		Candidate copy() {
+			Candidate copy = new Candidate(tableName, columnNames, kind);
+			copy.weight = weight;
+			return copy;
+		}
+
+	}
+
+}
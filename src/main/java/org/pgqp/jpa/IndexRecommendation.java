@@ -0,0 +1,93 @@
+package org.pgqp.jpa;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Index recommended by an {@link IndexAdvisor}.
+ */
+public final class IndexRecommendation {
+
+	/**
+	 * Why an index is recommended.
+	 */
+	public enum Kind {
+		/** Index on the foreign key column of a join. */
+		JOIN,
+		/** Index on the equality columns, then one range column, of restrictions on a table. */
+		RESTRICTION,
+		/** Index on the equality columns of restrictions, then the sort columns, of a table. */
+		SORT
+	}
+
+	private final String tableName;
+	private final List<String> columnNames;
+	private final Kind kind;
+	private final long weight;
+	private final boolean existing;
+
+	IndexRecommendation(String tableName, List<String> columnNames, Kind kind, long weight, boolean existing) {
+		this.tableName = tableName;
+		this.columnNames = columnNames;
+		this.kind = kind;
+		this.weight = weight;
+		this.existing = existing;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public List<String> getColumnNames() {
+		return columnNames;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Returns the weight of the queries that would use the index.
+	 *
+	 * @return the weight of the index
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Returns whether the database has an index starting with the columns of
+	 * this index already; always {@code false} if the recommendations were not
+	 * verified against a database.
+	 *
+	 * @return whether the index exists
+	 */
+	public boolean isExisting() {
+		return existing;
+	}
+
+	/**
+	 * Returns the name of the index: {@code ix_}, the table name and the
+	 * column names, separated by underscores and in lower case.
+	 *
+	 * @return the name of the index
+	 */
+	public String getIndexName() {
+		return ("ix_" + tableName + "_" + String.join("_", columnNames)).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the statement creating the index.
+	 *
+	 * @return the DDL of the index
+	 */
+	public String toDdl() {
+		return "create index " + getIndexName() + " on " + tableName + " (" + String.join(", ", columnNames) + ")";
+	}
+
+	@Override
+	public String toString() {
+		return toDdl() + " -- " + kind + ", weight " + weight + (existing ? ", exists" : "");
+	}
+
+}
@@ -1,20 +1,13 @@
 package org.pgqp.jpa;
 
-import static java.util.Spliterators.spliteratorUnknownSize;
-
-import java.util.Collections;
-import java.util.List;
 import java.util.Objects;
-import java.util.Spliterator;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 import javax.persistence.criteria.From;
 
 /**
  * Defines how to join a parent to a child table.
- * 
+ *
  * @param <P>
  *            type of the parent table
  * @param <C>
@@ -22,10 +15,13 @@ import javax.persistence.criteria.From;
  */
 public class JoinDefinition<P, C> {
 
-	private String identifier;
-	private Class<C> tableClass;
-	private JoinDefinition<?, P> parentJoinDefinition;
-	private AttributeInfo<P, C> attributeInfo;
+	private final String identifier;
+	private final Class<C> tableClass;
+	private final JoinDefinition<?, P> parentJoinDefinition;
+	private final AttributeInfo<P, C> attributeInfo;
+	private final JoinDefinition<?, ?>[] rootPath;
+	private final boolean oneToManyRelationship;
+	private final SemiJoinStrategy semiJoinStrategy;
 
 	public JoinDefinition(String identifier, Class<C> tableClass) {
 		this(identifier, tableClass, null, null);
@@ -33,10 +29,44 @@ public class JoinDefinition<P, C> {
 
 	public JoinDefinition(String identifier, Class<C> tableClass, JoinDefinition<?, P> parentJoinDefinition,
 			AttributeInfo<P, C> attributeInfo) {
+		this(identifier, tableClass, parentJoinDefinition, attributeInfo, null);
+	}
+
+	/**
+	 * Creates a join with its own semi-join strategy. The strategy of the
+	 * first one-to-many join on a path applies to all restrictions below it;
+	 * if it is {@code null}, the handler's default strategy is used.
+	 *
+	 * @param identifier
+	 *            unique identifier of the join
+	 * @param tableClass
+	 *            class of the joined table
+	 * @param parentJoinDefinition
+	 *            join this join is joined from
+	 * @param attributeInfo
+	 *            attribute of the parent table to join
+	 * @param semiJoinStrategy
+	 *            semi-join strategy for restrictions below this join; may be
+	 *            {@code null}
+	 */
+	public JoinDefinition(String identifier, Class<C> tableClass, JoinDefinition<?, P> parentJoinDefinition,
+			AttributeInfo<P, C> attributeInfo, SemiJoinStrategy semiJoinStrategy) {
+		this.semiJoinStrategy = semiJoinStrategy;
 		this.identifier = identifier;
 		this.tableClass = tableClass;
 		this.parentJoinDefinition = parentJoinDefinition;
 		this.attributeInfo = attributeInfo;
+		if (parentJoinDefinition == null) {
+			this.rootPath = new JoinDefinition<?, ?>[] { this };
+			this.oneToManyRelationship = false;
+		} else {
+			JoinDefinition<?, ?>[] parentPath = parentJoinDefinition.rootPath;
+			this.rootPath = new JoinDefinition<?, ?>[parentPath.length + 1];
+			System.arraycopy(parentPath, 0, this.rootPath, 0, parentPath.length);
+			this.rootPath[parentPath.length] = this;
+			this.oneToManyRelationship = parentJoinDefinition.oneToManyRelationship
+					|| (attributeInfo != null && attributeInfo.isOneToMany());
+		}
 	}
 
 	public String getJoinIdentifier() {
@@ -55,6 +85,10 @@ public class JoinDefinition<P, C> {
 		return attributeInfo;
 	}
 
+	public SemiJoinStrategy getSemiJoinStrategy() {
+		return semiJoinStrategy;
+	}
+
 	@Override
 	public boolean equals(Object other) {
 		if (this == other) {
@@ -74,34 +108,37 @@ public class JoinDefinition<P, C> {
 
 	/**
 	 * Returns a Stream of joins required to use this join.
-	 * 
+	 *
 	 * @return Stream of joins required in order to use this join
 	 */
 	public Stream<JoinDefinition<?, ?>> fromRoot() {
-		List<JoinDefinition<?, ?>> list = StreamSupport
-				.stream(new JoinDefinitionIterator(this).spliterator(), false)
-				.collect(Collectors.toList());
-		Collections.reverse(list);
-		return list.stream();
+		return Stream.of(rootPath);
+	}
+
+	/**
+	 * Returns the joins required to use this join, starting with the root. The
+	 * path is computed once, when the join is created; the returned array must
+	 * not be modified.
+	 *
+	 * @return joins required in order to use this join
+	 */
+	JoinDefinition<?, ?>[] getRootPath() {
+		return rootPath;
 	}
 
 	/**
 	 * Returns whether, in the joins required to use this join, there are any
 	 * joins that potentially produce more than one row.
-	 * 
+	 *
 	 * @return whether any of the joins leading up to this joins potentially
 	 *         produces more than one row
 	 */
 	public boolean hasOneToManyRelationship() {
-		return StreamSupport
-				.stream(spliteratorUnknownSize(new JoinDefinitionIterator(this), Spliterator.ORDERED), false)
-				.map(JoinDefinition::getAttributeInfo)
-				.filter(Objects::nonNull)
-				.anyMatch(AttributeInfo::isOneToMany);
+		return oneToManyRelationship;
 	}
-	
+
 	public JoinInfo<P, C> join(From<?, P> from, JoinTypeInfo joinTypeInfo) {
 		return attributeInfo.join(from, joinTypeInfo);
 	}
-	
+
 }
@@ -0,0 +1,153 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Frozen graph of all the joins a handler can use. Every join reachable from
+ * the handler's restrictions and sorts gets a dense ordinal (the root is always
+ * zero), a precomputed path of ordinals from the root and a cached one-to-many
+ * flag, so per-request join bookkeeping can use plain arrays instead of maps
+ * keyed by {@link JoinDefinition}.
+ */
+final class JoinGraph {
+
+	private final JoinDefinition<?, ?>[] joins;
+	private final int[] parents;
+	private final int[][] paths;
+	private final boolean[] oneToMany;
+	private final int[] branches;
+	private final Map<JoinDefinition<?, ?>, Integer> ordinals;
+
+	/**
+	 * Compiles the graph of {@code rootJoinDefinition} and every join needed to
+	 * reach {@code joinDefinitions}.
+	 *
+	 * @param rootJoinDefinition
+	 *            root of the graph
+	 * @param joinDefinitions
+	 *            joins to include in the graph
+	 * @throws IllegalArgumentException
+	 *             if one of the joins is not reachable from the root
+	 */
+	JoinGraph(JoinDefinition<?, ?> rootJoinDefinition, Iterable<? extends JoinDefinition<?, ?>> joinDefinitions) {
+		Map<JoinDefinition<?, ?>, Integer> ordinals = new HashMap<>();
+		List<JoinDefinition<?, ?>> joins = new ArrayList<>();
+		List<Integer> parents = new ArrayList<>();
+		ordinals.put(rootJoinDefinition, 0);
+		joins.add(rootJoinDefinition);
+		parents.add(-1);
+		for (JoinDefinition<?, ?> joinDefinition : joinDefinitions) {
+			JoinDefinition<?, ?>[] path = joinDefinition.getRootPath();
+			if (!rootJoinDefinition.equals(path[0])) {
+				throw new IllegalArgumentException("Join " + joinDefinition.getJoinIdentifier()
+						+ " is not reachable from " + rootJoinDefinition.getJoinIdentifier());
+			}
+			int parent = 0;
+			for (int i = 1; i < path.length; i++) {
+				Integer ordinal = ordinals.get(path[i]);
+				if (ordinal == null) {
+					ordinal = joins.size();
+					ordinals.put(path[i], ordinal);
+					joins.add(path[i]);
+					parents.add(parent);
+				}
+				parent = ordinal;
+			}
+		}
+
+		this.joins = joins.toArray(new JoinDefinition<?, ?>[joins.size()]);
+		this.parents = new int[this.joins.length];
+		this.paths = new int[this.joins.length][];
+		this.oneToMany = new boolean[this.joins.length];
+		this.branches = new int[this.joins.length];
+		for (int i = 0; i < this.joins.length; i++) {
+			this.parents[i] = parents.get(i);
+			this.paths[i] = i == 0 ? new int[] { 0 } : append(this.paths[this.parents[i]], i);
+			this.oneToMany[i] = this.joins[i].hasOneToManyRelationship();
+			if (!this.oneToMany[i]) {
+				this.branches[i] = -1;
+			} else if (this.oneToMany[this.parents[i]]) {
+				this.branches[i] = this.branches[this.parents[i]];
+			} else {
+				this.branches[i] = i;
+			}
+		}
+		this.ordinals = ordinals;
+	}
+
+	/**
+	 * Returns the ordinal of {@code joinDefinition}.
+	 *
+	 * @param joinDefinition
+	 *            join to look up
+	 * @return the ordinal of the join
+	 * @throws IllegalArgumentException
+	 *             if the join is not part of the graph
+	 */
+	int getOrdinal(JoinDefinition<?, ?> joinDefinition) {
+		Integer ordinal = ordinals.get(joinDefinition);
+		if (ordinal == null) {
+			throw new IllegalArgumentException("Join " + joinDefinition.getJoinIdentifier() + " is not in the graph");
+		}
+		return ordinal;
+	}
+
+	/**
+	 * Returns the number of joins in the graph, including the root.
+	 *
+	 * @return the number of joins in the graph
+	 */
+	int size() {
+		return joins.length;
+	}
+
+	JoinDefinition<?, ?> getJoin(int ordinal) {
+		return joins[ordinal];
+	}
+
+	int getParent(int ordinal) {
+		return parents[ordinal];
+	}
+
+	/**
+	 * Returns the ordinals of the joins needed to use the join with the given
+	 * ordinal, starting with the root. The returned array must not be
+	 * modified.
+	 *
+	 * @param ordinal
+	 *            ordinal of the join
+	 * @return ordinals of the joins from the root
+	 */
+	int[] getPath(int ordinal) {
+		return paths[ordinal];
+	}
+
+	boolean hasOneToManyRelationship(int ordinal) {
+		return oneToMany[ordinal];
+	}
+
+	/**
+	 * Returns the ordinal of the first one-to-many join on the path to the
+	 * join with the given ordinal, i.e., the join that starts its collection
+	 * branch.
+	 *
+	 * @param ordinal
+	 *            ordinal of the join
+	 * @return ordinal of the first one-to-many join on the path or {@code -1}
+	 *         if there is none
+	 */
+	int getBranch(int ordinal) {
+		return branches[ordinal];
+	}
+
+	private static int[] append(int[] path, int ordinal) {
+		int[] result = new int[path.length + 1];
+		System.arraycopy(path, 0, result, 0, path.length);
+		result[path.length] = ordinal;
+		return result;
+	}
+
+}
@@ -6,8 +6,8 @@ class JoinTypeInfo {
 
 	public static final BinaryOperator<JoinTypeInfo> MERGE_FUNCTION = (a,b) -> a.merge(b);
 	
-	private boolean innerJoin;
-	private boolean fetchJoin;
+	private final boolean innerJoin;
+	private final boolean fetchJoin;
 	
 	public JoinTypeInfo(boolean innerJoin, boolean fetchJoin) {
 		this.innerJoin = innerJoin;
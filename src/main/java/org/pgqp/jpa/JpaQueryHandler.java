@@ -1,262 +1,1225 @@
 package org.pgqp.jpa;
 
-import static org.jooq.lambda.tuple.Tuple.tuple;
-
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.function.Consumer;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Parameter;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.From;
 import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
 import javax.persistence.criteria.Subquery;
 
-import org.jooq.lambda.Seq;
-import org.jooq.lambda.tuple.Tuple;
-import org.jooq.lambda.tuple.Tuple2;
+import org.pgqp.Cursor;
 import org.pgqp.QueryDefinition;
 import org.pgqp.QueryHandler;
 import org.pgqp.SortInfo;
 
 public class JpaQueryHandler<T, ID, C, S> implements QueryHandler<CriteriaQuery<T>, CriteriaQuery<Long>, T, C, S> {
-	
-	private static final Consumer<QueryContext<Long, ?>> COUNT_CUSTOMIZER = 
-			(context) -> context.getQuery().select(context.getCriteriaBuilder().count(context.getPath()));  
-	
-	private Class<ID> idClass;
-	private Class<T> entityClass;
-	private Function<Root<T>, Expression<ID>> idExpression;
-	private Map<S, SortDefinition<S, ?, ?>> sortDefinitions;
-	private Collection<RestrictionMapping<C, ?, ?, ?, ?>> restrictions;
-	private EntityManager entityManager;
-	private JoinDefinition<?, T> rootJoinDefinition;
-
-	public JpaQueryHandler(EntityManager entityManager, Class<T> entityClass, Class<ID> idClass, 
-			JoinDefinition<?, T> rootJoinDefinition, Function<Root<T>, Expression<ID>> idExpression, 
-			Collection<RestrictionMapping<C, ?, ?, ?, ?>> restrictions, Collection<SortDefinition<S, ?, ?>> sorts) 
+
+	/**
+	 * Kinds of queries built from a plan; they differ in their shape flags and
+	 * in what they select.
+	 */
+	public enum QueryType {
+		/** Selects the root entity, fetching sort joins. */
+		ENTITY,
+		/** Counts the root entities, ignoring sorts. */
+		COUNT,
+		/** Selects the id and the sort columns, not fetching sort joins. */
+		IDS,
+		/** Selects the root entity with sort fetch joins, ignoring restrictions. */
+		BY_ID,
+		/** Selects projection columns, not fetching sort joins. */
+		PROJECTION
+	}
+
+	private final Class<ID> idClass;
+	private final Class<T> entityClass;
+	private final Function<Root<T>, Expression<ID>> idExpression;
+	private final List<SortDefinition<S, ?, ?>> sortDefinitions;
+	private final Map<S, Integer> sortIndexes;
+	private final List<RestrictionMapping<C, ?, ?, ?, ?>> restrictions;
+	private final int restrictionWords;
+	private final EntityManager entityManager;
+	private final EntityManagerFactory entityManagerFactory;
+	private final CriteriaBuilder criteriaBuilder;
+	private final PersistenceUnitUtil persistenceUnitUtil;
+	private final QueryPlanner planner;
+	private final Function<QueryShape, QueryPlan> compiler;
+	private volatile ShapeCache<QueryPlan> planCache = new ShapeCache<>();
+	private volatile boolean bindParameters;
+	private final SqlFieldHandler<?>[] templateHandlers;
+	private final int variantWords;
+	private volatile Function<TypedQuery<?>, String> jpqlRenderer;
+	private volatile ShapeCache<JpqlTemplate> jpqlCache = new ShapeCache<>();
+	private final LongAdder jpqlFallbacks = new LongAdder();
+	private volatile CriteriaExtractor<? super C> criteriaExtractor;
+	private final Set<Class<?>> entityClasses;
+	private volatile QueryListener queryListener = QueryListener.NONE;
+	private volatile List<RestrictionGroup<C>> restrictionGroups = Collections.emptyList();
+
+	/**
+	 * Creates a handler building its queries with the criteria builder of an
+	 * entity manager. Like the entity manager, the handler must not be shared
+	 * between threads if it renders JPQL templates.
+	 *
+	 * @param entityManager
+	 *            entity manager
+	 * @param entityClass
+	 *            class of the root entity
+	 * @param idClass
+	 *            class of the id of the root entity
+	 * @param rootJoinDefinition
+	 *            join definition of the root table
+	 * @param idExpression
+	 *            expression of the id of the root entity
+	 * @param restrictions
+	 *            restriction mappings of the criteria
+	 * @param sorts
+	 *            sort definitions
+	 */
+	public JpaQueryHandler(EntityManager entityManager, Class<T> entityClass, Class<ID> idClass,
+			JoinDefinition<?, T> rootJoinDefinition, Function<Root<T>, Expression<ID>> idExpression,
+			Collection<RestrictionMapping<C, ?, ?, ?, ?>> restrictions, Collection<SortDefinition<S, ?, ?>> sorts)
+	{
+		this(entityManager, entityManager.getEntityManagerFactory(), entityClass, idClass, rootJoinDefinition,
+				idExpression, restrictions, sorts);
+	}
+
+	/**
+	 * Creates a handler building its queries with the criteria builder of an
+	 * entity manager factory. The handler holds no entity manager (JPQL
+	 * templates are rendered on short-lived entity managers of the factory),
+	 * so a single handler can be created at start-up and shared by all
+	 * threads; its queries are created on the entity manager of each request,
+	 * e.g., with {@link ParameterizedQuery#createQuery(EntityManager)} or the
+	 * executors.
+	 *
+	 * @param entityManagerFactory
+	 *            entity manager factory
+	 * @param entityClass
+	 *            class of the root entity
+	 * @param idClass
+	 *            class of the id of the root entity
+	 * @param rootJoinDefinition
+	 *            join definition of the root table
+	 * @param idExpression
+	 *            expression of the id of the root entity
+	 * @param restrictions
+	 *            restriction mappings of the criteria
+	 * @param sorts
+	 *            sort definitions
+	 */
+	public JpaQueryHandler(EntityManagerFactory entityManagerFactory, Class<T> entityClass, Class<ID> idClass,
+			JoinDefinition<?, T> rootJoinDefinition, Function<Root<T>, Expression<ID>> idExpression,
+			Collection<RestrictionMapping<C, ?, ?, ?, ?>> restrictions, Collection<SortDefinition<S, ?, ?>> sorts)
+	{
+		this(null, entityManagerFactory, entityClass, idClass, rootJoinDefinition, idExpression, restrictions,
+				sorts);
+	}
+
+	private JpaQueryHandler(EntityManager entityManager, EntityManagerFactory entityManagerFactory,
+			Class<T> entityClass, Class<ID> idClass, JoinDefinition<?, T> rootJoinDefinition,
+			Function<Root<T>, Expression<ID>> idExpression, Collection<RestrictionMapping<C, ?, ?, ?, ?>> restrictions,
+			Collection<SortDefinition<S, ?, ?>> sorts)
 	{
 		this.entityManager = entityManager;
+		this.entityManagerFactory = entityManagerFactory;
+		this.criteriaBuilder = entityManagerFactory.getCriteriaBuilder();
+		this.persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
 		this.idClass = idClass;
-		this.rootJoinDefinition = rootJoinDefinition;
 		this.idExpression = idExpression;
 		this.entityClass = entityClass;
-		this.restrictions = restrictions;
-		this.sortDefinitions = sorts.stream()
-				.collect(Collectors.toMap(SortDefinition::getIdentifier, Function.identity()));
+		this.restrictions = new ArrayList<>(restrictions);
+		this.restrictionWords = QueryShape.toRestrictionWords(this.restrictions.size());
+		this.sortDefinitions = new ArrayList<>(sorts);
+		this.sortIndexes = new HashMap<>();
+		for (int i = 0; i < sortDefinitions.size(); i++) {
+			S identifier = sortDefinitions.get(i).getIdentifier();
+			if (sortIndexes.put(identifier, i) != null) {
+				throw new IllegalStateException("Duplicate sort identifier " + identifier);
+			}
+		}
+		this.planner = new QueryPlanner(rootJoinDefinition, this.restrictions, this.sortDefinitions);
+		this.compiler = planner::compile;
+		this.templateHandlers = new SqlFieldHandler<?>[this.restrictions.size()];
+		for (int i = 0; i < templateHandlers.length; i++) {
+			templateHandlers[i] = SqlFieldHandlers
+					.forCriteriaHandler(this.restrictions.get(i).getRestrictionDefinition().getToPredicate());
+		}
+		this.variantWords = QueryShape.toRestrictionWords(templateHandlers.length * SqlQueryHandler.VARIANT_BITS);
+		Set<Class<?>> tableClasses = new LinkedHashSet<>();
+		addTableClasses(tableClasses, rootJoinDefinition);
+		for (RestrictionMapping<C, ?, ?, ?, ?> restriction : this.restrictions) {
+			addTableClasses(tableClasses, restriction.getRestrictionDefinition().getJoinDefinition());
+		}
+		for (SortDefinition<S, ?, ?> sortDefinition : sortDefinitions) {
+			addTableClasses(tableClasses, sortDefinition.getJoinDefinition());
+		}
+		this.entityClasses = Collections.unmodifiableSet(tableClasses);
+	}
+
+	private static void addTableClasses(Set<Class<?>> tableClasses, JoinDefinition<?, ?> joinDefinition) {
+		for (JoinDefinition<?, ?> join : joinDefinition.getRootPath()) {
+			tableClasses.add(join.getTableClass());
+		}
+	}
+
+	/**
+	 * Returns the restriction mappings of the handler, in the order they were
+	 * given.
+	 *
+	 * @return the restriction mappings
+	 */
+	public List<RestrictionMapping<C, ?, ?, ?, ?>> getRestrictionMappings() {
+		return Collections.unmodifiableList(restrictions);
+	}
+
+	/**
+	 * Returns the sort definitions of the handler, in the order they were
+	 * given.
+	 *
+	 * @return the sort definitions
+	 */
+	public List<SortDefinition<S, ?, ?>> getSortDefinitions() {
+		return Collections.unmodifiableList(sortDefinitions);
+	}
+
+	/**
+	 * Returns the entity classes of the tables the queries of this handler may
+	 * read: the root and every join of the restriction and sort definitions,
+	 * including the joins leading up to them. Tables only read by hand-written
+	 * subqueries are not included.
+	 *
+	 * @return the entity classes of the join graph
+	 */
+	public Set<Class<?>> getEntityClasses() {
+		return entityClasses;
+	}
+
+	/**
+	 * Returns the cache of compiled query plans, e.g., to inspect its hit,
+	 * miss and eviction counters. The planner settings replace the cache, so
+	 * it should be looked up again after changing them.
+	 *
+	 * @return the cache of compiled query plans
+	 */
+	public ShapeCache<?> getPlanCache() {
+		return planCache;
+	}
+
+	/**
+	 * Replaces the cache of compiled query plans with an empty cache holding at
+	 * most {@code maximumSize} shapes.
+	 *
+	 * @param maximumSize
+	 *            maximum number of query plans to cache; zero disables caching
+	 */
+	public void setPlanCacheSize(int maximumSize) {
+		this.planCache = new ShapeCache<>(maximumSize);
+	}
+
+	/**
+	 * Sets the semi-join strategy for restrictions below one-to-many joins
+	 * whose branch does not define its own strategy (see
+	 * {@link JoinDefinition#getSemiJoinStrategy()}). The default is
+	 * {@link SemiJoinStrategy#IN}. Replaces the plan and template caches with
+	 * empty caches.
+	 *
+	 * @param semiJoinStrategy
+	 *            default semi-join strategy
+	 */
+	public void setSemiJoinStrategy(SemiJoinStrategy semiJoinStrategy) {
+		planner.setDefaultSemiJoinStrategy(semiJoinStrategy);
+		replaceCaches();
+	}
+
+	/**
+	 * Sets whether restrictions below independent collection branches of the
+	 * join tree (e.g., children and a second to-many association) are applied
+	 * as separate semi-joins, each correlated only to its own rows, instead of
+	 * one semi-join that joins all collections and multiplies their rows. In
+	 * both cases a row matches if any child satisfies the child restrictions
+	 * and any item of the other collection satisfies its restrictions. Does
+	 * not apply to {@link SemiJoinStrategy#DISTINCT_JOIN}. Replaces the plan
+	 * and template caches with empty caches.
+	 *
+	 * @param semiJoinPerBranch
+	 *            whether to create one semi-join per collection branch
+	 */
+	public void setSemiJoinPerBranch(boolean semiJoinPerBranch) {
+		planner.setSemiJoinPerBranch(semiJoinPerBranch);
+		replaceCaches();
+	}
+
+	/**
+	 * Sets the groups combining restriction mappings of this handler by
+	 * {@code or} (see {@link RestrictionGroup}). The other restriction
+	 * mappings, and the groups themselves, are combined by {@code and}. Joins
+	 * only needed by the restrictions of a group are left joins, so rows
+	 * matching another member of a disjunction are not lost, and restrictions
+	 * below one-to-many joins are semi-joins (see
+	 * {@link QueryPlanner}), so they never multiply rows. Replaces the plan
+	 * and template caches with empty caches.
+	 *
+	 * @param restrictionGroups
+	 *            restriction groups
+	 * @throws IllegalArgumentException
+	 *             if a group contains a restriction mapping that is not a
+	 *             restriction mapping of this handler, or a restriction
+	 *             mapping is part of more than one group
+	 */
+	public void setRestrictionGroups(Collection<RestrictionGroup<C>> restrictionGroups) {
+		planner.setRestrictionGroups(restrictionGroups);
+		this.restrictionGroups = Collections.unmodifiableList(new ArrayList<>(restrictionGroups));
+		replaceCaches();
+	}
+
+	/**
+	 * Returns the restriction groups of the handler.
+	 *
+	 * @return the restriction groups, empty by default
+	 */
+	public List<RestrictionGroup<C>> getRestrictionGroups() {
+		return restrictionGroups;
+	}
+
+	/**
+	 * Sets whether populated restrictions of a disjunction that use
+	 * {@link JpaCriteriaHandlers#EQ_FIELD_HANDLER} on the same column are
+	 * collapsed into one {@code in} predicate, e.g., {@code id in (:r3_0,
+	 * :r4_0)} instead of {@code id = :r3_0 or id = :r4_0}. Equalities below
+	 * one-to-many joins are not collapsed. Replaces the plan and template
+	 * caches with empty caches.
+	 *
+	 * @param collapseEqualities
+	 *            whether to collapse equalities into {@code in} predicates
+	 */
+	public void setCollapseEqualities(boolean collapseEqualities) {
+		planner.setCollapseEqualities(collapseEqualities);
+		replaceCaches();
+	}
+
+	/**
+	 * Replaces the plan and template caches after a planner setting changed.
+	 * Clearing them instead would let a concurrent compile that read the old
+	 * setting cache its stale plan after the clear; such a compile now caches
+	 * into the discarded instance. The plan cache is replaced first, so a
+	 * template compiled into the new template cache uses a new plan.
+	 */
+	private void replaceCaches() {
+		this.planCache = new ShapeCache<>(planCache.getMaximumSize());
+		this.jpqlCache = new ShapeCache<>(jpqlCache.getMaximumSize());
+	}
+
+	/**
+	 * Sets the extractor reading the restriction values of the criteria in one
+	 * pass (e.g., one generated by {@code pgqp-processor}) instead of calling
+	 * the getter and predicate of each restriction mapping. The extractor must
+	 * read the restrictions in the order of the restriction mappings.
+	 *
+	 * @param criteriaExtractor
+	 *            extractor of the restriction values; {@code null} uses the
+	 *            restriction mappings
+	 */
+	public void setCriteriaExtractor(CriteriaExtractor<? super C> criteriaExtractor) {
+		checkRestrictionCount(criteriaExtractor, restrictions.size());
+		this.criteriaExtractor = criteriaExtractor;
+	}
+
+	static void checkRestrictionCount(CriteriaExtractor<?> criteriaExtractor, int restrictionCount) {
+		if (criteriaExtractor != null && criteriaExtractor.getRestrictionCount() != restrictionCount) {
+			throw new IllegalArgumentException("The extractor reads " + criteriaExtractor.getRestrictionCount()
+					+ " restrictions but there are " + restrictionCount + " restriction mappings");
+		}
+	}
+
+	/**
+	 * Sets the function that returns the JPQL text of a typed query created
+	 * from a criteria query (e.g.,
+	 * {@code org.pgqp.jpa.hibernate.HibernateQueryStrings::getQueryString}),
+	 * enabling JPQL templates. With templates, the parameterized entity, count
+	 * and id queries of a shape are built as criteria queries and rendered to
+	 * JPQL with named parameters once; later requests of the shape only bind
+	 * their values to the cached text, skipping criteria construction and
+	 * rendering. A shape is only templated if all of its populated
+	 * restrictions use the standard {@link JpaCriteriaHandlers} (whose
+	 * rendering only depends on the operation, see
+	 * {@link SqlFieldHandler#getVariant(Object)}). Other requests fall back
+	 * to criteria queries (see {@link #getJpqlFallbackCount()}); projection
+	 * queries are always criteria queries. Replaces the template cache with
+	 * an empty cache.
+	 *
+	 * @param jpqlRenderer
+	 *            function returning the JPQL text of a query; {@code null}
+	 *            disables templates
+	 */
+	public void setJpqlRenderer(Function<TypedQuery<?>, String> jpqlRenderer) {
+		this.jpqlRenderer = jpqlRenderer;
+		this.jpqlCache = new ShapeCache<>(jpqlCache.getMaximumSize());
+	}
+
+	/**
+	 * Returns the cache of JPQL templates, e.g., to inspect its hit, miss and
+	 * eviction counters.
+	 *
+	 * @return the cache of JPQL templates
+	 */
+	public ShapeCache<?> getJpqlCache() {
+		return jpqlCache;
 	}
-	
+
+	/**
+	 * Replaces the cache of JPQL templates with an empty cache holding at most
+	 * {@code maximumSize} shapes.
+	 *
+	 * @param maximumSize
+	 *            maximum number of templates to cache; zero disables caching
+	 */
+	public void setJpqlCacheSize(int maximumSize) {
+		this.jpqlCache = new ShapeCache<>(maximumSize);
+	}
+
+	/**
+	 * Returns the number of parameterized entity, count and id queries that
+	 * were built as criteria queries although JPQL templates are enabled,
+	 * because their request could not be templated. Projection queries are
+	 * not counted.
+	 *
+	 * @return the number of template fallbacks
+	 */
+	public long getJpqlFallbackCount() {
+		return jpqlFallbacks.sum();
+	}
+
+	/**
+	 * Sets the listener receiving the statistics of every query built by this
+	 * handler (see {@link QueryBuild}) and, through
+	 * {@link ParameterizedQuery#getBuild()}, of the queries executed by the
+	 * executors built on it. With the default {@link QueryListener#NONE}
+	 * listener no statistics are collected unless a flight recording enables
+	 * the {@code org.pgqp.QueryBuild} or {@code org.pgqp.QueryExecution}
+	 * events.
+	 *
+	 * @param queryListener
+	 *            listener of the queries; {@code null} restores the default
+	 */
+	public void setQueryListener(QueryListener queryListener) {
+		this.queryListener = queryListener != null ? queryListener : QueryListener.NONE;
+	}
+
+	/**
+	 * Returns the listener of the queries of this handler.
+	 *
+	 * @return the listener of the queries, never {@code null}
+	 */
+	public QueryListener getQueryListener() {
+		return queryListener;
+	}
+
+	/**
+	 * Sets whether the parameterized queries (e.g.,
+	 * {@link #toParameterizedEntityQuery(QueryDefinition)}) bind the
+	 * restriction and cursor values as named parameters instead of rendering
+	 * them as literals, and use fixed aliases ({@code t<slot>} in the main
+	 * query, {@code s<k>_<slot>} in semi-join {@code k}). Parameters are named
+	 * {@code r<restriction>_<n>} and {@code k<sort>}, so requests of the same
+	 * shape produce the same query text whatever their values, and reuse the
+	 * query plans and prepared statements cached by query text. Restriction
+	 * handlers must pass values through {@link QueryContext#toValue(Object)}
+	 * to be bound. The queries returned by {@link #toEntityQuery} and the
+	 * other non-parameterized methods always use literals.
+	 *
+	 * @param bindParameters
+	 *            whether to bind values as parameters
+	 */
+	public void setBindParameters(boolean bindParameters) {
+		this.bindParameters = bindParameters;
+	}
+
 	@Override
 	public CriteriaQuery<Long> toCountQuery(QueryDefinition<C, S> queryDefinition) {
-		return toCriteriaQuery(Long.class, queryDefinition, COUNT_CUSTOMIZER, false);
+		return toCriteriaQuery(Long.class, queryDefinition, QueryType.COUNT, null, null, null);
 	}
 
 	@Override
 	public CriteriaQuery<T> toEntityQuery(QueryDefinition<C, S> queryDefinition) {
-		return toCriteriaQuery(entityClass, queryDefinition, null, true);
+		return toCriteriaQuery(entityClass, queryDefinition, QueryType.ENTITY, null, null, null);
+	}
+
+	/**
+	 * Converts a {@link QueryDefinition} to a count query whose values are
+	 * bound as parameters if {@link #setBindParameters(boolean) enabled}.
+	 *
+	 * @param queryDefinition
+	 *            query definition to use for constructing the query
+	 * @return parameterized count query
+	 */
+	public ParameterizedQuery<Long> toParameterizedCountQuery(QueryDefinition<C, S> queryDefinition) {
+		return toParameterizedQuery(Long.class, queryDefinition, QueryType.COUNT, null, null);
+	}
+
+	/**
+	 * Converts a {@link QueryDefinition} to an entity query whose values are
+	 * bound as parameters if {@link #setBindParameters(boolean) enabled}.
+	 *
+	 * @param queryDefinition
+	 *            query definition to use for constructing the query
+	 * @return parameterized entity query
+	 */
+	public ParameterizedQuery<T> toParameterizedEntityQuery(QueryDefinition<C, S> queryDefinition) {
+		return toParameterizedQuery(entityClass, queryDefinition, QueryType.ENTITY, null, null);
+	}
+
+	/**
+	 * Converts a {@link QueryDefinition} to an id query (see
+	 * {@link #toIdQuery(QueryDefinition)}) whose values are bound as
+	 * parameters if {@link #setBindParameters(boolean) enabled}.
+	 *
+	 * @param queryDefinition
+	 *            query definition to use for constructing the query
+	 * @return parameterized id query
+	 */
+	public ParameterizedQuery<Tuple> toParameterizedIdQuery(QueryDefinition<C, S> queryDefinition) {
+		return toParameterizedQuery(Tuple.class, queryDefinition, QueryType.IDS, null, null);
+	}
+
+	/**
+	 * Converts a {@link QueryDefinition} to a projection query (see
+	 * {@link #toProjectionQuery(QueryDefinition, ProjectionDefinition)}) whose
+	 * values are bound as parameters if {@link #setBindParameters(boolean)
+	 * enabled}.
+	 *
+	 * @param queryDefinition
+	 *            query definition to use for constructing the query
+	 * @param projection
+	 *            columns to select
+	 * @return parameterized projection query
+	 */
+	public <R> ParameterizedQuery<R> toParameterizedProjectionQuery(QueryDefinition<C, S> queryDefinition,
+			ProjectionDefinition<R> projection) {
+		return toParameterizedQuery(projection.getResultClass(), queryDefinition, QueryType.PROJECTION, null,
+				projection);
+	}
+
+	/**
+	 * Converts a {@link QueryDefinition} to the entity by id query of
+	 * {@link #toEntityByIdQuery(QueryDefinition, Collection)}, carrying the
+	 * statistics of its build if it is reported.
+	 */
+	ParameterizedQuery<T> toParameterizedEntityByIdQuery(QueryDefinition<C, S> queryDefinition, Collection<ID> ids) {
+		return toParameterizedQuery(entityClass, queryDefinition, QueryType.BY_ID, ids, null);
+	}
+
+	private <Q> ParameterizedQuery<Q> toParameterizedQuery(Class<Q> queryClass, QueryDefinition<C, S> queryDefinition,
+			QueryType queryType, Collection<ID> ids, ProjectionDefinition<Q> projection) {
+		QueryListener listener = queryListener;
+		Object event = QueryEvents.beginBuild();
+		boolean reported = listener != QueryListener.NONE || event != null || QueryEvents.isExecutionEnabled();
+		long start = reported ? System.nanoTime() : 0;
+		Object[] values = new Object[restrictions.size()];
+		QueryShape shape = toShape(queryDefinition, queryType, values);
+		Function<TypedQuery<?>, String> renderer = jpqlRenderer;
+		if (renderer != null && ids == null && projection == null) {
+			ParameterizedQuery<Q> query = toTemplateQuery(queryClass, queryDefinition, queryType, renderer, values,
+					shape);
+			if (query != null) {
+				return reported ? query.withBuild(reportBuild(listener, event, queryType, shape, null, true, start))
+						: query;
+			}
+			jpqlFallbacks.increment();
+		}
+		QueryPlan plan = toPlan(shape);
+		ParameterBindings bindings = new ParameterBindings();
+		ParameterizedQuery<Q> query = new ParameterizedQuery<>(toCriteriaQuery(queryClass, queryDefinition, queryType,
+				values, plan, ids, projection, bindParameters ? bindings : null), bindings);
+		return reported ? query.withBuild(reportBuild(listener, event, queryType, shape, plan, false, start)) : query;
 	}
-	
+
+	/**
+	 * Reports a query built since {@code start} to the listener and commits
+	 * its flight recorder event, if any; the plan is looked up after the build
+	 * time is taken if it is not given.
+	 */
+	private QueryBuild reportBuild(QueryListener listener, Object event, QueryType queryType, QueryShape shape,
+			QueryPlan plan, boolean templated, long start) {
+		long buildNanos = System.nanoTime() - start;
+		QueryBuild build = new QueryBuild(entityClass, queryType, shape, plan != null ? plan : toPlan(shape),
+				restrictions, sortDefinitions, templated, buildNanos);
+		if (event != null) {
+			QueryEvents.commitBuild(event, build);
+		}
+		listener.queryBuilt(build);
+		return build;
+	}
+
+	/**
+	 * Converts a {@link QueryDefinition} to the first query of an id-first
+	 * paginated search: it is restricted, sorted and keyset paginated like
+	 * the entity query but selects only the id (first element) and the sort
+	 * columns, and joins sort tables without fetching them. Apply the offset
+	 * and page size to this narrow query and load the entities of the page
+	 * with {@link #toEntityByIdQuery(QueryDefinition, Collection)}.
+	 *
+	 * @param queryDefinition
+	 *            query definition to use for constructing the query
+	 * @return id query
+	 */
+	public CriteriaQuery<Tuple> toIdQuery(QueryDefinition<C, S> queryDefinition) {
+		return toCriteriaQuery(Tuple.class, queryDefinition, QueryType.IDS, null, null, null);
+	}
+
+	/**
+	 * Converts a {@link QueryDefinition} to the second query of an id-first
+	 * paginated search: it selects the entities with the given ids, fetching
+	 * the sort joins of the query definition like the entity query. The
+	 * restrictions of the query definition are not applied again and the
+	 * result is not ordered; see {@link #sortByIds(List, List)}.
+	 *
+	 * @param queryDefinition
+	 *            query definition the ids were selected for
+	 * @param ids
+	 *            non-empty collection of ids
+	 * @return entity query
+	 */
+	public CriteriaQuery<T> toEntityByIdQuery(QueryDefinition<C, S> queryDefinition, Collection<ID> ids) {
+		return toCriteriaQuery(entityClass, queryDefinition, QueryType.BY_ID, ids, null, null);
+	}
+
+	/**
+	 * Converts a {@link QueryDefinition} to a query selecting the columns of
+	 * {@code projection} instead of the root entity, as tuples or through a
+	 * constructor of the result class. The query is restricted, sorted and
+	 * keyset paginated like the entity query; the tables of the columns are
+	 * left joined (reusing restriction and sort joins) and nothing is fetched.
+	 * Restrictions with {@link SemiJoinStrategy#DISTINCT_JOIN} use
+	 * {@link SemiJoinStrategy#EXISTS} instead, since distinct projected rows
+	 * could merge different root entities.
+	 *
+	 * @param queryDefinition
+	 *            query definition to use for constructing the query
+	 * @param projection
+	 *            columns to select
+	 * @return projection query
+	 */
+	public <R> CriteriaQuery<R> toProjectionQuery(QueryDefinition<C, S> queryDefinition,
+			ProjectionDefinition<R> projection) {
+		return toCriteriaQuery(projection.getResultClass(), queryDefinition, QueryType.PROJECTION, null, projection,
+				null);
+	}
+
+	/**
+	 * Orders the entities loaded by an id-first paginated search like the ids
+	 * selected by the first query.
+	 *
+	 * @param entities
+	 *            entities loaded by the second query
+	 * @param ids
+	 *            ids in the order of the first query
+	 * @return the entities in the order of {@code ids}
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> sortByIds(List<T> entities, List<ID> ids) {
+		Map<ID, T> entitiesById = new HashMap<>();
+		for (T entity : entities) {
+			entitiesById.put((ID) persistenceUnitUtil.getIdentifier(entity), entity);
+		}
+		List<T> result = new ArrayList<>(ids.size());
+		for (ID id : ids) {
+			T entity = entitiesById.get(id);
+			if (entity != null) {
+				result.add(entity);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a query from the JPQL template of the request's shape, rendering
+	 * the template on a cache miss. Returns {@code null} if the request cannot
+	 * be templated.
+	 */
+	private <Q> ParameterizedQuery<Q> toTemplateQuery(Class<Q> queryClass, QueryDefinition<C, S> queryDefinition,
+			QueryType queryType, Function<TypedQuery<?>, String> renderer, Object[] values, QueryShape shape) {
+		ParameterBindings bindings = toTemplateBindings(shape, values, queryDefinition.getCursor());
+		if (bindings == null) {
+			return null;
+		}
+		JpqlTemplate template = jpqlCache.get(toTemplateShape(shape, queryType, values),
+				s -> renderTemplate(queryClass, queryDefinition, queryType, renderer, values, shape, bindings));
+		return template.jpql != null ? new ParameterizedQuery<>(template.jpql, queryClass, bindings) : null;
+	}
+
+	/**
+	 * Returns the parameter values of a templated request, named like the
+	 * parameters of the criteria query, or {@code null} if a populated
+	 * restriction does not use a standard handler.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private ParameterBindings toTemplateBindings(QueryShape shape, Object[] values, Cursor cursor) {
+		ParameterBindings bindings = new ParameterBindings();
+		List<Object> parameters = new ArrayList<>(1);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				if (templateHandlers[i] == null) {
+					return null;
+				}
+				parameters.clear();
+				((SqlFieldHandler) templateHandlers[i]).bind(values[i], parameters);
+				for (int n = 0; n < parameters.size(); n++) {
+					bindings.add("r" + i + "_" + n, parameters.get(n));
+				}
+			}
+		}
+		if (shape.hasFlag(QueryShape.KEYSET_PREDICATE)) {
+			List<Object> sortValues = cursor.getSortValues();
+			checkSortValueCount(sortValues, shape.getSortCount());
+			for (int i = 0; i <= sortValues.size(); i++) {
+				bindings.add("k" + i, i < sortValues.size() ? sortValues.get(i) : cursor.getId());
+			}
+		}
+		return bindings;
+	}
+
+	/**
+	 * Returns the shape of a templated request: the query shape with the
+	 * query type flag and the variant of each populated restriction stored as
+	 * extra restriction words, like the shapes of {@link SqlQueryHandler}.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private QueryShape toTemplateShape(QueryShape shape, QueryType queryType, Object[] values) {
+		int sortOffset = QueryShape.RESTRICTION_OFFSET + restrictionWords;
+		int sortCount = shape.getSortCount();
+		long[] key = new long[sortOffset + variantWords + sortCount];
+		for (int i = 0; i < sortOffset; i++) {
+			key[i] = shape.getWord(i);
+		}
+		if (queryType == QueryType.COUNT) {
+			key[0] |= QueryShape.COUNT_QUERY;
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				int variant = ((SqlFieldHandler) templateHandlers[i]).getVariant(values[i]);
+				if (variant < 0 || variant >= SqlFieldHandler.MAXIMUM_VARIANTS) {
+					throw new IllegalStateException("Invalid variant " + variant + " for restriction " + i);
+				}
+				int bit = i * SqlQueryHandler.VARIANT_BITS;
+				key[sortOffset + (bit >>> 6)] |= (long) variant << bit;
+			}
+		}
+		for (int i = 0; i < sortCount; i++) {
+			key[sortOffset + variantWords + i] = shape.getWord(sortOffset + i);
+		}
+		return new QueryShape(key, restrictionWords + variantWords);
+	}
+
+	/**
+	 * Renders the JPQL template of a shape from the criteria query of one of
+	 * its requests. The shape is not templated (the template has no text) if
+	 * the criteria query has parameters other than the expected ones, e.g.,
+	 * string literals that the provider turned into parameters.
+	 */
+	private <Q> JpqlTemplate renderTemplate(Class<Q> queryClass, QueryDefinition<C, S> queryDefinition,
+			QueryType queryType, Function<TypedQuery<?>, String> renderer, Object[] values, QueryShape shape,
+			ParameterBindings expected) {
+		ParameterBindings bindings = new ParameterBindings();
+		CriteriaQuery<Q> criteriaQuery = toCriteriaQuery(queryClass, queryDefinition, queryType, values,
+				toPlan(shape), null, null, bindings);
+		EntityManager renderingEntityManager = entityManager != null ? entityManager
+				: entityManagerFactory.createEntityManager();
+		try {
+			TypedQuery<Q> query = renderingEntityManager.createQuery(criteriaQuery);
+			Set<String> names = new HashSet<>();
+			for (Parameter<?> parameter : query.getParameters()) {
+				names.add(parameter.getName());
+			}
+			Map<String, Object> parameters = bindings.toMap();
+			boolean templated = names.equals(parameters.keySet()) && parameters.equals(expected.toMap());
+			return new JpqlTemplate(templated ? renderer.apply(query) : null);
+		} finally {
+			if (renderingEntityManager != entityManager) {
+				renderingEntityManager.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates a query from the plan of the request, reporting it to the
+	 * listener and the flight recorder.
+	 */
 	private <Q> CriteriaQuery<Q> toCriteriaQuery(Class<Q> queryClass, QueryDefinition<C, S> queryDefinition,
-			Consumer<QueryContext<Q, ?>> queryCustomizer, boolean handleSorts) {
-		
+			QueryType queryType, Collection<ID> ids, ProjectionDefinition<Q> projection, ParameterBindings bindings) {
+		QueryListener listener = queryListener;
+		Object event = QueryEvents.beginBuild();
+		long start = listener != QueryListener.NONE || event != null ? System.nanoTime() : 0;
+
 		/*
-		 * Query set up.
+		 * Look up (or compile) the plan for the shape of the request.
 		 */
-		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-		CriteriaQuery<Q> query = criteriaBuilder.createQuery(queryClass);
-		Root<T> root = query.from(entityClass);
-		if (queryCustomizer != null) {
-			queryCustomizer.accept(new QueryContext<>(criteriaBuilder, query, root));
+		Object[] values = new Object[restrictions.size()];
+		QueryShape shape = toShape(queryDefinition, queryType, values);
+		QueryPlan plan = toPlan(shape);
+		CriteriaQuery<Q> query = toCriteriaQuery(queryClass, queryDefinition, queryType, values, plan, ids,
+				projection, bindings);
+		if (listener != QueryListener.NONE || event != null) {
+			reportBuild(listener, event, queryType, shape, plan, false, start);
 		}
-		
-		/*
-		 * Map restrictions to joins.
-		 */
-		Map<JoinDefinition<?, ?>, List<RestrictionValue<?, ?, ?, ?>>> restrictionsByTable = groupByTableInfo(
-				toRestrictionValues(queryDefinition.getCriteria())
-				.filter(RestrictionValue::hasValue));
-		
-		/*
-		 * Map joins by whether they are in the main query or in a sub-query.
-		 */
-		Map<Boolean, List<JoinDefinition<?, ?>>> tableTypes = splitByType(restrictionsByTable.keySet().stream());
-		
+		return query;
+	}
+
+	/**
+	 * Creates a query from the plan of the request and its restriction
+	 * values. Values are bound as parameters (and fixed aliases are used) if
+	 * {@code bindings} is not {@code null}.
+	 */
+	private <Q> CriteriaQuery<Q> toCriteriaQuery(Class<Q> queryClass, QueryDefinition<C, S> queryDefinition,
+			QueryType queryType, Object[] values, QueryPlan plan, Collection<ID> ids, ProjectionDefinition<Q> projection,
+			ParameterBindings bindings) {
+
 		/*
-		 * Joins dictated by restrictions in the main query.
+		 * Query set up.
 		 */
-		Map<JoinDefinition<?, ?>, List<RestrictionValue<?, ?, ?, ?>>> mainQueryInfo = toFilteredMap(restrictionsByTable,
-				tableTypes.get(false));
-		
+		CriteriaQuery<Q> query = criteriaBuilder.createQuery(queryClass);
+		Root<T> root = query.from(entityClass);
+
 		/*
-		 * Joins dictated by sorts. 
+		 * Create the joins and predicates of the main query.
 		 */
-		Stream<SortInfo<S>> sortStream = queryDefinition.getSortStream();
-		Stream<JoinDefinition<?, ?>> sortJoins = handleSorts && sortStream != null ? toSortInfoStream(sortStream) : Stream.empty();
-		List<JoinDefinition<?, ?>> sortList = sortJoins.collect(Collectors.toList());
-		
+		JoinInfo<?, ?>[] joins = toJoins(root, plan.main, bindings != null ? "t" : null, false);
+		select(criteriaBuilder, query, queryType, plan, root, joins, projection);
+		int predicateCount = plan.main.restrictions.length;
+		Predicate[] predicates = new Predicate[predicateCount + plan.semiJoins.length + plan.groups.length
+				+ (plan.keysetPredicate ? 1 : 0) + (ids != null ? 1 : 0)];
+		toPredicates(criteriaBuilder, query, plan.main.restrictions, plan.main.restrictionSlots, joins, values,
+				predicates, bindings);
+
 		/*
-		 * All joins with information about the join type.
+		 * Id-first pagination: only the entities of the page.
 		 */
-		Map<JoinDefinition<?, ?>, JoinTypeInfo> joinTypeInfoMap = toJoinTypeInfoMap(mainQueryInfo.keySet().stream(), sortList.stream());
-		
+		if (ids != null) {
+			predicates[predicateCount++] = idExpression.apply(root).in(ids);
+		}
+
 		/*
-		 * Create the joins.
+		 * Keyset pagination: only the rows after the cursor.
 		 */
-		Map<JoinDefinition<?, ?>, JoinInfo<?, ?>> joinInfoMap = toJoinInfo(root, Stream.concat(mainQueryInfo.keySet().stream(), sortList.stream()), joinTypeInfoMap);
-		
+		if (plan.keysetPredicate) {
+			predicates[predicateCount++] = toKeysetPredicate(criteriaBuilder, plan, root, joins,
+					queryDefinition.getCursor(), bindings);
+		}
+
 		/*
-		 * Create the predicates.
+		 * Semi-joins for the restrictions below one-to-many joins.
 		 */
-		List<Predicate> mainQueryPredicates = toPredicates(criteriaBuilder, query, mainQueryInfo, joinInfoMap)
-				.collect(Collectors.toList());
+		for (int i = 0; i < plan.semiJoins.length; i++) {
+			predicates[predicateCount++] = toSemiJoinPredicate(criteriaBuilder, query, root, plan.semiJoins[i],
+					plan.semiJoinStrategies[i], values, bindings, bindings != null ? "s" + i + "_" : null);
+		}
 
 		/*
-		 * Sub-query handling.
+		 * Restriction groups, whose semi-joins are numbered after the
+		 * semi-joins of the main query.
 		 */
-		List<JoinDefinition<?, ?>> subqueryTables = tableTypes.get(true);
-		if (!subqueryTables.isEmpty()) {
-			Subquery<ID> subquery = handleSubquery(criteriaBuilder, query, root, restrictionsByTable, subqueryTables);
-			mainQueryPredicates.add(criteriaBuilder.in(idExpression.apply(root)).value(subquery));
+		int[] semiJoinCount = { plan.semiJoins.length };
+		for (QueryPlan.Group group : plan.groups) {
+			predicates[predicateCount++] = toGroupPredicate(criteriaBuilder, query, root, group, joins, values,
+					bindings, semiJoinCount);
 		}
-		
+
 		/*
 		 * Create the where clause.
 		 */
-		if (!mainQueryPredicates.isEmpty()) {
-			query.where(mainQueryPredicates.toArray(new Predicate[mainQueryPredicates.size()]));
+		if (predicates.length > 0) {
+			query.where(predicates);
 		}
 
 		/*
 		 * Create the order by clause.
 		 */
-		if (handleSorts) {
-			List<Order> orders = toOrders(criteriaBuilder, query, joinInfoMap, queryDefinition.getSortStream())
-					.collect(Collectors.toList());
-			if (!orders.isEmpty()) {
-				query.orderBy(orders);
-			}
+		if (queryType != QueryType.BY_ID && (plan.sorts.length > 0 || plan.keysetOrder)) {
+			query.orderBy(toOrders(criteriaBuilder, query, plan, root, joins));
 		}
 
 		return query;
 	}
 
-	private Subquery<ID> handleSubquery(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, Root<T> root,
-			Map<JoinDefinition<?, ?>, List<RestrictionValue<?, ?, ?, ?>>> restrictionsByTable,
-			List<JoinDefinition<?, ?>> tables) {
-		Subquery<ID> subquery = query.subquery(idClass);
-		Root<T> subqueryRoot = subquery.from(entityClass);
-		subquery.select(idExpression.apply(subqueryRoot));
-		Map<JoinDefinition<?, ?>, List<RestrictionValue<?, ?, ?, ?>>> subQueryInfo = toFilteredMap(restrictionsByTable, tables);
-		Map<JoinDefinition<?, ?>, JoinTypeInfo> joinTypeInfoMap = toJoinTypeInfoMap(subQueryInfo.keySet().stream(), Stream.empty());
-		Map<JoinDefinition<?, ?>, JoinInfo<?, ?>> joinInfoMap = toJoinInfo(subqueryRoot, subQueryInfo.keySet().stream(), joinTypeInfoMap);
-		List<Predicate> subQueryPredicates = toPredicates(criteriaBuilder, query, subQueryInfo, joinInfoMap)
-				.collect(Collectors.toList());
-		return subquery.where(subQueryPredicates.toArray(new Predicate[subQueryPredicates.size()]));
-	}
-	
-	private Map<JoinDefinition<?, ?>, JoinTypeInfo> toJoinTypeInfoMap(Stream<JoinDefinition<?, ?>> restrictionJoins, Stream<JoinDefinition<?, ?>> sortJoins) {
-		return Stream.concat(
-				restrictionJoins
-					.map(JoinDefinition::fromRoot)
-					.flatMap(Function.identity())
-					.map(jd -> Tuple.tuple(jd, new JoinTypeInfo(true, false))), 
-				sortJoins
-					.map(JoinDefinition::fromRoot)
-					.flatMap(Function.identity())
-					.map(jd -> Tuple.tuple(jd, new JoinTypeInfo(false, true))))
-			.collect(Collectors.toMap(
-				Tuple2::v1, 
-				Tuple2::v2, 
-				JoinTypeInfo.MERGE_FUNCTION));
-	}
-	
-	private <P> Map<JoinDefinition<?, ?>, JoinInfo<?, ?>> toJoinInfo(Root<?> root, Stream<JoinDefinition<?, ?>> joinDefinitions, Map<JoinDefinition<?, ?>, JoinTypeInfo> joinTypeInfoMap) {
-		Map<JoinDefinition<?,?>, JoinInfo<?,?>> joinInfoMap = new HashMap<>();
-		joinInfoMap.put(rootJoinDefinition, new JoinInfo<>(root));
-		joinDefinitions.forEach(x -> {
-			Map<JoinDefinition<?, ?>, JoinInfo<?, ?>> map = toJoinInfo2(root, x, joinInfoMap, joinTypeInfoMap);
-			joinInfoMap.putAll(map);
-		});
-		return joinInfoMap;
-	}
-	
-	private <P> Map<JoinDefinition<?, ?>, JoinInfo<?, ?>> toJoinInfo2(Root<?> root, JoinDefinition<?, ?> joinDefinition, Map<JoinDefinition<?, ?>, JoinInfo<?, ?>> joinInfoMap, Map<JoinDefinition<?, ?>, JoinTypeInfo> joinTypeInfoMap) {
-		return Seq.seq(joinDefinition.fromRoot())	
-				.sliding(2)
-				.map(x -> x.collect(Collectors.toList()))
-				.map(x -> Tuple.tuple(x.get(0), x.get(1)))
-				.filter(t -> !joinInfoMap.containsKey(t.v2))
-				.map(t -> {
-						@SuppressWarnings({ "unchecked", "rawtypes" })
-						JoinInfo<?,?> ji = joinInfoMap.getOrDefault(t.v2, toJoinInfo(t.v2, (JoinInfo) joinInfoMap.get(t.v1), joinTypeInfoMap.get(t.v2)));
-						return Tuple.tuple(t.v2, ji);
-				})
-				.collect(Collectors.toMap(Tuple2::v1, Tuple2::v2));
-	}
-	
-	private <P,R> JoinInfo<P, R> toJoinInfo(JoinDefinition<P,R> joinDefinition, JoinInfo<?,P> parentJoin, JoinTypeInfo joinTypeInfo) {
-		return joinDefinition.join(parentJoin.toFrom(), joinTypeInfo);
-	}
-	
-	private Stream<JoinDefinition<?,?>> toSortInfoStream(Stream<SortInfo<S>> sortInfoStream) {
-		return sortInfoStream
-				.map(SortInfo::getSortIdentifier)
-				.map(sortDefinitions::get)
-				.filter(Objects::nonNull)
-				.map(SortDefinition::getJoinDefinition);
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void select(CriteriaBuilder criteriaBuilder, CriteriaQuery query, QueryType queryType, QueryPlan plan,
+			Root<T> root, JoinInfo<?, ?>[] joins, ProjectionDefinition<?> projection) {
+		switch (queryType) {
+		case COUNT:
+			query.select(plan.distinct ? criteriaBuilder.countDistinct(root) : criteriaBuilder.count(root));
+			break;
+		case IDS:
+			Selection<?>[] selections = new Selection<?>[plan.sorts.length + 1];
+			selections[0] = idExpression.apply(root);
+			for (int i = 0; i < plan.sorts.length; i++) {
+				selections[i + 1] = sortDefinitions.get(plan.sorts[i]).toPath((Path) joins[plan.sortSlots[i]].toPath());
+			}
+			query.multiselect(selections).distinct(plan.distinct);
+			break;
+		case PROJECTION:
+			query.multiselect(toProjectionSelections(plan.main, joins, projection));
+			break;
+		default:
+			query.distinct(plan.distinct);
+		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private <Q,F> Stream<Order> toOrders(CriteriaBuilder criteriaBuilder, CriteriaQuery<Q> query,
-			Map<JoinDefinition<?, ?>, JoinInfo<?, ?>> tables, Stream<SortInfo<S>> sorts) {
-		return sorts
-				.map(si -> Tuple.tuple(si, sortDefinitions.get(si.getSortIdentifier())))
-				.filter(t -> t.v2() != null)
-				.map(t -> Tuple.tuple((SortDefinition<S, ?, F>) t.v2(), (JoinInfo<?,F>) tables.get(t.v2().getJoinDefinition()), t.v1().getDirection()))
-				.map(t -> t.v1().toOrder(new QueryContext<Q,F>(criteriaBuilder, query, t.v2().toPath()), t.v3()));
+	/**
+	 * Creates the selections of the projection columns, reusing the joins of
+	 * the main query and left joining the tables that are not joined yet.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Selection<?>[] toProjectionSelections(QueryPlan.Block block, JoinInfo<?, ?>[] joins,
+			ProjectionDefinition<?> projection) {
+		Map<JoinDefinition<?, ?>, JoinInfo<?, ?>> joinInfos = new HashMap<>();
+		for (int i = 0; i < joins.length; i++) {
+			joinInfos.put(block.joins[i], joins[i]);
+		}
+		List<ProjectionColumn<?, ?, ?>> columns = projection.getColumns();
+		Selection<?>[] selections = new Selection<?>[columns.size()];
+		for (int i = 0; i < selections.length; i++) {
+			ProjectionColumn column = columns.get(i);
+			JoinInfo<?, ?> join = toProjectionJoin(column.getJoinDefinition(), joinInfos);
+			selections[i] = join.toFrom().get(column.getAttribute()).alias(column.getAlias());
+		}
+		return selections;
 	}
 
-	private Stream<RestrictionValue<?, ?, ?, ?>> toRestrictionValues(C criteria) {
-		return restrictions.stream().map(x -> x.toRestrictionValue(criteria));
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static JoinInfo<?, ?> toProjectionJoin(JoinDefinition<?, ?> joinDefinition,
+			Map<JoinDefinition<?, ?>, JoinInfo<?, ?>> joinInfos) {
+		JoinInfo<?, ?> join = joinInfos.get(joinDefinition);
+		if (join == null) {
+			if (joinDefinition.getParentJoinDefinition() == null) {
+				throw new IllegalArgumentException("Join " + joinDefinition.getJoinIdentifier()
+						+ " is not reachable from the root of the query");
+			}
+			JoinInfo<?, ?> parent = toProjectionJoin(joinDefinition.getParentJoinDefinition(), joinInfos);
+			join = ((JoinDefinition) joinDefinition).join(parent.toFrom(), new JoinTypeInfo(false, false));
+			joinInfos.put(joinDefinition, join);
+		}
+		return join;
 	}
 
-	private Map<JoinDefinition<?, ?>, List<RestrictionValue<?, ?, ?, ?>>> groupByTableInfo(
-			Stream<RestrictionValue<?, ?, ?, ?>> restrictionValues) {
-		return restrictionValues.filter(RestrictionValue::hasValue)
-				.collect(Collectors.groupingBy(x -> x.getRestrictionDefinition().getJoinDefinition()));
+	QueryPlan toPlan(QueryShape shape) {
+		return planCache.get(shape, compiler);
 	}
 
-	private Map<Boolean, List<JoinDefinition<?, ?>>> splitByType(Stream<JoinDefinition<?, ?>> tables) {
-		return tables.collect(Collectors.partitioningBy(JoinDefinition::hasOneToManyRelationship));
+	private Predicate toSemiJoinPredicate(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, Root<T> root,
+			QueryPlan.Block block, SemiJoinStrategy strategy, Object[] values, ParameterBindings bindings,
+			String aliasPrefix) {
+		switch (strategy) {
+		case EXISTS:
+			Subquery<Integer> correlated = query.subquery(Integer.class);
+			correlated.select(criteriaBuilder.literal(1));
+			correlated.where(toSemiJoinPredicates(criteriaBuilder, query, correlated.correlate(root), true, block,
+					values, bindings, aliasPrefix));
+			return criteriaBuilder.exists(correlated);
+		case IN:
+			Subquery<ID> subquery = query.subquery(idClass);
+			Root<T> subqueryRoot = subquery.from(entityClass);
+			subquery.select(idExpression.apply(subqueryRoot));
+			subquery.where(toSemiJoinPredicates(criteriaBuilder, query, subqueryRoot, false, block, values, bindings,
+					aliasPrefix));
+			return criteriaBuilder.in(idExpression.apply(root)).value(subquery);
+		default:
+			throw new IllegalStateException("Semi-join strategy " + strategy + " does not use a sub-query");
+		}
 	}
 
-	private static <K, V> Map<K, V> toFilteredMap(Map<K, V> map, Collection<K> keys) {
-		return map.entrySet().stream().filter(e -> keys.contains(e.getKey()))
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+	private Predicate[] toSemiJoinPredicates(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, Root<T> root,
+			boolean correlated, QueryPlan.Block block, Object[] values, ParameterBindings bindings,
+			String aliasPrefix) {
+		JoinInfo<?, ?>[] joins = toJoins(root, block, aliasPrefix, correlated);
+		Predicate[] predicates = new Predicate[block.restrictions.length];
+		toPredicates(criteriaBuilder, query, block.restrictions, block.restrictionSlots, joins, values, predicates,
+				bindings);
+		return predicates;
 	}
 
-	private <X, F> Stream<Predicate> toPredicates(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, JoinInfo<?,X> joinInfo, Stream<RestrictionValue<?, X, F, ?>> restrictions) {
-		return restrictions.map(r -> tuple(r, joinInfo.get(r.getRestrictionDefinition().getAttribute())))
-				.map(t -> t.v1.toPredicate(criteriaBuilder, query, t.v2));
+	/**
+	 * Creates the predicate of a restriction group from the joins of the main
+	 * query, its own semi-joins and its nested groups. {@code semiJoinCount}
+	 * holds the number of semi-joins created so far, to alias them.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Predicate toGroupPredicate(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, Root<T> root,
+			QueryPlan.Group group, JoinInfo<?, ?>[] joins, Object[] values, ParameterBindings bindings,
+			int[] semiJoinCount) {
+		Predicate[] predicates = new Predicate[group.getPredicateCount()];
+		toPredicates(criteriaBuilder, query, group.restrictions, group.restrictionSlots, joins, values, predicates,
+				bindings);
+		int predicateCount = group.restrictions.length;
+		for (int i = 0; i < group.inRestrictions.length; i++) {
+			int[] inRestrictions = group.inRestrictions[i];
+			RestrictionDefinition definition = restrictions.get(inRestrictions[0]).getRestrictionDefinition();
+			Path<?> path = joins[group.inSlots[i]].get(definition.getAttribute());
+			CriteriaBuilder.In<Object> in = criteriaBuilder.in(path);
+			for (int restriction : inRestrictions) {
+				in.value(new QueryContext<>(criteriaBuilder, query, path, bindings,
+						bindings != null ? "r" + restriction + "_" : null).toValue(values[restriction]));
+			}
+			predicates[predicateCount++] = in;
+		}
+		for (int i = 0; i < group.semiJoins.length; i++) {
+			predicates[predicateCount++] = toSemiJoinPredicate(criteriaBuilder, query, root, group.semiJoins[i],
+					group.semiJoinStrategies[i], values, bindings,
+					bindings != null ? "s" + semiJoinCount[0] + "_" : null);
+			semiJoinCount[0]++;
+		}
+		for (QueryPlan.Group nested : group.groups) {
+			predicates[predicateCount++] = toGroupPredicate(criteriaBuilder, query, root, nested, joins, values,
+					bindings, semiJoinCount);
+		}
+		if (predicates.length == 1) {
+			return predicates[0];
+		}
+		return group.disjunction ? criteriaBuilder.or(predicates) : criteriaBuilder.and(predicates);
 	}
 
-	@SuppressWarnings("unchecked")
-	private <X,F> Stream<Predicate> toPredicates(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query,
-			Map<JoinDefinition<?, ?>, List<RestrictionValue<?, ?, ?, ?>>> restrictions,
-			Map<JoinDefinition<?, ?>, JoinInfo<?,?>> joins) {
-		return restrictions.entrySet().stream()
-				.map(e -> Tuple.tuple(joins.get(e.getKey()), e.getValue().stream()))
-				.map(t -> toPredicates(criteriaBuilder, query, (JoinInfo<?,X>) t.v1(), (Stream<RestrictionValue<?, X, F, ?>>) (Stream<?>) t.v2()))
-				.flatMap(Function.identity());
+	/**
+	 * Computes the shape of a request and extracts its restriction values into
+	 * {@code values} without allocating anything besides the shape itself.
+	 */
+	QueryShape toShape(QueryDefinition<C, S> queryDefinition, QueryType queryType, Object[] values) {
+		List<SortInfo<S>> sortInfos = queryType != QueryType.COUNT ? queryDefinition.getSorts()
+				: Collections.<SortInfo<S>> emptyList();
+		int sortCount = 0;
+		for (int i = 0; i < sortInfos.size(); i++) {
+			if (sortIndexes.containsKey(sortInfos.get(i).getSortIdentifier())) {
+				sortCount++;
+			}
+		}
+
+		long[] key = new long[QueryShape.RESTRICTION_OFFSET + restrictionWords + sortCount];
+		Cursor cursor = queryType != QueryType.COUNT && queryType != QueryType.BY_ID ? queryDefinition.getCursor()
+				: null;
+		if (cursor != null) {
+			key[0] = cursor.isFirst() ? QueryShape.KEYSET_ORDER : QueryShape.KEYSET_ORDER | QueryShape.KEYSET_PREDICATE;
+		}
+		if (queryType == QueryType.IDS) {
+			key[0] |= QueryShape.ID_QUERY;
+		} else if (queryType == QueryType.PROJECTION) {
+			key[0] |= QueryShape.PROJECTION;
+		}
+		C criteria = queryDefinition.getCriteria();
+		CriteriaExtractor<? super C> extractor = criteriaExtractor;
+		if (extractor != null && queryType != QueryType.BY_ID) {
+			extractor.extract(criteria, values, key, QueryShape.RESTRICTION_OFFSET);
+		}
+		for (int i = 0; extractor == null && queryType != QueryType.BY_ID && i < values.length; i++) {
+			Object value = restrictions.get(i).getValue(criteria);
+			if (value != null) {
+				values[i] = value;
+				key[QueryShape.RESTRICTION_OFFSET + (i >>> 6)] |= 1L << i;
+			}
+		}
+		int word = QueryShape.RESTRICTION_OFFSET + restrictionWords;
+		for (int i = 0; i < sortInfos.size(); i++) {
+			SortInfo<S> sortInfo = sortInfos.get(i);
+			Integer index = sortIndexes.get(sortInfo.getSortIdentifier());
+			if (index != null) {
+				key[word++] = QueryShape.toSortWord(index, sortInfo.getDirection().isAscending());
+			}
+		}
+		return new QueryShape(key, restrictionWords);
+	}
+
+	/**
+	 * Creates the joins of a block. Hibernate does not render plain joins below
+	 * a fetch join, so plain joins below a fetch join (e.g., a restriction
+	 * below a sort join) are joined from a plain duplicate of the fetch join.
+	 * If {@code aliasPrefix} is not {@code null}, the root (unless it is
+	 * correlated) and the joins are aliased with the prefix and their slot.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static JoinInfo<?, ?>[] toJoins(From<?, ?> root, QueryPlan.Block block, String aliasPrefix,
+			boolean correlated) {
+		JoinInfo<?, ?>[] joins = new JoinInfo<?, ?>[block.getJoinCount()];
+		From<?, ?>[] plainJoins = null;
+		if (aliasPrefix != null && !correlated) {
+			root.alias(aliasPrefix + 0);
+		}
+		joins[0] = new JoinInfo<>(root);
+		for (int i = 1; i < joins.length; i++) {
+			int parent = block.parents[i];
+			From<?, ?> from;
+			if (joins[parent].isFetch() && !block.joinTypes[i].isFetchJoin()) {
+				if (plainJoins == null) {
+					plainJoins = new From<?, ?>[joins.length];
+				}
+				from = toPlainJoin(block, joins, plainJoins, parent, aliasPrefix);
+			} else {
+				from = joins[parent].toFrom();
+			}
+			joins[i] = ((JoinDefinition) block.joins[i]).join(from, block.joinTypes[i]);
+			if (aliasPrefix != null) {
+				joins[i].toFrom().alias(aliasPrefix + i);
+			}
+		}
+		return joins;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static From<?, ?> toPlainJoin(QueryPlan.Block block, JoinInfo<?, ?>[] joins, From<?, ?>[] plainJoins,
+			int slot, String aliasPrefix) {
+		if (!joins[slot].isFetch()) {
+			return joins[slot].toFrom();
+		}
+		if (plainJoins[slot] == null) {
+			From<?, ?> parent = toPlainJoin(block, joins, plainJoins, block.parents[slot], aliasPrefix);
+			plainJoins[slot] = ((JoinDefinition) block.joins[slot])
+					.join(parent, new JoinTypeInfo(block.joinTypes[slot].isInnerJoin(), false)).toFrom();
+			if (aliasPrefix != null) {
+				plainJoins[slot].alias(aliasPrefix + "p" + slot);
+			}
+		}
+		return plainJoins[slot];
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void toPredicates(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, int[] restrictionIndexes,
+			int[] restrictionSlots, JoinInfo<?, ?>[] joins, Object[] values, Predicate[] predicates,
+			ParameterBindings bindings) {
+		for (int i = 0; i < restrictionIndexes.length; i++) {
+			int restriction = restrictionIndexes[i];
+			RestrictionDefinition definition = restrictions.get(restriction).getRestrictionDefinition();
+			Path<?> path = joins[restrictionSlots[i]].get(definition.getAttribute());
+			predicates[i] = definition.toPredicate(
+					new QueryContext<>(criteriaBuilder, query, path, bindings,
+						bindings != null ? "r" + restriction + "_" : null),
+					values[restriction]);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Order[] toOrders(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, QueryPlan plan, Root<T> root,
+			JoinInfo<?, ?>[] joins) {
+		Order[] orders = new Order[plan.sorts.length + (plan.keysetOrder ? 1 : 0)];
+		for (int i = 0; i < plan.sorts.length; i++) {
+			SortDefinition sortDefinition = sortDefinitions.get(plan.sorts[i]);
+			orders[i] = sortDefinition.toOrder(new QueryContext<>(criteriaBuilder, query, joins[plan.sortSlots[i]].toPath()),
+					plan.directions[i]);
+		}
+		if (plan.keysetOrder) {
+			orders[plan.sorts.length] = criteriaBuilder.asc(idExpression.apply(root));
+		}
+		return orders;
+	}
+
+	/**
+	 * Creates the keyset predicate {@code (a > x) or (a = x and b > y) or ...
+	 * or (a = x and b = y and ... and id > z)}, comparing with {@code <} for
+	 * descending sorts. The sort joins of the main query are reused.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Predicate toKeysetPredicate(CriteriaBuilder criteriaBuilder, QueryPlan plan, Root<T> root,
+			JoinInfo<?, ?>[] joins, Cursor cursor, ParameterBindings bindings) {
+		List<Object> sortValues = cursor.getSortValues();
+		checkSortValueCount(sortValues, plan.sorts.length);
+		Expression[] columns = new Expression[plan.sorts.length + 1];
+		for (int i = 0; i < plan.sorts.length; i++) {
+			columns[i] = sortDefinitions.get(plan.sorts[i]).toPath((Path) joins[plan.sortSlots[i]].toPath());
+		}
+		columns[plan.sorts.length] = idExpression.apply(root);
+		Expression[] keys = new Expression[columns.length];
+		for (int i = 0; i < keys.length; i++) {
+			Object value = i < plan.sorts.length ? sortValues.get(i) : cursor.getId();
+			keys[i] = bindings != null ? bindings.add(criteriaBuilder, "k" + i, value) : criteriaBuilder.literal(value);
+		}
+
+		Predicate[] disjuncts = new Predicate[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			Predicate[] conjuncts = new Predicate[i + 1];
+			for (int j = 0; j < i; j++) {
+				conjuncts[j] = criteriaBuilder.equal(columns[j], keys[j]);
+			}
+			boolean ascending = i == plan.sorts.length || plan.directions[i].isAscending();
+			conjuncts[i] = ascending ? criteriaBuilder.greaterThan(columns[i], keys[i])
+					: criteriaBuilder.lessThan(columns[i], keys[i]);
+			disjuncts[i] = i == 0 ? conjuncts[0] : criteriaBuilder.and(conjuncts);
+		}
+		return criteriaBuilder.or(disjuncts);
+	}
+
+	private static void checkSortValueCount(List<Object> sortValues, int sortCount) {
+		if (sortValues.size() != sortCount) {
+			throw new IllegalArgumentException("The cursor has " + sortValues.size() + " sort values but the query has "
+					+ sortCount + " mapped sorts");
+		}
+	}
+
+	/**
+	 * Returns the keyset pagination cursor positioned after {@code entity},
+	 * i.e., the cursor to pass in the query definition of the next page. The
+	 * sort column values are read from the entity by following the join path
+	 * of each mapped sort in {@code queryDefinition}.
+	 * <p>
+	 * Keyset predicates compare the sort columns with {@code <} and
+	 * {@code >}, which never match {@code null}, so the sort columns must be
+	 * non-null for the rows being paged over. A sort below an optional join
+	 * (e.g., the name of the employer) needs a restriction that excludes rows
+	 * without the join (e.g., employed people only).
+	 * 
+	 * @param queryDefinition
+	 *            query definition the entity was returned for
+	 * @param entity
+	 *            last entity of the current page
+	 * @return cursor positioned after the entity
+	 * @throws IllegalArgumentException
+	 *             if a sort column value of the entity is {@code null}
+	 */
+	public Cursor toCursor(QueryDefinition<C, S> queryDefinition, T entity) {
+		Object id = persistenceUnitUtil.getIdentifier(entity);
+		List<Object> sortValues = new ArrayList<>();
+		for (SortInfo<S> sortInfo : queryDefinition.getSorts()) {
+			Integer index = sortIndexes.get(sortInfo.getSortIdentifier());
+			if (index != null) {
+				Object value = sortDefinitions.get(index).toValue(entity);
+				if (value == null) {
+					throw new IllegalArgumentException("Keyset pagination does not support null sort values but "
+							+ sortInfo.getSortIdentifier() + " is null for the entity with id " + id);
+				}
+				sortValues.add(value);
+			}
+		}
+		return Cursor.after(id, sortValues);
+	}
+
+	/**
+	 * JPQL text of a templated shape; {@code null} if the shape cannot be
+	 * templated.
+	 */
+	private static final class JpqlTemplate {
+
+		final String jpql;
+
+		JpqlTemplate(String jpql) {
+			this.jpql = jpql;
+		}
+
 	}
 
 }
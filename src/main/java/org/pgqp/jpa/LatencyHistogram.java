@@ -0,0 +1,133 @@
+package org.pgqp.jpa;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds with power-of-two buckets:
+ * bucket zero counts zero latencies and bucket {@code i > 0} counts the
+ * latencies from {@code 2^(i-1)} to {@code 2^i - 1}. Recording is a few atomic
+ * additions; reading while recording returns counts that may be slightly
+ * inconsistent with each other.
+ */
+public final class LatencyHistogram {
+
+	/** Number of buckets, covering all non-negative {@code long} latencies. */
+	public static final int BUCKET_COUNT = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator maximum = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a latency; negative latencies are recorded as zero.
+	 *
+	 * @param nanos
+	 *            latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(toBucket(nanos));
+		total.add(nanos);
+		maximum.accumulate(nanos);
+	}
+
+	static int toBucket(long nanos) {
+		return Long.SIZE - Long.numberOfLeadingZeros(nanos);
+	}
+
+	/**
+	 * Returns the largest latency of a bucket.
+	 *
+	 * @param bucket
+	 *            index of the bucket
+	 * @return the upper bound of the bucket in nanoseconds
+	 */
+	public static long getUpperBound(int bucket) {
+		if (bucket < 0 || bucket >= BUCKET_COUNT) {
+			throw new IllegalArgumentException("Invalid bucket " + bucket);
+		}
+		return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	/**
+	 * Returns the number of latencies recorded in a bucket.
+	 *
+	 * @param bucket
+	 *            index of the bucket
+	 * @return the number of latencies of the bucket
+	 */
+	public long getCount(int bucket) {
+		return buckets.get(bucket);
+	}
+
+	/**
+	 * Returns the number of recorded latencies.
+	 *
+	 * @return the number of recorded latencies
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the sum of the recorded latencies.
+	 *
+	 * @return the total latency in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return total.sum();
+	}
+
+	/**
+	 * Returns the largest recorded latency.
+	 *
+	 * @return the maximum latency in nanoseconds, zero if none was recorded
+	 */
+	public long getMaximumNanos() {
+		return maximum.get();
+	}
+
+	/**
+	 * Returns an upper bound of the latency quantile {@code q}: the upper
+	 * bound of the bucket holding it, or the maximum latency if it is lower.
+	 *
+	 * @param q
+	 *            quantile between zero and one, e.g., 0.99
+	 * @return the quantile in nanoseconds, zero if nothing was recorded
+	 */
+	public long getQuantileNanos(double q) {
+		if (!(q >= 0 && q <= 1)) {
+			throw new IllegalArgumentException("Invalid quantile " + q);
+		}
+		long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			count += counts[i];
+		}
+		long rank = Math.max(1, (long) Math.ceil(q * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (count > 0 && seen >= rank) {
+				return Math.min(getUpperBound(i), getMaximumNanos());
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram[count=" + getCount() + ", p50=" + getQuantileNanos(0.5) + ", p99="
+				+ getQuantileNanos(0.99) + ", max=" + getMaximumNanos() + "]";
+	}
+
+}
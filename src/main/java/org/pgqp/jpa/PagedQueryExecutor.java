@@ -0,0 +1,303 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+
+import org.pgqp.Page;
+import org.pgqp.QueryDefinition;
+import org.pgqp.Slice;
+
+/**
+ * Executes paged searches built by a {@link JpaQueryHandler}. The entity and
+ * count queries of a page are independent, so the count query is run on
+ * {@code executor} while the entity query runs on the calling thread, each
+ * with its own {@link EntityManager} from the factory. Slices and capped
+ * counts avoid counting every match of large result sets.
+ * <p>
+ * The returned entities are detached: only associations fetched by the query
+ * (e.g., by sort joins) are available. Any {@link Executor} can be used, e.g.,
+ * a virtual thread per task executor on JDKs that support them. The executed
+ * queries are reported to the {@link QueryListener} of the handler and the
+ * flight recorder (see {@link QueryExecution}).
+ *
+ * @param <T>
+ *            entity type
+ * @param <C>
+ *            criteria type
+ * @param <S>
+ *            sort identifier type
+ */
+public class PagedQueryExecutor<T, C, S> {
+
+	private final JpaQueryHandler<T, ?, C, S> queryHandler;
+	private final EntityManagerFactory entityManagerFactory;
+	private final Executor executor;
+	private boolean idFirst;
+	private ResultPageCache pageCache;
+	private CountCache countCache;
+
+	/**
+	 * Creates a new executor.
+	 *
+	 * @param queryHandler
+	 *            handler creating the queries; its entity manager must belong
+	 *            to {@code entityManagerFactory}
+	 * @param entityManagerFactory
+	 *            factory of the entity managers executing the queries
+	 * @param executor
+	 *            executor running the count queries
+	 */
+	public PagedQueryExecutor(JpaQueryHandler<T, ?, C, S> queryHandler, EntityManagerFactory entityManagerFactory,
+			Executor executor) {
+		this.queryHandler = queryHandler;
+		this.entityManagerFactory = entityManagerFactory;
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets whether pages are loaded in two phases: a narrow query selecting
+	 * only the ids and sort columns is paged in the database, then the
+	 * entities of the page are loaded by id with the sort fetch joins and put
+	 * back in order. This keeps wide fetch joins out of the sorted scan and
+	 * the offset and page size out of fetch-joined queries.
+	 *
+	 * @param idFirst
+	 *            whether to load pages id first
+	 */
+	public void setIdFirst(boolean idFirst) {
+		this.idFirst = idFirst;
+	}
+
+	/**
+	 * Sets the cache of the ids of result pages. With a cache, pages are loaded
+	 * id first: the ids are taken from the cache or selected and cached, then
+	 * the entities are loaded by id. Totals are not cached.
+	 *
+	 * @param pageCache
+	 *            cache of the ids of result pages; {@code null} disables
+	 *            caching
+	 */
+	public void setPageCache(ResultPageCache pageCache) {
+		this.pageCache = pageCache;
+	}
+
+	/**
+	 * Sets the cache of the totals of the pages. With a cache, a cached total
+	 * is used without running the count query, and stale totals are refreshed
+	 * on the count executor.
+	 *
+	 * @param countCache
+	 *            cache of the totals; {@code null} disables caching
+	 */
+	public void setCountCache(CountCache countCache) {
+		this.countCache = countCache;
+	}
+
+	/**
+	 * Returns a page of the entities matching {@code queryDefinition}, running
+	 * the count query concurrently with the entity query.
+	 *
+	 * @param queryDefinition
+	 *            query definition
+	 * @param offset
+	 *            index of the first entity of the page
+	 * @param pageSize
+	 *            maximum number of entities of the page
+	 * @return the page
+	 */
+	public Page<T> findPage(QueryDefinition<C, S> queryDefinition, int offset, int pageSize) {
+		CompletableFuture<Long> total = countAsync(queryDefinition);
+		List<T> content;
+		try {
+			content = findContent(queryDefinition, offset, pageSize);
+		} catch (RuntimeException e) {
+			/* The future of a cached count may be shared with other pages. */
+			if (countCache == null) {
+				total.cancel(false);
+			}
+			throw e;
+		}
+		return new Page<>(content, offset, pageSize, () -> join(total));
+	}
+
+	/**
+	 * Returns a page of the entities matching {@code queryDefinition} whose
+	 * total is only counted when it is requested. No count query is run if the
+	 * page itself determines the total, i.e., if it is neither full nor empty
+	 * past the first page.
+	 *
+	 * @param queryDefinition
+	 *            query definition
+	 * @param offset
+	 *            index of the first entity of the page
+	 * @param pageSize
+	 *            maximum number of entities of the page
+	 * @return the page
+	 */
+	public Page<T> findPageWithLazyTotal(QueryDefinition<C, S> queryDefinition, int offset, int pageSize) {
+		List<T> content = findContent(queryDefinition, offset, pageSize);
+		Supplier<Long> total;
+		if (content.size() < pageSize && (offset == 0 || !content.isEmpty())) {
+			long known = offset + content.size();
+			total = () -> known;
+		} else if (countCache != null) {
+			total = () -> join(countAsync(queryDefinition));
+		} else {
+			total = () -> count(queryHandler.toParameterizedCountQuery(queryDefinition));
+		}
+		return new Page<>(content, offset, pageSize, total);
+	}
+
+	/**
+	 * Returns a slice of the entities matching {@code queryDefinition},
+	 * selecting one entity more than {@code pageSize} to tell whether there
+	 * are more. No count query is run.
+	 *
+	 * @param queryDefinition
+	 *            query definition
+	 * @param offset
+	 *            index of the first entity of the slice
+	 * @param pageSize
+	 *            maximum number of entities of the slice
+	 * @return the slice
+	 */
+	public Slice<T> findSlice(QueryDefinition<C, S> queryDefinition, int offset, int pageSize) {
+		List<T> content = findContent(queryDefinition, offset, pageSize + 1);
+		if (content.size() <= pageSize) {
+			return new Slice<>(content, offset, pageSize, false);
+		}
+		return new Slice<>(new ArrayList<>(content.subList(0, pageSize)), offset, pageSize, true);
+	}
+
+	/**
+	 * Counts the entities matching {@code queryDefinition}, but at most
+	 * {@code cap + 1}: the id query, without sorts, is limited to
+	 * {@code cap + 1} rows and its rows are counted. A result greater than
+	 * {@code cap} means "more than {@code cap}". JPQL cannot limit a subquery,
+	 * so the ids are transferred; {@link SqlQueryHandler#toCappedCountQuery}
+	 * counts in the database.
+	 *
+	 * @param queryDefinition
+	 *            query definition
+	 * @param cap
+	 *            number of entities to count up to
+	 * @return the number of matching entities, at most {@code cap + 1}
+	 */
+	public long countCapped(QueryDefinition<C, S> queryDefinition, int cap) {
+		if (cap < 0 || cap == Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid cap " + cap);
+		}
+		ParameterizedQuery<Tuple> idQuery = queryHandler.toParameterizedIdQuery(
+				new QueryDefinition<>(queryDefinition.getCriteria()));
+		return execute(entityManager -> {
+			QueryExecution execution = QueryExecution.start(queryHandler, idQuery);
+			int count = idQuery.createQuery(entityManager)
+					.setMaxResults(cap + 1)
+					.getResultList()
+					.size();
+			execution.finish(count);
+			return (long) count;
+		});
+	}
+
+	private List<T> findContent(QueryDefinition<C, S> queryDefinition, int offset, int pageSize) {
+		if (idFirst || pageCache != null) {
+			return findContentByIds(queryHandler, queryDefinition, offset, pageSize);
+		}
+		ParameterizedQuery<T> entityQuery = queryHandler.toParameterizedEntityQuery(queryDefinition);
+		return execute(entityManager -> {
+			QueryExecution execution = QueryExecution.start(queryHandler, entityQuery);
+			List<T> content = entityQuery.createQuery(entityManager)
+					.setFirstResult(offset)
+					.setMaxResults(pageSize)
+					.getResultList();
+			execution.finish(content.size());
+			return content;
+		});
+	}
+
+	private <ID> List<T> findContentByIds(JpaQueryHandler<T, ID, C, S> handler, QueryDefinition<C, S> queryDefinition,
+			int offset, int pageSize) {
+		ResultPageCache cache = pageCache;
+		return execute(entityManager -> {
+			List<ID> ids = cache == null ? findIds(handler, queryDefinition, offset, pageSize, entityManager)
+					: cache.getIds(handler, queryDefinition, offset, pageSize,
+							() -> findIds(handler, queryDefinition, offset, pageSize, entityManager));
+			if (ids.isEmpty()) {
+				return Collections.emptyList();
+			}
+			ParameterizedQuery<T> entityQuery = handler.toParameterizedEntityByIdQuery(queryDefinition, ids);
+			QueryExecution execution = QueryExecution.start(handler, entityQuery);
+			List<T> entities = entityQuery.createQuery(entityManager).getResultList();
+			execution.finish(entities.size());
+			return handler.sortByIds(entities, ids);
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private <ID> List<ID> findIds(JpaQueryHandler<T, ID, C, S> handler, QueryDefinition<C, S> queryDefinition,
+			int offset, int pageSize, EntityManager entityManager) {
+		ParameterizedQuery<Tuple> idQuery = handler.toParameterizedIdQuery(queryDefinition);
+		QueryExecution execution = QueryExecution.start(handler, idQuery);
+		List<Tuple> rows = idQuery.createQuery(entityManager)
+				.setFirstResult(offset)
+				.setMaxResults(pageSize)
+				.getResultList();
+		execution.finish(rows.size());
+		List<ID> ids = new ArrayList<>(rows.size());
+		for (Tuple row : rows) {
+			ids.add((ID) row.get(0));
+		}
+		return ids;
+	}
+
+	private CompletableFuture<Long> countAsync(QueryDefinition<C, S> queryDefinition) {
+		// built on the calling thread: rendering a template may use the entity manager of the handler
+		ParameterizedQuery<Long> countQuery = queryHandler.toParameterizedCountQuery(queryDefinition);
+		CountCache cache = countCache;
+		if (cache != null) {
+			return cache.getCount(queryHandler, queryDefinition, () -> count(countQuery), executor);
+		}
+		return CompletableFuture.supplyAsync(() -> count(countQuery), executor);
+	}
+
+	private Long count(ParameterizedQuery<Long> countQuery) {
+		return execute(entityManager -> {
+			QueryExecution execution = QueryExecution.start(queryHandler, countQuery);
+			Long count = countQuery.createQuery(entityManager).getSingleResult();
+			execution.finish(count);
+			return count;
+		});
+	}
+
+	private <R> R execute(Function<EntityManager, R> work) {
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			return work.apply(entityManager);
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	private static Long join(CompletableFuture<Long> total) {
+		try {
+			return total.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+}
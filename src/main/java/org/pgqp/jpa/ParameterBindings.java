@@ -0,0 +1,77 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.ParameterExpression;
+
+/**
+ * Named parameters created while building a criteria query, or the parameter
+ * names of a JPQL template, and the values to bind to them.
+ */
+final class ParameterBindings {
+
+	private final List<ParameterExpression<?>> parameters = new ArrayList<>();
+	private final List<String> names = new ArrayList<>();
+	private final List<Object> values = new ArrayList<>();
+
+	/**
+	 * Creates a parameter named {@code name} for {@code value}.
+	 *
+	 * @param criteriaBuilder
+	 *            criteria builder
+	 * @param name
+	 *            name of the parameter, which must be unique in the query
+	 * @param value
+	 *            non-null value of the parameter
+	 * @return the parameter
+	 */
+	@SuppressWarnings("unchecked")
+	<X> ParameterExpression<X> add(CriteriaBuilder criteriaBuilder, String name, X value) {
+		ParameterExpression<X> parameter = criteriaBuilder.parameter((Class<X>) value.getClass(), name);
+		parameters.add(parameter);
+		add(name, value);
+		return parameter;
+	}
+
+	/**
+	 * Adds the value of the parameter named {@code name} of a JPQL template.
+	 *
+	 * @param name
+	 *            name of the parameter, which must be unique in the query
+	 * @param value
+	 *            non-null value of the parameter
+	 */
+	void add(String name, Object value) {
+		names.add(name);
+		values.add(value);
+	}
+
+	/**
+	 * Binds the values to {@code query}, by parameter expression if the
+	 * parameters were created for a criteria query and by name otherwise.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	void bind(TypedQuery<?> query) {
+		for (int i = 0; i < values.size(); i++) {
+			if (parameters.isEmpty()) {
+				query.setParameter(names.get(i), values.get(i));
+			} else {
+				query.setParameter((ParameterExpression) parameters.get(i), values.get(i));
+			}
+		}
+	}
+
+	Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		for (int i = 0; i < values.size(); i++) {
+			map.put(names.get(i), values.get(i));
+		}
+		return map;
+	}
+
+}
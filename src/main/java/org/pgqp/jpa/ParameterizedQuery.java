@@ -0,0 +1,109 @@
+package org.pgqp.jpa;
+
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+
+/**
+ * A criteria query built by a {@link JpaQueryHandler}, or the cached JPQL text
+ * of its shape (see
+ * {@link JpaQueryHandler#setJpqlRenderer(java.util.function.Function)}),
+ * together with the values of its parameters (see
+ * {@link JpaQueryHandler#setBindParameters(boolean)}). Neither holds any
+ * entity manager state, so the query can be built on one thread and executed
+ * with any entity manager.
+ *
+ * @param <R>
+ *            type of the query results
+ */
+public final class ParameterizedQuery<R> {
+
+	private final CriteriaQuery<R> criteriaQuery;
+	private final String queryString;
+	private final Class<R> resultClass;
+	private final ParameterBindings bindings;
+	private final QueryBuild build;
+
+	ParameterizedQuery(CriteriaQuery<R> criteriaQuery, ParameterBindings bindings) {
+		this(criteriaQuery, null, criteriaQuery.getResultType(), bindings, null);
+	}
+
+	ParameterizedQuery(String queryString, Class<R> resultClass, ParameterBindings bindings) {
+		this(null, queryString, resultClass, bindings, null);
+	}
+
+	private ParameterizedQuery(CriteriaQuery<R> criteriaQuery, String queryString, Class<R> resultClass,
+			ParameterBindings bindings, QueryBuild build) {
+		this.criteriaQuery = criteriaQuery;
+		this.queryString = queryString;
+		this.resultClass = resultClass;
+		this.bindings = bindings;
+		this.build = build;
+	}
+
+	/**
+	 * Returns a copy of this query carrying the statistics of its build.
+	 */
+	ParameterizedQuery<R> withBuild(QueryBuild build) {
+		return new ParameterizedQuery<>(criteriaQuery, queryString, resultClass, bindings, build);
+	}
+
+	/**
+	 * Returns the criteria query, whose parameters must be bound before it is
+	 * executed.
+	 *
+	 * @return the criteria query or {@code null} if the query was created from
+	 *         a JPQL template
+	 */
+	public CriteriaQuery<R> getCriteriaQuery() {
+		return criteriaQuery;
+	}
+
+	/**
+	 * Returns the JPQL text of the query if it was created from a JPQL
+	 * template.
+	 *
+	 * @return the JPQL text or {@code null} if the query is a criteria query
+	 */
+	public String getQueryString() {
+		return queryString;
+	}
+
+	/**
+	 * Returns the statistics of the build of the query, to be reported with
+	 * its execution (see {@link QueryExecution}).
+	 *
+	 * @return the statistics of the build or {@code null} if the handler had
+	 *         no listener and no flight recording enabled the query events
+	 *         when the query was built
+	 */
+	public QueryBuild getBuild() {
+		return build;
+	}
+
+	/**
+	 * Returns the values of the parameters by name.
+	 *
+	 * @return the values of the parameters
+	 */
+	public Map<String, Object> getParameters() {
+		return bindings.toMap();
+	}
+
+	/**
+	 * Creates the query on {@code entityManager} and binds its parameters.
+	 *
+	 * @param entityManager
+	 *            entity manager executing the query
+	 * @return the typed query
+	 */
+	public TypedQuery<R> createQuery(EntityManager entityManager) {
+		TypedQuery<R> query = queryString != null ? entityManager.createQuery(queryString, resultClass)
+				: entityManager.createQuery(criteriaQuery);
+		bindings.bind(query);
+		return query;
+	}
+
+}
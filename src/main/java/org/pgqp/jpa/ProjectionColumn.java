@@ -0,0 +1,62 @@
+package org.pgqp.jpa;
+
+import javax.persistence.metamodel.SingularAttribute;
+
+/**
+ * Defines a column of a projection: an attribute of the table of a join.
+ * 
+ * @param <P>
+ *            type of the parent table
+ * @param <C>
+ *            type of the child table
+ * @param <F>
+ *            type of the column in the child table
+ */
+public class ProjectionColumn<P, C, F> {
+
+	private final JoinDefinition<P, C> joinDefinition;
+	private final SingularAttribute<C, F> attribute;
+	private final String alias;
+
+	/**
+	 * Creates a column aliased by the name of its attribute.
+	 * 
+	 * @param joinDefinition
+	 *            join of the table holding the column
+	 * @param attribute
+	 *            attribute of the column
+	 */
+	public ProjectionColumn(JoinDefinition<P, C> joinDefinition, SingularAttribute<C, F> attribute) {
+		this(joinDefinition, attribute, attribute.getName());
+	}
+
+	/**
+	 * Creates a column with the given alias, e.g., to tell apart attributes of
+	 * the same name in different tables of a tuple.
+	 * 
+	 * @param joinDefinition
+	 *            join of the table holding the column
+	 * @param attribute
+	 *            attribute of the column
+	 * @param alias
+	 *            alias of the column
+	 */
+	public ProjectionColumn(JoinDefinition<P, C> joinDefinition, SingularAttribute<C, F> attribute, String alias) {
+		this.joinDefinition = joinDefinition;
+		this.attribute = attribute;
+		this.alias = alias;
+	}
+
+	public JoinDefinition<P, C> getJoinDefinition() {
+		return joinDefinition;
+	}
+
+	public SingularAttribute<C, F> getAttribute() {
+		return attribute;
+	}
+
+	public String getAlias() {
+		return alias;
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.Tuple;
+
+/**
+ * Defines the columns a projection query selects instead of the root entity.
+ * The result class is either {@link Tuple}, whose elements are aliased like
+ * the columns, or a class with a constructor taking the columns in order.
+ * 
+ * @param <R>
+ *            type of the results
+ */
+public class ProjectionDefinition<R> {
+
+	private final Class<R> resultClass;
+	private final List<ProjectionColumn<?, ?, ?>> columns;
+
+	/**
+	 * Creates a new projection.
+	 * 
+	 * @param resultClass
+	 *            {@link Tuple} or a class with a constructor taking the
+	 *            columns
+	 * @param columns
+	 *            columns to select
+	 * @throws IllegalArgumentException
+	 *             if there are no columns, two columns have the same alias or
+	 *             a column is below a one-to-many join
+	 */
+	public ProjectionDefinition(Class<R> resultClass, ProjectionColumn<?, ?, ?>... columns) {
+		this(resultClass, Arrays.asList(columns));
+	}
+
+	/**
+	 * Creates a new projection.
+	 * 
+	 * @param resultClass
+	 *            {@link Tuple} or a class with a constructor taking the
+	 *            columns
+	 * @param columns
+	 *            columns to select
+	 * @throws IllegalArgumentException
+	 *             if there are no columns, two columns have the same alias or
+	 *             a column is below a one-to-many join
+	 */
+	public ProjectionDefinition(Class<R> resultClass, List<ProjectionColumn<?, ?, ?>> columns) {
+		if (columns.isEmpty()) {
+			throw new IllegalArgumentException("A projection needs at least one column");
+		}
+		Set<String> aliases = new HashSet<>();
+		for (ProjectionColumn<?, ?, ?> column : columns) {
+			if (!aliases.add(column.getAlias())) {
+				throw new IllegalArgumentException("Duplicate projection alias " + column.getAlias());
+			}
+			if (column.getJoinDefinition().hasOneToManyRelationship()) {
+				throw new IllegalArgumentException("Projection column " + column.getAlias()
+						+ " is below a one-to-many join and would multiply the rows");
+			}
+		}
+		this.resultClass = resultClass;
+		this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+	}
+
+	public Class<R> getResultClass() {
+		return resultClass;
+	}
+
+	public List<ProjectionColumn<?, ?, ?>> getColumns() {
+		return columns;
+	}
+
+}
@@ -0,0 +1,207 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pgqp.jpa.JpaQueryHandler.QueryType;
+
+/**
+ * Statistics of one query built by a {@link JpaQueryHandler}, passed to its
+ * {@link QueryListener}: the kind and shape of the query, how long building it
+ * took, and the joins and semi-joins of its plan. The join counts and
+ * populated restriction mappings are computed from the cached plan and shape
+ * when they are requested.
+ */
+public final class QueryBuild {
+
+	private final Class<?> entityClass;
+	private final QueryType queryType;
+	private final QueryShape shape;
+	private final QueryPlan plan;
+	private final List<? extends RestrictionMapping<?, ?, ?, ?, ?>> restrictions;
+	private final List<? extends SortDefinition<?, ?, ?>> sortDefinitions;
+	private final boolean templated;
+	private final long buildNanos;
+
+	QueryBuild(Class<?> entityClass, QueryType queryType, QueryShape shape, QueryPlan plan,
+			List<? extends RestrictionMapping<?, ?, ?, ?, ?>> restrictions,
+			List<? extends SortDefinition<?, ?, ?>> sortDefinitions, boolean templated, long buildNanos) {
+		this.entityClass = entityClass;
+		this.queryType = queryType;
+		this.shape = shape;
+		this.plan = plan;
+		this.restrictions = restrictions;
+		this.sortDefinitions = sortDefinitions;
+		this.templated = templated;
+		this.buildNanos = buildNanos;
+	}
+
+	/**
+	 * Returns the root entity class of the handler that built the query.
+	 *
+	 * @return the root entity class
+	 */
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	/**
+	 * Returns the kind of the query.
+	 *
+	 * @return the kind of the query
+	 */
+	public QueryType getQueryType() {
+		return queryType;
+	}
+
+	/**
+	 * Returns a 64-bit hash of the shape and kind of the query. Requests of
+	 * the same shape and kind on the same handler have the same fingerprint;
+	 * handlers of different entities may share fingerprints.
+	 *
+	 * @return the fingerprint of the query shape
+	 */
+	public long getFingerprint() {
+		return shape.getFingerprint(queryType.ordinal());
+	}
+
+	/**
+	 * Returns the time spent building the query, from computing its shape to
+	 * returning the criteria query or the bound JPQL template.
+	 *
+	 * @return the build time in nanoseconds
+	 */
+	public long getBuildNanos() {
+		return buildNanos;
+	}
+
+	/**
+	 * Returns whether the query was created from a cached JPQL template
+	 * instead of a criteria query.
+	 *
+	 * @return whether the query was templated
+	 */
+	public boolean isTemplated() {
+		return templated;
+	}
+
+	/**
+	 * Returns the number of inner joins of the plan that do not fetch,
+	 * including the joins of its semi-joins.
+	 *
+	 * @return the number of plain inner joins
+	 */
+	public int getInnerJoinCount() {
+		return countJoins(true, false);
+	}
+
+	/**
+	 * Returns the number of left joins of the plan that do not fetch,
+	 * including the joins of its semi-joins.
+	 *
+	 * @return the number of plain left joins
+	 */
+	public int getLeftJoinCount() {
+		return countJoins(false, false);
+	}
+
+	/**
+	 * Returns the number of fetch joins, inner or left, of the plan.
+	 *
+	 * @return the number of fetch joins
+	 */
+	public int getFetchJoinCount() {
+		return countJoins(true, true) + countJoins(false, true);
+	}
+
+	private int countJoins(boolean innerJoin, boolean fetchJoin) {
+		int count = countJoins(plan.main, innerJoin, fetchJoin);
+		for (QueryPlan.Block semiJoin : plan.getAllSemiJoins()) {
+			count += countJoins(semiJoin, innerJoin, fetchJoin);
+		}
+		return count;
+	}
+
+	private static int countJoins(QueryPlan.Block block, boolean innerJoin, boolean fetchJoin) {
+		int count = 0;
+		for (int i = 1; i < block.joinTypes.length; i++) {
+			if (block.joinTypes[i].isInnerJoin() == innerJoin && block.joinTypes[i].isFetchJoin() == fetchJoin) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of joins of the plan, including the joins of its
+	 * semi-joins.
+	 *
+	 * @return the number of joins
+	 */
+	public int getJoinCount() {
+		int count = plan.main.getJoinCount() - 1;
+		for (QueryPlan.Block semiJoin : plan.getAllSemiJoins()) {
+			count += semiJoin.getJoinCount() - 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of sub-queries created for restrictions below
+	 * one-to-many joins; zero if there are none or they all use
+	 * {@link SemiJoinStrategy#DISTINCT_JOIN}.
+	 *
+	 * @return the number of semi-join sub-queries
+	 */
+	public int getSemiJoinCount() {
+		return plan.getSemiJoinCount();
+	}
+
+	/**
+	 * Returns whether the query selects distinct rows because restrictions
+	 * below one-to-many joins are joined directly
+	 * ({@link SemiJoinStrategy#DISTINCT_JOIN}).
+	 *
+	 * @return whether the query is distinct
+	 */
+	public boolean isDistinct() {
+		return plan.distinct;
+	}
+
+	/**
+	 * Returns the restriction mappings populated in the criteria of the
+	 * request, in the order of the handler's mappings.
+	 *
+	 * @return the populated restriction mappings
+	 */
+	public List<RestrictionMapping<?, ?, ?, ?, ?>> getRestrictionMappings() {
+		List<RestrictionMapping<?, ?, ?, ?, ?>> populated = new ArrayList<>();
+		for (int i = 0; i < restrictions.size(); i++) {
+			if (shape.hasRestriction(i)) {
+				populated.add(restrictions.get(i));
+			}
+		}
+		return populated;
+	}
+
+	/**
+	 * Returns the sort definitions the query is ordered by, in the order of
+	 * the request; empty for count queries.
+	 *
+	 * @return the sort definitions of the query
+	 */
+	public List<SortDefinition<?, ?, ?>> getSortDefinitions() {
+		List<SortDefinition<?, ?, ?>> sorts = new ArrayList<>(plan.sorts.length);
+		for (int sort : plan.sorts) {
+			sorts.add(sortDefinitions.get(sort));
+		}
+		return sorts;
+	}
+
+	@Override
+	public String toString() {
+		return "QueryBuild[" + entityClass.getSimpleName() + " " + queryType + " " + shape + ", buildNanos="
+				+ buildNanos + "]";
+	}
+
+}
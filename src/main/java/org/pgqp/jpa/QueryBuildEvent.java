@@ -0,0 +1,67 @@
+package org.pgqp.jpa;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of a query built by a {@link JpaQueryHandler}; only
+ * used through {@link QueryEvents}. Builds shorter than the threshold of the
+ * recording (1 ms unless configured otherwise) are not recorded.
+ */
+@Name("org.pgqp.QueryBuild")
+@Label("Query Build")
+@Category({ "PGQP" })
+@Description("Query built from a query definition by a JpaQueryHandler")
+@Threshold("1 ms")
+final class QueryBuildEvent extends Event {
+
+	private static final EventType TYPE = EventType.getEventType(QueryBuildEvent.class);
+
+	@Label("Entity Class")
+	Class<?> entityClass;
+
+	@Label("Query Type")
+	String queryType;
+
+	@Label("Shape Fingerprint")
+	long fingerprint;
+
+	@Label("Join Count")
+	int joinCount;
+
+	@Label("Subquery Used")
+	@Description("Whether restrictions below one-to-many joins were applied as semi-join sub-queries")
+	boolean subqueryUsed;
+
+	@Label("Templated")
+	@Description("Whether the query was created from a cached JPQL template")
+	boolean templated;
+
+	static QueryBuildEvent beginIfEnabled() {
+		if (!TYPE.isEnabled()) {
+			return null;
+		}
+		QueryBuildEvent event = new QueryBuildEvent();
+		event.begin();
+		return event;
+	}
+
+	void commit(QueryBuild build) {
+		end();
+		if (shouldCommit()) {
+			entityClass = build.getEntityClass();
+			queryType = build.getQueryType().name();
+			fingerprint = build.getFingerprint();
+			joinCount = build.getJoinCount();
+			subqueryUsed = build.getSemiJoinCount() > 0;
+			templated = build.isTemplated();
+			commit();
+		}
+	}
+
+}
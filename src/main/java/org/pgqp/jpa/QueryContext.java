@@ -2,6 +2,7 @@ package org.pgqp.jpa;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
 import javax.persistence.criteria.Path;
 
 /**
@@ -17,11 +18,21 @@ public class QueryContext<Q, F> {
 	private CriteriaBuilder criteriaBuilder;
 	private CriteriaQuery<Q> query;
 	private Path<F> path;
+	private ParameterBindings bindings;
+	private String parameterPrefix;
+	private int parameterCount;
 
 	public QueryContext(CriteriaBuilder criteriaBuilder, CriteriaQuery<Q> query, Path<F> path) {
+		this(criteriaBuilder, query, path, null, null);
+	}
+
+	QueryContext(CriteriaBuilder criteriaBuilder, CriteriaQuery<Q> query, Path<F> path, ParameterBindings bindings,
+			String parameterPrefix) {
 		this.criteriaBuilder = criteriaBuilder;
 		this.query = query;
 		this.path = path;
+		this.bindings = bindings;
+		this.parameterPrefix = parameterPrefix;
 	}
 
 	public CriteriaBuilder getCriteriaBuilder() {
@@ -35,4 +46,27 @@ public class QueryContext<Q, F> {
 	public Path<F> getPath() {
 		return path;
 	}
+
+	/**
+	 * Returns the expression of a value to compare with: a named parameter
+	 * when the handler binds parameters (see
+	 * {@link JpaQueryHandler#setBindParameters(boolean)}), a literal
+	 * otherwise. Handlers should pass every value through this method so that
+	 * the query text does not depend on the values.
+	 * 
+	 * @param value
+	 *            value to compare with
+	 * @return expression of the value
+	 */
+	@SuppressWarnings("unchecked")
+	public <X> Expression<X> toValue(X value) {
+		if (value == null) {
+			return (Expression<X>) criteriaBuilder.nullLiteral(Object.class);
+		}
+		if (bindings == null) {
+			return criteriaBuilder.literal(value);
+		}
+		return bindings.add(criteriaBuilder, parameterPrefix + parameterCount++, value);
+	}
+
 }
@@ -0,0 +1,95 @@
+package org.pgqp.jpa;
+
+/**
+ * Java Flight Recorder events of the queries built and executed with a
+ * {@link JpaQueryHandler} ({@code org.pgqp.QueryBuild} and
+ * {@code org.pgqp.QueryExecution}, see {@link QueryBuildEvent} and
+ * {@link QueryExecutionEvent}). The event classes are only loaded if the JDK
+ * has a usable flight recorder (JDK 8u262 and later, JDK 11 and later);
+ * otherwise, and while no recording enables an event, no event is created.
+ * Events are passed around as plain objects so that callers do not link
+ * against {@code jdk.jfr}.
+ */
+final class QueryEvents {
+
+	private static final boolean AVAILABLE = isRecorderAvailable();
+
+	private QueryEvents() {
+		assert false;
+	}
+
+	private static boolean isRecorderAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return jdk.jfr.FlightRecorder.isAvailable();
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns whether the flight recorder events can be recorded at all.
+	 *
+	 * @return whether the flight recorder is available
+	 */
+	static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	/**
+	 * Begins a build event if a recording enables it.
+	 *
+	 * @return the begun event or {@code null}
+	 */
+	static Object beginBuild() {
+		return AVAILABLE ? QueryBuildEvent.beginIfEnabled() : null;
+	}
+
+	/**
+	 * Ends a build event and commits it unless it is below its threshold.
+	 *
+	 * @param event
+	 *            event returned by {@link #beginBuild()}
+	 * @param build
+	 *            statistics of the built query
+	 */
+	static void commitBuild(Object event, QueryBuild build) {
+		((QueryBuildEvent) event).commit(build);
+	}
+
+	/**
+	 * Returns whether a recording enables execution events, so that built
+	 * queries must carry their statistics to the executors.
+	 *
+	 * @return whether execution events are enabled
+	 */
+	static boolean isExecutionEnabled() {
+		return AVAILABLE && QueryExecutionEvent.isTypeEnabled();
+	}
+
+	/**
+	 * Begins an execution event if a recording enables it.
+	 *
+	 * @return the begun event or {@code null}
+	 */
+	static Object beginExecution() {
+		return AVAILABLE ? QueryExecutionEvent.beginIfEnabled() : null;
+	}
+
+	/**
+	 * Ends an execution event and commits it unless it is below its
+	 * threshold.
+	 *
+	 * @param event
+	 *            event returned by {@link #beginExecution()}
+	 * @param build
+	 *            statistics of the executed query, {@code null} if the query
+	 *            was built while nothing was recorded
+	 * @param rowCount
+	 *            number of result rows, or the total of a count query
+	 */
+	static void commitExecution(Object event, QueryBuild build, long rowCount) {
+		((QueryExecutionEvent) event).commit(build, rowCount);
+	}
+
+}
@@ -0,0 +1,67 @@
+package org.pgqp.jpa;
+
+/**
+ * Execution of a {@link ParameterizedQuery} by an executor, reported to the
+ * {@link QueryListener} of its handler and as a flight recorder event when it
+ * finishes. Executors start an execution right before creating the query on
+ * an entity manager and finish it after reading the results; failed
+ * executions are not finished. Neither reads the clock nor allocates anything
+ * if the query is not reported.
+ */
+public final class QueryExecution {
+
+	private static final QueryExecution NONE = new QueryExecution(QueryListener.NONE, null, null, null, 0);
+
+	private final QueryListener listener;
+	private final ParameterizedQuery<?> query;
+	private final QueryBuild build;
+	private final Object event;
+	private final long start;
+
+	private QueryExecution(QueryListener listener, ParameterizedQuery<?> query, QueryBuild build, Object event,
+			long start) {
+		this.listener = listener;
+		this.query = query;
+		this.build = build;
+		this.event = event;
+		this.start = start;
+	}
+
+	/**
+	 * Starts the execution of a query.
+	 *
+	 * @param queryHandler
+	 *            handler that built the query
+	 * @param query
+	 *            query to execute
+	 * @return the started execution
+	 */
+	public static QueryExecution start(JpaQueryHandler<?, ?, ?, ?> queryHandler, ParameterizedQuery<?> query) {
+		QueryBuild build = query.getBuild();
+		Object event = QueryEvents.beginExecution();
+		if (build == null && event == null) {
+			return NONE;
+		}
+		return new QueryExecution(queryHandler.getQueryListener(), query, build, event, System.nanoTime());
+	}
+
+	/**
+	 * Finishes the execution, reporting it.
+	 *
+	 * @param rowCount
+	 *            number of result rows, or the total of a count query
+	 */
+	public void finish(long rowCount) {
+		if (this == NONE) {
+			return;
+		}
+		long executionNanos = System.nanoTime() - start;
+		if (event != null) {
+			QueryEvents.commitExecution(event, build, rowCount);
+		}
+		if (build != null) {
+			listener.queryExecuted(query, executionNanos, rowCount);
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package org.pgqp.jpa;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of a query executed by an executor built on a
+ * {@link JpaQueryHandler}; only used through {@link QueryEvents}. Executions
+ * shorter than the threshold of the recording (20 ms unless configured
+ * otherwise) are not recorded.
+ */
+@Name("org.pgqp.QueryExecution")
+@Label("Query Execution")
+@Category({ "PGQP" })
+@Description("Query built by a JpaQueryHandler executed by a PGQP executor")
+@Threshold("20 ms")
+final class QueryExecutionEvent extends Event {
+
+	private static final EventType TYPE = EventType.getEventType(QueryExecutionEvent.class);
+
+	@Label("Entity Class")
+	Class<?> entityClass;
+
+	@Label("Query Type")
+	String queryType;
+
+	@Label("Shape Fingerprint")
+	@Description("Fingerprint of the query shape; zero if the query was built while nothing was recorded")
+	long fingerprint;
+
+	@Label("Rows")
+	@Description("Number of result rows, or the total of a count query")
+	long rows;
+
+	static boolean isTypeEnabled() {
+		return TYPE.isEnabled();
+	}
+
+	static QueryExecutionEvent beginIfEnabled() {
+		if (!TYPE.isEnabled()) {
+			return null;
+		}
+		QueryExecutionEvent event = new QueryExecutionEvent();
+		event.begin();
+		return event;
+	}
+
+	void commit(QueryBuild build, long rowCount) {
+		end();
+		if (shouldCommit()) {
+			if (build != null) {
+				entityClass = build.getEntityClass();
+				queryType = build.getQueryType().name();
+				fingerprint = build.getFingerprint();
+			}
+			rows = rowCount;
+			commit();
+		}
+	}
+
+}
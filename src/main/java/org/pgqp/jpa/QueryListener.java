@@ -0,0 +1,71 @@
+package org.pgqp.jpa;
+
+/**
+ * Receives the statistics of the queries built by a {@link JpaQueryHandler}
+ * (see {@link JpaQueryHandler#setQueryListener(QueryListener)}) and executed
+ * by the executors built on it. Listeners are called on the threads building
+ * and executing the queries, so they must be thread-safe and fast, and should
+ * not throw. {@link QueryMetrics} aggregates the statistics per shape.
+ * <p>
+ * With the default {@link #NONE} listener the handler does not read the clock
+ * nor create any statistics.
+ */
+public interface QueryListener {
+
+	/** Listener ignoring all queries; the default of a handler. */
+	QueryListener NONE = new QueryListener() {
+	};
+
+	/**
+	 * Called after a query was built.
+	 *
+	 * @param build
+	 *            statistics of the query
+	 */
+	default void queryBuilt(QueryBuild build) {
+	}
+
+	/**
+	 * Called after a built query was executed successfully.
+	 *
+	 * @param query
+	 *            executed query; its {@link ParameterizedQuery#getBuild()
+	 *            statistics} are the ones passed to
+	 *            {@link #queryBuilt(QueryBuild)}
+	 * @param executionNanos
+	 *            time spent creating and executing the query and reading its
+	 *            results
+	 * @param rowCount
+	 *            number of result rows, or the total of a count query
+	 */
+	default void queryExecuted(ParameterizedQuery<?> query, long executionNanos, long rowCount) {
+	}
+
+	/**
+	 * Returns a listener passing the queries to this listener, then to
+	 * {@code after}.
+	 *
+	 * @param after
+	 *            listener called after this listener
+	 * @return the composed listener
+	 */
+	default QueryListener andThen(QueryListener after) {
+		QueryListener before = this;
+		return new QueryListener() {
+
+			@Override
+			public void queryBuilt(QueryBuild build) {
+				before.queryBuilt(build);
+				after.queryBuilt(build);
+			}
+
+			@Override
+			public void queryExecuted(ParameterizedQuery<?> query, long executionNanos, long rowCount) {
+				before.queryExecuted(query, executionNanos, rowCount);
+				after.queryExecuted(query, executionNanos, rowCount);
+			}
+
+		};
+	}
+
+}
@@ -0,0 +1,242 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.pgqp.jpa.JpaQueryHandler.QueryType;
+
+/**
+ * In-memory {@link QueryListener} aggregating the statistics of the queries
+ * per {@link QueryBuild#getFingerprint() shape fingerprint}: build and
+ * execution counts, latency histograms and row counts, together with the
+ * joins and restriction mappings of the shape. Recording a query of a known
+ * shape is lock-free; at most a maximum number of shapes is tracked, queries
+ * of further shapes are only counted (see {@link #getDroppedCount()}).
+ * Fingerprints are only unique per handler, so use one instance per handler.
+ */
+public final class QueryMetrics implements QueryListener {
+
+	/** Default maximum number of shapes tracked. */
+	public static final int DEFAULT_MAXIMUM_SHAPES = 1000;
+
+	private final int maximumShapes;
+	private final ConcurrentHashMap<Long, ShapeMetrics> shapes = new ConcurrentHashMap<>();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Creates an aggregator tracking at most {@link #DEFAULT_MAXIMUM_SHAPES}
+	 * shapes.
+	 */
+	public QueryMetrics() {
+		this(DEFAULT_MAXIMUM_SHAPES);
+	}
+
+	/**
+	 * Creates an aggregator tracking at most {@code maximumShapes} shapes.
+	 *
+	 * @param maximumShapes
+	 *            maximum number of shapes to track
+	 */
+	public QueryMetrics(int maximumShapes) {
+		if (maximumShapes < 1) {
+			throw new IllegalArgumentException("Maximum number of shapes must be positive: " + maximumShapes);
+		}
+		this.maximumShapes = maximumShapes;
+	}
+
+	@Override
+	public void queryBuilt(QueryBuild build) {
+		ShapeMetrics metrics = toShapeMetrics(build);
+		if (metrics != null) {
+			metrics.buildLatency.record(build.getBuildNanos());
+			if (build.isTemplated()) {
+				metrics.templatedBuilds.increment();
+			}
+		}
+	}
+
+	@Override
+	public void queryExecuted(ParameterizedQuery<?> query, long executionNanos, long rowCount) {
+		ShapeMetrics metrics = toShapeMetrics(query.getBuild());
+		if (metrics != null) {
+			metrics.executionLatency.record(executionNanos);
+			metrics.rows.add(rowCount);
+		}
+	}
+
+	private ShapeMetrics toShapeMetrics(QueryBuild build) {
+		Long fingerprint = build.getFingerprint();
+		ShapeMetrics metrics = shapes.get(fingerprint);
+		if (metrics == null) {
+			if (shapes.size() >= maximumShapes) {
+				dropped.increment();
+				return null;
+			}
+			metrics = shapes.computeIfAbsent(fingerprint, f -> new ShapeMetrics(build));
+		}
+		return metrics;
+	}
+
+	/**
+	 * Returns the metrics of the tracked shapes, in no particular order.
+	 *
+	 * @return the metrics of the tracked shapes
+	 */
+	public List<ShapeMetrics> getShapes() {
+		return Collections.unmodifiableList(new ArrayList<>(shapes.values()));
+	}
+
+	/**
+	 * Returns the metrics of a shape.
+	 *
+	 * @param fingerprint
+	 *            fingerprint of the shape
+	 * @return the metrics of the shape or {@code null} if it is not tracked
+	 */
+	public ShapeMetrics getShape(long fingerprint) {
+		return shapes.get(fingerprint);
+	}
+
+	/**
+	 * Returns the number of built or executed queries that were not recorded
+	 * because the maximum number of shapes was tracked already.
+	 *
+	 * @return the number of dropped queries
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Stops tracking all shapes. The dropped count is not reset.
+	 */
+	public void clear() {
+		shapes.clear();
+	}
+
+	/**
+	 * Metrics of the queries of one shape. The plan statistics are taken from
+	 * the first query of the shape, since all queries of a shape share a plan.
+	 */
+	public static final class ShapeMetrics {
+
+		private final QueryType queryType;
+		private final long fingerprint;
+		private final int innerJoinCount;
+		private final int leftJoinCount;
+		private final int fetchJoinCount;
+		private final int semiJoinCount;
+		private final boolean distinct;
+		private final List<RestrictionMapping<?, ?, ?, ?, ?>> restrictionMappings;
+		private final List<SortDefinition<?, ?, ?>> sortDefinitions;
+		private final LatencyHistogram buildLatency = new LatencyHistogram();
+		private final LatencyHistogram executionLatency = new LatencyHistogram();
+		private final LongAdder templatedBuilds = new LongAdder();
+		private final LongAdder rows = new LongAdder();
+
+		ShapeMetrics(QueryBuild build) {
+			this.queryType = build.getQueryType();
+			this.fingerprint = build.getFingerprint();
+			this.innerJoinCount = build.getInnerJoinCount();
+			this.leftJoinCount = build.getLeftJoinCount();
+			this.fetchJoinCount = build.getFetchJoinCount();
+			this.semiJoinCount = build.getSemiJoinCount();
+			this.distinct = build.isDistinct();
+			this.restrictionMappings = Collections.unmodifiableList(build.getRestrictionMappings());
+			this.sortDefinitions = Collections.unmodifiableList(build.getSortDefinitions());
+		}
+
+		public QueryType getQueryType() {
+			return queryType;
+		}
+
+		public long getFingerprint() {
+			return fingerprint;
+		}
+
+		public int getInnerJoinCount() {
+			return innerJoinCount;
+		}
+
+		public int getLeftJoinCount() {
+			return leftJoinCount;
+		}
+
+		public int getFetchJoinCount() {
+			return fetchJoinCount;
+		}
+
+		public int getSemiJoinCount() {
+			return semiJoinCount;
+		}
+
+		public boolean isDistinct() {
+			return distinct;
+		}
+
+		public List<RestrictionMapping<?, ?, ?, ?, ?>> getRestrictionMappings() {
+			return restrictionMappings;
+		}
+
+		public List<SortDefinition<?, ?, ?>> getSortDefinitions() {
+			return sortDefinitions;
+		}
+
+		/**
+		 * Returns the number of queries of the shape that were built.
+		 *
+		 * @return the number of builds
+		 */
+		public long getBuildCount() {
+			return buildLatency.getCount();
+		}
+
+		/**
+		 * Returns the number of queries of the shape that were created from a
+		 * JPQL template.
+		 *
+		 * @return the number of templated builds
+		 */
+		public long getTemplatedBuildCount() {
+			return templatedBuilds.sum();
+		}
+
+		public LatencyHistogram getBuildLatency() {
+			return buildLatency;
+		}
+
+		/**
+		 * Returns the number of queries of the shape that were executed.
+		 *
+		 * @return the number of executions
+		 */
+		public long getExecutionCount() {
+			return executionLatency.getCount();
+		}
+
+		public LatencyHistogram getExecutionLatency() {
+			return executionLatency;
+		}
+
+		/**
+		 * Returns the sum of the row counts of the executed queries of the
+		 * shape.
+		 *
+		 * @return the number of rows
+		 */
+		public long getRowCount() {
+			return rows.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "ShapeMetrics[" + queryType + " " + Long.toHexString(fingerprint) + ", builds=" + getBuildCount()
+					+ ", executions=" + getExecutionCount() + ", rows=" + getRowCount() + "]";
+		}
+
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.pgqp.SortInfo.Direction;
+
+/**
+ * Compiled, immutable plan for a {@link QueryShape}: the join topology and join
+ * types, the split between the main query and the one-to-many semi-joins, the
+ * restriction groups, and the slots that predicates and orders are attached
+ * to. Executing a plan only
+ * creates the JPA criteria objects and binds the restriction values.
+ */
+final class QueryPlan {
+
+	/**
+	 * Joins and predicates of a single query (the main query or a semi-join).
+	 * Slot zero is always the root of the query; every other slot is joined
+	 * from its parent slot, which always precedes it. Each slot also records
+	 * the ordinal of its join in the handler's {@link JoinGraph}.
+	 */
+	static final class Block {
+
+		final JoinDefinition<?, ?>[] joins;
+		final int[] ordinals;
+		final int[] parents;
+		final JoinTypeInfo[] joinTypes;
+		final int[] restrictions;
+		final int[] restrictionSlots;
+
+		Block(JoinDefinition<?, ?>[] joins, int[] ordinals, int[] parents, JoinTypeInfo[] joinTypes,
+				int[] restrictions, int[] restrictionSlots) {
+			this.joins = joins;
+			this.ordinals = ordinals;
+			this.parents = parents;
+			this.joinTypes = joinTypes;
+			this.restrictions = restrictions;
+			this.restrictionSlots = restrictionSlots;
+		}
+
+		int getJoinCount() {
+			return joins.length;
+		}
+
+	}
+
+	/**
+	 * Disjunction or conjunction of restrictions, evaluated against the joins
+	 * of the main query, of semi-joins and of nested groups (which always
+	 * combine their members the other way). Equality restrictions on the same
+	 * column of a disjunction may be collapsed into one {@code in} predicate.
+	 */
+	static final class Group {
+
+		final boolean disjunction;
+		final int[] restrictions;
+		final int[] restrictionSlots;
+		final int[][] inRestrictions;
+		final int[] inSlots;
+		final Block[] semiJoins;
+		final SemiJoinStrategy[] semiJoinStrategies;
+		final Group[] groups;
+
+		Group(boolean disjunction, int[] restrictions, int[] restrictionSlots, int[][] inRestrictions, int[] inSlots,
+				Block[] semiJoins, SemiJoinStrategy[] semiJoinStrategies, Group[] groups) {
+			this.disjunction = disjunction;
+			this.restrictions = restrictions;
+			this.restrictionSlots = restrictionSlots;
+			this.inRestrictions = inRestrictions;
+			this.inSlots = inSlots;
+			this.semiJoins = semiJoins;
+			this.semiJoinStrategies = semiJoinStrategies;
+			this.groups = groups;
+		}
+
+		int getPredicateCount() {
+			return restrictions.length + inRestrictions.length + semiJoins.length + groups.length;
+		}
+
+		void addSemiJoins(List<Block> blocks) {
+			Collections.addAll(blocks, semiJoins);
+			for (Group group : groups) {
+				group.addSemiJoins(blocks);
+			}
+		}
+
+	}
+
+	final Block main;
+	final Block[] semiJoins;
+	final SemiJoinStrategy[] semiJoinStrategies;
+	final boolean distinct;
+	final int[] sorts;
+	final Direction[] directions;
+	final int[] sortSlots;
+	final boolean keysetOrder;
+	final boolean keysetPredicate;
+	final Group[] groups;
+
+	QueryPlan(Block main, Block[] semiJoins, SemiJoinStrategy[] semiJoinStrategies, Group[] groups,
+			boolean distinct, int[] sorts, Direction[] directions, int[] sortSlots, boolean keysetOrder,
+			boolean keysetPredicate) {
+		this.main = main;
+		this.semiJoins = semiJoins;
+		this.semiJoinStrategies = semiJoinStrategies;
+		this.groups = groups;
+		this.distinct = distinct;
+		this.sorts = sorts;
+		this.directions = directions;
+		this.sortSlots = sortSlots;
+		this.keysetOrder = keysetOrder;
+		this.keysetPredicate = keysetPredicate;
+	}
+
+	/**
+	 * Returns the number of semi-joins, including the semi-joins of the
+	 * restriction groups.
+	 */
+	int getSemiJoinCount() {
+		return getAllSemiJoins().size();
+	}
+
+	/**
+	 * Returns the semi-joins of the main query followed by the semi-joins of
+	 * the restriction groups.
+	 */
+	List<Block> getAllSemiJoins() {
+		List<Block> blocks = new ArrayList<>(Arrays.asList(semiJoins));
+		for (Group group : groups) {
+			group.addSemiJoins(blocks);
+		}
+		return blocks;
+	}
+
+}
@@ -0,0 +1,473 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.pgqp.SortInfo.Direction;
+
+/**
+ * Compiles {@link QueryShape}s into {@link QueryPlan}s. Planning only happens on
+ * a plan cache miss so it favors clarity over allocation.
+ */
+final class QueryPlanner {
+
+	private final JoinGraph joinGraph;
+	private final int[] restrictionJoins;
+	private final SemiJoinStrategy[] restrictionStrategies;
+	private final int[] equalityKeys;
+	private final Map<RestrictionMapping<?, ?, ?, ?, ?>, Integer> restrictionIndexes = new IdentityHashMap<>();
+	private final int[] sortJoins;
+	private volatile SemiJoinStrategy defaultSemiJoinStrategy = SemiJoinStrategy.IN;
+	private volatile boolean semiJoinPerBranch;
+	private volatile Node restrictionTree;
+	private volatile boolean collapseEqualities;
+
+	QueryPlanner(JoinDefinition<?, ?> rootJoinDefinition,
+			List<? extends RestrictionMapping<?, ?, ?, ?, ?>> restrictions,
+			List<? extends SortDefinition<?, ?, ?>> sorts) {
+		List<JoinDefinition<?, ?>> joinDefinitions = new ArrayList<>();
+		restrictions.forEach(r -> joinDefinitions.add(r.getRestrictionDefinition().getJoinDefinition()));
+		sorts.forEach(s -> joinDefinitions.add(s.getJoinDefinition()));
+		this.joinGraph = new JoinGraph(rootJoinDefinition, joinDefinitions);
+		this.restrictionJoins = new int[restrictions.size()];
+		this.restrictionStrategies = new SemiJoinStrategy[restrictions.size()];
+		this.equalityKeys = new int[restrictions.size()];
+		Map<List<Object>, Integer> equalityColumns = new HashMap<>();
+		for (int i = 0; i < restrictionJoins.length; i++) {
+			restrictionJoins[i] = joinGraph.getOrdinal(joinDefinitions.get(i));
+			int branch = joinGraph.getBranch(restrictionJoins[i]);
+			if (branch >= 0) {
+				restrictionStrategies[i] = joinGraph.getJoin(branch).getSemiJoinStrategy();
+			}
+			RestrictionDefinition<?, ?, ?, ?> definition = restrictions.get(i).getRestrictionDefinition();
+			equalityKeys[i] = definition.getToPredicate() != JpaCriteriaHandlers.EQ_FIELD_HANDLER ? -1
+					: equalityColumns.computeIfAbsent(Arrays.asList(restrictionJoins[i], definition.getAttribute()),
+							k -> equalityColumns.size());
+			restrictionIndexes.putIfAbsent(restrictions.get(i), i);
+		}
+		this.restrictionTree = toNode(false, restrictions.size(), Collections.emptyList(),
+				Collections.emptyList());
+		this.sortJoins = new int[sorts.size()];
+		for (int i = 0; i < sortJoins.length; i++) {
+			sortJoins[i] = joinGraph.getOrdinal(joinDefinitions.get(restrictionJoins.length + i));
+		}
+	}
+
+	JoinGraph getJoinGraph() {
+		return joinGraph;
+	}
+
+	/**
+	 * Sets the semi-join strategy for one-to-many joins that do not define
+	 * their own.
+	 *
+	 * @param semiJoinStrategy
+	 *            default semi-join strategy
+	 */
+	void setDefaultSemiJoinStrategy(SemiJoinStrategy semiJoinStrategy) {
+		this.defaultSemiJoinStrategy = semiJoinStrategy;
+	}
+
+	/**
+	 * Sets whether restrictions below different collection branches (i.e.,
+	 * below different first one-to-many joins) go into separate semi-joins
+	 * instead of one semi-join per strategy.
+	 *
+	 * @param semiJoinPerBranch
+	 *            whether to create one semi-join per collection branch
+	 */
+	void setSemiJoinPerBranch(boolean semiJoinPerBranch) {
+		this.semiJoinPerBranch = semiJoinPerBranch;
+	}
+
+	/**
+	 * Sets the restriction groups. Restrictions that are not part of a group
+	 * are combined with the groups by {@code and}.
+	 *
+	 * @param groups
+	 *            restriction groups
+	 * @throws IllegalArgumentException
+	 *             if a group contains a restriction mapping of another
+	 *             handler or a restriction mapping is part of more than one
+	 *             group
+	 */
+	void setRestrictionGroups(Collection<? extends RestrictionGroup<?>> groups) {
+		this.restrictionTree = toNode(false, restrictionJoins.length, Collections.emptyList(), groups);
+	}
+
+	/**
+	 * Sets whether equality restrictions on the same column of a disjunction
+	 * are collapsed into one {@code in} predicate.
+	 *
+	 * @param collapseEqualities
+	 *            whether to collapse equalities
+	 */
+	void setCollapseEqualities(boolean collapseEqualities) {
+		this.collapseEqualities = collapseEqualities;
+	}
+
+	QueryPlan compile(QueryShape shape) {
+		BlockBuilder main = new BlockBuilder(joinGraph);
+		boolean perBranch = semiJoinPerBranch;
+		Map<Long, BlockBuilder> semiJoins = new TreeMap<>();
+		boolean distinct = false;
+		Term where = restrictionTree.toTerm(shape);
+
+		/*
+		 * Restrictions: one-to-many joins go into a semi-join block per
+		 * strategy, or per strategy and collection branch (DISTINCT_JOIN
+		 * restrictions go into the main query), everything else is inner
+		 * joined in the main query.
+		 */
+		for (int i : where.restrictions) {
+			int ordinal = restrictionJoins[i];
+			BlockBuilder block = main;
+			if (joinGraph.hasOneToManyRelationship(ordinal)) {
+				SemiJoinStrategy strategy = toSemiJoinStrategy(i);
+				if (strategy == SemiJoinStrategy.DISTINCT_JOIN && shape.hasFlag(QueryShape.PROJECTION)) {
+					strategy = SemiJoinStrategy.EXISTS;
+				}
+				if (strategy == SemiJoinStrategy.DISTINCT_JOIN) {
+					distinct = true;
+				} else {
+					block = semiJoins.computeIfAbsent(toSemiJoinKey(strategy, perBranch ? joinGraph.getBranch(ordinal) : 0),
+							k -> new BlockBuilder(joinGraph));
+				}
+			}
+			block.addRestriction(i, block.addJoin(ordinal, new JoinTypeInfo(true, false)));
+		}
+
+		/*
+		 * Sorts: left fetch joins in the main query, plain left joins for id
+		 * and projection queries.
+		 */
+		JoinTypeInfo sortJoinType = new JoinTypeInfo(false,
+				!shape.hasFlag(QueryShape.ID_QUERY | QueryShape.PROJECTION));
+		int sortCount = shape.getSortCount();
+		int[] sortIndexes = new int[sortCount];
+		Direction[] directions = new Direction[sortCount];
+		int[] sortSlots = new int[sortCount];
+		for (int i = 0; i < sortCount; i++) {
+			sortIndexes[i] = shape.getSortIndex(i);
+			directions[i] = shape.isAscending(i) ? Direction.ASC : Direction.DESC;
+			sortSlots[i] = main.addJoin(sortJoins[sortIndexes[i]], sortJoinType);
+		}
+
+		/*
+		 * Groups: planned last so that their joins do not turn the inner
+		 * joins of the other restrictions into left joins.
+		 */
+		boolean collapse = collapseEqualities;
+		QueryPlan.Group[] groups = new QueryPlan.Group[where.groups.size()];
+		for (int i = 0; i < groups.length; i++) {
+			groups[i] = toGroup(where.groups.get(i), main, perBranch, collapse);
+		}
+
+		QueryPlan.Block[] semiJoinBlocks = new QueryPlan.Block[semiJoins.size()];
+		SemiJoinStrategy[] semiJoinStrategies = new SemiJoinStrategy[semiJoins.size()];
+		toSemiJoins(semiJoins, semiJoinBlocks, semiJoinStrategies);
+
+		return new QueryPlan(main.build(), semiJoinBlocks, semiJoinStrategies, groups, distinct, sortIndexes,
+				directions, sortSlots, shape.hasFlag(QueryShape.KEYSET_ORDER),
+				shape.hasFlag(QueryShape.KEYSET_PREDICATE));
+	}
+
+	/**
+	 * Plans a restriction group. A row only has to match some members of a
+	 * disjunction, so the joins of the group are left joins in the main query
+	 * (unless the other restrictions inner join them already) and its
+	 * one-to-many restrictions are semi-joins even with
+	 * {@link SemiJoinStrategy#DISTINCT_JOIN}, which uses
+	 * {@link SemiJoinStrategy#EXISTS} instead: each member of a disjunction
+	 * gets its own semi-join, while the members of a conjunction share them
+	 * like the other restrictions.
+	 */
+	private QueryPlan.Group toGroup(Term term, BlockBuilder main, boolean perBranch, boolean collapse) {
+		List<Integer> restrictions = new ArrayList<>();
+		List<Integer> restrictionSlots = new ArrayList<>();
+		Map<Integer, List<Integer>> equalities = new LinkedHashMap<>();
+		Map<Integer, Integer> equalitySlots = new HashMap<>();
+		Map<Long, BlockBuilder> semiJoins = new TreeMap<>();
+		for (int i : term.restrictions) {
+			int ordinal = restrictionJoins[i];
+			if (joinGraph.hasOneToManyRelationship(ordinal)) {
+				SemiJoinStrategy strategy = toSemiJoinStrategy(i);
+				if (strategy == SemiJoinStrategy.DISTINCT_JOIN) {
+					strategy = SemiJoinStrategy.EXISTS;
+				}
+				int member = term.disjunction ? i : perBranch ? joinGraph.getBranch(ordinal) : 0;
+				BlockBuilder block = semiJoins.computeIfAbsent(toSemiJoinKey(strategy, member),
+						k -> new BlockBuilder(joinGraph));
+				block.addRestriction(i, block.addJoin(ordinal, new JoinTypeInfo(true, false)));
+			} else {
+				int slot = main.addOptionalJoin(ordinal);
+				if (collapse && term.disjunction && equalityKeys[i] >= 0) {
+					equalities.computeIfAbsent(equalityKeys[i], k -> new ArrayList<>()).add(i);
+					equalitySlots.put(equalityKeys[i], slot);
+				} else {
+					restrictions.add(i);
+					restrictionSlots.add(slot);
+				}
+			}
+		}
+
+		List<int[]> inRestrictions = new ArrayList<>();
+		List<Integer> inSlots = new ArrayList<>();
+		for (Map.Entry<Integer, List<Integer>> entry : equalities.entrySet()) {
+			if (entry.getValue().size() == 1) {
+				restrictions.add(entry.getValue().get(0));
+				restrictionSlots.add(equalitySlots.get(entry.getKey()));
+			} else {
+				inRestrictions.add(toIntArray(entry.getValue()));
+				inSlots.add(equalitySlots.get(entry.getKey()));
+			}
+		}
+
+		QueryPlan.Block[] semiJoinBlocks = new QueryPlan.Block[semiJoins.size()];
+		SemiJoinStrategy[] semiJoinStrategies = new SemiJoinStrategy[semiJoins.size()];
+		toSemiJoins(semiJoins, semiJoinBlocks, semiJoinStrategies);
+		QueryPlan.Group[] groups = new QueryPlan.Group[term.groups.size()];
+		for (int i = 0; i < groups.length; i++) {
+			groups[i] = toGroup(term.groups.get(i), main, perBranch, collapse);
+		}
+		return new QueryPlan.Group(term.disjunction, toIntArray(restrictions), toIntArray(restrictionSlots),
+				inRestrictions.toArray(new int[inRestrictions.size()][]), toIntArray(inSlots), semiJoinBlocks,
+				semiJoinStrategies, groups);
+	}
+
+	private SemiJoinStrategy toSemiJoinStrategy(int restriction) {
+		return restrictionStrategies[restriction] != null ? restrictionStrategies[restriction]
+				: defaultSemiJoinStrategy;
+	}
+
+	/**
+	 * Returns the key of a semi-join block: blocks are ordered by strategy,
+	 * then by member (e.g., the collection branch), and the strategy can be
+	 * recovered from the key.
+	 */
+	private static long toSemiJoinKey(SemiJoinStrategy strategy, int member) {
+		return (long) strategy.ordinal() << 32 | member;
+	}
+
+	private static void toSemiJoins(Map<Long, BlockBuilder> semiJoins, QueryPlan.Block[] blocks,
+			SemiJoinStrategy[] strategies) {
+		int semiJoin = 0;
+		for (Map.Entry<Long, BlockBuilder> entry : semiJoins.entrySet()) {
+			strategies[semiJoin] = SemiJoinStrategy.values()[(int) (entry.getKey() >>> 32)];
+			blocks[semiJoin++] = entry.getValue().build();
+		}
+	}
+
+	/**
+	 * Compiles a restriction group, or the top level conjunction, into a node
+	 * of restriction indexes. The top level conjunction gets all the
+	 * restrictions ({@code restrictionCount}) that are not part of a group.
+	 */
+	private Node toNode(boolean disjunction, int restrictionCount,
+			Collection<? extends RestrictionMapping<?, ?, ?, ?, ?>> mappings,
+			Collection<? extends RestrictionGroup<?>> groups) {
+		Node[] children = new Node[groups.size()];
+		boolean[] grouped = new boolean[restrictionJoins.length];
+		int child = 0;
+		for (RestrictionGroup<?> group : groups) {
+			children[child] = toNode(group.isDisjunction(), 0, group.getMappings(), group.getGroups());
+			children[child++].mark(grouped);
+		}
+		List<Integer> restrictions = new ArrayList<>();
+		for (RestrictionMapping<?, ?, ?, ?, ?> mapping : mappings) {
+			Integer index = restrictionIndexes.get(mapping);
+			if (index == null) {
+				throw new IllegalArgumentException("Restriction mapping " + mapping
+						+ " is not a restriction mapping of the handler");
+			}
+			if (grouped[index] || restrictions.contains(index)) {
+				throw new IllegalArgumentException("Restriction " + index + " is part of more than one group");
+			}
+			restrictions.add(index);
+		}
+		for (int i = 0; i < restrictionCount; i++) {
+			if (!grouped[i]) {
+				restrictions.add(i);
+			}
+		}
+		return new Node(disjunction, toIntArray(restrictions), children);
+	}
+
+	private static int[] toIntArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Compiled restriction group: the indexes of its restriction mappings and
+	 * its nested groups.
+	 */
+	private static final class Node {
+
+		private final boolean disjunction;
+		private final int[] restrictions;
+		private final Node[] children;
+
+		Node(boolean disjunction, int[] restrictions, Node[] children) {
+			this.disjunction = disjunction;
+			this.restrictions = restrictions;
+			this.children = children;
+		}
+
+		/**
+		 * Marks the restrictions of this node and its children, throwing if
+		 * one of them is already marked.
+		 */
+		void mark(boolean[] grouped) {
+			for (int restriction : restrictions) {
+				if (grouped[restriction]) {
+					throw new IllegalArgumentException("Restriction " + restriction + " is part of more than one group");
+				}
+				grouped[restriction] = true;
+			}
+			for (Node child : children) {
+				child.mark(grouped);
+			}
+		}
+
+		/**
+		 * Returns the populated members of this node, without empty groups and
+		 * with groups of one member and groups combining their members like
+		 * this node merged into it, so nested terms always alternate between
+		 * disjunctions and conjunctions.
+		 */
+		Term toTerm(QueryShape shape) {
+			Term term = new Term(disjunction);
+			for (int restriction : restrictions) {
+				if (shape.hasRestriction(restriction)) {
+					term.restrictions.add(restriction);
+				}
+			}
+			for (Node child : children) {
+				term.add(child.toTerm(shape));
+			}
+			return term;
+		}
+
+	}
+
+	/**
+	 * Populated members of a restriction group.
+	 */
+	private static final class Term {
+
+		private final boolean disjunction;
+		private final List<Integer> restrictions = new ArrayList<>();
+		private final List<Term> groups = new ArrayList<>();
+
+		Term(boolean disjunction) {
+			this.disjunction = disjunction;
+		}
+
+		void add(Term member) {
+			int size = member.restrictions.size() + member.groups.size();
+			if (size == 1 && member.groups.size() == 1) {
+				add(member.groups.get(0));
+			} else if (size == 1 || size > 1 && member.disjunction == disjunction) {
+				restrictions.addAll(member.restrictions);
+				groups.addAll(member.groups);
+			} else if (size > 1) {
+				groups.add(member);
+			}
+		}
+
+	}
+
+	/**
+	 * Accumulates the joins and restriction slots of a single query block.
+	 */
+	private static final class BlockBuilder {
+
+		private final JoinGraph joinGraph;
+		private final int[] slots;
+		private final List<Integer> ordinals = new ArrayList<>();
+		private final List<Integer> parents = new ArrayList<>();
+		private final List<JoinTypeInfo> joinTypes = new ArrayList<>();
+		private final List<Integer> restrictions = new ArrayList<>();
+		private final List<Integer> restrictionSlots = new ArrayList<>();
+
+		BlockBuilder(JoinGraph joinGraph) {
+			this.joinGraph = joinGraph;
+			this.slots = new int[joinGraph.size()];
+			Arrays.fill(slots, -1);
+			add(0, -1, null);
+		}
+
+		/**
+		 * Adds the joins needed to reach the join with the given ordinal from
+		 * the root (which is always slot zero), merging the join type into
+		 * joins that are already present. Returns the slot of the join.
+		 */
+		int addJoin(int ordinal, JoinTypeInfo joinTypeInfo) {
+			int[] path = joinGraph.getPath(ordinal);
+			int slot = 0;
+			for (int i = 1; i < path.length; i++) {
+				int existing = slots[path[i]];
+				if (existing < 0) {
+					slot = add(path[i], slot, joinTypeInfo);
+				} else {
+					slot = existing;
+					joinTypes.set(slot, joinTypes.get(slot).merge(joinTypeInfo));
+				}
+			}
+			return slot;
+		}
+
+		/**
+		 * Adds the joins needed to reach the join with the given ordinal as
+		 * plain left joins, keeping the type of joins that are already
+		 * present. Returns the slot of the join.
+		 */
+		int addOptionalJoin(int ordinal) {
+			int[] path = joinGraph.getPath(ordinal);
+			int slot = 0;
+			for (int i = 1; i < path.length; i++) {
+				int existing = slots[path[i]];
+				slot = existing < 0 ? add(path[i], slot, new JoinTypeInfo(false, false)) : existing;
+			}
+			return slot;
+		}
+
+		void addRestriction(int restriction, int slot) {
+			restrictions.add(restriction);
+			restrictionSlots.add(slot);
+		}
+
+		QueryPlan.Block build() {
+			JoinDefinition<?, ?>[] joins = new JoinDefinition<?, ?>[ordinals.size()];
+			for (int i = 0; i < joins.length; i++) {
+				joins[i] = joinGraph.getJoin(ordinals.get(i));
+			}
+			return new QueryPlan.Block(joins, toIntArray(ordinals), toIntArray(parents),
+					joinTypes.toArray(new JoinTypeInfo[joinTypes.size()]), toIntArray(restrictions),
+					toIntArray(restrictionSlots));
+		}
+
+		private int add(int ordinal, int parent, JoinTypeInfo joinTypeInfo) {
+			int slot = ordinals.size();
+			ordinals.add(ordinal);
+			parents.add(parent);
+			joinTypes.add(joinTypeInfo);
+			slots[ordinal] = slot;
+			return slot;
+		}
+
+	}
+
+}
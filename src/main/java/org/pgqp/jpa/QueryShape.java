@@ -0,0 +1,204 @@
+package org.pgqp.jpa;
+
+import java.util.Arrays;
+
+/**
+ * Fingerprint of a query request: which restriction mappings are populated and
+ * which sorts (and in which directions) were requested. Two requests with the
+ * same shape produce the same joins, sub-queries and predicate/order slots and
+ * only differ in the values that are bound.
+ * <p>
+ * The whole shape is encoded in a single {@code long} array: a word of flags,
+ * a bitset over the restriction mapping indexes and one word per sort holding
+ * the sort definition index shifted left by one, with the low bit set for
+ * descending sorts.
+ */
+final class QueryShape {
+
+	/** Flag: the query is keyset paginated and ordered by id after its sorts. */
+	static final long KEYSET_ORDER = 1;
+
+	/** Flag: the query is restricted to the rows after a keyset cursor. */
+	static final long KEYSET_PREDICATE = 1 << 1;
+
+	/** Flag: the query selects ids and sort columns, so sort joins are not fetched. */
+	static final long ID_QUERY = 1 << 2;
+
+	/**
+	 * Flag: the query selects projection columns, so sort joins are not
+	 * fetched and distinct joins are replaced by semi-joins.
+	 */
+	static final long PROJECTION = 1 << 3;
+
+	/** Flag: the query counts rows (used by backends that render counts differently). */
+	static final long COUNT_QUERY = 1 << 4;
+
+	/** Index of the first word of the restriction bitset. */
+	static final int RESTRICTION_OFFSET = 1;
+
+	private final long[] key;
+	private final int restrictionWords;
+	private final int hashCode;
+
+	/**
+	 * Creates a new shape.
+	 *
+	 * @param key
+	 *            encoded shape
+	 * @param restrictionWords
+	 *            number of words that hold the restriction bitset
+	 */
+	QueryShape(long[] key, int restrictionWords) {
+		this.key = key;
+		this.restrictionWords = restrictionWords;
+		this.hashCode = Arrays.hashCode(key);
+	}
+
+	/**
+	 * Returns the number of words needed for a bitset over
+	 * {@code restrictionCount} restriction mappings.
+	 *
+	 * @param restrictionCount
+	 *            number of restriction mappings
+	 * @return number of words in the restriction bitset
+	 */
+	static int toRestrictionWords(int restrictionCount) {
+		return (restrictionCount + 63) >>> 6;
+	}
+
+	/**
+	 * Encodes a sort for the shape key.
+	 *
+	 * @param sortIndex
+	 *            index of the sort definition
+	 * @param ascending
+	 *            whether the sort is ascending
+	 * @return the encoded sort
+	 */
+	static long toSortWord(int sortIndex, boolean ascending) {
+		return ((long) sortIndex << 1) | (ascending ? 0 : 1);
+	}
+
+	/**
+	 * Returns whether the given flag is set.
+	 *
+	 * @param flag
+	 *            flag to test
+	 * @return whether the flag is set
+	 */
+	boolean hasFlag(long flag) {
+		return (key[0] & flag) != 0;
+	}
+
+	/**
+	 * Returns whether the restriction mapping with the given index is
+	 * populated.
+	 *
+	 * @param index
+	 *            index of the restriction mapping
+	 * @return whether the restriction mapping is populated
+	 */
+	boolean hasRestriction(int index) {
+		int word = index >>> 6;
+		return word < restrictionWords && (key[RESTRICTION_OFFSET + word] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Returns a raw word of the encoded shape.
+	 *
+	 * @param index
+	 *            index of the word
+	 * @return the word
+	 */
+	long getWord(int index) {
+		return key[index];
+	}
+
+	/**
+	 * Returns the number of sorts in the shape.
+	 *
+	 * @return the number of sorts
+	 */
+	int getSortCount() {
+		return key.length - RESTRICTION_OFFSET - restrictionWords;
+	}
+
+	/**
+	 * Returns the index of the sort definition at the given position.
+	 *
+	 * @param position
+	 *            position of the sort
+	 * @return index of the sort definition
+	 */
+	int getSortIndex(int position) {
+		return (int) (key[RESTRICTION_OFFSET + restrictionWords + position] >>> 1);
+	}
+
+	/**
+	 * Returns whether the sort at the given position is ascending.
+	 *
+	 * @param position
+	 *            position of the sort
+	 * @return whether the sort is ascending
+	 */
+	boolean isAscending(int position) {
+		return (key[RESTRICTION_OFFSET + restrictionWords + position] & 1) == 0;
+	}
+
+	/**
+	 * Returns a 64-bit hash of the shape, mixed into {@code seed}. Unlike
+	 * {@link #hashCode()}, collisions are unlikely enough to key metrics by
+	 * the fingerprint alone.
+	 *
+	 * @param seed
+	 *            value distinguishing shapes used in different contexts
+	 * @return the fingerprint of the shape
+	 */
+	long getFingerprint(long seed) {
+		long fingerprint = mix(seed ^ restrictionWords);
+		for (long word : key) {
+			fingerprint = mix(fingerprint ^ word) + 0x9e3779b97f4a7c15L;
+		}
+		return mix(fingerprint ^ key.length);
+	}
+
+	private static long mix(long value) {
+		value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+		value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return value ^ (value >>> 33);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof QueryShape)) {
+			return false;
+		}
+		QueryShape shape = (QueryShape) other;
+		return hashCode == shape.hashCode && restrictionWords == shape.restrictionWords
+				&& Arrays.equals(key, shape.key);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("r");
+		for (int i = restrictionWords - 1; i >= 0; i--) {
+			sb.append(String.format("%016x", key[RESTRICTION_OFFSET + i]));
+		}
+		for (int i = 0; i < getSortCount(); i++) {
+			sb.append(isAscending(i) ? "+" : "-").append(getSortIndex(i));
+		}
+		if (key[0] != 0) {
+			sb.append("/").append(key[0]);
+		}
+		return sb.toString();
+	}
+
+}
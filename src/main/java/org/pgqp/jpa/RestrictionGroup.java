@@ -0,0 +1,98 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Disjunction ({@link #anyOf}) or conjunction ({@link #allOf}) of restriction
+ * mappings and nested groups, e.g., a quick search matching the first name or
+ * the company name:
+ *
+ * <pre>
+ * queryHandler.setRestrictionGroups(asList(
+ * 		RestrictionGroup.anyOf(SEARCH_FIRST_NAME, SEARCH_COMPANY_NAME)
+ * 				.with(RestrictionGroup.allOf(COMPANY_NAME, COMPANY_ADDRESS))));
+ * </pre>
+ *
+ * Only the populated members of a group are combined; a group without
+ * populated members is ignored and a group with one populated member is
+ * replaced by that member. Restriction mappings that are not part of any group
+ * are combined with the groups by {@code and}, as usual.
+ *
+ * @param <C>
+ *            type of the criteria
+ */
+public final class RestrictionGroup<C> {
+
+	private final boolean disjunction;
+	private final List<RestrictionMapping<C, ?, ?, ?, ?>> mappings;
+	private final List<RestrictionGroup<C>> groups;
+
+	private RestrictionGroup(boolean disjunction, List<RestrictionMapping<C, ?, ?, ?, ?>> mappings,
+			List<RestrictionGroup<C>> groups) {
+		this.disjunction = disjunction;
+		this.mappings = mappings;
+		this.groups = groups;
+	}
+
+	/**
+	 * Creates a group matching if any of its populated members matches.
+	 *
+	 * @param mappings
+	 *            restriction mappings of the group
+	 * @return disjunction of the mappings
+	 */
+	@SafeVarargs
+	public static <C> RestrictionGroup<C> anyOf(RestrictionMapping<C, ?, ?, ?, ?>... mappings) {
+		return new RestrictionGroup<>(true, Collections.unmodifiableList(Arrays.asList(mappings)),
+				Collections.emptyList());
+	}
+
+	/**
+	 * Creates a group matching if all of its populated members match, e.g., to
+	 * nest a conjunction in a disjunction.
+	 *
+	 * @param mappings
+	 *            restriction mappings of the group
+	 * @return conjunction of the mappings
+	 */
+	@SafeVarargs
+	public static <C> RestrictionGroup<C> allOf(RestrictionMapping<C, ?, ?, ?, ?>... mappings) {
+		return new RestrictionGroup<>(false, Collections.unmodifiableList(Arrays.asList(mappings)),
+				Collections.emptyList());
+	}
+
+	/**
+	 * Returns a copy of this group with {@code group} as an additional member.
+	 *
+	 * @param group
+	 *            group to nest
+	 * @return the extended group
+	 */
+	public RestrictionGroup<C> with(RestrictionGroup<C> group) {
+		List<RestrictionGroup<C>> groups = new ArrayList<>(this.groups);
+		groups.add(group);
+		return new RestrictionGroup<>(disjunction, mappings, Collections.unmodifiableList(groups));
+	}
+
+	/**
+	 * Returns whether the members of the group are combined by {@code or}
+	 * instead of {@code and}.
+	 *
+	 * @return whether the group is a disjunction
+	 */
+	public boolean isDisjunction() {
+		return disjunction;
+	}
+
+	public List<RestrictionMapping<C, ?, ?, ?, ?>> getMappings() {
+		return mappings;
+	}
+
+	public List<RestrictionGroup<C>> getGroups() {
+		return groups;
+	}
+
+}
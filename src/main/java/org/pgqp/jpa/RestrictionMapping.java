@@ -23,19 +23,26 @@ import java.util.function.Predicate;
  */
 public class RestrictionMapping<C, P, T, F, V> {
 
-	private Predicate<C> hasValuePredicate;
-	private Function<C, V> getter;
-	private RestrictionDefinition<P, T, F, V> restrictionDefinition;
+	private final Predicate<C> hasValuePredicate;
+	private final Function<C, V> getter;
+	private final RestrictionDefinition<P, T, F, V> restrictionDefinition;
+	private final boolean nonNullPredicate;
 
 	public RestrictionMapping(Function<C, V> getter, RestrictionDefinition<P, T, F, V> restrictionDefinition) {
-		this(c -> Objects.nonNull(getter.apply(c)), getter, restrictionDefinition);
+		this(c -> Objects.nonNull(getter.apply(c)), getter, restrictionDefinition, true);
 	}
 
 	public RestrictionMapping(Predicate<C> hasValuePredicate, Function<C, V> getter,
 			RestrictionDefinition<P, T, F, V> restrictionDefinition) {
+		this(hasValuePredicate, getter, restrictionDefinition, false);
+	}
+
+	private RestrictionMapping(Predicate<C> hasValuePredicate, Function<C, V> getter,
+			RestrictionDefinition<P, T, F, V> restrictionDefinition, boolean nonNullPredicate) {
 		this.hasValuePredicate = hasValuePredicate;
 		this.getter = getter;
 		this.restrictionDefinition = restrictionDefinition;
+		this.nonNullPredicate = nonNullPredicate;
 	}
 
 	public Predicate<C> getHasValuePredicate() {
@@ -51,7 +58,22 @@ public class RestrictionMapping<C, P, T, F, V> {
 	}
 
 	public RestrictionValue<P, T, F, V> toRestrictionValue(C c) {
-		return new RestrictionValue<>(restrictionDefinition,
-				Optional.ofNullable(hasValuePredicate.test(c) ? getter.apply(c) : null));
+		return new RestrictionValue<>(restrictionDefinition, Optional.ofNullable(getValue(c)));
+	}
+
+	/**
+	 * Returns the restriction value of {@code c} or {@code null} if the
+	 * restriction is not populated. When the mapping was created without an
+	 * explicit predicate, the getter is only called once.
+	 * 
+	 * @param c
+	 *            criteria to get the value from
+	 * @return the restriction value or {@code null}
+	 */
+	public V getValue(C c) {
+		if (nonNullPredicate) {
+			return getter.apply(c);
+		}
+		return hasValuePredicate.test(c) ? getter.apply(c) : null;
 	}
 }
@@ -0,0 +1,329 @@
+package org.pgqp.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.pgqp.QueryDefinition;
+
+/**
+ * Bounded, thread-safe cache of the ids of result pages, keyed by the query
+ * handler, the {@link QueryDefinition} (compared by value, see
+ * {@link QueryDefinition#equals(Object)}) and the page bounds. Only ids are
+ * cached: the entities of a page are still loaded by id, in one query.
+ * <p>
+ * The cache is bounded by its weight, the total number of cached ids plus one
+ * per page, evicting the least recently used pages first. Pages expire after
+ * a time to live.
+ * <p>
+ * Pages are invalidated by entity class (see {@link #invalidate(Class)}, e.g.,
+ * from {@code org.pgqp.jpa.hibernate.PageCacheInvalidator}) if the class is
+ * one of the {@link JpaQueryHandler#getEntityClasses() entity classes} of
+ * their handler. Each class has a generation counter; a page records the
+ * generations of its classes before its ids are selected and is discarded on
+ * lookup once they changed, so a page loaded concurrently with a commit is
+ * never returned after it.
+ */
+public final class ResultPageCache {
+
+	/** Default maximum weight of a cache. */
+	public static final long DEFAULT_MAXIMUM_WEIGHT = 100_000;
+
+	private final long maximumWeight;
+	private final long timeToLive;
+	private final LongSupplier clock;
+	private final Map<PageKey, PageEntry> pages = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<Class<?>, AtomicLong> generations = new ConcurrentHashMap<>();
+	private long weight;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * Creates a cache of at most {@link #DEFAULT_MAXIMUM_WEIGHT} whose pages
+	 * expire after {@code timeToLive}.
+	 *
+	 * @param timeToLive
+	 *            time a page is cached
+	 * @param unit
+	 *            unit of {@code timeToLive}
+	 */
+	public ResultPageCache(long timeToLive, TimeUnit unit) {
+		this(DEFAULT_MAXIMUM_WEIGHT, timeToLive, unit);
+	}
+
+	/**
+	 * Creates a cache of at most {@code maximumWeight} whose pages expire
+	 * after {@code timeToLive}.
+	 *
+	 * @param maximumWeight
+	 *            maximum number of cached ids plus one per page
+	 * @param timeToLive
+	 *            time a page is cached
+	 * @param unit
+	 *            unit of {@code timeToLive}
+	 */
+	public ResultPageCache(long maximumWeight, long timeToLive, TimeUnit unit) {
+		this(maximumWeight, unit.toNanos(timeToLive), System::nanoTime);
+	}
+
+	ResultPageCache(long maximumWeight, long timeToLive, LongSupplier clock) {
+		if (maximumWeight < 1) {
+			throw new IllegalArgumentException("Maximum weight must be positive: " + maximumWeight);
+		}
+		if (timeToLive < 1) {
+			throw new IllegalArgumentException("Time to live must be positive: " + timeToLive);
+		}
+		this.maximumWeight = maximumWeight;
+		this.timeToLive = timeToLive;
+		this.clock = clock;
+	}
+
+	/**
+	 * Returns the ids of a page, selecting and caching them with
+	 * {@code loader} if they are not cached, have expired or have been
+	 * invalidated. The loader is invoked outside of the cache lock.
+	 *
+	 * @param queryHandler
+	 *            handler creating the queries of the page
+	 * @param queryDefinition
+	 *            query definition of the page; must not be modified while
+	 *            cached
+	 * @param offset
+	 *            index of the first result of the page
+	 * @param pageSize
+	 *            maximum number of results of the page
+	 * @param loader
+	 *            selects the ids of the page
+	 * @return the unmodifiable ids of the page
+	 */
+	@SuppressWarnings("unchecked")
+	public <ID, C, S> List<ID> getIds(JpaQueryHandler<?, ID, C, S> queryHandler,
+			QueryDefinition<C, S> queryDefinition, int offset, int pageSize, Supplier<List<ID>> loader) {
+		Set<Class<?>> entityClasses = queryHandler.getEntityClasses();
+		PageKey key = new PageKey(queryHandler, queryDefinition, offset, pageSize);
+		long generation = getGeneration(entityClasses);
+		long now = clock.getAsLong();
+		synchronized (pages) {
+			PageEntry entry = pages.get(key);
+			if (entry != null) {
+				if (entry.generation != generation) {
+					remove(key, entry);
+					invalidations.increment();
+				} else if (now - entry.expiresAt >= 0) {
+					remove(key, entry);
+					expirations.increment();
+				} else {
+					hits.increment();
+					return (List<ID>) entry.ids;
+				}
+			}
+		}
+		misses.increment();
+		List<ID> ids = Collections.unmodifiableList(new ArrayList<>(loader.get()));
+		PageEntry entry = new PageEntry(ids, generation, clock.getAsLong() + timeToLive);
+		if (entry.weight > maximumWeight) {
+			return ids;
+		}
+		synchronized (pages) {
+			PageEntry previous = pages.put(key, entry);
+			if (previous != null) {
+				weight -= previous.weight;
+			}
+			weight += entry.weight;
+			Iterator<PageEntry> eldest = pages.values().iterator();
+			while (weight > maximumWeight) {
+				weight -= eldest.next().weight;
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Invalidates the pages of the handlers reading {@code entityClass} or one
+	 * of its super classes, e.g., after an entity of the class was inserted,
+	 * updated or deleted. The pages are discarded when they are looked up
+	 * next or evicted.
+	 *
+	 * @param entityClass
+	 *            class of the changed entity
+	 */
+	public void invalidate(Class<?> entityClass) {
+		for (Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			generations.computeIfAbsent(c, k -> new AtomicLong()).incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes all cached pages. The counters are not reset.
+	 */
+	public void clear() {
+		synchronized (pages) {
+			pages.clear();
+			weight = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of pages currently cached, including invalidated
+	 * pages that have not been looked up since.
+	 *
+	 * @return the number of pages currently cached
+	 */
+	public int size() {
+		synchronized (pages) {
+			return pages.size();
+		}
+	}
+
+	/**
+	 * Returns the current weight of the cache, the number of cached ids plus
+	 * one per page.
+	 *
+	 * @return the current weight of the cache
+	 */
+	public long getWeight() {
+		synchronized (pages) {
+			return weight;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a valid cached page.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that had to select the ids.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of pages removed to keep the cache within its
+	 * maximum weight.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of pages discarded because they expired.
+	 *
+	 * @return the number of expirations
+	 */
+	public long getExpirationCount() {
+		return expirations.sum();
+	}
+
+	/**
+	 * Returns the number of pages discarded because one of their entity
+	 * classes was invalidated.
+	 *
+	 * @return the number of invalidations
+	 */
+	public long getInvalidationCount() {
+		return invalidations.sum();
+	}
+
+	/**
+	 * Returns the sum of the generations of {@code entityClasses}; it changes
+	 * whenever one of them is invalidated.
+	 */
+	private long getGeneration(Set<Class<?>> entityClasses) {
+		long generation = 0;
+		for (Class<?> entityClass : entityClasses) {
+			AtomicLong counter = generations.get(entityClass);
+			if (counter != null) {
+				generation += counter.get();
+			}
+		}
+		return generation;
+	}
+
+	private void remove(PageKey key, PageEntry entry) {
+		pages.remove(key);
+		weight -= entry.weight;
+	}
+
+	/**
+	 * Key of a page: the identity of its handler, its query definition by
+	 * value and its bounds.
+	 */
+	private static final class PageKey {
+
+		private final Object queryHandler;
+		private final QueryDefinition<?, ?> queryDefinition;
+		private final int offset;
+		private final int pageSize;
+		private final int hashCode;
+
+		PageKey(Object queryHandler, QueryDefinition<?, ?> queryDefinition, int offset, int pageSize) {
+			this.queryHandler = queryHandler;
+			this.queryDefinition = queryDefinition;
+			this.offset = offset;
+			this.pageSize = pageSize;
+			this.hashCode = ((System.identityHashCode(queryHandler) * 31 + queryDefinition.hashCode()) * 31 + offset)
+					* 31 + pageSize;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof PageKey)) {
+				return false;
+			}
+			PageKey key = (PageKey) other;
+			return queryHandler == key.queryHandler && offset == key.offset && pageSize == key.pageSize
+					&& queryDefinition.equals(key.queryDefinition);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+	}
+
+	private static final class PageEntry {
+
+		final List<?> ids;
+		final long generation;
+		final long expiresAt;
+		final int weight;
+
+		PageEntry(List<?> ids, long generation, long expiresAt) {
+			this.ids = ids;
+			this.generation = generation;
+			this.expiresAt = expiresAt;
+			this.weight = ids.size() + 1;
+		}
+
+	}
+
+}
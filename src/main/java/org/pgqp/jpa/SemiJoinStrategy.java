@@ -0,0 +1,27 @@
+package org.pgqp.jpa;
+
+/**
+ * How restrictions on joins below a one-to-many relationship are applied
+ * without multiplying the rows of the root entity.
+ */
+public enum SemiJoinStrategy {
+
+	/**
+	 * {@code root.id in (select r.id from Root r join ... where ...)}: an
+	 * uncorrelated sub-query that re-scans the root table.
+	 */
+	IN,
+
+	/**
+	 * {@code exists (select 1 from root.children c ... where ...)}: a sub-query
+	 * correlated to the root row that starts at the child side.
+	 */
+	EXISTS,
+
+	/**
+	 * Inner joins in the main query with {@code distinct} rows (or
+	 * {@code count(distinct root)} for count queries).
+	 */
+	DISTINCT_JOIN
+
+}
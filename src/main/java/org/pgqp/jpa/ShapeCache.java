@@ -0,0 +1,149 @@
+package org.pgqp.jpa;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded, thread-safe, least-recently-used cache of values compiled per
+ * {@link QueryShape} (e.g., query plans). Cached values are expected to be
+ * immutable. Hit, miss and eviction counters are kept so the cache can be
+ * sized.
+ *
+ * @param <V>
+ *            type of the cached values
+ */
+public final class ShapeCache<V> {
+
+	/** Default maximum number of shapes kept by a cache. */
+	public static final int DEFAULT_MAXIMUM_SIZE = 512;
+
+	private final int maximumSize;
+	private final Map<QueryShape, V> values;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a cache holding at most {@link #DEFAULT_MAXIMUM_SIZE} shapes.
+	 */
+	public ShapeCache() {
+		this(DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * Creates a cache holding at most {@code maximumSize} shapes.
+	 *
+	 * @param maximumSize
+	 *            maximum number of shapes to keep; zero disables caching
+	 */
+	public ShapeCache(int maximumSize) {
+		if (maximumSize < 0) {
+			throw new IllegalArgumentException("Maximum size must not be negative: " + maximumSize);
+		}
+		this.maximumSize = maximumSize;
+		this.values = new LinkedHashMap<QueryShape, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<QueryShape, V> eldest) {
+				boolean evict = size() > ShapeCache.this.maximumSize;
+				if (evict) {
+					evictions.increment();
+				}
+				return evict;
+			}
+		};
+	}
+
+	/**
+	 * Returns the value cached for {@code shape}, compiling and caching it on a
+	 * miss. The compiler is invoked outside of the cache lock so concurrent
+	 * misses on the same shape may compile it more than once; the first value
+	 * cached wins.
+	 *
+	 * @param shape
+	 *            shape to look up
+	 * @param compiler
+	 *            function that compiles the value for a shape
+	 * @return the cached or newly compiled value
+	 */
+	V get(QueryShape shape, Function<QueryShape, V> compiler) {
+		V value;
+		synchronized (values) {
+			value = values.get(shape);
+		}
+		if (value != null) {
+			hits.increment();
+			return value;
+		}
+		misses.increment();
+		V compiled = compiler.apply(shape);
+		if (maximumSize == 0) {
+			return compiled;
+		}
+		synchronized (values) {
+			value = values.putIfAbsent(shape, compiled);
+		}
+		return value != null ? value : compiled;
+	}
+
+	/**
+	 * Removes all cached values. The counters are not reset.
+	 */
+	public void clear() {
+		synchronized (values) {
+			values.clear();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of shapes kept by the cache.
+	 *
+	 * @return the maximum number of shapes kept by the cache
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Returns the number of shapes currently cached.
+	 *
+	 * @return the number of shapes currently cached
+	 */
+	public int size() {
+		synchronized (values) {
+			return values.size();
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached value.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that had to compile a value.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of values removed to keep the cache within its
+	 * maximum size.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+}
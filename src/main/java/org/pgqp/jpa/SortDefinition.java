@@ -38,6 +38,10 @@ public class SortDefinition<N, P, C> {
 		return joinDefinition;
 	}
 
+	public SingularAttribute<C, ?> getAttribute() {
+		return attribute;
+	}
+
 	/**
 	 * Using the sort definition, creates and returns an order by clause in the
 	 * given direciton.
@@ -49,8 +53,38 @@ public class SortDefinition<N, P, C> {
 	 */
 	public Order toOrder(QueryContext<?, C> context, SortInfo.Direction direction) {
 		CriteriaBuilder cb = context.getCriteriaBuilder();
-		Expression<?> exp = ((Path<C>) context.getPath()).get(attribute);
+		Expression<?> exp = toPath(context.getPath());
 		return direction.isAscending() ? cb.asc(exp) : cb.desc(exp);
 	}
 
+	/**
+	 * Returns the path of the sort column relative to the table of the sort.
+	 * 
+	 * @param path
+	 *            path of the table of the sort
+	 * @return path of the sort column
+	 */
+	Path<?> toPath(Path<C> path) {
+		return path.get(attribute);
+	}
+
+	/**
+	 * Returns the value of the sort column for a root entity by following the
+	 * join path of the sort from the root.
+	 * 
+	 * @param rootEntity
+	 *            entity of the root table
+	 * @return value of the sort column or {@code null} if one of the joined
+	 *         entities is missing
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Object toValue(Object rootEntity) {
+		JoinDefinition<?, ?>[] path = joinDefinition.getRootPath();
+		Object entity = rootEntity;
+		for (int i = 1; i < path.length && entity != null; i++) {
+			entity = ((AttributeInfo) path[i].getAttributeInfo()).getValue(entity);
+		}
+		return entity == null ? null : AttributeInfo.getAttributeValue(attribute, entity);
+	}
+
 }
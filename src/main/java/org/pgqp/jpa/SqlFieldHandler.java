@@ -0,0 +1,58 @@
+package org.pgqp.jpa;
+
+import java.util.List;
+
+/**
+ * Renders a restriction as SQL for {@link SqlQueryHandler}. The SQL text of a
+ * predicate must only depend on the column and on a small <em>variant</em>
+ * computed from the value (e.g., the operation of a
+ * {@link org.pgqp.CriteriaField}), so that it can be cached per query shape;
+ * values are bound as parameters.
+ *
+ * @param <V>
+ *            type of the search criteria
+ */
+public interface SqlFieldHandler<V> {
+
+	/** Number of distinct variants a handler may use. */
+	int MAXIMUM_VARIANTS = 16;
+
+	/**
+	 * Returns the variant of the predicate for {@code value}.
+	 *
+	 * @param value
+	 *            search criteria
+	 * @return a variant between zero and {@link #MAXIMUM_VARIANTS} (exclusive)
+	 */
+	default int getVariant(V value) {
+		return 0;
+	}
+
+	/**
+	 * Appends the predicate to {@code sql}, using {@code ?} placeholders for
+	 * the parameters. The predicate is combined with others using
+	 * {@code and}, so it must be parenthesized if it uses {@code or}.
+	 *
+	 * @param sql
+	 *            SQL being rendered
+	 * @param column
+	 *            qualified column the restriction is on
+	 * @param variant
+	 *            variant of the predicate
+	 */
+	void appendPredicate(StringBuilder sql, String column, int variant);
+
+	/**
+	 * Adds the parameters of the predicate for {@code value}, in placeholder
+	 * order.
+	 *
+	 * @param value
+	 *            search criteria
+	 * @param parameters
+	 *            parameters of the query
+	 */
+	default void bind(V value, List<Object> parameters) {
+		parameters.add(value);
+	}
+
+}
@@ -0,0 +1,225 @@
+package org.pgqp.jpa;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import org.pgqp.CriteriaField;
+import org.pgqp.StandardOperation;
+
+/**
+ * SQL counterparts of the {@link JpaCriteriaHandlers}, used by
+ * {@link SqlQueryHandler}.
+ */
+public final class SqlFieldHandlers {
+
+	public static final SqlFieldHandler<Object> EQ_FIELD_HANDLER =
+			(sql, column, variant) -> sql.append(column).append(" = ?");
+
+	public static final SqlFieldHandler<Object> NE_FIELD_HANDLER =
+			(sql, column, variant) -> sql.append(column).append(" <> ?");
+
+	public static final SqlFieldHandler<Object> GT_FIELD_HANDLER =
+			(sql, column, variant) -> sql.append(column).append(" > ?");
+
+	public static final SqlFieldHandler<Object> GTE_FIELD_HANDLER =
+			(sql, column, variant) -> sql.append(column).append(" >= ?");
+
+	public static final SqlFieldHandler<Object> LT_FIELD_HANDLER =
+			(sql, column, variant) -> sql.append(column).append(" < ?");
+
+	public static final SqlFieldHandler<Object> LTE_FIELD_HANDLER =
+			(sql, column, variant) -> sql.append(column).append(" <= ?");
+
+	public static final SqlFieldHandler<Boolean> NULL_FIELD_HANDLER = new NullFieldHandler(true);
+
+	public static final SqlFieldHandler<Boolean> NOT_NULL_FIELD_HANDLER = new NullFieldHandler(false);
+
+	public static final SqlFieldHandler<String> LIKE_FIELD_HANDLER =
+			(sql, column, variant) -> sql.append(column).append(" like ?");
+
+	public static final SqlFieldHandler<String> CONTAINS_FIELD_HANDLER = new SqlFieldHandler<String>() {
+		@Override
+		public void appendPredicate(StringBuilder sql, String column, int variant) {
+			sql.append(column).append(" like ?");
+		}
+
+		@Override
+		public void bind(String value, List<Object> parameters) {
+			parameters.add("%" + value + "%");
+		}
+	};
+
+	public static final SqlFieldHandler<String> STARTS_WITH_FIELD_HANDLER = new SqlFieldHandler<String>() {
+		@Override
+		public void appendPredicate(StringBuilder sql, String column, int variant) {
+			sql.append(column).append(" like ?");
+		}
+
+		@Override
+		public void bind(String value, List<Object> parameters) {
+			parameters.add(value + "%");
+		}
+	};
+
+	public static final SqlFieldHandler<String> STARTS_WITH_CI_FIELD_HANDLER = new SqlFieldHandler<String>() {
+		@Override
+		public void appendPredicate(StringBuilder sql, String column, int variant) {
+			sql.append("lower(").append(column).append(") like ?");
+		}
+
+		@Override
+		public void bind(String value, List<Object> parameters) {
+			parameters.add(value.toLowerCase() + "%");
+		}
+	};
+
+	public static final SqlFieldHandler<String> CONTAINS_CI_FIELD_HANDLER = new SqlFieldHandler<String>() {
+		@Override
+		public void appendPredicate(StringBuilder sql, String column, int variant) {
+			sql.append("lower(").append(column).append(") like ?");
+		}
+
+		@Override
+		public void bind(String value, List<Object> parameters) {
+			parameters.add("%" + value.toLowerCase() + "%");
+		}
+	};
+
+	/**
+	 * Handles {@link CriteriaField}s of any type; the variant is the ordinal
+	 * of the operation. Like {@link StandardOperationHandler}, the
+	 * case-insensitive operations are not supported.
+	 */
+	public static final SqlFieldHandler<CriteriaField<?>> CRITERIA_FIELD_HANDLER = new SqlFieldHandler<CriteriaField<?>>() {
+		@Override
+		public int getVariant(CriteriaField<?> value) {
+			StandardOperation op = value.getOp();
+			switch (op) {
+			case NULL:
+			case NOT_NULL:
+				return (op == StandardOperation.NULL) == (Boolean) value.getValue() ? StandardOperation.NULL.ordinal()
+						: StandardOperation.NOT_NULL.ordinal();
+			case STARTS_WITH_CI:
+			case CONTAINS_CI:
+				throw new RuntimeException("Operation is not applicable: " + op);
+			default:
+				return op.ordinal();
+			}
+		}
+
+		@Override
+		public void appendPredicate(StringBuilder sql, String column, int variant) {
+			sql.append(column);
+			switch (StandardOperation.values()[variant]) {
+			case EQ:
+				sql.append(" = ?");
+				break;
+			case NE:
+				sql.append(" <> ?");
+				break;
+			case GT:
+				sql.append(" > ?");
+				break;
+			case LT:
+				sql.append(" < ?");
+				break;
+			case GTE:
+				sql.append(" >= ?");
+				break;
+			case LTE:
+				sql.append(" <= ?");
+				break;
+			case NULL:
+				sql.append(" is null");
+				break;
+			case NOT_NULL:
+				sql.append(" is not null");
+				break;
+			default:
+				sql.append(" like ?");
+			}
+		}
+
+		@Override
+		public void bind(CriteriaField<?> value, List<Object> parameters) {
+			switch (value.getOp()) {
+			case NULL:
+			case NOT_NULL:
+				break;
+			case STARTS_WITH:
+				parameters.add(value.getValue() + "%");
+				break;
+			case CONTAINS:
+				parameters.add("%" + value.getValue() + "%");
+				break;
+			default:
+				parameters.add(value.getValue());
+			}
+		}
+	};
+
+	private static final Map<BiFunction<?, ?, ?>, SqlFieldHandler<?>> CRITERIA_HANDLERS = new IdentityHashMap<>();
+
+	static {
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.EQ_FIELD_HANDLER, EQ_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.NE_FIELD_HANDLER, NE_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.GT_FIELD_HANDLER, GT_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.GTE_FIELD_HANDLER, GTE_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.LT_FIELD_HANDLER, LT_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.LTE_FIELD_HANDLER, LTE_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.NULL_FIELD_HANDLER, NULL_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.NOT_NULL_FIELD_HANDLER, NOT_NULL_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.LIKE_FIELD_HANDLER, LIKE_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.CONTAINS_FIELD_HANDLER, CONTAINS_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.STARTS_WITH_FIELD_HANDLER, STARTS_WITH_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.STARTS_WITH_CI_FIELD_HANDLER, STARTS_WITH_CI_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.CONTAINS_CI_FIELD_HANDLER, CONTAINS_CI_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.STRING_FIELD_HANDLER, CRITERIA_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.BOOLEAN_FIELD_HANDLER, CRITERIA_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.COMPARABLE_FIELD_HANDLER, CRITERIA_FIELD_HANDLER);
+		CRITERIA_HANDLERS.put(JpaCriteriaHandlers.SIMPLE_FIELD_HANDLER, CRITERIA_FIELD_HANDLER);
+	}
+
+	/**
+	 * Returns the SQL counterpart of one of the {@link JpaCriteriaHandlers}.
+	 *
+	 * @param criteriaHandler
+	 *            JPA criteria handler
+	 * @return the SQL field handler or {@code null} if the criteria handler is
+	 *         not one of the standard handlers
+	 */
+	public static SqlFieldHandler<?> forCriteriaHandler(BiFunction<?, ?, ?> criteriaHandler) {
+		return CRITERIA_HANDLERS.get(criteriaHandler);
+	}
+
+	private static final class NullFieldHandler implements SqlFieldHandler<Boolean> {
+
+		private final boolean nullIfTrue;
+
+		NullFieldHandler(boolean nullIfTrue) {
+			this.nullIfTrue = nullIfTrue;
+		}
+
+		@Override
+		public int getVariant(Boolean value) {
+			return value == nullIfTrue ? 1 : 0;
+		}
+
+		@Override
+		public void appendPredicate(StringBuilder sql, String column, int variant) {
+			sql.append(column).append(variant == 1 ? " is null" : " is not null");
+		}
+
+		@Override
+		public void bind(Boolean value, List<Object> parameters) {
+		}
+
+	}
+
+	private SqlFieldHandlers() {
+		assert false;
+	}
+
+}
@@ -0,0 +1,227 @@
+package org.pgqp.jpa;
+
+import java.beans.Introspector;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.Table;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+
+/**
+ * Table and column names used by {@link SqlQueryHandler}. Names are taken from
+ * explicit configuration, then from the mapping annotations ({@code @Table},
+ * {@code @Entity}, {@code @Column}, {@code @JoinColumn}) of the metamodel
+ * attributes and finally from the JPA defaults (entity name, attribute name,
+ * attribute name and referenced id column joined by an underscore).
+ * <p>
+ * Joins are supported through foreign key columns: to-one associations owning
+ * the foreign key and inverse ({@code mappedBy}) one-to-one and one-to-many
+ * associations. Join tables are not supported. Configure the metadata before
+ * creating handlers from it.
+ */
+public class SqlMetadata {
+
+	private final Map<Class<?>, String> tableNames = new HashMap<>();
+	private final Map<Class<?>, String> idColumnNames = new HashMap<>();
+	private final Map<Attribute<?, ?>, String> columnNames = new HashMap<>();
+
+	/**
+	 * Sets the table name of an entity.
+	 *
+	 * @param entityClass
+	 *            entity class
+	 * @param tableName
+	 *            table name
+	 */
+	public void setTableName(Class<?> entityClass, String tableName) {
+		tableNames.put(entityClass, tableName);
+	}
+
+	/**
+	 * Sets the id column name of an entity.
+	 *
+	 * @param entityClass
+	 *            entity class
+	 * @param columnName
+	 *            id column name
+	 */
+	public void setIdColumnName(Class<?> entityClass, String columnName) {
+		idColumnNames.put(entityClass, columnName);
+	}
+
+	/**
+	 * Sets the column name of an attribute, the foreign key column for to-one
+	 * associations.
+	 *
+	 * @param attribute
+	 *            metamodel attribute
+	 * @param columnName
+	 *            column name
+	 */
+	public void setColumnName(Attribute<?, ?> attribute, String columnName) {
+		columnNames.put(attribute, columnName);
+	}
+
+	/**
+	 * Returns the table name of an entity.
+	 *
+	 * @param entityClass
+	 *            entity class
+	 * @return the table name
+	 */
+	public String getTableName(Class<?> entityClass) {
+		String tableName = tableNames.get(entityClass);
+		if (tableName != null) {
+			return tableName;
+		}
+		Table table = entityClass.getAnnotation(Table.class);
+		if (table != null && !table.name().isEmpty()) {
+			return table.name();
+		}
+		Entity entity = entityClass.getAnnotation(Entity.class);
+		if (entity != null && !entity.name().isEmpty()) {
+			return entity.name();
+		}
+		return entityClass.getSimpleName();
+	}
+
+	/**
+	 * Returns the id column name of an entity, looking for an {@code @Id}
+	 * field or getter in the class and its super classes.
+	 *
+	 * @param entityClass
+	 *            entity class
+	 * @return the id column name
+	 */
+	public String getIdColumnName(Class<?> entityClass) {
+		String columnName = idColumnNames.get(entityClass);
+		if (columnName != null) {
+			return columnName;
+		}
+		for (Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (field.isAnnotationPresent(Id.class)) {
+					return toColumnName(field, field.getName());
+				}
+			}
+			for (Method method : c.getDeclaredMethods()) {
+				if (method.isAnnotationPresent(Id.class)) {
+					return toColumnName(method, toPropertyName(method));
+				}
+			}
+		}
+		throw new IllegalArgumentException("No @Id attribute found on " + entityClass.getName());
+	}
+
+	/**
+	 * Returns the column name of an attribute, the foreign key column for
+	 * to-one associations.
+	 *
+	 * @param attribute
+	 *            metamodel attribute
+	 * @return the column name
+	 */
+	public String getColumnName(Attribute<?, ?> attribute) {
+		String columnName = columnNames.get(attribute);
+		if (columnName != null) {
+			return columnName;
+		}
+		AnnotatedElement member = (AnnotatedElement) attribute.getJavaMember();
+		if (attribute.isAssociation()) {
+			JoinColumn joinColumn = member.getAnnotation(JoinColumn.class);
+			if (joinColumn != null && !joinColumn.name().isEmpty()) {
+				return joinColumn.name();
+			}
+			return attribute.getName() + "_" + getReferencedColumnName(attribute);
+		}
+		return toColumnName(member, attribute.getName());
+	}
+
+	/**
+	 * Appends the join condition of {@code attribute} between the table of its
+	 * declaring entity and the table of its target entity.
+	 */
+	void appendJoinCondition(StringBuilder sql, Attribute<?, ?> attribute, String parentAlias, String childAlias) {
+		String mappedBy = getMappedBy(attribute);
+		if (mappedBy.isEmpty()) {
+			if (attribute.isCollection()) {
+				throw new IllegalArgumentException("Joins through join tables are not supported: " + attribute.getName());
+			}
+			sql.append(childAlias).append('.').append(getReferencedColumnName(attribute)).append(" = ")
+					.append(parentAlias).append('.').append(getColumnName(attribute));
+		} else {
+			Attribute<?, ?> inverse = ((ManagedType<?>) getTargetType(attribute)).getAttribute(mappedBy);
+			sql.append(childAlias).append('.').append(getColumnName(inverse)).append(" = ").append(parentAlias)
+					.append('.').append(getReferencedColumnName(inverse));
+		}
+	}
+
+	/**
+	 * Returns the table and the foreign key column of the join condition of
+	 * {@code attribute}: the parent table for to-one associations owning the
+	 * foreign key, the child table for inverse ({@code mappedBy})
+	 * associations.
+	 *
+	 * @return the table and column name or {@code null} if the association
+	 *         uses a join table
+	 */
+	String[] getForeignKey(Class<?> parentClass, Attribute<?, ?> attribute) {
+		String mappedBy = getMappedBy(attribute);
+		if (mappedBy.isEmpty()) {
+			if (attribute.isCollection()) {
+				return null;
+			}
+			return new String[] { getTableName(parentClass), getColumnName(attribute) };
+		}
+		Type<?> targetType = getTargetType(attribute);
+		Attribute<?, ?> inverse = ((ManagedType<?>) targetType).getAttribute(mappedBy);
+		return new String[] { getTableName(targetType.getJavaType()), getColumnName(inverse) };
+	}
+
+	private String getReferencedColumnName(Attribute<?, ?> attribute) {
+		JoinColumn joinColumn = ((AnnotatedElement) attribute.getJavaMember()).getAnnotation(JoinColumn.class);
+		if (joinColumn != null && !joinColumn.referencedColumnName().isEmpty()) {
+			return joinColumn.referencedColumnName();
+		}
+		return getIdColumnName(getTargetType(attribute).getJavaType());
+	}
+
+	private static Type<?> getTargetType(Attribute<?, ?> attribute) {
+		return attribute.isCollection() ? ((PluralAttribute<?, ?, ?>) attribute).getElementType()
+				: ((SingularAttribute<?, ?>) attribute).getType();
+	}
+
+	private static String getMappedBy(Attribute<?, ?> attribute) {
+		AnnotatedElement member = (AnnotatedElement) attribute.getJavaMember();
+		OneToMany oneToMany = member.getAnnotation(OneToMany.class);
+		if (oneToMany != null) {
+			return oneToMany.mappedBy();
+		}
+		OneToOne oneToOne = member.getAnnotation(OneToOne.class);
+		return oneToOne != null ? oneToOne.mappedBy() : "";
+	}
+
+	private static String toColumnName(AnnotatedElement member, String defaultName) {
+		Column column = member.getAnnotation(Column.class);
+		return column != null && !column.name().isEmpty() ? column.name() : defaultName;
+	}
+
+	private static String toPropertyName(Method getter) {
+		String name = getter.getName();
+		return Introspector.decapitalize(name.substring(name.startsWith("is") ? 2 : 3));
+	}
+
+}
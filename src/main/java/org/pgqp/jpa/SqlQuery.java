@@ -0,0 +1,147 @@
+package org.pgqp.jpa;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SQL text with its ordered bind parameters, created by a
+ * {@link SqlQueryHandler}. The SQL text of a query shape is always the same
+ * string instance, so drivers and pools that cache prepared statements by SQL
+ * text reuse them.
+ */
+public final class SqlQuery {
+
+	/**
+	 * Maps the current row of a result set.
+	 *
+	 * @param <R>
+	 *            type of the mapped rows
+	 */
+	@FunctionalInterface
+	public interface RowMapper<R> {
+
+		R map(ResultSet resultSet) throws SQLException;
+
+	}
+
+	private final String sql;
+	private final Object[] parameters;
+
+	/**
+	 * Creates a new query.
+	 *
+	 * @param sql
+	 *            SQL text with {@code ?} placeholders
+	 * @param parameters
+	 *            parameters in placeholder order
+	 */
+	public SqlQuery(String sql, Object[] parameters) {
+		this.sql = sql;
+		this.parameters = parameters;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * Returns the parameters in placeholder order. The array is not copied and
+	 * must not be modified.
+	 *
+	 * @return the parameters
+	 */
+	public Object[] getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Prepares the query on {@code connection} and binds its parameters,
+	 * converting {@code java.time} values to their JDBC types.
+	 *
+	 * @param connection
+	 *            JDBC connection
+	 * @return the prepared statement, to be closed by the caller
+	 * @throws SQLException
+	 *             if the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(Connection connection) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try {
+			for (int i = 0; i < parameters.length; i++) {
+				statement.setObject(i + 1, toJdbcValue(parameters[i]));
+			}
+		} catch (SQLException | RuntimeException e) {
+			statement.close();
+			throw e;
+		}
+		return statement;
+	}
+
+	/**
+	 * Executes the query on {@code connection} and maps all rows.
+	 *
+	 * @param connection
+	 *            JDBC connection
+	 * @param rowMapper
+	 *            mapper of the rows
+	 * @return the mapped rows
+	 * @throws SQLException
+	 *             if the query fails
+	 */
+	public <R> List<R> list(Connection connection, RowMapper<R> rowMapper) throws SQLException {
+		try (PreparedStatement statement = prepare(connection); ResultSet resultSet = statement.executeQuery()) {
+			List<R> rows = new ArrayList<>();
+			while (resultSet.next()) {
+				rows.add(rowMapper.map(resultSet));
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Executes a count query on {@code connection}.
+	 *
+	 * @param connection
+	 *            JDBC connection
+	 * @return the count
+	 * @throws SQLException
+	 *             if the query fails
+	 */
+	public long count(Connection connection) throws SQLException {
+		try (PreparedStatement statement = prepare(connection); ResultSet resultSet = statement.executeQuery()) {
+			resultSet.next();
+			return resultSet.getLong(1);
+		}
+	}
+
+	private static Object toJdbcValue(Object value) {
+		if (value instanceof LocalDate) {
+			return Date.valueOf((LocalDate) value);
+		} else if (value instanceof LocalDateTime) {
+			return Timestamp.valueOf((LocalDateTime) value);
+		} else if (value instanceof LocalTime) {
+			return Time.valueOf((LocalTime) value);
+		} else if (value instanceof Instant) {
+			return Timestamp.from((Instant) value);
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return sql + " " + Arrays.toString(parameters);
+	}
+
+}
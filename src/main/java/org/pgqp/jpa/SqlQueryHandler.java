@@ -0,0 +1,730 @@
+package org.pgqp.jpa;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.pgqp.BulkQueryHandler;
+import org.pgqp.Cursor;
+import org.pgqp.QueryDefinition;
+import org.pgqp.QueryHandler;
+import org.pgqp.SortInfo;
+import org.pgqp.jpa.SqlQuery.RowMapper;
+
+/**
+ * Builds native SQL queries from the same join, restriction and sort
+ * definitions as a {@link JpaQueryHandler}, bypassing the JPA Criteria API.
+ * Queries are planned like the JPA queries (joins, semi-join strategies, sort
+ * joins and keyset pagination) and rendered to SQL text once per query shape;
+ * a request only extracts the restriction values into the bind parameters.
+ * The entity query selects all columns of the root table, to be mapped with
+ * plain JDBC (see {@link SqlQuery#list}). Bulk queries combine the entity
+ * queries of many query definitions (see {@link #toBulkEntityQueries(List)}).
+ * <p>
+ * The SQL of a restriction comes from the {@link SqlFieldHandler} given for its
+ * definition or, for the {@link JpaCriteriaHandlers}, from the matching
+ * {@link SqlFieldHandlers}. Names come from a {@link SqlMetadata}.
+ *
+ * @param <T>
+ *            entity type
+ * @param <C>
+ *            criteria type
+ * @param <S>
+ *            sort identifier type
+ */
+public class SqlQueryHandler<T, C, S>
+		implements QueryHandler<SqlQuery, SqlQuery, T, C, S>, BulkQueryHandler<SqlQuery, C, S> {
+
+	/** Name of the discriminator column of the bulk queries. */
+	public static final String BULK_INDEX_COLUMN = "pgqp_index";
+
+	/** Number of bits per restriction encoding the variant of its predicate. */
+	static final int VARIANT_BITS = 4;
+
+	private final Class<T> entityClass;
+	private final List<RestrictionMapping<C, ?, ?, ?, ?>> restrictions;
+	private final SqlFieldHandler<?>[] fieldHandlers;
+	private final String[] restrictionColumns;
+	private final List<SortDefinition<S, ?, ?>> sortDefinitions;
+	private final String[] sortColumns;
+	private final Map<S, Integer> sortIndexes;
+	private final int bitsetWords;
+	private final int restrictionWords;
+	private final SqlMetadata metadata;
+	private final QueryPlanner planner;
+	private final Function<QueryShape, SqlTemplate> compiler = this::compile;
+	private volatile ShapeCache<SqlTemplate> sqlCache = new ShapeCache<>();
+	private volatile CriteriaExtractor<? super C> criteriaExtractor;
+	private volatile int maximumBulkSize = 1000;
+	private volatile int maximumBulkParameters = 32767;
+
+	/**
+	 * Creates a new handler.
+	 *
+	 * @param entityClass
+	 *            entity class of the root table
+	 * @param rootJoinDefinition
+	 *            root join definition
+	 * @param restrictions
+	 *            restriction mappings
+	 * @param sorts
+	 *            sort definitions
+	 * @param metadata
+	 *            table and column names
+	 * @param fieldHandlers
+	 *            SQL field handlers of the restriction definitions whose
+	 *            criteria handler is not one of the {@link JpaCriteriaHandlers}
+	 */
+	public SqlQueryHandler(Class<T> entityClass, JoinDefinition<?, T> rootJoinDefinition,
+			Collection<RestrictionMapping<C, ?, ?, ?, ?>> restrictions, Collection<SortDefinition<S, ?, ?>> sorts,
+			SqlMetadata metadata, Map<RestrictionDefinition<?, ?, ?, ?>, SqlFieldHandler<?>> fieldHandlers) {
+		this.entityClass = entityClass;
+		this.metadata = metadata;
+		this.restrictions = new ArrayList<>(restrictions);
+		this.fieldHandlers = new SqlFieldHandler<?>[this.restrictions.size()];
+		this.restrictionColumns = new String[this.restrictions.size()];
+		for (int i = 0; i < this.fieldHandlers.length; i++) {
+			RestrictionDefinition<?, ?, ?, ?> definition = this.restrictions.get(i).getRestrictionDefinition();
+			SqlFieldHandler<?> fieldHandler = fieldHandlers.get(definition);
+			if (fieldHandler == null) {
+				fieldHandler = SqlFieldHandlers.forCriteriaHandler(definition.getToPredicate());
+			}
+			if (fieldHandler == null) {
+				throw new IllegalArgumentException(
+						"No SQL field handler for the restriction on " + definition.getAttribute().getName());
+			}
+			this.fieldHandlers[i] = fieldHandler;
+			this.restrictionColumns[i] = metadata.getColumnName(definition.getAttribute());
+		}
+		this.bitsetWords = QueryShape.toRestrictionWords(this.restrictions.size());
+		this.restrictionWords = bitsetWords + QueryShape.toRestrictionWords(this.restrictions.size() * VARIANT_BITS);
+		this.sortDefinitions = new ArrayList<>(sorts);
+		this.sortColumns = new String[sortDefinitions.size()];
+		this.sortIndexes = new HashMap<>();
+		for (int i = 0; i < sortDefinitions.size(); i++) {
+			S identifier = sortDefinitions.get(i).getIdentifier();
+			if (sortIndexes.put(identifier, i) != null) {
+				throw new IllegalStateException("Duplicate sort identifier " + identifier);
+			}
+			sortColumns[i] = metadata.getColumnName(sortDefinitions.get(i).getAttribute());
+		}
+		this.planner = new QueryPlanner(rootJoinDefinition, this.restrictions, this.sortDefinitions);
+	}
+
+	/**
+	 * Returns the cache of rendered SQL, e.g., to inspect its hit, miss and
+	 * eviction counters.
+	 *
+	 * @return the cache of rendered SQL
+	 */
+	public ShapeCache<?> getSqlCache() {
+		return sqlCache;
+	}
+
+	/**
+	 * Replaces the cache of rendered SQL with an empty cache holding at most
+	 * {@code maximumSize} shapes.
+	 *
+	 * @param maximumSize
+	 *            maximum number of shapes to cache; zero disables caching
+	 */
+	public void setSqlCacheSize(int maximumSize) {
+		this.sqlCache = new ShapeCache<>(maximumSize);
+	}
+
+	/**
+	 * Sets the default semi-join strategy, see
+	 * {@link JpaQueryHandler#setSemiJoinStrategy(SemiJoinStrategy)}. Replaces
+	 * the SQL cache with an empty cache.
+	 *
+	 * @param semiJoinStrategy
+	 *            default semi-join strategy
+	 */
+	public void setSemiJoinStrategy(SemiJoinStrategy semiJoinStrategy) {
+		planner.setDefaultSemiJoinStrategy(semiJoinStrategy);
+		this.sqlCache = new ShapeCache<>(sqlCache.getMaximumSize());
+	}
+
+	/**
+	 * Sets whether to create one semi-join per collection branch, see
+	 * {@link JpaQueryHandler#setSemiJoinPerBranch(boolean)}. Replaces the SQL
+	 * cache with an empty cache.
+	 *
+	 * @param semiJoinPerBranch
+	 *            whether to create one semi-join per collection branch
+	 */
+	public void setSemiJoinPerBranch(boolean semiJoinPerBranch) {
+		planner.setSemiJoinPerBranch(semiJoinPerBranch);
+		this.sqlCache = new ShapeCache<>(sqlCache.getMaximumSize());
+	}
+
+	/**
+	 * Sets the extractor reading the restriction values of the criteria, see
+	 * {@link JpaQueryHandler#setCriteriaExtractor(CriteriaExtractor)}.
+	 *
+	 * @param criteriaExtractor
+	 *            extractor of the restriction values; {@code null} uses the
+	 *            restriction mappings
+	 */
+	public void setCriteriaExtractor(CriteriaExtractor<? super C> criteriaExtractor) {
+		JpaQueryHandler.checkRestrictionCount(criteriaExtractor, restrictions.size());
+		this.criteriaExtractor = criteriaExtractor;
+	}
+
+	/**
+	 * Sets the maximum number of query definitions combined into one bulk
+	 * query. The default is 1000.
+	 *
+	 * @param maximumBulkSize
+	 *            maximum number of query definitions per bulk query
+	 */
+	public void setMaximumBulkSize(int maximumBulkSize) {
+		if (maximumBulkSize < 1) {
+			throw new IllegalArgumentException("The maximum bulk size must be positive: " + maximumBulkSize);
+		}
+		this.maximumBulkSize = maximumBulkSize;
+	}
+
+	/**
+	 * Sets the maximum number of bind parameters of a bulk query, e.g., 2100
+	 * for SQL Server. A query definition whose parameters alone exceed it gets
+	 * a bulk query of its own. The default is 32767, the limit of PostgreSQL.
+	 *
+	 * @param maximumBulkParameters
+	 *            maximum number of bind parameters per bulk query
+	 */
+	public void setMaximumBulkParameters(int maximumBulkParameters) {
+		if (maximumBulkParameters < 1) {
+			throw new IllegalArgumentException(
+					"The maximum number of bulk parameters must be positive: " + maximumBulkParameters);
+		}
+		this.maximumBulkParameters = maximumBulkParameters;
+	}
+
+	@Override
+	public SqlQuery toCountQuery(QueryDefinition<C, S> queryDefinition) {
+		return toSqlQuery(queryDefinition, true);
+	}
+
+	@Override
+	public SqlQuery toEntityQuery(QueryDefinition<C, S> queryDefinition) {
+		return toSqlQuery(queryDefinition, false);
+	}
+
+	/**
+	 * Converts a {@link QueryDefinition} to a query counting at most
+	 * {@code cap + 1} root entities: {@code select count(*) from (select
+	 * t0.id from ... limit ?) c}. The database stops scanning after
+	 * {@code cap + 1} matches, so a result greater than {@code cap} means
+	 * "more than {@code cap}". The limit is bound, so all caps share the SQL
+	 * text of the shape.
+	 *
+	 * @param queryDefinition
+	 *            query definition to use for constructing the query
+	 * @param cap
+	 *            number of entities to count up to
+	 * @return capped count query
+	 */
+	public SqlQuery toCappedCountQuery(QueryDefinition<C, S> queryDefinition, int cap) {
+		if (cap < 0 || cap == Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid cap " + cap);
+		}
+		Object[] values = new Object[restrictions.size()];
+		SqlTemplate template = sqlCache.get(toShape(queryDefinition, true, values), compiler);
+		List<Object> parameters = new ArrayList<>(template.binds.length + 1);
+		bind(template, values, null, parameters);
+		parameters.add(cap + 1);
+		return new SqlQuery(template.toCappedSql(), parameters.toArray());
+	}
+
+	/**
+	 * Converts query definitions to bulk entity queries. The definitions are
+	 * grouped by shape and the entity queries of a group are combined with
+	 * {@code union all}, each branch selecting the index of its definition as
+	 * the first column, {@link #BULK_INDEX_COLUMN}. A group is split into
+	 * batches of at most {@link #setMaximumBulkSize(int) maximumBulkSize}
+	 * definitions and {@link #setMaximumBulkParameters(int)
+	 * maximumBulkParameters} parameters; the SQL text of full batches is
+	 * rendered once per shape. Sorts are ignored, so the rows of a definition
+	 * are returned in no particular order.
+	 *
+	 * @param queryDefinitions
+	 *            query definitions without cursors
+	 * @return bulk entity queries
+	 * @throws IllegalArgumentException
+	 *             if a query definition has a cursor
+	 */
+	@Override
+	public List<SqlQuery> toBulkEntityQueries(List<QueryDefinition<C, S>> queryDefinitions) {
+		int maximumSize = maximumBulkSize;
+		int maximumParameters = maximumBulkParameters;
+		List<SqlQuery> queries = new ArrayList<>();
+		Map<QueryShape, BulkBatch> batches = new LinkedHashMap<>();
+		List<Object> parameters = new ArrayList<>();
+		for (int i = 0; i < queryDefinitions.size(); i++) {
+			QueryDefinition<C, S> queryDefinition = queryDefinitions.get(i);
+			if (queryDefinition.getCursor() != null) {
+				throw new IllegalArgumentException("Bulk queries do not support cursors");
+			}
+			Object[] values = new Object[restrictions.size()];
+			QueryShape shape = toShape(new QueryDefinition<>(queryDefinition.getCriteria()), false, values);
+			BulkBatch batch = batches.get(shape);
+			SqlTemplate template = batch != null ? batch.template : sqlCache.get(shape, compiler);
+
+			/*
+			 * Field handlers may bind any number of values per restriction,
+			 * so the values are counted before they are added to the batch.
+			 */
+			parameters.clear();
+			bind(template, values, null, parameters);
+			if (batch == null) {
+				batch = new BulkBatch(template);
+				batches.put(shape, batch);
+			} else if (batch.size == maximumSize
+					|| batch.parameters.size() + 1 + parameters.size() > maximumParameters) {
+				queries.add(batch.toQuery());
+				batch = new BulkBatch(template);
+				batches.put(shape, batch);
+			}
+			batch.parameters.add(i);
+			batch.parameters.addAll(parameters);
+			batch.size++;
+		}
+		for (BulkBatch batch : batches.values()) {
+			queries.add(batch.toQuery());
+		}
+		return queries;
+	}
+
+	/**
+	 * Executes the bulk entity queries of {@code queryDefinitions} on
+	 * {@code connection} and maps their rows.
+	 *
+	 * @param connection
+	 *            JDBC connection
+	 * @param queryDefinitions
+	 *            query definitions without cursors
+	 * @param rowMapper
+	 *            mapper of the rows
+	 * @return the mapped rows of each query definition, in the order of
+	 *         {@code queryDefinitions}
+	 * @throws SQLException
+	 *             if a query fails
+	 * @see #toBulkEntityQueries(List)
+	 */
+	public <R> List<List<R>> listBulk(Connection connection, List<QueryDefinition<C, S>> queryDefinitions,
+			RowMapper<R> rowMapper) throws SQLException {
+		List<List<R>> results = new ArrayList<>(queryDefinitions.size());
+		for (int i = 0; i < queryDefinitions.size(); i++) {
+			results.add(new ArrayList<>());
+		}
+		for (SqlQuery query : toBulkEntityQueries(queryDefinitions)) {
+			try (PreparedStatement statement = query.prepare(connection);
+					ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					results.get(resultSet.getInt(1)).add(rowMapper.map(resultSet));
+				}
+			}
+		}
+		return results;
+	}
+
+	private SqlQuery toSqlQuery(QueryDefinition<C, S> queryDefinition, boolean count) {
+		Object[] values = new Object[restrictions.size()];
+		SqlTemplate template = sqlCache.get(toShape(queryDefinition, count, values), compiler);
+		List<Object> parameters = new ArrayList<>(template.binds.length);
+		bind(template, values, queryDefinition.getCursor(), parameters);
+		return new SqlQuery(template.sql, parameters.toArray());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void bind(SqlTemplate template, Object[] values, Cursor cursor, List<Object> parameters) {
+		List<Object> sortValues = null;
+		for (int bind : template.binds) {
+			if (bind >= 0) {
+				((SqlFieldHandler) fieldHandlers[bind]).bind(values[bind], parameters);
+			} else {
+				if (sortValues == null) {
+					sortValues = cursor.getSortValues();
+					if (sortValues.size() != template.sortCount) {
+						throw new IllegalArgumentException("The cursor has " + sortValues.size()
+								+ " sort values but the query has " + template.sortCount + " mapped sorts");
+					}
+				}
+				int index = -bind - 1;
+				parameters.add(index < sortValues.size() ? sortValues.get(index) : cursor.getId());
+			}
+		}
+	}
+
+	/**
+	 * Computes the shape of a request like {@link JpaQueryHandler} does,
+	 * followed by the variant of each populated restriction (see
+	 * {@link SqlFieldHandler#getVariant(Object)}) since it changes the SQL. The
+	 * variants are stored as extra restriction words so the planner ignores
+	 * them.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private QueryShape toShape(QueryDefinition<C, S> queryDefinition, boolean count, Object[] values) {
+		List<SortInfo<S>> sortInfos = count ? Collections.<SortInfo<S>> emptyList() : queryDefinition.getSorts();
+		int sortCount = 0;
+		for (int i = 0; i < sortInfos.size(); i++) {
+			if (sortIndexes.containsKey(sortInfos.get(i).getSortIdentifier())) {
+				sortCount++;
+			}
+		}
+
+		long[] key = new long[QueryShape.RESTRICTION_OFFSET + restrictionWords + sortCount];
+		Cursor cursor = count ? null : queryDefinition.getCursor();
+		if (cursor != null) {
+			key[0] = cursor.isFirst() ? QueryShape.KEYSET_ORDER : QueryShape.KEYSET_ORDER | QueryShape.KEYSET_PREDICATE;
+		}
+		if (count) {
+			key[0] |= QueryShape.COUNT_QUERY;
+		}
+		C criteria = queryDefinition.getCriteria();
+		CriteriaExtractor<? super C> extractor = criteriaExtractor;
+		if (extractor != null) {
+			extractor.extract(criteria, values, key, QueryShape.RESTRICTION_OFFSET);
+		}
+		for (int i = 0; i < values.length; i++) {
+			Object value = extractor != null ? values[i] : restrictions.get(i).getValue(criteria);
+			if (value != null) {
+				values[i] = value;
+				key[QueryShape.RESTRICTION_OFFSET + (i >>> 6)] |= 1L << i;
+				int variant = ((SqlFieldHandler) fieldHandlers[i]).getVariant(value);
+				if (variant < 0 || variant >= SqlFieldHandler.MAXIMUM_VARIANTS) {
+					throw new IllegalStateException("Invalid variant " + variant + " for restriction " + i);
+				}
+				int bit = i * VARIANT_BITS;
+				key[QueryShape.RESTRICTION_OFFSET + bitsetWords + (bit >>> 6)] |= (long) variant << bit;
+			}
+		}
+		int word = QueryShape.RESTRICTION_OFFSET + restrictionWords;
+		for (int i = 0; i < sortInfos.size(); i++) {
+			SortInfo<S> sortInfo = sortInfos.get(i);
+			Integer index = sortIndexes.get(sortInfo.getSortIdentifier());
+			if (index != null) {
+				key[word++] = QueryShape.toSortWord(index, sortInfo.getDirection().isAscending());
+			}
+		}
+		return new QueryShape(key, restrictionWords);
+	}
+
+	private int getVariant(QueryShape shape, int restriction) {
+		int bit = restriction * VARIANT_BITS;
+		long word = shape.getWord(QueryShape.RESTRICTION_OFFSET + bitsetWords + (bit >>> 6));
+		return (int) (word >>> bit) & (SqlFieldHandler.MAXIMUM_VARIANTS - 1);
+	}
+
+	/**
+	 * Renders the SQL of a shape. The main query uses the aliases
+	 * {@code t<slot>}, semi-join {@code k} uses {@code s<k>_<slot>}; an
+	 * {@link SemiJoinStrategy#EXISTS} semi-join is correlated to {@code t0}.
+	 */
+	private SqlTemplate compile(QueryShape shape) {
+		QueryPlan plan = planner.compile(shape);
+		boolean count = shape.hasFlag(QueryShape.COUNT_QUERY);
+		StringBuilder sql = new StringBuilder(256);
+		List<Integer> binds = new ArrayList<>();
+		String[] aliases = toAliases("t", plan.main, false);
+		String id = "t0." + metadata.getIdColumnName(entityClass);
+
+		/*
+		 * Select and from clauses with the joins of the main query.
+		 */
+		sql.append("select ");
+		int projection = sql.length() + (plan.distinct && !count ? "distinct ".length() : 0);
+		if (count) {
+			sql.append(plan.distinct ? "count(distinct " + id + ")" : "count(*)");
+		} else {
+			sql.append(plan.distinct ? "distinct t0.*" : "t0.*");
+			for (int i = 0; plan.distinct && i < plan.sorts.length; i++) {
+				sql.append(", ").append(toSortColumn(plan, aliases, i));
+			}
+		}
+		int from = sql.length();
+		sql.append(" from ").append(metadata.getTableName(entityClass)).append(" t0");
+		appendJoins(sql, plan.main, aliases, 0);
+
+		/*
+		 * Where clause: main query restrictions, keyset predicate and
+		 * semi-joins, in the order of the JPA queries.
+		 */
+		Conjunction where = new Conjunction(sql, " where ");
+		appendRestrictions(where, shape, plan.main, aliases, binds);
+		if (plan.keysetPredicate) {
+			appendKeysetPredicate(where.next(), plan, aliases, id, binds);
+		}
+		for (int i = 0; i < plan.semiJoins.length; i++) {
+			QueryPlan.Block block = plan.semiJoins[i];
+			if (plan.semiJoinStrategies[i] == SemiJoinStrategy.EXISTS) {
+				appendExists(where.next(), shape, block, toAliases("s" + i + "_", block, true), binds);
+			} else {
+				appendIn(where.next(), shape, block, toAliases("s" + i + "_", block, false), id, binds);
+			}
+		}
+
+		/*
+		 * Order by clause.
+		 */
+		if (!count && (plan.sorts.length > 0 || plan.keysetOrder)) {
+			sql.append(" order by ");
+			for (int i = 0; i < plan.sorts.length; i++) {
+				sql.append(toSortColumn(plan, aliases, i)).append(plan.directions[i].isAscending() ? " asc, " : " desc, ");
+			}
+			if (plan.keysetOrder) {
+				sql.append(id).append(" asc");
+			} else {
+				sql.setLength(sql.length() - 2);
+			}
+		}
+
+		int[] bindArray = new int[binds.size()];
+		for (int i = 0; i < bindArray.length; i++) {
+			bindArray[i] = binds.get(i);
+		}
+		return new SqlTemplate(sql.toString(), bindArray, plan.sorts.length, projection,
+				count ? "select " + (plan.distinct ? "distinct " : "") + id : null, from);
+	}
+
+	private static String[] toAliases(String prefix, QueryPlan.Block block, boolean correlated) {
+		String[] aliases = new String[block.getJoinCount()];
+		for (int i = 0; i < aliases.length; i++) {
+			aliases[i] = correlated && i == 0 ? "t0" : prefix + i;
+		}
+		return aliases;
+	}
+
+	private String toSortColumn(QueryPlan plan, String[] aliases, int sort) {
+		return aliases[plan.sortSlots[sort]] + "." + sortColumns[plan.sorts[sort]];
+	}
+
+	/**
+	 * Appends the joins of the children of {@code parent}, depth first.
+	 */
+	private void appendJoins(StringBuilder sql, QueryPlan.Block block, String[] aliases, int parent) {
+		for (int i = 1; i < block.getJoinCount(); i++) {
+			if (block.parents[i] == parent) {
+				sql.append(block.joinTypes[i].isInnerJoin() ? " inner join " : " left outer join ");
+				appendTable(sql, block, aliases, i);
+				sql.append(" on ");
+				appendJoinCondition(sql, block, aliases, i);
+				appendJoins(sql, block, aliases, i);
+			}
+		}
+	}
+
+	private void appendTable(StringBuilder sql, QueryPlan.Block block, String[] aliases, int slot) {
+		sql.append(metadata.getTableName(block.joins[slot].getTableClass())).append(' ').append(aliases[slot]);
+	}
+
+	private void appendJoinCondition(StringBuilder sql, QueryPlan.Block block, String[] aliases, int slot) {
+		metadata.appendJoinCondition(sql, block.joins[slot].getAttributeInfo().getAttribute(),
+				aliases[block.parents[slot]], aliases[slot]);
+	}
+
+	private void appendRestrictions(Conjunction conjunction, QueryShape shape, QueryPlan.Block block,
+			String[] aliases, List<Integer> binds) {
+		for (int i = 0; i < block.restrictions.length; i++) {
+			int restriction = block.restrictions[i];
+			String column = aliases[block.restrictionSlots[i]] + "." + restrictionColumns[restriction];
+			fieldHandlers[restriction].appendPredicate(conjunction.next(), column, getVariant(shape, restriction));
+			binds.add(restriction);
+		}
+	}
+
+	/**
+	 * Appends {@code (a > ?) or (a = ? and b > ?) or ... or (a = ? and ... and
+	 * id > ?)}, comparing with {@code <} for descending sorts. The sort values
+	 * are bound as {@code -1 - index}, the cursor id as {@code -1 - sortCount}.
+	 */
+	private void appendKeysetPredicate(StringBuilder sql, QueryPlan plan, String[] aliases, String id,
+			List<Integer> binds) {
+		int columnCount = plan.sorts.length + 1;
+		sql.append('(');
+		for (int i = 0; i < columnCount; i++) {
+			if (i > 0) {
+				sql.append(" or ");
+			}
+			sql.append('(');
+			for (int j = 0; j < i; j++) {
+				sql.append(toSortColumn(plan, aliases, j)).append(" = ? and ");
+				binds.add(-1 - j);
+			}
+			boolean ascending = i == plan.sorts.length || plan.directions[i].isAscending();
+			sql.append(i < plan.sorts.length ? toSortColumn(plan, aliases, i) : id).append(ascending ? " > ?" : " < ?");
+			binds.add(-1 - i);
+			sql.append(')');
+		}
+		sql.append(')');
+	}
+
+	private void appendIn(StringBuilder sql, QueryShape shape, QueryPlan.Block block, String[] aliases, String id,
+			List<Integer> binds) {
+		sql.append(id).append(" in (select ").append(aliases[0]).append('.')
+				.append(metadata.getIdColumnName(entityClass)).append(" from ")
+				.append(metadata.getTableName(entityClass)).append(' ').append(aliases[0]);
+		appendJoins(sql, block, aliases, 0);
+		appendRestrictions(new Conjunction(sql, " where "), shape, block, aliases, binds);
+		sql.append(')');
+	}
+
+	/**
+	 * Appends a semi-join correlated to the root of the main query: the
+	 * children of the root become the from clause of the sub-query and their
+	 * join conditions become its first predicates.
+	 */
+	private void appendExists(StringBuilder sql, QueryShape shape, QueryPlan.Block block, String[] aliases,
+			List<Integer> binds) {
+		sql.append("exists (select 1 from ");
+		boolean first = true;
+		for (int i = 1; i < block.getJoinCount(); i++) {
+			if (block.parents[i] == 0) {
+				if (!first) {
+					sql.append(", ");
+				}
+				first = false;
+				appendTable(sql, block, aliases, i);
+				appendJoins(sql, block, aliases, i);
+			}
+		}
+		Conjunction where = new Conjunction(sql, " where ");
+		for (int i = 1; i < block.getJoinCount(); i++) {
+			if (block.parents[i] == 0) {
+				appendJoinCondition(where.next(), block, aliases, i);
+			}
+		}
+		appendRestrictions(where, shape, block, aliases, binds);
+		sql.append(')');
+	}
+
+	/**
+	 * Appends {@code " where "} before the first predicate and {@code " and "}
+	 * before the others.
+	 */
+	private static final class Conjunction {
+
+		private final StringBuilder sql;
+		private String separator;
+
+		Conjunction(StringBuilder sql, String first) {
+			this.sql = sql;
+			this.separator = first;
+		}
+
+		StringBuilder next() {
+			sql.append(separator);
+			separator = " and ";
+			return sql;
+		}
+
+	}
+
+	/**
+	 * Rendered SQL of a shape and the sources of its parameters: a
+	 * non-negative bind is the index of a restriction, a negative bind
+	 * {@code -1 - i} is the i-th keyset value (the cursor id after the sort
+	 * values).
+	 */
+	private static final class SqlTemplate {
+
+		final String sql;
+		final int[] binds;
+		final int sortCount;
+		final int projection;
+		private final String idSelect;
+		private final int from;
+		private volatile BulkSql bulkSql;
+		private volatile String cappedSql;
+
+		SqlTemplate(String sql, int[] binds, int sortCount, int projection, String idSelect, int from) {
+			this.sql = sql;
+			this.binds = binds;
+			this.sortCount = sortCount;
+			this.projection = projection;
+			this.idSelect = idSelect;
+			this.from = from;
+		}
+
+		/**
+		 * Returns the count over the ids of a count shape, limited by a last
+		 * parameter.
+		 */
+		String toCappedSql() {
+			String capped = cappedSql;
+			if (capped == null) {
+				capped = "select count(*) from (" + idSelect + sql.substring(from) + " limit ?) c";
+				cappedSql = capped;
+			}
+			return capped;
+		}
+
+		/**
+		 * Returns the {@code union all} of {@code size} branches selecting the
+		 * bound index of their definition before the projection. The text of
+		 * the last size is kept, so full batches share one string.
+		 */
+		String toBulkSql(int size) {
+			BulkSql last = bulkSql;
+			if (last != null && last.size == size) {
+				return last.sql;
+			}
+			String branch = sql.substring(0, projection) + "cast(? as integer) as " + BULK_INDEX_COLUMN + ", "
+					+ sql.substring(projection);
+			StringBuilder bulk = new StringBuilder((branch.length() + 11) * size);
+			for (int i = 0; i < size; i++) {
+				if (i > 0) {
+					bulk.append(" union all ");
+				}
+				bulk.append(branch);
+			}
+			String text = bulk.toString();
+			bulkSql = new BulkSql(size, text);
+			return text;
+		}
+
+	}
+
+	private static final class BulkSql {
+
+		final int size;
+		final String sql;
+
+		BulkSql(int size, String sql) {
+			this.size = size;
+			this.sql = sql;
+		}
+
+	}
+
+	/**
+	 * Definitions of one shape collected into a bulk query: the bound index
+	 * and parameters of each definition, in branch order.
+	 */
+	private static final class BulkBatch {
+
+		final SqlTemplate template;
+		final List<Object> parameters = new ArrayList<>();
+		int size;
+
+		BulkBatch(SqlTemplate template) {
+			this.template = template;
+		}
+
+		SqlQuery toQuery() {
+			return new SqlQuery(template.toBulkSql(size), parameters.toArray());
+		}
+
+	}
+
+}
@@ -91,6 +91,69 @@ public final class StandardOperationHandler {
 		return p;
 	}
 	
+	/*
+	 * The same operations for a query context, passing the values through
+	 * QueryContext.toValue so they can be bound as parameters.
+	 */
+
+	static Predicate toPredicate(QueryContext<?, ?> context, StandardOperation op, Object value) {
+		CriteriaBuilder criteriaBuilder = context.getCriteriaBuilder();
+		switch (op) {
+		case EQ:
+			return criteriaBuilder.equal(context.getPath(), context.toValue(value));
+		case NE:
+			return criteriaBuilder.notEqual(context.getPath(), context.toValue(value));
+		default:
+			throw new RuntimeException("Operation is not applicable: " + op);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Predicate toComparablePredicate(QueryContext<?, ? extends Comparable> context, StandardOperation op,
+			Comparable value) {
+		CriteriaBuilder criteriaBuilder = context.getCriteriaBuilder();
+		Path path = context.getPath();
+		switch (op) {
+		case GT:
+			return criteriaBuilder.greaterThan(path, context.toValue(value));
+		case LT:
+			return criteriaBuilder.lessThan(path, context.toValue(value));
+		case GTE:
+			return criteriaBuilder.greaterThanOrEqualTo(path, context.toValue(value));
+		case LTE:
+			return criteriaBuilder.lessThanOrEqualTo(path, context.toValue(value));
+		default:
+			return toPredicate(context, op, value);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Predicate toStringPredicate(QueryContext<?, String> context, StandardOperation op, String value) {
+		CriteriaBuilder criteriaBuilder = context.getCriteriaBuilder();
+		switch (op) {
+		case LIKE:
+			return criteriaBuilder.like(context.getPath(), context.toValue(value));
+		case STARTS_WITH:
+			return criteriaBuilder.like(context.getPath(), context.toValue(value + "%"));
+		case CONTAINS:
+			return criteriaBuilder.like(context.getPath(), context.toValue("%" + value + "%"));
+		default:
+			return toComparablePredicate((QueryContext) context, op, value);
+		}
+	}
+
+	static Predicate toBooleanPredicate(QueryContext<?, ?> context, StandardOperation op, Boolean value) {
+		CriteriaBuilder criteriaBuilder = context.getCriteriaBuilder();
+		switch (op) {
+		case NULL:
+			return value ? criteriaBuilder.isNull(context.getPath()) : criteriaBuilder.isNotNull(context.getPath());
+		case NOT_NULL:
+			return value ? criteriaBuilder.isNotNull(context.getPath()) : criteriaBuilder.isNull(context.getPath());
+		default:
+			return toPredicate(context, op, value);
+		}
+	}
+
 	private StandardOperationHandler() {
 		assert false;
 	}
@@ -0,0 +1,70 @@
+package org.pgqp.jpa.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.pgqp.CriteriaField;
+import org.pgqp.StandardOperation;
+
+/**
+ * Maps a field of a criteria class to a restriction. The {@code pgqp-processor}
+ * annotation processor generates a {@code <Criteria>Extractor} class for each
+ * criteria class with annotated fields, which creates the
+ * {@link org.pgqp.jpa.RestrictionMapping}s (one per annotated field, in
+ * declaration order) and implements {@link org.pgqp.jpa.CriteriaExtractor}.
+ * <p>
+ * A restriction either names a {@link #definition()} supplied at runtime
+ * (e.g., a restriction with a hand-written predicate) or is on the
+ * {@link #attribute()} of the {@link #entity()} of a {@link #join()}. Fields of
+ * type {@link CriteriaField} are populated if the field and its value are not
+ * null and use the operation of the field; other fields are populated if they
+ * are not null and need an {@link #operation()}.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Restriction {
+
+	/**
+	 * Returns the identifier of the join definition of the restriction.
+	 *
+	 * @return join identifier
+	 */
+	String join() default "";
+
+	/**
+	 * Returns the entity of the join, whose JPA metamodel class
+	 * ({@code <Entity>_}) defines the attribute.
+	 *
+	 * @return entity class
+	 */
+	Class<?> entity() default void.class;
+
+	/**
+	 * Returns the name of the metamodel attribute of the restriction.
+	 *
+	 * @return attribute name
+	 */
+	String attribute() default "";
+
+	/**
+	 * Returns the operation of a restriction on a field that is not a
+	 * {@link CriteriaField}; {@link StandardOperation#NULL} and
+	 * {@link StandardOperation#NOT_NULL} need {@code Boolean} fields.
+	 *
+	 * @return the operation, or none for {@link CriteriaField}s
+	 */
+	StandardOperation[] operation() default {};
+
+	/**
+	 * Returns the name of a restriction definition supplied at runtime instead
+	 * of a join, entity and attribute.
+	 *
+	 * @return definition name
+	 */
+	String definition() default "";
+
+}
@@ -0,0 +1,43 @@
+package org.pgqp.jpa.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a constant of a sort identifier enum to a sort. The
+ * {@code pgqp-processor} annotation processor generates a
+ * {@code <Enum>Definitions} class for each enum with annotated constants,
+ * which creates the {@link org.pgqp.jpa.SortDefinition}s (one per annotated
+ * constant, in declaration order).
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Sort {
+
+	/**
+	 * Returns the identifier of the join definition of the sort.
+	 *
+	 * @return join identifier
+	 */
+	String join();
+
+	/**
+	 * Returns the entity of the join, whose JPA metamodel class
+	 * ({@code <Entity>_}) defines the attribute.
+	 *
+	 * @return entity class
+	 */
+	Class<?> entity();
+
+	/**
+	 * Returns the name of the metamodel attribute to sort by.
+	 *
+	 * @return attribute name
+	 */
+	String attribute();
+
+}
@@ -0,0 +1,107 @@
+package org.pgqp.jpa.hibernate;
+
+import java.util.List;
+
+import org.pgqp.jpa.QueryBuild;
+
+/**
+ * Execution plan of a slow query captured by a {@link SlowQueryExplainer}.
+ */
+public final class ExplainedQuery {
+
+	private final QueryBuild build;
+	private final String sql;
+	private final List<Object> parameters;
+	private final String plan;
+	private final String failure;
+	private final long executionNanos;
+	private final long capturedAt;
+
+	ExplainedQuery(QueryBuild build, String sql, List<Object> parameters, String plan, String failure,
+			long executionNanos, long capturedAt) {
+		this.build = build;
+		this.sql = sql;
+		this.parameters = parameters;
+		this.plan = plan;
+		this.failure = failure;
+		this.executionNanos = executionNanos;
+		this.capturedAt = capturedAt;
+	}
+
+	/**
+	 * Returns the statistics of the slow query; its fingerprint identifies the
+	 * shape.
+	 *
+	 * @return the statistics of the query
+	 */
+	public QueryBuild getBuild() {
+		return build;
+	}
+
+	public long getFingerprint() {
+		return build.getFingerprint();
+	}
+
+	/**
+	 * Returns the SQL Hibernate renders for the query, with parameter
+	 * placeholders and without the bounds of the page.
+	 *
+	 * @return the SQL of the query or {@code null} if it could not be rendered
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * Returns the values bound to the placeholders of the SQL, in order.
+	 *
+	 * @return the parameter values
+	 */
+	public List<Object> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Returns the output of the database's {@code EXPLAIN} of the SQL, one line
+	 * per result row.
+	 *
+	 * @return the plan or {@code null} if the capture failed
+	 */
+	public String getPlan() {
+		return plan;
+	}
+
+	/**
+	 * Returns why the plan could not be captured.
+	 *
+	 * @return the failure or {@code null} if the plan was captured
+	 */
+	public String getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Returns the execution time of the slow query.
+	 *
+	 * @return the execution time in nanoseconds
+	 */
+	public long getExecutionNanos() {
+		return executionNanos;
+	}
+
+	/**
+	 * Returns when the plan was captured.
+	 *
+	 * @return the capture time in milliseconds since the epoch
+	 */
+	public long getCapturedAt() {
+		return capturedAt;
+	}
+
+	@Override
+	public String toString() {
+		return "ExplainedQuery[" + build.getQueryType() + " " + Long.toHexString(getFingerprint()) + ", "
+				+ executionNanos / 1_000_000 + " ms: " + (plan != null ? plan : failure) + "]";
+	}
+
+}
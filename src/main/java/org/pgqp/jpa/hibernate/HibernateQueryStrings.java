@@ -0,0 +1,33 @@
+package org.pgqp.jpa.hibernate;
+
+import javax.persistence.TypedQuery;
+
+import org.hibernate.Query;
+import org.pgqp.jpa.JpaQueryHandler;
+
+/**
+ * Reads the JPQL text Hibernate renders for criteria queries, to enable the
+ * JPQL templates of a {@link JpaQueryHandler}:
+ *
+ * <pre>
+ * queryHandler.setJpqlRenderer(HibernateQueryStrings::getQueryString);
+ * </pre>
+ */
+public final class HibernateQueryStrings {
+
+	/**
+	 * Returns the JPQL text of a query created by a Hibernate entity manager.
+	 *
+	 * @param query
+	 *            query created by a Hibernate entity manager
+	 * @return the JPQL text of the query
+	 */
+	public static String getQueryString(TypedQuery<?> query) {
+		return query.unwrap(Query.class).getQueryString();
+	}
+
+	private HibernateQueryStrings() {
+		assert false;
+	}
+
+}
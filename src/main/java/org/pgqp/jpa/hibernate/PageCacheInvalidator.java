@@ -0,0 +1,99 @@
+package org.pgqp.jpa.hibernate;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.pgqp.jpa.ResultPageCache;
+
+/**
+ * Invalidates the pages of a {@link ResultPageCache} reading the class of an
+ * entity once an insert, update or delete of the entity has been committed:
+ *
+ * <pre>
+ * PageCacheInvalidator.register(entityManagerFactory, pageCache);
+ * </pre>
+ *
+ * Bulk JPQL updates and deletes, native SQL and changes to join tables of
+ * collections do not fire entity events; they must invalidate the cache
+ * themselves.
+ */
+public final class PageCacheInvalidator
+		implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ResultPageCache pageCache;
+
+	/**
+	 * Creates a new invalidator.
+	 *
+	 * @param pageCache
+	 *            cache to invalidate
+	 */
+	public PageCacheInvalidator(ResultPageCache pageCache) {
+		this.pageCache = pageCache;
+	}
+
+	/**
+	 * Registers an invalidator of {@code pageCache} for the post-commit
+	 * insert, update and delete events of a Hibernate entity manager factory.
+	 *
+	 * @param entityManagerFactory
+	 *            Hibernate entity manager factory
+	 * @param pageCache
+	 *            cache to invalidate
+	 * @return the registered invalidator
+	 */
+	public static PageCacheInvalidator register(EntityManagerFactory entityManagerFactory,
+			ResultPageCache pageCache) {
+		PageCacheInvalidator invalidator = new PageCacheInvalidator(pageCache);
+		EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+				.getServiceRegistry().getService(EventListenerRegistry.class);
+		registry.appendListeners(EventType.POST_COMMIT_INSERT, invalidator);
+		registry.appendListeners(EventType.POST_COMMIT_UPDATE, invalidator);
+		registry.appendListeners(EventType.POST_COMMIT_DELETE, invalidator);
+		return invalidator;
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		pageCache.invalidate(event.getPersister().getMappedClass());
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		pageCache.invalidate(event.getPersister().getMappedClass());
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		pageCache.invalidate(event.getPersister().getMappedClass());
+	}
+
+	@Override
+	public void onPostInsertCommitFailed(PostInsertEvent event) {
+	}
+
+	@Override
+	public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+	}
+
+	@Override
+	public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return true;
+	}
+
+}
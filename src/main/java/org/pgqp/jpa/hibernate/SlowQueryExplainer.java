@@ -0,0 +1,337 @@
+package org.pgqp.jpa.hibernate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.hql.spi.ParameterTranslations;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.jpa.internal.QueryImpl;
+import org.hibernate.type.Type;
+import org.pgqp.jpa.ParameterizedQuery;
+import org.pgqp.jpa.QueryBuild;
+import org.pgqp.jpa.QueryListener;
+
+/**
+ * {@link QueryListener} capturing the execution plans of slow queries: when
+ * the execution of a query takes at least a threshold, the explainer renders
+ * its SQL with Hibernate and runs the database's {@code EXPLAIN} of it (H2
+ * {@code EXPLAIN}, PostgreSQL {@code EXPLAIN (FORMAT JSON)}) on a separate
+ * connection of the entity manager factory. At most one plan per
+ * {@link QueryBuild#getFingerprint() shape} is captured per interval, so a
+ * shape that is slow during an incident does not add more than one
+ * {@code EXPLAIN} per interval; the plans are kept in a bounded ring buffer:
+ *
+ * <pre>
+ * SlowQueryExplainer explainer = new SlowQueryExplainer(entityManagerFactory, executor, 500, 60_000,
+ * 		TimeUnit.MILLISECONDS);
+ * queryHandler.setQueryListener(queryMetrics.andThen(explainer));
+ * ...
+ * explainer.getCaptures().forEach(System.out::println);
+ * </pre>
+ *
+ * The plans are captured on the executor, with the parameter values of the
+ * slow query, but without the bounds of its page. Queries with
+ * collection-valued parameters are not explained.
+ */
+public final class SlowQueryExplainer implements QueryListener {
+
+	/** Default number of captured plans kept. */
+	public static final int DEFAULT_CAPACITY = 100;
+
+	private static final int MAXIMUM_TRACKED_SHAPES = 10_000;
+
+	private final EntityManagerFactory entityManagerFactory;
+	private final Executor executor;
+	private final int capacity;
+	private final long thresholdNanos;
+	private final long intervalNanos;
+	private final LongSupplier clock;
+	private final ConcurrentHashMap<Long, AtomicLong> lastCaptures = new ConcurrentHashMap<>();
+	private final ArrayDeque<ExplainedQuery> captures;
+	private final LongAdder captured = new LongAdder();
+	private final LongAdder rateLimited = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * Creates an explainer keeping the last {@link #DEFAULT_CAPACITY} plans.
+	 *
+	 * @param entityManagerFactory
+	 *            Hibernate entity manager factory the queries are executed on
+	 * @param executor
+	 *            executor capturing the plans
+	 * @param threshold
+	 *            minimum execution time of explained queries
+	 * @param interval
+	 *            minimum time between two captures of a shape
+	 * @param unit
+	 *            unit of {@code threshold} and {@code interval}
+	 */
+	public SlowQueryExplainer(EntityManagerFactory entityManagerFactory, Executor executor, long threshold,
+			long interval, TimeUnit unit) {
+		this(entityManagerFactory, executor, DEFAULT_CAPACITY, threshold, interval, unit);
+	}
+
+	/**
+	 * Creates an explainer keeping the last {@code capacity} plans.
+	 *
+	 * @param entityManagerFactory
+	 *            Hibernate entity manager factory the queries are executed on
+	 * @param executor
+	 *            executor capturing the plans
+	 * @param capacity
+	 *            number of captured plans kept
+	 * @param threshold
+	 *            minimum execution time of explained queries
+	 * @param interval
+	 *            minimum time between two captures of a shape
+	 * @param unit
+	 *            unit of {@code threshold} and {@code interval}
+	 */
+	public SlowQueryExplainer(EntityManagerFactory entityManagerFactory, Executor executor, int capacity,
+			long threshold, long interval, TimeUnit unit) {
+		this(entityManagerFactory, executor, capacity, unit.toNanos(threshold), unit.toNanos(interval),
+				System::nanoTime);
+	}
+
+	SlowQueryExplainer(EntityManagerFactory entityManagerFactory, Executor executor, int capacity,
+			long thresholdNanos, long intervalNanos, LongSupplier clock) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		if (thresholdNanos < 0 || intervalNanos < 0) {
+			throw new IllegalArgumentException("Threshold and interval must not be negative");
+		}
+		this.entityManagerFactory = entityManagerFactory;
+		this.executor = executor;
+		this.capacity = capacity;
+		this.thresholdNanos = thresholdNanos;
+		this.intervalNanos = intervalNanos;
+		this.clock = clock;
+		this.captures = new ArrayDeque<>(capacity);
+	}
+
+	@Override
+	public void queryExecuted(ParameterizedQuery<?> query, long executionNanos, long rowCount) {
+		if (executionNanos < thresholdNanos) {
+			return;
+		}
+		QueryBuild build = query.getBuild();
+		if (!acquire(build.getFingerprint())) {
+			rateLimited.increment();
+			return;
+		}
+		try {
+			executor.execute(() -> capture(query, build, executionNanos));
+		} catch (RejectedExecutionException e) {
+			failed.increment();
+		}
+	}
+
+	private boolean acquire(long fingerprint) {
+		long now = clock.getAsLong();
+		AtomicLong last = lastCaptures.get(fingerprint);
+		if (last == null) {
+			if (lastCaptures.size() >= MAXIMUM_TRACKED_SHAPES) {
+				lastCaptures.values().removeIf(time -> now - time.get() >= intervalNanos);
+			}
+			last = lastCaptures.putIfAbsent(fingerprint, new AtomicLong(now));
+			if (last == null) {
+				return true;
+			}
+		}
+		long previous = last.get();
+		return now - previous >= intervalNanos && last.compareAndSet(previous, now);
+	}
+
+	private void capture(ParameterizedQuery<?> query, QueryBuild build, long executionNanos) {
+		String sql = null;
+		Object[] values = new Object[0];
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			// criteria queries bind their literals to implicit parameters of
+			// the underlying JPQL query, which only it can read
+			QueryImpl<?> typedQuery = query.createQuery(entityManager).unwrap(QueryImpl.class);
+			Query hibernateQuery = typedQuery.unwrap(Query.class);
+			SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+			QueryTranslator translator = session.getFactory().getQueryPlanCache()
+					.getHQLQueryPlan(hibernateQuery.getQueryString(), false, Collections.emptyMap())
+					.getTranslators()[0];
+			sql = translator.getSQLString();
+			ParameterTranslations translations = translator.getParameterTranslations();
+			values = new Object[countPlaceholders(sql)];
+			Type[] types = new Type[values.length];
+			for (String name : hibernateQuery.getNamedParameters()) {
+				Object value = typedQuery.getParameterValue(name);
+				if (value instanceof Collection) {
+					throw new IllegalStateException("Collection-valued parameter " + name + " cannot be explained");
+				}
+				for (int location : translations.getNamedParameterSqlLocations(name)) {
+					values[location] = value;
+					types[location] = translations.getNamedParameterExpectedType(name);
+				}
+			}
+			String explained = sql;
+			Object[] parameters = values;
+			String plan = entityManager.unwrap(Session.class)
+					.doReturningWork(connection -> explain(connection, explained, parameters, types, session));
+			add(new ExplainedQuery(build, sql, Collections.unmodifiableList(Arrays.asList(values)), plan, null,
+					executionNanos, System.currentTimeMillis()));
+			captured.increment();
+		} catch (RuntimeException e) {
+			add(new ExplainedQuery(build, sql, Collections.unmodifiableList(Arrays.asList(values)), null,
+					e.toString(), executionNanos, System.currentTimeMillis()));
+			failed.increment();
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	private static String explain(Connection connection, String sql, Object[] values, Type[] types,
+			SessionImplementor session) throws SQLException {
+		String prefix = toExplainPrefix(connection.getMetaData().getDatabaseProductName());
+		try (PreparedStatement statement = connection.prepareStatement(prefix + sql)) {
+			for (int i = 0; i < values.length; i++) {
+				if (types[i] != null) {
+					types[i].nullSafeSet(statement, values[i], i + 1, session);
+				} else {
+					statement.setObject(i + 1, values[i]);
+				}
+			}
+			StringBuilder plan = new StringBuilder();
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					if (plan.length() > 0) {
+						plan.append('\n');
+					}
+					plan.append(resultSet.getString(1));
+				}
+			}
+			return plan.toString();
+		}
+	}
+
+	static String toExplainPrefix(String databaseProductName) {
+		switch (databaseProductName) {
+		case "H2":
+			return "explain ";
+		case "PostgreSQL":
+			return "explain (format json) ";
+		default:
+			throw new IllegalStateException("EXPLAIN is not supported for " + databaseProductName);
+		}
+	}
+
+	private static int countPlaceholders(String sql) {
+		int count = 0;
+		boolean quoted = false;
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				quoted = !quoted;
+			} else if (c == '?' && !quoted) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void add(ExplainedQuery capture) {
+		synchronized (captures) {
+			if (captures.size() == capacity) {
+				captures.removeFirst();
+			}
+			captures.addLast(capture);
+		}
+	}
+
+	/**
+	 * Returns the captured plans, the most recent first.
+	 *
+	 * @return the captured plans
+	 */
+	public List<ExplainedQuery> getCaptures() {
+		List<ExplainedQuery> result;
+		synchronized (captures) {
+			result = new ArrayList<>(captures.size());
+			for (Iterator<ExplainedQuery> i = captures.descendingIterator(); i.hasNext();) {
+				result.add(i.next());
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Returns the captured plans of a shape, the most recent first.
+	 *
+	 * @param fingerprint
+	 *            fingerprint of the shape
+	 * @return the captured plans of the shape
+	 */
+	public List<ExplainedQuery> getCaptures(long fingerprint) {
+		List<ExplainedQuery> result = new ArrayList<>(getCaptures());
+		result.removeIf(capture -> capture.getFingerprint() != fingerprint);
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Returns the number of plans captured successfully.
+	 *
+	 * @return the number of captured plans
+	 */
+	public long getCaptureCount() {
+		return captured.sum();
+	}
+
+	/**
+	 * Returns the number of slow queries not explained because their shape was
+	 * explained less than an interval before.
+	 *
+	 * @return the number of rate-limited queries
+	 */
+	public long getRateLimitedCount() {
+		return rateLimited.sum();
+	}
+
+	/**
+	 * Returns the number of slow queries whose plan could not be captured,
+	 * including the ones rejected by the executor.
+	 *
+	 * @return the number of failed captures
+	 */
+	public long getFailureCount() {
+		return failed.sum();
+	}
+
+	/**
+	 * Stops keeping the captured plans. The counts and rate limits are not
+	 * reset.
+	 */
+	public void clear() {
+		synchronized (captures) {
+			captures.clear();
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.pgqp.jpa.hibernate;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.JpaQueryHandler;
+import org.pgqp.jpa.ParameterizedQuery;
+import org.pgqp.jpa.QueryExecution;
+
+/**
+ * Executes the entity queries of a {@link JpaQueryHandler} as forward-only
+ * scrolls so that very large result sets can be processed with bounded memory.
+ * Rows are fetched from the JDBC driver {@link #setFetchSize(int) fetchSize}
+ * at a time, entities are loaded read-only and the persistence context is
+ * cleared every {@link #setClearInterval(int) clearInterval} rows.
+ * <p>
+ * Since clearing detaches <em>every</em> entity of the persistence context,
+ * the entity manager should be dedicated to streaming and entities must not be
+ * expected to stay managed after the consumer returns. Configure the executor
+ * before sharing it; it is not thread-safe (and neither is the entity
+ * manager).
+ * <p>
+ * A stream is reported (see {@link QueryExecution}) when it is closed, with
+ * the time since the scroll was opened and the number of rows read.
+ *
+ * @param <T>
+ *            entity type
+ * @param <C>
+ *            criteria type
+ * @param <S>
+ *            sort identifier type
+ */
+public class StreamingQueryExecutor<T, C, S> {
+
+	public static final int DEFAULT_FETCH_SIZE = 500;
+
+	private final JpaQueryHandler<T, ?, C, S> queryHandler;
+	private final EntityManager entityManager;
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+	private int clearInterval = DEFAULT_FETCH_SIZE;
+
+	/**
+	 * Creates a new executor.
+	 *
+	 * @param queryHandler
+	 *            handler creating the entity queries
+	 * @param entityManager
+	 *            entity manager executing the queries, a Hibernate session
+	 */
+	public StreamingQueryExecutor(JpaQueryHandler<T, ?, C, S> queryHandler, EntityManager entityManager) {
+		this.queryHandler = queryHandler;
+		this.entityManager = entityManager;
+	}
+
+	/**
+	 * Sets the JDBC fetch size hint, i.e., the number of rows the driver
+	 * fetches per round trip.
+	 *
+	 * @param fetchSize
+	 *            positive fetch size
+	 */
+	public void setFetchSize(int fetchSize) {
+		if (fetchSize <= 0) {
+			throw new IllegalArgumentException("The fetch size must be positive: " + fetchSize);
+		}
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Sets the number of rows after which the persistence context is cleared.
+	 *
+	 * @param clearInterval
+	 *            number of rows between clears; zero never clears
+	 */
+	public void setClearInterval(int clearInterval) {
+		if (clearInterval < 0) {
+			throw new IllegalArgumentException("The clear interval must not be negative: " + clearInterval);
+		}
+		this.clearInterval = clearInterval;
+	}
+
+	/**
+	 * Returns a lazy stream over the entities matching {@code queryDefinition}
+	 * in the order of its sorts. The stream holds an open JDBC result set and
+	 * must be closed, e.g., with try-with-resources.
+	 *
+	 * @param queryDefinition
+	 *            query definition
+	 * @return stream of the matching entities
+	 */
+	public Stream<T> stream(QueryDefinition<C, S> queryDefinition) {
+		ParameterizedQuery<T> query = queryHandler.toParameterizedEntityQuery(queryDefinition);
+		QueryExecution execution = QueryExecution.start(queryHandler, query);
+		ScrollableResults results = query.createQuery(entityManager)
+				.unwrap(Query.class)
+				.setFetchSize(fetchSize)
+				.setReadOnly(true)
+				.scroll(ScrollMode.FORWARD_ONLY);
+		ScrollSpliterator spliterator = new ScrollSpliterator(results);
+		return StreamSupport.stream(spliterator, false)
+				.onClose(results::close)
+				.onClose(() -> execution.finish(spliterator.rows));
+	}
+
+	/**
+	 * Passes each entity matching {@code queryDefinition} to {@code consumer}
+	 * in the order of its sorts.
+	 *
+	 * @param queryDefinition
+	 *            query definition
+	 * @param consumer
+	 *            consumer of the entities
+	 * @return the number of entities consumed
+	 */
+	public long forEach(QueryDefinition<C, S> queryDefinition, Consumer<? super T> consumer) {
+		long count = 0;
+		try (Stream<T> stream = stream(queryDefinition)) {
+			Spliterator<T> spliterator = stream.spliterator();
+			while (spliterator.tryAdvance(consumer)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Walks the scroll, clearing the persistence context before fetching the
+	 * row following every {@code clearInterval}th row so that the entity
+	 * handed to the consumer is still managed while it is consumed.
+	 */
+	private class ScrollSpliterator extends Spliterators.AbstractSpliterator<T> {
+
+		private final ScrollableResults results;
+		private long rows;
+
+		ScrollSpliterator(ScrollableResults results) {
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+			this.results = results;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (clearInterval > 0 && rows > 0 && rows % clearInterval == 0) {
+				entityManager.clear();
+			}
+			if (!results.next()) {
+				return false;
+			}
+			rows++;
+			action.accept((T) results.get(0));
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+package org.pgqp.jpa;
+
+import java.time.LocalDate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.junit.After;
+import org.pgqp.jpa.entity.Business;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonQueryHandlerConfig;
+import org.pgqp.jpa.query.PersonSort;
+
+public abstract class AbstractPersonTests {
+
+	protected EntityManagerFactory entityManagerFactory;
+	protected EntityManager entityManager;
+	protected JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> queryHandler;
+
+	protected Business acme;
+	protected Business hal;
+	protected Business tree;
+
+	protected Person bob;
+	protected Person molly;
+	protected Person brian;
+	protected Person suzy;
+	protected Person bill;
+	protected Person bert;
+	protected Person wendy;
+	protected Person ernie;
+
+	protected AbstractPersonTests() {
+		HibernatePersistenceProvider provider = new HibernatePersistenceProvider();
+		entityManagerFactory = provider.createEntityManagerFactory("test", null);
+		entityManager = entityManagerFactory.createEntityManager();
+		queryHandler = new PersonQueryHandlerConfig().getPersonQueryHandler(entityManager);
+		createData();
+	}
+
+	@After
+	public void close() {
+		entityManager.close();
+		entityManagerFactory.close();
+	}
+
+	private void createData() {
+		entityManager.getTransaction().begin();
+
+		acme = new Business(1, "Acme", "NY");
+		entityManager.persist(acme);
+		hal = new Business(2, "HAL", "CA");
+		entityManager.persist(hal);
+		tree = new Business(3, "Tree Corp", null);
+
+		bob = new Person(1, "Bob", "Smith", LocalDate.now().minusYears(40));
+		bob.setEmployer(acme);
+		entityManager.persist(bob);
+
+		molly = new Person(2, "Molly", "Smith", LocalDate.now().minusYears(15));
+		molly.setParent(bob);
+		entityManager.persist(molly);
+
+		brian = new Person(3, "Brian", "Smith", LocalDate.now().minusYears(17));
+		brian.setParent(bob);
+		entityManager.persist(brian);
+
+		suzy = new Person(4, "Suzy", "Johnson", LocalDate.now().minusYears(62));
+		suzy.setEmployer(acme);
+		entityManager.persist(suzy);
+		acme.setOwner(suzy);
+
+		bill = new Person(5, "Bill", "Johnson", LocalDate.now().minusYears(5));
+		bill.setParent(suzy);
+		entityManager.persist(bill);
+
+		bert = new Person(6, "Bert", "Apple", LocalDate.now().minusYears(65));
+		bert.setEmployer(tree);
+		entityManager.persist(bert);
+		wendy = new Person(7, "Wendy", "Apple", LocalDate.now().minusYears(42));
+		wendy.setEmployer(tree);
+		wendy.setParent(bert);
+		entityManager.persist(wendy);
+		tree.setOwner(wendy);
+
+		ernie = new Person(8, "Ernie", "Banana", LocalDate.now().minusYears(58));
+		ernie.setEmployer(hal);
+		entityManager.persist(ernie);
+
+		entityManager.persist(tree);
+		entityManager.getTransaction().commit();
+	}
+
+}
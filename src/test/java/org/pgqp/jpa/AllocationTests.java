@@ -0,0 +1,122 @@
+package org.pgqp.jpa;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Root;
+
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.entity.Business;
+import org.pgqp.jpa.entity.Business_;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.entity.Person_;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+/**
+ * Guards against allocation regressions in the per-request build path.
+ */
+public class AllocationTests extends AbstractPersonTests {
+
+	private static final int WARM_UP = 20_000;
+	private static final int ITERATIONS = 2_000;
+	private static final int ATTEMPTS = 5;
+
+	private final QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+			new PersonCriteria().setFirstName("Bob").setCompanyName("Acme").setUnderageChildren(true),
+			PersonSort.BUSINESS_NAME, PersonSort.LAST_NAME);
+
+	@Test
+	public void testShapeAndPlanLookup() {
+		List<RestrictionMapping<PersonCriteria, ?, ?, ?, ?>> mappings = queryHandler.getRestrictionMappings();
+		int restrictions = mappings.size();
+		PersonCriteria underageChildrenOnly = new PersonCriteria().setUnderageChildren(true);
+		int underageChildren = IntStream.range(0, restrictions)
+				.filter(i -> mappings.get(i).getValue(underageChildrenOnly) != null).findFirst().getAsInt();
+		// the child restriction, and so the semi-join, is part of the measured shape
+		assertTrue(queryHandler.toShape(queryDefinition, JpaQueryHandler.QueryType.ENTITY, new Object[restrictions])
+				.hasRestriction(underageChildren));
+		long bytes = bytesPerCall(() -> {
+			Object[] values = new Object[restrictions];
+			return queryHandler.toPlan(queryHandler.toShape(queryDefinition, JpaQueryHandler.QueryType.ENTITY, values));
+		});
+		/*
+		 * The values array, the shape and its key are the only allocations.
+		 */
+		assertTrue("Allocated " + bytes + " bytes per call", bytes <= 160);
+	}
+
+	@Test
+	public void testOverheadOverHandWrittenCriteria() {
+		QueryDefinition<PersonCriteria, PersonSort> definition = new QueryDefinition<>(
+				new PersonCriteria().setFirstName("Bob").setCompanyName("Acme"));
+		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+		long handWritten = bytesPerCall(() -> {
+			CriteriaQuery<Long> query = cb.createQuery(Long.class);
+			Root<Person> root = query.from(Person.class);
+			query.select(cb.count(root));
+			Join<Person, Business> business = root.join(Person_.employer, JoinType.INNER);
+			return query.where(cb.like(root.get(Person_.firstName), "%" + "Bob" + "%"),
+					cb.like(business.get(Business_.name), "Acme"));
+		});
+		long generated = bytesPerCall(() -> queryHandler.toCountQuery(definition));
+		/*
+		 * On top of the JPA objects, PGQP only allocates a few small arrays,
+		 * the shape and one query context per predicate.
+		 */
+		assertTrue("PGQP allocated " + (generated - handWritten) + " bytes per call on top of " + handWritten,
+				generated - handWritten <= 512);
+	}
+
+	private static long bytesPerCall(Supplier<Object> call) {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+		long threadId = Thread.currentThread().getId();
+		Object sink = null;
+		for (int i = 0; i < WARM_UP; i++) {
+			sink = call.get();
+		}
+		/*
+		 * A collection during the window retires the allocation buffer of the
+		 * thread, and its unused rest (several hundred kilobytes) is counted as
+		 * allocated. The heap is collected before the window, and a window
+		 * during which a collection ran anyway is repeated.
+		 */
+		for (int attempt = 1;; attempt++) {
+			System.gc();
+			long collections = collectionCount();
+			long before = threadBean.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < ITERATIONS; i++) {
+				sink = call.get();
+			}
+			long after = threadBean.getThreadAllocatedBytes(threadId);
+			if (collectionCount() == collections) {
+				assertTrue(sink != null);
+				return (after - before) / ITERATIONS;
+			}
+			assertTrue("Collected during " + attempt + " windows", attempt < ATTEMPTS);
+		}
+	}
+
+	private static long collectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += bean.getCollectionCount();
+		}
+		return count;
+	}
+
+}
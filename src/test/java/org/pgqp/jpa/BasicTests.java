@@ -2,100 +2,21 @@ package org.pgqp.jpa;
 
 import static org.junit.Assert.assertEquals;
 
-import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
-import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.criteria.CriteriaQuery;
-
-import org.hibernate.jpa.HibernatePersistenceProvider;
 import org.junit.Test;
 import org.pgqp.CriteriaField;
 import org.pgqp.QueryDefinition;
-import org.pgqp.QueryHandler;
 import org.pgqp.SortInfo;
 import org.pgqp.SortInfo.Direction;
 import org.pgqp.StandardOperation;
-import org.pgqp.jpa.entity.Business;
 import org.pgqp.jpa.entity.Person;
 import org.pgqp.jpa.query.PersonCriteria;
-import org.pgqp.jpa.query.PersonQueryHandlerConfig;
 import org.pgqp.jpa.query.PersonSort;
 
-public class BasicTests {
-
-	private EntityManager entityManager;
-	private QueryHandler<CriteriaQuery<Person>, CriteriaQuery<Long>, Person, PersonCriteria, PersonSort> queryHandler;
-
-	private Business acme;
-	private Business hal;
-	private Business tree;
-
-	private Person bob;
-	private Person molly;
-	private Person brian;
-	private Person suzy;
-	private Person bill;
-	private Person bert;
-	private Person wendy;
-	private Person ernie;
-
-	public BasicTests() {
-		HibernatePersistenceProvider provider = new HibernatePersistenceProvider();
-		EntityManagerFactory emf = provider.createEntityManagerFactory("test", null);
-		entityManager = emf.createEntityManager();
-		queryHandler = new PersonQueryHandlerConfig().getPersonQueryHandler(entityManager);
-		createData();
-	}
-
-	private void createData() {
-		entityManager.getTransaction().begin();
-
-		acme = new Business(1, "Acme", "NY");
-		entityManager.persist(acme);
-		hal = new Business(2, "HAL", "CA");
-		entityManager.persist(hal);
-		tree = new Business(3, "Tree Corp", null);
-
-		bob = new Person(1, "Bob", "Smith", LocalDate.now().minusYears(40));
-		bob.setEmployer(acme);
-		entityManager.persist(bob);
-
-		molly = new Person(2, "Molly", "Smith", LocalDate.now().minusYears(15));
-		molly.setParent(bob);
-		entityManager.persist(molly);
-
-		brian = new Person(3, "Brian", "Smith", LocalDate.now().minusYears(17));
-		brian.setParent(bob);
-		entityManager.persist(brian);
-
-		suzy = new Person(4, "Suzy", "Johnson", LocalDate.now().minusYears(62));
-		suzy.setEmployer(acme);
-		entityManager.persist(suzy);
-		acme.setOwner(suzy);
-
-		bill = new Person(5, "Bill", "Johnson", LocalDate.now().minusYears(5));
-		bill.setParent(suzy);
-		entityManager.persist(bill);
-
-		bert = new Person(6, "Bert", "Apple", LocalDate.now().minusYears(65));
-		bert.setEmployer(tree);
-		entityManager.persist(bert);
-		wendy = new Person(7, "Wendy", "Apple", LocalDate.now().minusYears(42));
-		wendy.setEmployer(tree);
-		wendy.setParent(bert);
-		entityManager.persist(wendy);
-		tree.setOwner(wendy);
-
-		ernie = new Person(8, "Ernie", "Banana", LocalDate.now().minusYears(58));
-		ernie.setEmployer(hal);
-		entityManager.persist(ernie);
-
-		entityManager.persist(tree);
-		entityManager.getTransaction().commit();
-	}
+public class BasicTests extends AbstractPersonTests {
 
 	@Test
 	public void testSortUsesOuterJoin() {
@@ -218,6 +139,21 @@ public class BasicTests {
 				.getSingleResult().intValue());
 	}
 
+	@Test
+	public void testRestrictionBelowSortJoin() {
+		/*
+		 * Note: the business is fetch joined for the sort, the owner is joined
+		 * below it for the restriction.
+		 */
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setOwnerName("Johnson"), PersonSort.BUSINESS_NAME, PersonSort.FIRST_NAME);
+		List<Person> people = entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition)).getResultList();
+		assertEquals(Arrays.asList("Bob", "Suzy"),
+				people.stream().map(Person::getFirstName).collect(Collectors.toList()));
+		assertEquals(2, entityManager.createQuery(queryHandler.toCountQuery(queryDefinition)).getSingleResult()
+				.intValue());
+	}
+
 	// FIXME: do we want to make it configurable as to what should happen in
 	// this situation?
 	@Test
@@ -0,0 +1,120 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.pgqp.Cursor;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class CountCacheTests {
+
+	private final Object queryHandler = new Object();
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicLong total = new AtomicLong(10);
+	private final Queue<Runnable> tasks = new ArrayDeque<>();
+	private final Executor executor = tasks::add;
+	private final CountCache cache = new CountCache(2, 100, 1000, clock::get);
+
+	@Test
+	public void testFreshCountsAreReturned() {
+		CompletableFuture<Long> first = getCount(new PersonCriteria().setFirstName("o"));
+		assertFalse(first.isDone());
+		runTasks(1);
+		assertEquals(10, (long) first.join());
+		total.set(11);
+		clock.set(99);
+		assertEquals(10, (long) getCount(new PersonCriteria().setFirstName("o")).getNow(null));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testStaleCountsAreRefreshedOnce() {
+		getCount(new PersonCriteria());
+		runTasks(1);
+		total.set(11);
+		clock.set(100);
+		assertEquals(10, (long) getCount(new PersonCriteria()).getNow(null));
+		assertEquals(10, (long) getCount(new PersonCriteria()).getNow(null));
+		assertEquals(2, cache.getStaleHitCount());
+		assertEquals(1, cache.getRefreshCount());
+		runTasks(1);
+		assertEquals(11, (long) getCount(new PersonCriteria()).getNow(null));
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testCountsPastTheMaximumStalenessAreWaitedFor() {
+		getCount(new PersonCriteria());
+		runTasks(1);
+		total.set(11);
+		clock.set(1000);
+		CompletableFuture<Long> count = getCount(new PersonCriteria());
+		assertSame(count, getCount(new PersonCriteria()));
+		assertFalse(count.isDone());
+		runTasks(1);
+		assertEquals(11, (long) count.join());
+		assertEquals(0, cache.getStaleHitCount());
+	}
+
+	@Test
+	public void testSortsAndCursorsShareCounts() {
+		getCount(new PersonCriteria());
+		runTasks(1);
+		assertTrue(cache.getCount(queryHandler, new QueryDefinition<>(new PersonCriteria(),
+				asList(new SortInfo<>(PersonSort.FIRST_NAME)), Cursor.after(1, "Bob")), total::get, executor).isDone());
+		assertFalse(cache.getCount(new Object(), new QueryDefinition<>(new PersonCriteria()), total::get, executor)
+				.isDone());
+	}
+
+	@Test
+	public void testFailedCountsAreNotCached() {
+		CompletableFuture<Long> count = cache.getCount(queryHandler, new QueryDefinition<>(new PersonCriteria()), () -> {
+			throw new IllegalStateException("failed");
+		}, executor);
+		runTasks(1);
+		assertTrue(count.isCompletedExceptionally());
+		assertEquals(1, cache.getFailureCount());
+		assertEquals(0, cache.size());
+		getCount(new PersonCriteria());
+		assertEquals(1, tasks.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedCountsAreEvicted() {
+		getCount(new PersonCriteria().setFirstName("a"));
+		getCount(new PersonCriteria().setFirstName("b"));
+		runTasks(2);
+		getCount(new PersonCriteria().setFirstName("a"));
+		getCount(new PersonCriteria().setFirstName("c"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.size());
+		assertTrue(getCount(new PersonCriteria().setFirstName("a")).isDone());
+		assertFalse(getCount(new PersonCriteria().setFirstName("b")).isDone());
+	}
+
+	private CompletableFuture<Long> getCount(PersonCriteria criteria) {
+		return cache.getCount(queryHandler, new QueryDefinition<>(criteria), total::get, executor);
+	}
+
+	private void runTasks(int count) {
+		assertEquals(count, tasks.size());
+		while (!tasks.isEmpty()) {
+			tasks.poll().run();
+		}
+	}
+
+}
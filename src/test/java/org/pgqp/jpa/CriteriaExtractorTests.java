@@ -0,0 +1,100 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.Test;
+import org.pgqp.CriteriaField;
+import org.pgqp.QueryDefinition;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonQueryHandlerConfig;
+import org.pgqp.jpa.query.PersonSort;
+
+public class CriteriaExtractorTests extends AbstractPersonTests {
+
+	/**
+	 * Hand-written equivalent of the extractor pgqp-processor generates for
+	 * the restriction mappings of {@link PersonQueryHandlerConfig}.
+	 */
+	private static final class PersonCriteriaExtractor implements CriteriaExtractor<PersonCriteria> {
+
+		@Override
+		public int getRestrictionCount() {
+			return 11;
+		}
+
+		@Override
+		public void extract(PersonCriteria criteria, Object[] values, long[] bitset, int offset) {
+			Object[] fields = { criteria.getFirstName(),
+					criteria.getLastName() != null && criteria.getLastName().hasValue() ? criteria.getLastName() : null,
+					criteria.getCompanyName(), criteria.getCompanyAddress(), criteria.getOwnerName(),
+					criteria.getChildName(), criteria.getCoworkerName(), criteria.getEmployed(),
+					criteria.getHasChildren(), criteria.getUnderageChildren(), criteria.getId() };
+			for (int i = 0; i < fields.length; i++) {
+				if (fields[i] != null) {
+					values[i] = fields[i];
+					bitset[offset] |= 1L << i;
+				}
+			}
+		}
+
+	}
+
+	private final List<PersonCriteria> criteria = asList(
+			new PersonCriteria(),
+			new PersonCriteria().setFirstName("r").setLastName(new CriteriaField<>(StandardOperation.EQ, null)),
+			new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.NE, "Smith")),
+			new PersonCriteria().setCompanyName("%e%").setChildName("%y").setHasChildren(true),
+			new PersonCriteria().setEmployed(false).setUnderageChildren(false));
+
+	@Test
+	public void testExtractorMatchesRestrictionMappings() throws SQLException {
+		SqlQueryHandler<Person, PersonCriteria, PersonSort> sqlQueryHandler = new PersonQueryHandlerConfig()
+				.getSqlQueryHandler();
+		try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:test", "sa", "")) {
+			for (PersonCriteria personCriteria : criteria) {
+				QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(personCriteria,
+						PersonSort.FIRST_NAME);
+				queryHandler.setCriteriaExtractor(null);
+				sqlQueryHandler.setCriteriaExtractor(null);
+				List<Integer> expected = findIds(queryDefinition);
+				String expectedSql = sqlQueryHandler.toEntityQuery(queryDefinition).getSql();
+				queryHandler.setCriteriaExtractor(new PersonCriteriaExtractor());
+				sqlQueryHandler.setCriteriaExtractor(new PersonCriteriaExtractor());
+				assertEquals(personCriteria.toString(), expected, findIds(queryDefinition));
+				assertEquals(personCriteria.toString(), expectedSql,
+						sqlQueryHandler.toEntityQuery(queryDefinition).getSql());
+				assertEquals(personCriteria.toString(), expected, sqlQueryHandler.toEntityQuery(queryDefinition)
+						.list(connection, resultSet -> resultSet.getInt("id")));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testExtractorMustReadAllRestrictions() {
+		queryHandler.setCriteriaExtractor(new CriteriaExtractor<PersonCriteria>() {
+			@Override
+			public int getRestrictionCount() {
+				return 10;
+			}
+
+			@Override
+			public void extract(PersonCriteria criteria, Object[] values, long[] bitset, int offset) {
+			}
+		});
+	}
+
+	private List<Integer> findIds(QueryDefinition<PersonCriteria, PersonSort> queryDefinition) {
+		return entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition)).getResultList().stream()
+				.map(Person::getId).collect(toList());
+	}
+
+}
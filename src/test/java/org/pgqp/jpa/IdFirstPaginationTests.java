@@ -0,0 +1,84 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.persistence.Tuple;
+
+import org.hibernate.Hibernate;
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.SortInfo.Direction;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class IdFirstPaginationTests extends AbstractPersonTests {
+
+	private final PagedQueryExecutor<Person, PersonCriteria, PersonSort> executor = new PagedQueryExecutor<>(
+			queryHandler, entityManagerFactory, Runnable::run);
+
+	@Test
+	public void testIdQuerySelectsIdAndSortColumns() {
+		List<Tuple> rows = entityManager.createQuery(queryHandler.toIdQuery(new QueryDefinition<>(
+				new PersonCriteria().setEmployed(true), PersonSort.BUSINESS_NAME, PersonSort.FIRST_NAME)))
+				.setMaxResults(2).getResultList();
+		assertEquals(2, rows.size());
+		assertEquals(asList(1, "Acme", "Bob"), asList(rows.get(0).toArray()));
+		assertEquals(asList(4, "Acme", "Suzy"), asList(rows.get(1).toArray()));
+	}
+
+	@Test
+	public void testIdQueryDoesNotFetch() {
+		String jpql = entityManager.createQuery(queryHandler.toIdQuery(new QueryDefinition<>(new PersonCriteria(),
+				PersonSort.OWNER_LAST_NAME))).unwrap(org.hibernate.Query.class).getQueryString();
+		assertFalse(jpql, jpql.contains("fetch"));
+	}
+
+	@Test
+	public void testPagesMatchEntityQuery() {
+		executor.setIdFirst(true);
+		assertPagesMatch(new QueryDefinition<>(new PersonCriteria(), asList(
+				new SortInfo<>(PersonSort.LAST_NAME), new SortInfo<>(PersonSort.FIRST_NAME, Direction.DESC))));
+		assertPagesMatch(new QueryDefinition<>(new PersonCriteria().setChildName("%"), PersonSort.BUSINESS_NAME,
+				PersonSort.FIRST_NAME));
+		assertPagesMatch(new QueryDefinition<>(new PersonCriteria().setEmployed(true), PersonSort.OWNER_LAST_NAME,
+				PersonSort.FIRST_NAME));
+	}
+
+	@Test
+	public void testSortJoinsAreFetched() {
+		executor.setIdFirst(true);
+		List<Person> people = executor.findPage(new QueryDefinition<>(new PersonCriteria().setEmployed(true),
+				PersonSort.BUSINESS_NAME, PersonSort.FIRST_NAME), 1, 3).getContent();
+		assertEquals(asList(4, 8, 6), toIds(people));
+		people.forEach(p -> assertTrue(Hibernate.isInitialized(p.getEmployer())));
+	}
+
+	@Test
+	public void testEmptyPage() {
+		executor.setIdFirst(true);
+		assertTrue(executor.findPage(new QueryDefinition<>(new PersonCriteria().setFirstName("nobody"),
+				PersonSort.FIRST_NAME), 0, 3).getContent().isEmpty());
+	}
+
+	private void assertPagesMatch(QueryDefinition<PersonCriteria, PersonSort> queryDefinition) {
+		List<Integer> expected = toIds(
+				entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition)).getResultList());
+		for (int offset = 0; offset < expected.size(); offset += 3) {
+			assertEquals(expected.subList(offset, Math.min(offset + 3, expected.size())),
+					toIds(executor.findPage(queryDefinition, offset, 3).getContent()));
+		}
+	}
+
+	private static List<Integer> toIds(List<Person> people) {
+		return people.stream().map(Person::getId).collect(toList());
+	}
+
+}
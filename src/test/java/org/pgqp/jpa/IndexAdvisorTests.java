@@ -0,0 +1,131 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Statement;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.junit.Test;
+import org.pgqp.CriteriaField;
+import org.pgqp.QueryDefinition;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.IndexRecommendation.Kind;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class IndexAdvisorTests extends AbstractPersonTests {
+
+	private final IndexAdvisor<PersonCriteria, PersonSort> advisor = new IndexAdvisor<>(queryHandler,
+			new SqlMetadata());
+
+	@Test
+	public void testNonSargableMappingsAreFlagged() {
+		List<RestrictionMapping<PersonCriteria, ?, ?, ?, ?>> mappings = advisor.getNonSargableMappings();
+		assertEquals(1, mappings.size());
+		assertSame(queryHandler.getRestrictionMappings().get(0), mappings.get(0));
+	}
+
+	@Test
+	public void testCompositeAndSortAlignedIndexes() {
+		advisor.addQuery(new QueryDefinition<>(new PersonCriteria().setEmployed(true)
+				.setLastName(new CriteriaField<>(StandardOperation.STARTS_WITH, "S")), PersonSort.FIRST_NAME), 10);
+		advisor.addQuery(new QueryDefinition<>(new PersonCriteria().setFirstName("o"), PersonSort.FIRST_NAME), 1);
+
+		List<IndexRecommendation> recommendations = advisor.getRecommendations();
+		assertEquals(asList(
+				"create index ix_person_employer_id_lastname on Person (employer_id, lastName)",
+				"create index ix_person_employer_id_firstname on Person (employer_id, firstName)",
+				"create index ix_person_firstname on Person (firstName)"),
+				recommendations.stream().map(IndexRecommendation::toDdl).collect(toList()));
+		assertEquals(Kind.RESTRICTION, recommendations.get(0).getKind());
+		assertEquals(10, recommendations.get(0).getWeight());
+		assertEquals(Kind.SORT, recommendations.get(1).getKind());
+		assertEquals(10, recommendations.get(1).getWeight());
+		assertEquals(1, recommendations.get(2).getWeight());
+	}
+
+	@Test
+	public void testDisjunctionMembersAreIndexedSeparately() {
+		List<RestrictionMapping<PersonCriteria, ?, ?, ?, ?>> mappings = queryHandler.getRestrictionMappings();
+		queryHandler.setRestrictionGroups(singletonList(RestrictionGroup.anyOf(mappings.get(1), mappings.get(3))));
+		advisor.addQuery(new QueryDefinition<>(new PersonCriteria().setEmployed(true)
+				.setLastName(new CriteriaField<>(StandardOperation.STARTS_WITH, "S")).setCompanyAddress("N%")), 1);
+
+		List<String> ddl = advisor.getRecommendations().stream().map(IndexRecommendation::toDdl).collect(toList());
+		assertEquals(3, ddl.size());
+		assertTrue(ddl.contains("create index ix_person_lastname on Person (lastName)"));
+		assertTrue(ddl.contains("create index ix_person_employer_id on Person (employer_id)"));
+		assertTrue(ddl.contains("create index ix_business_address on Business (address)"));
+	}
+
+	@Test
+	public void testJoinsAreIndexed() {
+		advisor.addQuery(new QueryDefinition<>(new PersonCriteria().setCompanyName("A").setChildName("B"),
+				PersonSort.OWNER_LAST_NAME), 1);
+
+		List<String> ddl = advisor.getRecommendations().stream().map(IndexRecommendation::toDdl).collect(toList());
+		assertEquals(6, ddl.size());
+		assertTrue(ddl.contains("create index ix_business_name on Business (name)"));
+		assertTrue(ddl.contains("create index ix_person_firstname on Person (firstName)"));
+		assertTrue(ddl.contains("create index ix_person_lastname on Person (lastName)"));
+		assertTrue(ddl.contains("create index ix_person_employer_id on Person (employer_id)"));
+		assertTrue(ddl.contains("create index ix_person_parent_id on Person (parent_id)"));
+		assertTrue(ddl.contains("create index ix_business_owner_id on Business (owner_id)"));
+	}
+
+	@Test
+	public void testObservedShapesAreWeighted() {
+		QueryMetrics metrics = new QueryMetrics();
+		queryHandler.setQueryListener(metrics);
+		PagedQueryExecutor<Person, PersonCriteria, PersonSort> executor = new PagedQueryExecutor<>(queryHandler,
+				entityManagerFactory, Runnable::run);
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setCompanyAddress("NY"), PersonSort.BUSINESS_NAME);
+		executor.findPage(queryDefinition, 0, 10);
+		executor.findPage(queryDefinition, 0, 10);
+		advisor.addShapes(metrics);
+
+		List<IndexRecommendation> recommendations = advisor.getRecommendations();
+		assertEquals(asList(
+				"create index ix_business_address on Business (address)",
+				"create index ix_person_employer_id on Person (employer_id)",
+				"create index ix_business_name on Business (name)"),
+				recommendations.stream().map(IndexRecommendation::toDdl).collect(toList()));
+		// the entity and count shapes were executed twice each, only the entity shape is sorted
+		assertEquals(asList(4L, 4L, 2L),
+				recommendations.stream().map(IndexRecommendation::getWeight).collect(toList()));
+		assertEquals(Kind.SORT, recommendations.get(2).getKind());
+	}
+
+	@Test
+	public void testRecommendationsAreVerifiedAgainstDatabase() {
+		advisor.addQuery(new QueryDefinition<>(new PersonCriteria().setCompanyName("A"), PersonSort.LAST_NAME), 1);
+		Session session = entityManager.unwrap(Session.class);
+
+		List<IndexRecommendation> recommendations = session.doReturningWork(advisor::getRecommendations);
+		assertEquals(3, recommendations.size());
+		IndexRecommendation join = recommendations.stream().filter(index -> index.getKind() == Kind.JOIN)
+				.findFirst().get();
+		assertTrue(join.isExisting());
+		IndexRecommendation sort = recommendations.stream().filter(index -> index.getKind() == Kind.SORT)
+				.findFirst().get();
+		assertFalse(sort.isExisting());
+
+		session.doWork(connection -> {
+			try (Statement statement = connection.createStatement()) {
+				statement.execute(sort.toDdl());
+			}
+		});
+		assertTrue(session.doReturningWork(advisor::getRecommendations).stream()
+				.allMatch(index -> index.isExisting() || index.getTableName().equals("Business")));
+	}
+
+}
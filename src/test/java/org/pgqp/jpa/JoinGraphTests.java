@@ -0,0 +1,54 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.pgqp.jpa.entity.Business;
+import org.pgqp.jpa.entity.Business_;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.entity.Person_;
+
+public class JoinGraphTests extends AbstractPersonTests {
+
+	private final JoinDefinition<?, Person> person = new JoinDefinition<>("person", Person.class);
+	private final JoinDefinition<Person, Business> business = new JoinDefinition<>("business", Business.class, person,
+			new AttributeInfo<>(Person_.employer));
+	private final JoinDefinition<Business, Person> owner = new JoinDefinition<>("owner", Person.class, business,
+			new AttributeInfo<>(Business_.owner));
+	private final JoinDefinition<Person, Person> child = new JoinDefinition<>("child", Person.class, person,
+			new AttributeInfo<>(Person_.children));
+	private final JoinDefinition<Person, Business> childEmployer = new JoinDefinition<>("childEmployer",
+			Business.class, child, new AttributeInfo<>(Person_.employer));
+
+	@Test
+	public void testOrdinalsAndPaths() {
+		JoinGraph graph = new JoinGraph(person, asList(owner, childEmployer, business));
+		assertEquals(5, graph.size());
+		assertEquals(0, graph.getOrdinal(person));
+		assertEquals(1, graph.getOrdinal(business));
+		assertEquals(2, graph.getOrdinal(owner));
+		assertEquals(3, graph.getOrdinal(child));
+		assertEquals(4, graph.getOrdinal(childEmployer));
+		assertArrayEquals(new int[] { 0, 1, 2 }, graph.getPath(2));
+		assertArrayEquals(new int[] { 0, 3, 4 }, graph.getPath(4));
+		assertEquals(3, graph.getParent(4));
+	}
+
+	@Test
+	public void testOneToManyFlagIsInherited() {
+		JoinGraph graph = new JoinGraph(person, asList(owner, childEmployer));
+		assertFalse(graph.hasOneToManyRelationship(graph.getOrdinal(owner)));
+		assertTrue(graph.hasOneToManyRelationship(graph.getOrdinal(child)));
+		assertTrue(graph.hasOneToManyRelationship(graph.getOrdinal(childEmployer)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnreachableJoin() {
+		new JoinGraph(business, asList(child));
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.pgqp.Cursor;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.SortInfo.Direction;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class KeysetPaginationTests extends AbstractPersonTests {
+
+	@Test
+	public void testPagesFollowSortDirections() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(new PersonCriteria(),
+				asList(new SortInfo<>(PersonSort.LAST_NAME), new SortInfo<>(PersonSort.FIRST_NAME, Direction.DESC)));
+		assertEquals(asList(7, 6, 8, 4, 5, 2, 3, 1), pageThrough(queryDefinition, 3));
+	}
+
+	@Test
+	public void testSortJoinsAreUsedForTheCursor() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setEmployed(true), PersonSort.BUSINESS_NAME);
+		assertEquals(asList(1, 4, 8, 6, 7), pageThrough(queryDefinition, 2));
+	}
+
+	@Test
+	public void testIdIsTheTiebreaker() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria(), PersonSort.NO_MAPPING);
+		assertEquals(asList(1, 2, 3, 4, 5, 6, 7, 8), pageThrough(queryDefinition, 5));
+	}
+
+	@Test
+	public void testToCursor() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(new PersonCriteria(),
+				PersonSort.BUSINESS_NAME, PersonSort.FIRST_NAME);
+		Cursor cursor = queryHandler.toCursor(queryDefinition, wendy);
+		assertEquals(7, cursor.getId());
+		assertEquals(asList("Tree Corp", "Wendy"), cursor.getSortValues());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullSortValuesAreRejected() {
+		// Molly is not employed, so her business name is null
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(new PersonCriteria(),
+				PersonSort.BUSINESS_NAME);
+		queryHandler.toCursor(queryDefinition, molly);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCursorMustMatchSorts() {
+		queryHandler.toEntityQuery(new QueryDefinition<>(new PersonCriteria(),
+				asList(new SortInfo<>(PersonSort.LAST_NAME)), Cursor.after(1, "Smith", "Bob")));
+	}
+
+	private List<Integer> pageThrough(QueryDefinition<PersonCriteria, PersonSort> queryDefinition, int pageSize) {
+		List<Integer> ids = new ArrayList<>();
+		QueryDefinition<PersonCriteria, PersonSort> page = queryDefinition.withCursor(Cursor.first());
+		while (true) {
+			List<Person> people = entityManager.createQuery(queryHandler.toEntityQuery(page))
+					.setMaxResults(pageSize).getResultList();
+			people.forEach(p -> ids.add(p.getId()));
+			if (people.size() < pageSize) {
+				return ids;
+			}
+			page = queryDefinition.withCursor(queryHandler.toCursor(queryDefinition, people.get(people.size() - 1)));
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+import org.pgqp.Page;
+import org.pgqp.QueryDefinition;
+import org.pgqp.Slice;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.hibernate.HibernateQueryStrings;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class PagedQueryExecutorTests extends AbstractPersonTests {
+
+	private final ExecutorService threads = Executors.newSingleThreadExecutor();
+	private final AtomicInteger submitted = new AtomicInteger();
+	private final AtomicReference<Thread> countThread = new AtomicReference<>();
+	private final PagedQueryExecutor<Person, PersonCriteria, PersonSort> executor = new PagedQueryExecutor<>(
+			queryHandler, entityManagerFactory, task -> {
+				submitted.incrementAndGet();
+				threads.execute(() -> {
+					countThread.set(Thread.currentThread());
+					task.run();
+				});
+			});
+
+	@After
+	public void shutdown() {
+		threads.shutdown();
+	}
+
+	@Test
+	public void testCountRunsConcurrently() {
+		Page<Person> page = executor.findPage(new QueryDefinition<>(new PersonCriteria(), PersonSort.LAST_NAME,
+				PersonSort.FIRST_NAME), 2, 3);
+		assertEquals(asList("Ernie", "Bill", "Suzy"), toFirstNames(page.getContent()));
+		assertEquals(8, page.getTotal());
+		assertTrue(page.hasNext());
+		assertEquals(1, submitted.get());
+		assertNotEquals(Thread.currentThread(), countThread.get());
+	}
+
+	@Test
+	public void testCountIsRestricted() {
+		Page<Person> page = executor.findPage(new QueryDefinition<>(new PersonCriteria().setHasChildren(true),
+				PersonSort.FIRST_NAME), 0, 2);
+		assertEquals(asList("Bert", "Bob"), toFirstNames(page.getContent()));
+		assertEquals(3, page.getTotal());
+	}
+
+	@Test
+	public void testLazyTotalIsCountedOnRequest() {
+		Page<Person> page = executor.findPageWithLazyTotal(new QueryDefinition<>(new PersonCriteria(),
+				PersonSort.FIRST_NAME), 0, 4);
+		assertEquals(asList("Bert", "Bill", "Bob", "Brian"), toFirstNames(page.getContent()));
+		assertEquals(8, page.getTotal());
+		assertEquals(0, submitted.get());
+	}
+
+	@Test
+	public void testLazyTotalFromPartialPage() {
+		Page<Person> page = executor.findPageWithLazyTotal(new QueryDefinition<>(
+				new PersonCriteria().setCompanyName("Acme")), 1, 4);
+		assertEquals(1, page.getContent().size());
+		assertEquals(2, page.getTotal());
+		assertFalse(page.hasNext());
+	}
+
+	@Test
+	public void testCachedTotalsSkipCountQueries() {
+		executor.setCountCache(new CountCache(1, 1, TimeUnit.HOURS));
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(new PersonCriteria(),
+				PersonSort.FIRST_NAME);
+		assertEquals(8, executor.findPage(queryDefinition, 0, 2).getTotal());
+		Page<Person> page = executor.findPage(queryDefinition, 2, 2);
+		assertEquals(asList("Bob", "Brian"), toFirstNames(page.getContent()));
+		assertEquals(8, page.getTotal());
+		assertEquals(8, executor.findPageWithLazyTotal(queryDefinition, 4, 2).getTotal());
+		assertEquals(1, submitted.get());
+	}
+
+	@Test
+	public void testCachedCountsAreBuiltOnTheCallingThread() throws Exception {
+		AtomicLong clock = new AtomicLong();
+		executor.setCountCache(new CountCache(10, 1, 10, clock::get));
+		List<Thread> renderThreads = new CopyOnWriteArrayList<>();
+		queryHandler.setJpqlRenderer(query -> {
+			renderThreads.add(Thread.currentThread());
+			return HibernateQueryStrings.getQueryString(query);
+		});
+		queryHandler.setJpqlCacheSize(0);
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(new PersonCriteria(),
+				PersonSort.FIRST_NAME);
+		assertEquals(8, executor.findPage(queryDefinition, 0, 2).getTotal());
+		// a stale total refreshes in the background
+		clock.set(5);
+		assertEquals(8, executor.findPage(queryDefinition, 2, 2).getTotal());
+		threads.submit(() -> null).get();
+		assertEquals(2, submitted.get());
+		assertNotEquals(Thread.currentThread(), countThread.get());
+		assertEquals(4, renderThreads.size());
+		assertTrue(renderThreads.stream().allMatch(thread -> thread == Thread.currentThread()));
+	}
+
+	@Test
+	public void testSlicesFetchOneMore() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(new PersonCriteria(),
+				PersonSort.FIRST_NAME);
+		for (boolean idFirst : asList(false, true)) {
+			executor.setIdFirst(idFirst);
+			Slice<Person> slice = executor.findSlice(queryDefinition, 4, 3);
+			assertEquals(asList("Ernie", "Molly", "Suzy"), toFirstNames(slice.getContent()));
+			assertTrue(slice.hasNext());
+			slice = executor.findSlice(queryDefinition, 5, 3);
+			assertEquals(asList("Molly", "Suzy", "Wendy"), toFirstNames(slice.getContent()));
+			assertFalse(slice.hasNext());
+		}
+		assertEquals(0, submitted.get());
+	}
+
+	@Test
+	public void testCappedCounts() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setChildName("%"), PersonSort.FIRST_NAME);
+		assertEquals(1, executor.countCapped(queryDefinition, 0));
+		assertEquals(3, executor.countCapped(queryDefinition, 2));
+		assertEquals(3, executor.countCapped(queryDefinition, 3));
+		assertEquals(8, executor.countCapped(new QueryDefinition<>(new PersonCriteria()), 100));
+	}
+
+	private static List<String> toFirstNames(List<Person> people) {
+		return people.stream().map(Person::getFirstName).collect(toList());
+	}
+
+}
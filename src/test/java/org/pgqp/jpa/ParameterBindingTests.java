@@ -0,0 +1,116 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.pgqp.CriteriaField;
+import org.pgqp.Cursor;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.SortInfo.Direction;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class ParameterBindingTests extends AbstractPersonTests {
+
+	@Test
+	public void testSameShapeRendersSameQueryText() {
+		queryHandler.setBindParameters(true);
+		String first = toJpql(queryHandler.toParameterizedEntityQuery(idAndLastName(1, "Smith")));
+		String second = toJpql(queryHandler.toParameterizedEntityQuery(idAndLastName(4, "Johnson")));
+		assertEquals(first, second);
+		assertTrue(first, first.contains(" t0.id=:r10_0") && first.contains(":r1_0") && first.contains(" t0 "));
+
+		queryHandler.setBindParameters(false);
+		assertNotEquals(toJpql(queryHandler.toParameterizedEntityQuery(idAndLastName(1, "Smith"))),
+				toJpql(queryHandler.toParameterizedEntityQuery(idAndLastName(4, "Johnson"))));
+	}
+
+	@Test
+	public void testParametersAreNamedPerRestriction() {
+		queryHandler.setBindParameters(true);
+		Map<String, Object> expected = new LinkedHashMap<>();
+		expected.put("r0_0", "%o%");
+		expected.put("r1_0", "Smith");
+		expected.put("k0", "Smith");
+		expected.put("k1", 1);
+		assertEquals(expected, queryHandler.toParameterizedEntityQuery(new QueryDefinition<>(
+				new PersonCriteria().setFirstName("o").setLastName(new CriteriaField<>(StandardOperation.EQ, "Smith")),
+				asList(new SortInfo<>(PersonSort.LAST_NAME)), Cursor.after(1, "Smith"))).getParameters());
+	}
+
+	@Test
+	public void testPlanCacheHits() {
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+
+		queryHandler.setBindParameters(true);
+		statistics.clear();
+		for (int id = 1; id <= 5; id++) {
+			queryHandler.toParameterizedEntityQuery(idAndLastName(id, "Smith")).createQuery(entityManager)
+					.getResultList();
+		}
+		assertEquals(1, statistics.getQueries().length);
+		assertEquals(5, statistics.getQueryStatistics(statistics.getQueries()[0]).getExecutionCount());
+
+		queryHandler.setBindParameters(false);
+		statistics.clear();
+		for (int id = 1; id <= 5; id++) {
+			queryHandler.toParameterizedEntityQuery(idAndLastName(id, "Smith")).createQuery(entityManager)
+					.getResultList();
+		}
+		assertEquals(5, statistics.getQueries().length);
+	}
+
+	@Test
+	public void testBoundQueriesMatchLiteralQueries() {
+		List<QueryDefinition<PersonCriteria, PersonSort>> queryDefinitions = asList(
+				new QueryDefinition<>(new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.CONTAINS, "i"))),
+				new QueryDefinition<>(new PersonCriteria().setChildName("%y").setUnderageChildren(true)),
+				new QueryDefinition<>(new PersonCriteria().setOwnerName("Johnson").setHasChildren(false),
+						PersonSort.BUSINESS_NAME),
+				new QueryDefinition<>(new PersonCriteria().setEmployed(true),
+						asList(new SortInfo<>(PersonSort.LAST_NAME, Direction.DESC), new SortInfo<>(PersonSort.FIRST_NAME)),
+						Cursor.after(4, "Johnson", "Suzy")));
+		for (SemiJoinStrategy strategy : SemiJoinStrategy.values()) {
+			queryHandler.setSemiJoinStrategy(strategy);
+			for (QueryDefinition<PersonCriteria, PersonSort> queryDefinition : queryDefinitions) {
+				queryHandler.setBindParameters(false);
+				List<Integer> expected = findIds(queryDefinition);
+				long expectedCount = queryHandler.toParameterizedCountQuery(queryDefinition).createQuery(entityManager)
+						.getSingleResult();
+				queryHandler.setBindParameters(true);
+				assertEquals(strategy.name(), expected, findIds(queryDefinition));
+				assertEquals(strategy.name(), expectedCount, (long) queryHandler
+						.toParameterizedCountQuery(queryDefinition).createQuery(entityManager).getSingleResult());
+			}
+		}
+	}
+
+	private List<Integer> findIds(QueryDefinition<PersonCriteria, PersonSort> queryDefinition) {
+		return queryHandler.toParameterizedEntityQuery(queryDefinition).createQuery(entityManager).getResultList()
+				.stream().map(Person::getId).sorted().collect(toList());
+	}
+
+	private static QueryDefinition<PersonCriteria, PersonSort> idAndLastName(int id, String lastName) {
+		return new QueryDefinition<>(
+				new PersonCriteria().setId(id).setLastName(new CriteriaField<>(StandardOperation.EQ, lastName)));
+	}
+
+	private String toJpql(ParameterizedQuery<?> query) {
+		return query.createQuery(entityManager).unwrap(org.hibernate.Query.class).getQueryString();
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.entity.Business_;
+import org.pgqp.jpa.entity.Person_;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonQueryHandlerConfig;
+import org.pgqp.jpa.query.PersonSort;
+import org.pgqp.jpa.query.PersonSummary;
+
+public class ProjectionTests extends AbstractPersonTests {
+
+	private final PersonQueryHandlerConfig config = new PersonQueryHandlerConfig();
+
+	@Test
+	public void testTupleProjection() {
+		ProjectionDefinition<Tuple> projection = new ProjectionDefinition<>(Tuple.class,
+				new ProjectionColumn<>(config.getPersonTable(), Person_.firstName),
+				new ProjectionColumn<>(config.getBusinessTable(), Business_.name, "businessName"),
+				new ProjectionColumn<>(config.getBusinessOwnerTable(), Person_.lastName, "ownerLastName"));
+		List<Tuple> tuples = entityManager.createQuery(queryHandler.toProjectionQuery(
+				new QueryDefinition<>(new PersonCriteria(), PersonSort.FIRST_NAME), projection)).setMaxResults(4)
+				.getResultList();
+		assertEquals(asList("Bert", "Bill", "Bob", "Brian"),
+				tuples.stream().map(t -> t.get("firstName")).collect(toList()));
+		assertEquals(asList("Tree Corp", null, "Acme", null),
+				tuples.stream().map(t -> t.get("businessName")).collect(toList()));
+		assertEquals(asList("Apple", null, "Johnson", null),
+				tuples.stream().map(t -> t.get("ownerLastName")).collect(toList()));
+	}
+
+	@Test
+	public void testConstructorProjection() {
+		List<PersonSummary> summaries = entityManager.createQuery(queryHandler.toProjectionQuery(
+				new QueryDefinition<>(new PersonCriteria().setCompanyName("Acme"), PersonSort.FIRST_NAME),
+				summaryProjection())).getResultList();
+		assertEquals(asList(new PersonSummary("Bob", "Smith", "Acme"), new PersonSummary("Suzy", "Johnson", "Acme")),
+				summaries);
+	}
+
+	@Test
+	public void testRestrictionAndSortJoinsAreReused() {
+		String jpql = toJpql(queryHandler.toProjectionQuery(new QueryDefinition<>(
+				new PersonCriteria().setCompanyName("Acme"), PersonSort.BUSINESS_NAME), summaryProjection()));
+		assertEquals(jpql, 1, jpql.split(" join ", -1).length - 1);
+		assertFalse(jpql, jpql.contains("fetch"));
+	}
+
+	@Test
+	public void testDistinctJoinFallsBackToExists() {
+		queryHandler.setSemiJoinStrategy(SemiJoinStrategy.DISTINCT_JOIN);
+		CriteriaQuery<PersonSummary> query = queryHandler.toProjectionQuery(
+				new QueryDefinition<>(new PersonCriteria().setChildName("%"), PersonSort.FIRST_NAME),
+				summaryProjection());
+		String jpql = toJpql(query);
+		assertTrue(jpql, jpql.contains("exists (select 1 "));
+		assertFalse(jpql, jpql.contains("distinct"));
+		assertEquals(asList("Bert", "Bob", "Suzy"), entityManager.createQuery(query).getResultList().stream()
+				.map(PersonSummary::getFirstName).collect(toList()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateAlias() {
+		new ProjectionDefinition<>(Tuple.class, new ProjectionColumn<>(config.getPersonTable(), Person_.lastName),
+				new ProjectionColumn<>(config.getBusinessOwnerTable(), Person_.lastName));
+	}
+
+	private ProjectionDefinition<PersonSummary> summaryProjection() {
+		return new ProjectionDefinition<>(PersonSummary.class,
+				new ProjectionColumn<>(config.getPersonTable(), Person_.firstName),
+				new ProjectionColumn<>(config.getPersonTable(), Person_.lastName),
+				new ProjectionColumn<>(config.getBusinessTable(), Business_.name));
+	}
+
+	private String toJpql(CriteriaQuery<?> query) {
+		return entityManager.createQuery(query).unwrap(org.hibernate.Query.class).getQueryString();
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.pgqp.jpa;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class QueryEventsTests extends AbstractPersonTests {
+
+	private final PagedQueryExecutor<Person, PersonCriteria, PersonSort> executor = new PagedQueryExecutor<>(
+			queryHandler, entityManagerFactory, Runnable::run);
+	private final QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+			new PersonCriteria().setCompanyName("Acme").setChildName("Bill"), PersonSort.FIRST_NAME);
+
+	@Test
+	public void testBuildsAndExecutionsAreRecorded() throws IOException {
+		assumeTrue(QueryEvents.isAvailable());
+		List<RecordedEvent> events;
+		QueryBuild build;
+		try (Recording recording = new Recording()) {
+			recording.enable("org.pgqp.QueryBuild").withThreshold(null);
+			recording.enable("org.pgqp.QueryExecution").withThreshold(null);
+			recording.start();
+			build = queryHandler.toParameterizedEntityQuery(queryDefinition).getBuild();
+			assertEquals(1, executor.findPage(queryDefinition, 0, 10).getContent().size());
+			recording.stop();
+			events = readEvents(recording);
+		}
+		assertNotNull(build);
+
+		List<RecordedEvent> builds = events.stream()
+				.filter(event -> event.getEventType().getName().equals("org.pgqp.QueryBuild")).collect(toList());
+		assertEquals(3, builds.size());
+		RecordedEvent entityBuild = builds.get(0);
+		assertEquals(Person.class.getName(), entityBuild.getClass("entityClass").getName());
+		assertEquals("ENTITY", entityBuild.getString("queryType"));
+		assertEquals(build.getFingerprint(), entityBuild.getLong("fingerprint"));
+		assertEquals(build.getJoinCount(), entityBuild.getInt("joinCount"));
+		assertTrue(entityBuild.getBoolean("subqueryUsed"));
+		assertFalse(entityBuild.getBoolean("templated"));
+
+		List<RecordedEvent> executions = events.stream()
+				.filter(event -> event.getEventType().getName().equals("org.pgqp.QueryExecution")).collect(toList());
+		assertEquals(2, executions.size());
+		for (RecordedEvent execution : executions) {
+			assertEquals(1, execution.getLong("rows"));
+			assertTrue(execution.getDuration().toNanos() > 0);
+		}
+		assertEquals(build.getFingerprint(), executions.stream()
+				.filter(event -> event.getString("queryType").equals("ENTITY")).findFirst().get().getLong("fingerprint"));
+	}
+
+	@Test
+	public void testNothingIsReportedWithoutRecording() {
+		assertNull(queryHandler.toParameterizedEntityQuery(queryDefinition).getBuild());
+	}
+
+	private static List<RecordedEvent> readEvents(Recording recording) throws IOException {
+		Path file = Files.createTempFile("pgqp", ".jfr");
+		try {
+			recording.dump(file);
+			return RecordingFile.readAllEvents(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+}
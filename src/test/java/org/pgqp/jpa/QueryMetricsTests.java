@@ -0,0 +1,159 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.JpaQueryHandler.QueryType;
+import org.pgqp.jpa.QueryMetrics.ShapeMetrics;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.hibernate.HibernateQueryStrings;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class QueryMetricsTests extends AbstractPersonTests {
+
+	private final List<QueryBuild> builds = new ArrayList<>();
+	private final QueryMetrics metrics = new QueryMetrics();
+	private final PagedQueryExecutor<Person, PersonCriteria, PersonSort> executor = new PagedQueryExecutor<>(
+			queryHandler, entityManagerFactory, Runnable::run);
+
+	@Test
+	public void testNoStatisticsWithoutListener() {
+		assertSame(QueryListener.NONE, queryHandler.getQueryListener());
+		assertNull(queryHandler.toParameterizedEntityQuery(new QueryDefinition<>(new PersonCriteria())).getBuild());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBuildsAreReported() {
+		queryHandler.setQueryListener(new QueryListener() {
+			@Override
+			public void queryBuilt(QueryBuild build) {
+				builds.add(build);
+			}
+		});
+		PersonCriteria criteria = new PersonCriteria().setCompanyName("Acme").setChildName("B");
+		queryHandler.toEntityQuery(new QueryDefinition<>(criteria, PersonSort.OWNER_LAST_NAME));
+		QueryBuild build = queryHandler.toParameterizedCountQuery(new QueryDefinition<>(criteria)).getBuild();
+		assertEquals(2, builds.size());
+		assertSame(build, builds.get(1));
+
+		QueryBuild entityBuild = builds.get(0);
+		assertEquals(QueryType.ENTITY, entityBuild.getQueryType());
+		assertEquals(asList("Acme", "B"), entityBuild.getRestrictionMappings().stream()
+				.map(mapping -> ((RestrictionMapping<PersonCriteria, ?, ?, ?, ?>) mapping).getValue(criteria))
+				.collect(toList()));
+		assertEquals(1, entityBuild.getSemiJoinCount());
+		assertFalse(entityBuild.isDistinct());
+		assertEquals(1, entityBuild.getInnerJoinCount());
+		assertEquals(0, entityBuild.getLeftJoinCount());
+		assertEquals(2, entityBuild.getFetchJoinCount());
+		assertFalse(entityBuild.isTemplated());
+		assertTrue(entityBuild.getBuildNanos() > 0);
+
+		assertEquals(QueryType.COUNT, build.getQueryType());
+		assertEquals(2, build.getInnerJoinCount());
+		assertEquals(0, build.getFetchJoinCount());
+		assertNotEquals(entityBuild.getFingerprint(), build.getFingerprint());
+	}
+
+	@Test
+	public void testMetricsArePerShape() {
+		queryHandler.setQueryListener(metrics);
+		QueryBuild bob = queryHandler
+				.toParameterizedEntityQuery(new QueryDefinition<>(new PersonCriteria().setFirstName("Bob"))).getBuild();
+		QueryBuild bill = queryHandler
+				.toParameterizedEntityQuery(new QueryDefinition<>(new PersonCriteria().setFirstName("Bill")))
+				.getBuild();
+		queryHandler.toParameterizedCountQuery(new QueryDefinition<>(new PersonCriteria().setFirstName("Bill")));
+		assertEquals(bob.getFingerprint(), bill.getFingerprint());
+		assertEquals(2, metrics.getShapes().size());
+		ShapeMetrics shape = metrics.getShape(bob.getFingerprint());
+		assertEquals(QueryType.ENTITY, shape.getQueryType());
+		assertEquals(2, shape.getBuildCount());
+		assertEquals(1, shape.getRestrictionMappings().size());
+		assertEquals(0, shape.getExecutionCount());
+	}
+
+	@Test
+	public void testTemplatedBuildsAreCounted() {
+		queryHandler.setQueryListener(metrics);
+		queryHandler.setJpqlRenderer(HibernateQueryStrings::getQueryString);
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setCompanyName("Acme"), PersonSort.FIRST_NAME);
+		QueryBuild build = queryHandler.toParameterizedIdQuery(queryDefinition).getBuild();
+		queryHandler.toParameterizedIdQuery(queryDefinition);
+		assertTrue(build.isTemplated());
+		assertEquals(1, build.getInnerJoinCount());
+		ShapeMetrics shape = metrics.getShape(build.getFingerprint());
+		assertEquals(2, shape.getTemplatedBuildCount());
+		assertEquals(2, shape.getBuildLatency().getCount());
+	}
+
+	@Test
+	public void testExecutionsAreReported() {
+		queryHandler.setQueryListener(metrics);
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setCompanyName("Acme"), PersonSort.FIRST_NAME);
+		assertEquals(2, executor.findPage(queryDefinition, 0, 10).getTotal());
+		executor.setIdFirst(true);
+		executor.findPage(queryDefinition, 1, 10);
+
+		assertEquals(4, metrics.getShapes().size());
+		for (ShapeMetrics shape : metrics.getShapes()) {
+			assertEquals(shape.getQueryType() == QueryType.COUNT ? 2 : 1, shape.getExecutionCount());
+			assertEquals(shape.getBuildCount(), shape.getExecutionCount());
+			assertTrue(shape.getExecutionLatency().getTotalNanos() > 0);
+		}
+		assertEquals(asList(2L, 1L, 1L, 4L), asList(QueryType.ENTITY, QueryType.IDS, QueryType.BY_ID, QueryType.COUNT)
+				.stream().map(type -> getShape(type).getRowCount()).collect(toList()));
+	}
+
+	@Test
+	public void testShapesBeyondTheMaximumAreDropped() {
+		QueryMetrics limited = new QueryMetrics(1);
+		queryHandler.setQueryListener(limited);
+		queryHandler.toEntityQuery(new QueryDefinition<>(new PersonCriteria().setFirstName("Bob")));
+		queryHandler.toEntityQuery(new QueryDefinition<>(new PersonCriteria().setLastName(null)));
+		queryHandler.toEntityQuery(new QueryDefinition<>(new PersonCriteria().setFirstName("Bill")));
+		assertEquals(1, limited.getShapes().size());
+		assertEquals(2, limited.getShapes().get(0).getBuildCount());
+		assertEquals(1, limited.getDroppedCount());
+	}
+
+	@Test
+	public void testHistogramBuckets() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(0);
+		histogram.record(1);
+		histogram.record(1000);
+		histogram.record(1023);
+		histogram.record(1024);
+		assertEquals(5, histogram.getCount());
+		assertEquals(1, histogram.getCount(0));
+		assertEquals(2, histogram.getCount(10));
+		assertEquals(1, histogram.getCount(11));
+		assertEquals(1023, LatencyHistogram.getUpperBound(10));
+		assertEquals(1023, histogram.getQuantileNanos(0.8));
+		assertEquals(1024, histogram.getQuantileNanos(1));
+		assertEquals(0, histogram.getQuantileNanos(0.2));
+		assertEquals(3048, histogram.getTotalNanos());
+		assertEquals(0, new LatencyHistogram().getQuantileNanos(0.5));
+	}
+
+	private ShapeMetrics getShape(QueryType queryType) {
+		return metrics.getShapes().stream().filter(shape -> shape.getQueryType() == queryType).findFirst().get();
+	}
+
+}
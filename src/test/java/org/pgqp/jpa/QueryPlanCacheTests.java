@@ -0,0 +1,92 @@
+package org.pgqp.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.SortInfo.Direction;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class QueryPlanCacheTests extends AbstractPersonTests {
+
+	@Test
+	public void testSameShapeDifferentValuesHitsCache() {
+		ShapeCache<?> cache = queryHandler.getPlanCache();
+		assertEquals(1, count(new PersonCriteria().setFirstName("ill")));
+		assertEquals(1, count(new PersonCriteria().setFirstName("Bob")));
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testSortsArePartOfTheShape() {
+		ShapeCache<?> cache = queryHandler.getPlanCache();
+		query(new PersonCriteria(), new SortInfo<>(PersonSort.FIRST_NAME));
+		query(new PersonCriteria(), new SortInfo<>(PersonSort.FIRST_NAME, Direction.DESC));
+		query(new PersonCriteria(), new SortInfo<>(PersonSort.LAST_NAME));
+		query(new PersonCriteria(), new SortInfo<>(PersonSort.FIRST_NAME), new SortInfo<>(PersonSort.NO_MAPPING));
+		assertEquals(3, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testCountAndEntityQueriesWithoutSortsShareAPlan() {
+		ShapeCache<?> cache = queryHandler.getPlanCache();
+		assertEquals(2, count(new PersonCriteria().setUnderageChildren(true)));
+		assertEquals(2, entityManager
+				.createQuery(queryHandler.toEntityQuery(new QueryDefinition<>(new PersonCriteria().setUnderageChildren(true))))
+				.getResultList().size());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testEviction() {
+		queryHandler.setPlanCacheSize(1);
+		ShapeCache<?> cache = queryHandler.getPlanCache();
+		assertEquals(1, count(new PersonCriteria().setCompanyName("HAL")));
+		assertEquals(1, count(new PersonCriteria().setFirstName("Bob").setCompanyName("Acme")));
+		assertEquals(1, count(new PersonCriteria().setCompanyName("HAL")));
+		assertEquals(3, cache.getMissCount());
+		assertEquals(2, cache.getEvictionCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testPlannerSettingsReplaceTheCaches() {
+		queryHandler.setPlanCacheSize(1);
+		queryHandler.setJpqlCacheSize(2);
+		ShapeCache<?> cache = queryHandler.getPlanCache();
+		ShapeCache<?> jpqlCache = queryHandler.getJpqlCache();
+		assertEquals(2, count(new PersonCriteria().setUnderageChildren(true)));
+
+		// a compile that read the old setting only caches its plan in the old caches
+		queryHandler.setSemiJoinStrategy(SemiJoinStrategy.EXISTS);
+		assertNotSame(cache, queryHandler.getPlanCache());
+		assertNotSame(jpqlCache, queryHandler.getJpqlCache());
+		assertEquals(1, queryHandler.getPlanCache().getMaximumSize());
+		assertEquals(2, queryHandler.getJpqlCache().getMaximumSize());
+		assertEquals(0, queryHandler.getPlanCache().size());
+		assertEquals(2, count(new PersonCriteria().setUnderageChildren(true)));
+		assertEquals(1, queryHandler.getPlanCache().getMissCount());
+		assertEquals(1, cache.size());
+	}
+
+	private int count(PersonCriteria criteria) {
+		return entityManager.createQuery(queryHandler.toCountQuery(new QueryDefinition<>(criteria))).getSingleResult()
+				.intValue();
+	}
+
+	@SafeVarargs
+	private final void query(PersonCriteria criteria, SortInfo<PersonSort>... sorts) {
+		entityManager.createQuery(queryHandler.toEntityQuery(new QueryDefinition<>(criteria, Arrays.asList(sorts))))
+				.getResultList();
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.hibernate.HibernateQueryStrings;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonQueryHandlerConfig;
+import org.pgqp.jpa.query.PersonSort;
+
+public class RestrictionGroupTests extends AbstractPersonTests {
+
+	private final JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> quickSearchHandler = new PersonQueryHandlerConfig()
+			.getQuickSearchQueryHandler(entityManager);
+	private final List<RestrictionMapping<PersonCriteria, ?, ?, ?, ?>> mappings = queryHandler.getRestrictionMappings();
+	private final List<QueryBuild> builds = new ArrayList<>();
+
+	@Test
+	public void testDisjunctionKeepsRowsWithoutJoinedRows() {
+		quickSearchHandler.setQueryListener(new QueryListener() {
+			@Override
+			public void queryBuilt(QueryBuild build) {
+				builds.add(build);
+			}
+		});
+		// Brian, Bert and Ernie by first name, Bert and Wendy by company, Bob by child
+		assertResult(quickSearchHandler, asList(1, 3, 6, 7, 8), new PersonCriteria().setSearch("r"));
+
+		// the business is left joined, the children are joined in a semi-join
+		QueryBuild build = builds.get(0);
+		assertEquals(1, build.getInnerJoinCount());
+		assertEquals(1, build.getLeftJoinCount());
+		assertEquals(1, build.getSemiJoinCount());
+		assertFalse(build.isDistinct());
+	}
+
+	@Test
+	public void testDisjunctionReusesInnerJoins() {
+		quickSearchHandler.setQueryListener(new QueryListener() {
+			@Override
+			public void queryBuilt(QueryBuild build) {
+				builds.add(build);
+			}
+		});
+		assertResult(quickSearchHandler, asList(1), new PersonCriteria().setCompanyName("Acme").setSearch("r"));
+		assertEquals(2, builds.get(0).getInnerJoinCount());
+		assertEquals(0, builds.get(0).getLeftJoinCount());
+	}
+
+	@Test
+	public void testDisjunctionWithDistinctJoinStrategy() {
+		JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> handler = new PersonQueryHandlerConfig(
+				SemiJoinStrategy.DISTINCT_JOIN).getQuickSearchQueryHandler(entityManager);
+		assertResult(handler, asList(1, 3, 6, 7, 8), new PersonCriteria().setSearch("r"));
+		assertResult(handler, asList(1, 6), new PersonCriteria().setSearch("r").setEmployed(true)
+				.setChildName("%"));
+	}
+
+	@Test
+	public void testNestedGroups() {
+		queryHandler.setRestrictionGroups(singletonList(
+				RestrictionGroup.anyOf(mappings.get(0)).with(RestrictionGroup.allOf(mappings.get(2), mappings.get(3)))));
+		assertResult(queryHandler, asList(4, 8),
+				new PersonCriteria().setFirstName("z").setCompanyName("HAL").setCompanyAddress("CA"));
+		assertResult(queryHandler, asList(4),
+				new PersonCriteria().setFirstName("z").setCompanyName("HAL").setCompanyAddress("NY"));
+		assertResult(queryHandler, asList(1, 4),
+				new PersonCriteria().setCompanyName("Acme").setCompanyAddress("NY"));
+		assertResult(queryHandler, asList(2, 4, 7), new PersonCriteria().setFirstName("y"));
+	}
+
+	@Test
+	public void testEqualitiesAreCollapsedIntoIn() {
+		PersonCriteria criteria = new PersonCriteria().setId(1).setOtherId(4);
+		assertResult(quickSearchHandler, asList(1, 4), criteria);
+		assertFalse(toJpql(criteria).contains(" in ("));
+
+		quickSearchHandler.setCollapseEqualities(true);
+		assertResult(quickSearchHandler, asList(1, 4), criteria);
+		assertResult(quickSearchHandler, asList(6, 8), new PersonCriteria().setId(6).setOtherId(8).setSearch("r"));
+		assertTrue(toJpql(criteria).contains(" in ("));
+	}
+
+	@Test
+	public void testCollapsedEqualitiesAreTemplated() {
+		quickSearchHandler.setCollapseEqualities(true);
+		quickSearchHandler.setBindParameters(true);
+		quickSearchHandler.setJpqlRenderer(HibernateQueryStrings::getQueryString);
+		assertEquals(asList(1, 6), toIds(quickSearchHandler.toParameterizedEntityQuery(
+				new QueryDefinition<>(new PersonCriteria().setId(1).setOtherId(6).setSearch("o"), PersonSort.FIRST_NAME))
+				.createQuery(entityManager).getResultList()));
+		assertEquals(asList(6, 8), toIds(quickSearchHandler.toParameterizedEntityQuery(
+				new QueryDefinition<>(new PersonCriteria().setId(8).setOtherId(6).setSearch("e"), PersonSort.FIRST_NAME))
+				.createQuery(entityManager).getResultList()));
+		assertEquals(1, quickSearchHandler.getJpqlCache().getHitCount());
+		assertEquals(0, quickSearchHandler.getJpqlFallbackCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMappingOfAnotherHandlerIsRejected() {
+		quickSearchHandler.setRestrictionGroups(singletonList(RestrictionGroup.anyOf(mappings.get(0))));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMappingInTwoGroupsIsRejected() {
+		queryHandler.setRestrictionGroups(asList(RestrictionGroup.anyOf(mappings.get(0), mappings.get(1)),
+				RestrictionGroup.anyOf(mappings.get(2)).with(RestrictionGroup.allOf(mappings.get(1)))));
+	}
+
+	private String toJpql(PersonCriteria criteria) {
+		quickSearchHandler.setBindParameters(true);
+		return quickSearchHandler.toParameterizedEntityQuery(new QueryDefinition<>(criteria))
+				.createQuery(entityManager).unwrap(org.hibernate.Query.class).getQueryString();
+	}
+
+	private void assertResult(JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> handler,
+			List<Integer> expected, PersonCriteria criteria) {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(criteria,
+				PersonSort.FIRST_NAME);
+		List<Person> people = entityManager.createQuery(handler.toEntityQuery(queryDefinition)).getResultList();
+		assertEquals(expected, toIds(people));
+		assertEquals(people.size(), toIds(people).stream().distinct().count());
+		assertEquals(expected.size(),
+				entityManager.createQuery(handler.toCountQuery(queryDefinition)).getSingleResult().intValue());
+	}
+
+	private static List<Integer> toIds(List<Person> people) {
+		return people.stream().map(Person::getId).sorted().collect(toList());
+	}
+
+}
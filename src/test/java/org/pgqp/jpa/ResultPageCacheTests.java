@@ -0,0 +1,138 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.pgqp.CriteriaField;
+import org.pgqp.Cursor;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.SortInfo.Direction;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.entity.Business;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class ResultPageCacheTests extends AbstractPersonTests {
+
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicInteger loads = new AtomicInteger();
+	private final ResultPageCache cache = new ResultPageCache(8, 1000, clock::get);
+
+	@Test
+	public void testQueryDefinitionsAreValues() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = newQueryDefinition("Smith", Direction.ASC);
+		assertEquals(queryDefinition, newQueryDefinition("Smith", Direction.ASC));
+		assertEquals(queryDefinition.hashCode(), newQueryDefinition("Smith", Direction.ASC).hashCode());
+		assertNotEquals(queryDefinition, newQueryDefinition("Apple", Direction.ASC));
+		assertNotEquals(queryDefinition, newQueryDefinition("Smith", Direction.DESC));
+		assertNotEquals(queryDefinition, queryDefinition.withCursor(Cursor.first()));
+		assertEquals(queryDefinition.withCursor(Cursor.after(1, "Smith")),
+				queryDefinition.withCursor(Cursor.after(1, "Smith")));
+		assertEquals(new QueryDefinition<>(new PersonCriteria()),
+				new QueryDefinition<>(new PersonCriteria(), asList()));
+	}
+
+	@Test
+	public void testEqualDefinitionsHit() {
+		List<Integer> ids = getIds(newQueryDefinition("Smith", Direction.ASC), 0, 2);
+		assertEquals(asList(1, 3), ids);
+		assertSame(ids, getIds(newQueryDefinition("Smith", Direction.ASC), 0, 2));
+		assertEquals(1, cache.getHitCount());
+		getIds(newQueryDefinition("Smith", Direction.ASC), 2, 2);
+		getIds(newQueryDefinition("Smith", Direction.DESC), 0, 2);
+		assertEquals(3, cache.getMissCount());
+		assertEquals(3, loads.get());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedPagesAreEvictedByWeight() {
+		QueryDefinition<PersonCriteria, PersonSort> smith = newQueryDefinition("Smith", Direction.ASC);
+		QueryDefinition<PersonCriteria, PersonSort> apple = newQueryDefinition("Apple", Direction.ASC);
+		QueryDefinition<PersonCriteria, PersonSort> johnson = newQueryDefinition("Johnson", Direction.ASC);
+		getIds(smith, 0, 3);
+		getIds(apple, 0, 3);
+		getIds(smith, 0, 3);
+		assertEquals(7, cache.getWeight());
+		getIds(johnson, 0, 3);
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.size());
+		assertEquals(7, cache.getWeight());
+		getIds(smith, 0, 3);
+		assertEquals(3, loads.get());
+		getIds(apple, 0, 3);
+		assertEquals(4, loads.get());
+	}
+
+	@Test
+	public void testPagesExpire() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = newQueryDefinition("Smith", Direction.ASC);
+		getIds(queryDefinition, 0, 2);
+		clock.set(999);
+		getIds(queryDefinition, 0, 2);
+		assertEquals(1, loads.get());
+		clock.set(1000);
+		getIds(queryDefinition, 0, 2);
+		assertEquals(2, loads.get());
+		assertEquals(1, cache.getExpirationCount());
+	}
+
+	@Test
+	public void testPagesAreInvalidatedByEntityClass() {
+		assertEquals(asList(Person.class, Business.class), asList(queryHandler.getEntityClasses().toArray()));
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = newQueryDefinition("Smith", Direction.ASC);
+		getIds(queryDefinition, 0, 2);
+		cache.invalidate(String.class);
+		getIds(queryDefinition, 0, 2);
+		assertEquals(1, loads.get());
+		cache.invalidate(Business.class);
+		getIds(queryDefinition, 0, 2);
+		assertEquals(2, loads.get());
+		assertEquals(1, cache.getInvalidationCount());
+	}
+
+	@Test
+	public void testPagesLoadedDuringInvalidationAreDiscarded() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = newQueryDefinition("Smith", Direction.ASC);
+		cache.getIds(queryHandler, queryDefinition, 0, 2, () -> {
+			cache.invalidate(Person.class);
+			return asList(2, 3);
+		});
+		getIds(queryDefinition, 0, 2);
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getInvalidationCount());
+	}
+
+	@Test
+	public void testPagesHeavierThanTheCacheAreNotCached() {
+		getIds(new QueryDefinition<>(new PersonCriteria(), PersonSort.FIRST_NAME), 0, 10);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+	}
+
+	private QueryDefinition<PersonCriteria, PersonSort> newQueryDefinition(String lastName, Direction direction) {
+		return new QueryDefinition<>(
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.EQ, lastName)),
+				asList(new SortInfo<>(PersonSort.FIRST_NAME, direction)));
+	}
+
+	private List<Integer> getIds(QueryDefinition<PersonCriteria, PersonSort> queryDefinition, int offset,
+			int pageSize) {
+		return cache.getIds(queryHandler, queryDefinition, offset, pageSize, () -> {
+			loads.incrementAndGet();
+			return entityManager.createQuery(queryHandler.toIdQuery(queryDefinition)).setFirstResult(offset)
+					.setMaxResults(pageSize).getResultList().stream().map(tuple -> (Integer) tuple.get(0))
+					.collect(toList());
+		});
+	}
+
+}
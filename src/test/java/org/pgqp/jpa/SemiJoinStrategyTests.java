@@ -0,0 +1,114 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.junit.Test;
+import org.pgqp.CriteriaField;
+import org.pgqp.QueryDefinition;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonQueryHandlerConfig;
+import org.pgqp.jpa.query.PersonSort;
+
+public class SemiJoinStrategyTests extends AbstractPersonTests {
+
+	@Test
+	public void testChildRestriction() {
+		assertEquivalent(asList(1, 6), new QueryDefinition<>(new PersonCriteria().setChildName("%y")));
+	}
+
+	@Test
+	public void testSameChildMatchesAllRestrictions() {
+		assertEquivalent(asList(1), new QueryDefinition<>(
+				new PersonCriteria().setChildName("%r%").setUnderageChildren(true)));
+		assertEquivalent(asList(), new QueryDefinition<>(
+				new PersonCriteria().setChildName("W%").setUnderageChildren(true)));
+	}
+
+	@Test
+	public void testChildAndMainQueryRestrictions() {
+		assertEquivalent(asList(4), new QueryDefinition<>(new PersonCriteria().setUnderageChildren(true)
+				.setLastName(new CriteriaField<>(StandardOperation.EQ, "Johnson"))));
+	}
+
+	@Test
+	public void testChildRestrictionWithSortJoins() {
+		assertEquivalent(asList(1, 4, 6), new QueryDefinition<>(new PersonCriteria().setChildName("%"),
+				PersonSort.BUSINESS_NAME, PersonSort.FIRST_NAME));
+	}
+
+	@Test
+	public void testIndependentCollectionBranches() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setChildName("%y").setCoworkerName("Suzy"));
+		assertEquivalent(asList(1), queryDefinition);
+		queryHandler.setSemiJoinPerBranch(true);
+		assertEquivalent(asList(1), queryDefinition);
+	}
+
+	@Test
+	public void testSemiJoinPerBranchIsRendered() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setChildName("%y").setUnderageChildren(true).setCoworkerName("Suzy"));
+		for (SemiJoinStrategy strategy : asList(SemiJoinStrategy.IN, SemiJoinStrategy.EXISTS)) {
+			queryHandler.setSemiJoinStrategy(strategy);
+			queryHandler.setSemiJoinPerBranch(false);
+			assertEquals(1, countSubqueries(toJpql(queryHandler.toEntityQuery(queryDefinition))));
+			queryHandler.setSemiJoinPerBranch(true);
+			assertEquals(2, countSubqueries(toJpql(queryHandler.toEntityQuery(queryDefinition))));
+		}
+	}
+
+	@Test
+	public void testStrategiesAreRendered() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setChildName("%"));
+		queryHandler.setSemiJoinStrategy(SemiJoinStrategy.IN);
+		assertTrue(toJpql(queryHandler.toEntityQuery(queryDefinition)).contains(" in (select "));
+		queryHandler.setSemiJoinStrategy(SemiJoinStrategy.EXISTS);
+		assertTrue(toJpql(queryHandler.toEntityQuery(queryDefinition)).contains("exists (select 1 "));
+		queryHandler.setSemiJoinStrategy(SemiJoinStrategy.DISTINCT_JOIN);
+		assertTrue(toJpql(queryHandler.toEntityQuery(queryDefinition)).startsWith("select distinct "));
+		assertTrue(toJpql(queryHandler.toCountQuery(queryDefinition)).startsWith("select count(distinct "));
+	}
+
+	@Test
+	public void testJoinDefinitionStrategyOverridesHandlerDefault() {
+		JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> handler = new PersonQueryHandlerConfig(
+				SemiJoinStrategy.EXISTS).getPersonQueryHandler(entityManager);
+		handler.setSemiJoinStrategy(SemiJoinStrategy.DISTINCT_JOIN);
+		String jpql = toJpql(handler.toEntityQuery(new QueryDefinition<>(new PersonCriteria().setChildName("%"))));
+		assertTrue(jpql, jpql.contains("exists (select 1 "));
+	}
+
+	private void assertEquivalent(List<Integer> expectedIds, QueryDefinition<PersonCriteria, PersonSort> queryDefinition) {
+		for (SemiJoinStrategy strategy : SemiJoinStrategy.values()) {
+			queryHandler.setSemiJoinStrategy(strategy);
+			List<Integer> ids = entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition)).getResultList()
+					.stream().map(Person::getId).collect(toList());
+			if (queryDefinition.getSorts().isEmpty()) {
+				ids.sort(null);
+			}
+			assertEquals(strategy.name(), expectedIds, ids);
+			assertEquals(strategy.name(), Long.valueOf(expectedIds.size()),
+					entityManager.createQuery(queryHandler.toCountQuery(queryDefinition)).getSingleResult());
+		}
+	}
+
+	private static int countSubqueries(String jpql) {
+		return jpql.split("\\(select ", -1).length - 1;
+	}
+
+	private String toJpql(CriteriaQuery<?> query) {
+		return entityManager.createQuery(query).unwrap(org.hibernate.Query.class).getQueryString();
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.QueryMetrics.ShapeMetrics;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.hibernate.HibernateQueryStrings;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonQueryHandlerConfig;
+import org.pgqp.jpa.query.PersonSort;
+
+public class SharedQueryHandlerTests extends AbstractPersonTests {
+
+	private static final int THREADS = 16;
+	private static final int ITERATIONS = 100;
+
+	private final JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> sharedHandler = new PersonQueryHandlerConfig()
+			.getPersonQueryHandler(entityManagerFactory);
+	private final List<QueryDefinition<PersonCriteria, PersonSort>> queryDefinitions = asList(
+			new QueryDefinition<>(new PersonCriteria(), PersonSort.FIRST_NAME),
+			new QueryDefinition<>(new PersonCriteria().setCompanyName("Acme"), PersonSort.LAST_NAME),
+			new QueryDefinition<>(new PersonCriteria().setChildName("Bill"), PersonSort.OWNER_LAST_NAME),
+			new QueryDefinition<>(new PersonCriteria().setFirstName("r").setEmployed(true), PersonSort.BUSINESS_NAME),
+			new QueryDefinition<>(new PersonCriteria().setHasChildren(true)),
+			new QueryDefinition<>(new PersonCriteria().setCompanyName("HAL").setChildName("B")));
+
+	@Test
+	public void testSharedHandlerMatchesEntityManagerHandler() {
+		for (QueryDefinition<PersonCriteria, PersonSort> queryDefinition : queryDefinitions) {
+			assertEquals(toIds(entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition)).getResultList()),
+					toIds(entityManager.createQuery(sharedHandler.toEntityQuery(queryDefinition)).getResultList()));
+		}
+	}
+
+	@Test
+	public void testSharedHandlerBuildsQueriesConcurrently() throws Exception {
+		sharedHandler.setJpqlRenderer(HibernateQueryStrings::getQueryString);
+		sharedHandler.setPlanCacheSize(2);
+		QueryMetrics metrics = new QueryMetrics();
+		sharedHandler.setQueryListener(metrics);
+		List<List<Integer>> expected = new ArrayList<>();
+		for (QueryDefinition<PersonCriteria, PersonSort> queryDefinition : queryDefinitions) {
+			expected.add(toIds(entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition)).getResultList()));
+		}
+
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				int thread = t;
+				results.add(threads.submit(() -> {
+					start.await();
+					EntityManager threadEntityManager = entityManagerFactory.createEntityManager();
+					try {
+						for (int i = 0; i < ITERATIONS; i++) {
+							int index = (thread + i) % queryDefinitions.size();
+							QueryDefinition<PersonCriteria, PersonSort> queryDefinition = queryDefinitions.get(index);
+							assertEquals(expected.get(index), toIds(sharedHandler
+									.toParameterizedEntityQuery(queryDefinition).createQuery(threadEntityManager)
+									.getResultList()));
+							assertEquals(expected.get(index).size(), sharedHandler
+									.toParameterizedCountQuery(queryDefinition).createQuery(threadEntityManager)
+									.getSingleResult().intValue());
+						}
+					} finally {
+						threadEntityManager.close();
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} finally {
+			threads.shutdownNow();
+		}
+
+		assertEquals(2 * THREADS * ITERATIONS,
+				metrics.getShapes().stream().mapToLong(ShapeMetrics::getBuildCount).sum());
+		assertTrue(sharedHandler.getJpqlCache().getHitCount() > 0);
+		assertTrue(sharedHandler.getPlanCache().getEvictionCount() > 0);
+	}
+
+	private static List<Integer> toIds(List<Person> people) {
+		return people.stream().map(Person::getId).sorted().collect(toList());
+	}
+
+}
@@ -0,0 +1,305 @@
+package org.pgqp.jpa;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.pgqp.CriteriaField;
+import org.pgqp.Cursor;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.SortInfo.Direction;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.entity.Person_;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonQueryHandlerConfig;
+import org.pgqp.jpa.query.PersonSort;
+
+public class SqlQueryHandlerTests extends AbstractPersonTests {
+
+	private final SqlQueryHandler<Person, PersonCriteria, PersonSort> sqlQueryHandler = new PersonQueryHandlerConfig()
+			.getSqlQueryHandler();
+	private final Connection connection;
+
+	public SqlQueryHandlerTests() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:h2:mem:test", "sa", "");
+	}
+
+	@After
+	public void closeConnection() throws SQLException {
+		connection.close();
+	}
+
+	@Test
+	public void testEquivalence() throws SQLException {
+		List<PersonCriteria> criteria = asList(
+				new PersonCriteria(),
+				new PersonCriteria().setFirstName("r"),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.EQ, "Smith")),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.NE, "Smith")),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.GTE, "Banana")),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.STARTS_WITH, "Jo")),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.CONTAINS, "an")),
+				new PersonCriteria().setCompanyName("%e%").setCompanyAddress("N%"),
+				new PersonCriteria().setOwnerName("Johnson"),
+				new PersonCriteria().setChildName("%y"),
+				new PersonCriteria().setChildName("%r%").setUnderageChildren(true),
+				new PersonCriteria().setUnderageChildren(false),
+				new PersonCriteria().setChildName("%y").setCoworkerName("Suzy"),
+				new PersonCriteria().setCoworkerName("B%").setFirstName("e"),
+				new PersonCriteria().setEmployed(true),
+				new PersonCriteria().setEmployed(false),
+				new PersonCriteria().setHasChildren(true).setEmployed(true),
+				new PersonCriteria().setHasChildren(false));
+		List<List<SortInfo<PersonSort>>> sorts = asList(
+				emptyList(),
+				asList(new SortInfo<>(PersonSort.LAST_NAME), new SortInfo<>(PersonSort.FIRST_NAME, Direction.DESC)),
+				asList(new SortInfo<>(PersonSort.BUSINESS_NAME, Direction.DESC)),
+				asList(new SortInfo<>(PersonSort.OWNER_LAST_NAME), new SortInfo<>(PersonSort.FIRST_NAME)));
+		for (SemiJoinStrategy strategy : SemiJoinStrategy.values()) {
+			for (boolean perBranch : asList(false, true)) {
+				queryHandler.setSemiJoinStrategy(strategy);
+				queryHandler.setSemiJoinPerBranch(perBranch);
+				sqlQueryHandler.setSemiJoinStrategy(strategy);
+				sqlQueryHandler.setSemiJoinPerBranch(perBranch);
+				for (PersonCriteria personCriteria : criteria) {
+					for (List<SortInfo<PersonSort>> sortInfos : sorts) {
+						assertEquivalent(strategy + "/" + perBranch + "/" + personCriteria + "/" + sortInfos,
+								new QueryDefinition<>(personCriteria, sortInfos));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testKeysetPaginationEquivalence() throws SQLException {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setEmployed(true),
+				asList(new SortInfo<>(PersonSort.LAST_NAME, Direction.DESC), new SortInfo<>(PersonSort.FIRST_NAME)));
+		List<Person> people = entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition)).getResultList();
+		for (Person person : people) {
+			assertEquivalent("after " + person.getId(),
+					queryDefinition.withCursor(queryHandler.toCursor(queryDefinition, person)));
+		}
+	}
+
+	@Test
+	public void testSqlIsRenderedOncePerShape() {
+		QueryDefinition<PersonCriteria, PersonSort> first = new QueryDefinition<>(
+				new PersonCriteria().setFirstName("o").setLastName(new CriteriaField<>(StandardOperation.EQ, "Smith")));
+		QueryDefinition<PersonCriteria, PersonSort> second = new QueryDefinition<>(
+				new PersonCriteria().setFirstName("e").setLastName(new CriteriaField<>(StandardOperation.EQ, "Apple")));
+		QueryDefinition<PersonCriteria, PersonSort> otherOperation = new QueryDefinition<>(
+				new PersonCriteria().setFirstName("e").setLastName(new CriteriaField<>(StandardOperation.NE, "Apple")));
+
+		SqlQuery query = sqlQueryHandler.toEntityQuery(first);
+		assertEquals("select t0.* from Person t0 where t0.firstName like ? and t0.lastName = ?", query.getSql());
+		assertArrayEquals(new Object[] { "%o%", "Smith" }, query.getParameters());
+
+		SqlQuery sameShape = sqlQueryHandler.toEntityQuery(second);
+		assertSame(query.getSql(), sameShape.getSql());
+		assertArrayEquals(new Object[] { "%e%", "Apple" }, sameShape.getParameters());
+		assertEquals(1, sqlQueryHandler.getSqlCache().getHitCount());
+
+		SqlQuery otherShape = sqlQueryHandler.toEntityQuery(otherOperation);
+		assertNotSame(query.getSql(), otherShape.getSql());
+		assertTrue(otherShape.getSql(), otherShape.getSql().endsWith("t0.lastName <> ?"));
+		assertEquals(2, sqlQueryHandler.getSqlCache().getMissCount());
+	}
+
+	@Test
+	public void testStrategiesAreRendered() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setChildName("%"));
+		sqlQueryHandler.setSemiJoinStrategy(SemiJoinStrategy.IN);
+		assertEquals("select t0.* from Person t0 where t0.id in (select s0_0.id from Person s0_0"
+				+ " inner join Person s0_1 on s0_1.parent_id = s0_0.id where s0_1.firstName like ?)",
+				sqlQueryHandler.toEntityQuery(queryDefinition).getSql());
+		sqlQueryHandler.setSemiJoinStrategy(SemiJoinStrategy.EXISTS);
+		assertEquals("select t0.* from Person t0 where exists (select 1 from Person s0_1"
+				+ " where s0_1.parent_id = t0.id and s0_1.firstName like ?)",
+				sqlQueryHandler.toEntityQuery(queryDefinition).getSql());
+		sqlQueryHandler.setSemiJoinStrategy(SemiJoinStrategy.DISTINCT_JOIN);
+		assertEquals("select count(distinct t0.id) from Person t0 inner join Person t1 on t1.parent_id = t0.id"
+				+ " where t1.firstName like ?", sqlQueryHandler.toCountQuery(queryDefinition).getSql());
+	}
+
+	@Test
+	public void testBulkQueriesMatchEntityQueries() throws SQLException {
+		List<QueryDefinition<PersonCriteria, PersonSort>> queryDefinitions = asList(
+				new QueryDefinition<>(new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.EQ, "Smith"))
+						.setCompanyName("Acme"), PersonSort.FIRST_NAME),
+				new QueryDefinition<>(new PersonCriteria().setFirstName("e")),
+				new QueryDefinition<>(new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.EQ, "Apple"))
+						.setCompanyName("Tree Corp")),
+				new QueryDefinition<>(new PersonCriteria().setChildName("%y")),
+				new QueryDefinition<>(new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.EQ, "Banana"))
+						.setCompanyName("Acme")),
+				new QueryDefinition<>(new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.NE, "Smith"))
+						.setCompanyName("Acme")),
+				new QueryDefinition<>(new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.EQ, "Johnson"))
+						.setCompanyName("Acme")),
+				new QueryDefinition<>(new PersonCriteria().setFirstName("o")));
+		for (SemiJoinStrategy strategy : SemiJoinStrategy.values()) {
+			sqlQueryHandler.setSemiJoinStrategy(strategy);
+			sqlQueryHandler.setMaximumBulkSize(2);
+			List<SqlQuery> queries = sqlQueryHandler.toBulkEntityQueries(queryDefinitions);
+			assertEquals(strategy.toString(), 5, queries.size());
+			assertSame(queries.get(0).getSql(), queries.get(1).getSql());
+			assertTrue(queries.get(0).getSql(), queries.get(0).getSql().startsWith(
+					"select cast(? as integer) as pgqp_index, t0.* from Person t0"));
+			assertArrayEquals(new Object[] { 0, "Smith", "Acme", 2, "Apple", "Tree Corp" },
+					queries.get(0).getParameters());
+
+			List<List<Integer>> bulk = sqlQueryHandler.listBulk(connection, queryDefinitions,
+					resultSet -> resultSet.getInt("id"));
+			assertEquals(queryDefinitions.size(), bulk.size());
+			for (int i = 0; i < queryDefinitions.size(); i++) {
+				List<Integer> expected = sqlQueryHandler.toEntityQuery(new QueryDefinition<>(
+						queryDefinitions.get(i).getCriteria())).list(connection, resultSet -> resultSet.getInt("id"));
+				expected.sort(null);
+				bulk.get(i).sort(null);
+				assertEquals(strategy + "/" + i, expected, bulk.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testBulkQueriesRespectParameterLimit() {
+		List<QueryDefinition<PersonCriteria, PersonSort>> queryDefinitions = asList(
+				new QueryDefinition<>(new PersonCriteria().setFirstName("a").setId(1)),
+				new QueryDefinition<>(new PersonCriteria().setFirstName("b").setId(2)),
+				new QueryDefinition<>(new PersonCriteria().setFirstName("c").setId(3)));
+		sqlQueryHandler.setMaximumBulkParameters(6);
+		List<SqlQuery> queries = sqlQueryHandler.toBulkEntityQueries(queryDefinitions);
+		assertEquals(asList(6, 3), queries.stream().map(query -> query.getParameters().length).collect(toList()));
+		assertArrayEquals(new Object[] { 2, "%c%", 3 }, queries.get(1).getParameters());
+		sqlQueryHandler.setMaximumBulkParameters(2);
+		assertEquals(3, sqlQueryHandler.toBulkEntityQueries(queryDefinitions).size());
+	}
+
+	@Test
+	public void testBulkQueriesCountBoundValues() throws SQLException {
+		PersonQueryHandlerConfig config = new PersonQueryHandlerConfig();
+		RestrictionDefinition<?, Person, String, String> firstNameEnds = new RestrictionDefinition<>(
+				config.getPersonTable(), Person_.firstName, JpaCriteriaHandlers.LIKE_FIELD_HANDLER);
+		SqlQueryHandler<Person, PersonCriteria, PersonSort> handler = new SqlQueryHandler<>(Person.class,
+				config.getPersonTable(), singletonList(new RestrictionMapping<>(PersonCriteria::getFirstName, firstNameEnds)),
+				emptyList(), new SqlMetadata(), singletonMap(firstNameEnds, new SqlFieldHandler<String>() {
+					@Override
+					public int getVariant(String value) {
+						return 0;
+					}
+
+					@Override
+					public void appendPredicate(StringBuilder sql, String column, int variant) {
+						sql.append("(").append(column).append(" like ? or ").append(column).append(" like ?)");
+					}
+
+					@Override
+					public void bind(String value, List<Object> parameters) {
+						parameters.add(value + "%");
+						parameters.add("%" + value);
+					}
+				}));
+		List<QueryDefinition<PersonCriteria, PersonSort>> queryDefinitions = asList(
+				new QueryDefinition<>(new PersonCriteria().setFirstName("B")),
+				new QueryDefinition<>(new PersonCriteria().setFirstName("y")),
+				new QueryDefinition<>(new PersonCriteria().setFirstName("e")));
+		handler.setMaximumBulkParameters(5);
+		List<SqlQuery> queries = handler.toBulkEntityQueries(queryDefinitions);
+		assertEquals(asList(3, 3, 3), queries.stream().map(query -> query.getParameters().length).collect(toList()));
+		List<List<Integer>> bulk = handler.listBulk(connection, queryDefinitions, resultSet -> resultSet.getInt("id"));
+		bulk.forEach(ids -> ids.sort(null));
+		assertEquals(asList(asList(1, 3, 5, 6), asList(2, 4, 7), asList(8)), bulk);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBulkQueriesRejectCursors() {
+		sqlQueryHandler.toBulkEntityQueries(asList(new QueryDefinition<>(new PersonCriteria(),
+				asList(new SortInfo<>(PersonSort.FIRST_NAME)), Cursor.first())));
+	}
+
+	@Test
+	public void testCappedCounts() throws SQLException {
+		for (SemiJoinStrategy strategy : SemiJoinStrategy.values()) {
+			sqlQueryHandler.setSemiJoinStrategy(strategy);
+			for (PersonCriteria personCriteria : asList(new PersonCriteria(), new PersonCriteria().setFirstName("r"),
+					new PersonCriteria().setChildName("%"), new PersonCriteria().setCompanyName("Acme"))) {
+				QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(personCriteria);
+				long count = sqlQueryHandler.toCountQuery(queryDefinition).count(connection);
+				for (int cap : asList(0, 1, 2, 100)) {
+					assertEquals(strategy + "/" + personCriteria + "/" + cap, Math.min(count, cap + 1),
+							sqlQueryHandler.toCappedCountQuery(queryDefinition, cap).count(connection));
+				}
+			}
+		}
+		SqlQuery query = sqlQueryHandler.toCappedCountQuery(new QueryDefinition<>(
+				new PersonCriteria().setChildName("%")), 10);
+		assertEquals("select count(*) from (select distinct t0.id from Person t0 inner join Person t1"
+				+ " on t1.parent_id = t0.id where t1.firstName like ? limit ?) c", query.getSql());
+		assertArrayEquals(new Object[] { "%", 11 }, query.getParameters());
+	}
+
+	@Test
+	public void testMetadataOverrides() {
+		SqlMetadata metadata = new SqlMetadata();
+		metadata.setTableName(Person.class, "people");
+		metadata.setColumnName(Person_.firstName, "first_name");
+		SqlQueryHandler<Person, PersonCriteria, PersonSort> handler = new SqlQueryHandler<>(Person.class,
+				new PersonQueryHandlerConfig().getPersonTable(),
+				asList(new RestrictionMapping<>(PersonCriteria::getFirstName, new RestrictionDefinition<>(
+						new PersonQueryHandlerConfig().getPersonTable(), Person_.firstName,
+						JpaCriteriaHandlers.STARTS_WITH_FIELD_HANDLER))),
+				emptyList(), metadata, Collections.emptyMap());
+		SqlQuery query = handler.toCountQuery(new QueryDefinition<>(new PersonCriteria().setFirstName("B")));
+		assertEquals("select count(*) from people t0 where t0.first_name like ?", query.getSql());
+		assertArrayEquals(new Object[] { "B%" }, query.getParameters());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCustomRestrictionsNeedFieldHandlers() {
+		new SqlQueryHandler<Person, PersonCriteria, PersonSort>(Person.class,
+				new PersonQueryHandlerConfig().getPersonTable(),
+				asList(new RestrictionMapping<>(PersonCriteria::getFirstName, new RestrictionDefinition<>(
+						new PersonQueryHandlerConfig().getPersonTable(), Person_.firstName,
+						(context, value) -> context.getCriteriaBuilder().equal(context.getPath(), value)))),
+				emptyList(), new SqlMetadata(), Collections.emptyMap());
+	}
+
+	private void assertEquivalent(String message, QueryDefinition<PersonCriteria, PersonSort> queryDefinition)
+			throws SQLException {
+		if (!queryDefinition.getSorts().isEmpty() && queryDefinition.getCursor() == null) {
+			queryDefinition = queryDefinition.withCursor(Cursor.first());
+		}
+		List<Integer> expected = entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition))
+				.getResultList().stream().map(Person::getId).collect(toList());
+		List<Integer> actual = sqlQueryHandler.toEntityQuery(queryDefinition).list(connection,
+				resultSet -> resultSet.getInt("id"));
+		if (queryDefinition.getSorts().isEmpty()) {
+			expected.sort(null);
+			actual.sort(null);
+		}
+		assertEquals(message, expected, actual);
+		assertEquals(message, (long) entityManager.createQuery(queryHandler.toCountQuery(queryDefinition))
+				.getSingleResult(), sqlQueryHandler.toCountQuery(queryDefinition).count(connection));
+	}
+
+}
@@ -0,0 +1,175 @@
+package org.pgqp.jpa.hibernate;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import javax.persistence.Tuple;
+
+import org.junit.Test;
+import org.pgqp.CriteriaField;
+import org.pgqp.Cursor;
+import org.pgqp.QueryDefinition;
+import org.pgqp.SortInfo;
+import org.pgqp.SortInfo.Direction;
+import org.pgqp.StandardOperation;
+import org.pgqp.jpa.AbstractPersonTests;
+import org.pgqp.jpa.ParameterizedQuery;
+import org.pgqp.jpa.ProjectionColumn;
+import org.pgqp.jpa.ProjectionDefinition;
+import org.pgqp.jpa.SemiJoinStrategy;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.entity.Person_;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonQueryHandlerConfig;
+import org.pgqp.jpa.query.PersonSort;
+
+public class JpqlTemplateTests extends AbstractPersonTests {
+
+	@Test
+	public void testTemplatesMatchCriteriaQueries() {
+		List<PersonCriteria> criteria = asList(
+				new PersonCriteria(),
+				new PersonCriteria().setFirstName("r"),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.EQ, "Smith")),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.NE, "Smith")),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.STARTS_WITH, "Jo")),
+				new PersonCriteria().setLastName(new CriteriaField<>(StandardOperation.GTE, "Banana")),
+				new PersonCriteria().setCompanyName("%e%").setCompanyAddress("N%"),
+				new PersonCriteria().setOwnerName("Johnson"),
+				new PersonCriteria().setChildName("%y").setCoworkerName("Suzy"),
+				new PersonCriteria().setEmployed(true),
+				new PersonCriteria().setEmployed(false).setId(5));
+		List<List<SortInfo<PersonSort>>> sorts = asList(
+				emptyList(),
+				asList(new SortInfo<>(PersonSort.LAST_NAME), new SortInfo<>(PersonSort.FIRST_NAME, Direction.DESC)),
+				asList(new SortInfo<>(PersonSort.BUSINESS_NAME, Direction.DESC)));
+		for (SemiJoinStrategy strategy : SemiJoinStrategy.values()) {
+			queryHandler.setSemiJoinStrategy(strategy);
+			for (PersonCriteria personCriteria : criteria) {
+				for (List<SortInfo<PersonSort>> sortInfos : sorts) {
+					QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(personCriteria,
+							sortInfos, sortInfos.isEmpty() ? null : Cursor.first());
+					assertTemplated(strategy + "/" + personCriteria + "/" + sortInfos, queryDefinition);
+				}
+			}
+		}
+		assertEquals(0, queryHandler.getJpqlFallbackCount());
+	}
+
+	@Test
+	public void testKeysetPagesMatchCriteriaQueries() {
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setEmployed(true),
+				asList(new SortInfo<>(PersonSort.LAST_NAME, Direction.DESC), new SortInfo<>(PersonSort.FIRST_NAME)));
+		for (Person person : entityManager.createQuery(queryHandler.toEntityQuery(queryDefinition)).getResultList()) {
+			assertTemplated("after " + person.getId(),
+					queryDefinition.withCursor(queryHandler.toCursor(queryDefinition, person)));
+		}
+	}
+
+	@Test
+	public void testShapesAreRenderedOnce() {
+		queryHandler.setJpqlRenderer(HibernateQueryStrings::getQueryString);
+		ParameterizedQuery<Person> first = queryHandler.toParameterizedEntityQuery(new QueryDefinition<>(
+				new PersonCriteria().setFirstName("o").setLastName(new CriteriaField<>(StandardOperation.EQ, "Smith"))));
+		ParameterizedQuery<Person> second = queryHandler.toParameterizedEntityQuery(new QueryDefinition<>(
+				new PersonCriteria().setFirstName("e").setLastName(new CriteriaField<>(StandardOperation.EQ, "Apple"))));
+		assertNull(first.getCriteriaQuery());
+		assertSame(first.getQueryString(), second.getQueryString());
+		assertEquals(1, queryHandler.getJpqlCache().getMissCount());
+		assertEquals(1, queryHandler.getJpqlCache().getHitCount());
+		assertEquals(asList("Bert", "Wendy"), second.createQuery(entityManager).getResultList().stream()
+				.map(Person::getFirstName).sorted().collect(toList()));
+
+		ParameterizedQuery<Person> otherOperation = queryHandler.toParameterizedEntityQuery(new QueryDefinition<>(
+				new PersonCriteria().setFirstName("e").setLastName(new CriteriaField<>(StandardOperation.NE, "Apple"))));
+		assertNotEquals(first.getQueryString(), otherOperation.getQueryString());
+		ParameterizedQuery<Long> count = queryHandler.toParameterizedCountQuery(new QueryDefinition<>(
+				new PersonCriteria().setFirstName("e").setLastName(new CriteriaField<>(StandardOperation.EQ, "Apple"))));
+		assertNotEquals(first.getQueryString(), count.getQueryString());
+		assertEquals(3, queryHandler.getJpqlCache().getMissCount());
+	}
+
+	@Test
+	public void testCustomRestrictionsFallBackToCriteriaQueries() {
+		queryHandler.setJpqlRenderer(HibernateQueryStrings::getQueryString);
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setFirstName("e").setHasChildren(true));
+		ParameterizedQuery<Person> query = queryHandler.toParameterizedEntityQuery(queryDefinition);
+		assertNotNull(query.getCriteriaQuery());
+		assertNull(query.getQueryString());
+		assertEquals(asList("Bert"), query.createQuery(entityManager).getResultList().stream()
+				.map(Person::getFirstName).collect(toList()));
+		assertEquals(1, queryHandler.getJpqlFallbackCount());
+		assertEquals(0, queryHandler.getJpqlCache().getMissCount());
+	}
+
+	@Test
+	public void testProjectionsAreNotFallbacks() {
+		queryHandler.setJpqlRenderer(HibernateQueryStrings::getQueryString);
+		ProjectionDefinition<Tuple> projection = new ProjectionDefinition<>(Tuple.class,
+				new ProjectionColumn<>(new PersonQueryHandlerConfig().getPersonTable(), Person_.firstName));
+		assertEquals(2, queryHandler.toParameterizedProjectionQuery(
+				new QueryDefinition<>(new PersonCriteria().setCompanyName("Acme")), projection)
+				.createQuery(entityManager).getResultList().size());
+		assertEquals(0, queryHandler.getJpqlFallbackCount());
+	}
+
+	@Test
+	public void testCursorMustMatchSorts() {
+		queryHandler.setJpqlRenderer(HibernateQueryStrings::getQueryString);
+		try {
+			queryHandler.toParameterizedEntityQuery(new QueryDefinition<>(new PersonCriteria(),
+					asList(new SortInfo<>(PersonSort.LAST_NAME)), Cursor.after(1, "Smith", "Bob")));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// rejected by the template, not by a fallback criteria query
+			assertEquals(0, queryHandler.getJpqlFallbackCount());
+		}
+	}
+
+	private void assertTemplated(String message, QueryDefinition<PersonCriteria, PersonSort> queryDefinition) {
+		queryHandler.setJpqlRenderer(null);
+		List<Integer> expected = findIds(queryDefinition);
+		List<Object> expectedIds = findIdColumns(queryDefinition);
+		long expectedCount = queryHandler.toParameterizedCountQuery(queryDefinition).createQuery(entityManager)
+				.getSingleResult();
+
+		queryHandler.setJpqlRenderer(HibernateQueryStrings::getQueryString);
+		for (int i = 0; i < 2; i++) {
+			assertNotNull(message, queryHandler.toParameterizedEntityQuery(queryDefinition).getQueryString());
+			assertEquals(message, expected, findIds(queryDefinition));
+			assertEquals(message, expectedIds, findIdColumns(queryDefinition));
+			assertEquals(message, expectedCount, (long) queryHandler.toParameterizedCountQuery(queryDefinition)
+					.createQuery(entityManager).getSingleResult());
+		}
+	}
+
+	private List<Integer> findIds(QueryDefinition<PersonCriteria, PersonSort> queryDefinition) {
+		List<Integer> ids = queryHandler.toParameterizedEntityQuery(queryDefinition).createQuery(entityManager)
+				.getResultList().stream().map(Person::getId).collect(toList());
+		if (queryDefinition.getSorts().isEmpty()) {
+			ids.sort(null);
+		}
+		return ids;
+	}
+
+	private List<Object> findIdColumns(QueryDefinition<PersonCriteria, PersonSort> queryDefinition) {
+		List<Object> ids = queryHandler.toParameterizedIdQuery(queryDefinition).createQuery(entityManager)
+				.getResultList().stream().map((Tuple tuple) -> tuple.get(0)).collect(toList());
+		if (queryDefinition.getSorts().isEmpty()) {
+			ids.sort(null);
+		}
+		return ids;
+	}
+
+}
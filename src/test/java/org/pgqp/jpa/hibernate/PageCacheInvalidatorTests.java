@@ -0,0 +1,84 @@
+package org.pgqp.jpa.hibernate;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.AbstractPersonTests;
+import org.pgqp.jpa.PagedQueryExecutor;
+import org.pgqp.jpa.ResultPageCache;
+import org.pgqp.jpa.entity.Business;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class PageCacheInvalidatorTests extends AbstractPersonTests {
+
+	private final ResultPageCache pageCache = new ResultPageCache(1, TimeUnit.HOURS);
+	private final PagedQueryExecutor<Person, PersonCriteria, PersonSort> executor = new PagedQueryExecutor<>(
+			queryHandler, entityManagerFactory, Runnable::run);
+	private final QueryDefinition<PersonCriteria, PersonSort> acmeEmployees = new QueryDefinition<>(
+			new PersonCriteria().setCompanyName("Acme"), PersonSort.FIRST_NAME);
+
+	public PageCacheInvalidatorTests() {
+		executor.setPageCache(pageCache);
+		PageCacheInvalidator.register(entityManagerFactory, pageCache);
+	}
+
+	@Test
+	public void testCommittedChangesInvalidatePages() {
+		assertEquals(asList("Bob", "Suzy"), findFirstNames());
+		assertEquals(asList("Bob", "Suzy"), findFirstNames());
+		assertEquals(1, pageCache.getHitCount());
+
+		inTransaction(em -> em.find(Business.class, 2).setName("Acme"));
+		assertEquals(asList("Bob", "Ernie", "Suzy"), findFirstNames());
+		assertEquals(1, pageCache.getInvalidationCount());
+
+		inTransaction(em -> {
+			Person carl = new Person(9, "Carl", "Smith", null);
+			carl.setEmployer(em.find(Business.class, 1));
+			em.persist(carl);
+		});
+		assertEquals(asList("Bob", "Carl", "Ernie", "Suzy"), findFirstNames());
+
+		inTransaction(em -> em.remove(em.find(Person.class, 9)));
+		assertEquals(asList("Bob", "Ernie", "Suzy"), findFirstNames());
+		assertEquals(3, pageCache.getInvalidationCount());
+	}
+
+	@Test
+	public void testRolledBackChangesKeepPages() {
+		findFirstNames();
+		EntityManager em = entityManagerFactory.createEntityManager();
+		em.getTransaction().begin();
+		em.find(Business.class, 2).setName("Acme");
+		em.flush();
+		em.getTransaction().rollback();
+		em.close();
+		assertEquals(asList("Bob", "Suzy"), findFirstNames());
+		assertEquals(1, pageCache.getHitCount());
+	}
+
+	private List<String> findFirstNames() {
+		return executor.findPage(acmeEmployees, 0, 10).getContent().stream().map(Person::getFirstName)
+				.collect(toList());
+	}
+
+	private void inTransaction(Consumer<EntityManager> work) {
+		EntityManager em = entityManagerFactory.createEntityManager();
+		em.getTransaction().begin();
+		work.accept(em);
+		em.getTransaction().commit();
+		em.close();
+	}
+
+}
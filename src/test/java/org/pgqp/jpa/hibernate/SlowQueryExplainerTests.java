@@ -0,0 +1,94 @@
+package org.pgqp.jpa.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.AbstractPersonTests;
+import org.pgqp.jpa.JpaQueryHandler.QueryType;
+import org.pgqp.jpa.PagedQueryExecutor;
+import org.pgqp.jpa.QueryMetrics;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class SlowQueryExplainerTests extends AbstractPersonTests {
+
+	private final AtomicLong clock = new AtomicLong();
+	private final PagedQueryExecutor<Person, PersonCriteria, PersonSort> executor = new PagedQueryExecutor<>(
+			queryHandler, entityManagerFactory, Runnable::run);
+	private final QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+			new PersonCriteria().setCompanyName("Acme").setChildName("Bill"), PersonSort.FIRST_NAME);
+
+	@Test
+	public void testSlowQueriesAreExplained() {
+		SlowQueryExplainer explainer = new SlowQueryExplainer(entityManagerFactory, Runnable::run, 10, 0, 1000,
+				clock::get);
+		queryHandler.setQueryListener(explainer);
+		assertEquals(1, executor.findPage(queryDefinition, 0, 10).getContent().size());
+
+		List<ExplainedQuery> captures = explainer.getCaptures();
+		assertEquals(2, captures.size());
+		assertEquals(2, explainer.getCaptureCount());
+		assertEquals(0, explainer.getFailureCount());
+		assertEquals(QueryType.COUNT, captures.get(1).getBuild().getQueryType());
+		ExplainedQuery entityCapture = captures.get(0);
+		assertEquals(QueryType.ENTITY, entityCapture.getBuild().getQueryType());
+		assertNull(entityCapture.getFailure());
+		assertTrue(entityCapture.getSql().contains("?"));
+		assertTrue(entityCapture.getParameters().contains("Bill"));
+		assertNotNull(entityCapture.getPlan());
+		assertTrue(entityCapture.getPlan().contains("PUBLIC.PERSON"));
+		assertEquals(1, explainer.getCaptures(entityCapture.getFingerprint()).size());
+	}
+
+	@Test
+	public void testCapturesAreRateLimitedPerShape() {
+		SlowQueryExplainer explainer = new SlowQueryExplainer(entityManagerFactory, Runnable::run, 3, 0, 1000,
+				clock::get);
+		queryHandler.setQueryListener(explainer);
+		executor.findPage(queryDefinition, 0, 10);
+		executor.findPage(queryDefinition, 0, 10);
+		assertEquals(2, explainer.getCaptures().size());
+		assertEquals(2, explainer.getRateLimitedCount());
+
+		clock.set(1000);
+		executor.findPage(queryDefinition, 0, 10);
+		assertEquals(4, explainer.getCaptureCount());
+		assertEquals(3, explainer.getCaptures().size());
+		assertEquals(QueryType.ENTITY, explainer.getCaptures().get(0).getBuild().getQueryType());
+		assertEquals(QueryType.COUNT, explainer.getCaptures().get(1).getBuild().getQueryType());
+		assertEquals(QueryType.ENTITY, explainer.getCaptures().get(2).getBuild().getQueryType());
+	}
+
+	@Test
+	public void testFastQueriesAreNotExplained() {
+		SlowQueryExplainer explainer = new SlowQueryExplainer(entityManagerFactory, Runnable::run, 1, 1,
+				TimeUnit.HOURS);
+		QueryMetrics metrics = new QueryMetrics();
+		queryHandler.setQueryListener(metrics.andThen(explainer));
+		executor.findPage(queryDefinition, 0, 10);
+		assertEquals(2, metrics.getShapes().size());
+		assertTrue(explainer.getCaptures().isEmpty());
+		assertEquals(0, explainer.getRateLimitedCount());
+	}
+
+	@Test
+	public void testExplainPrefixes() {
+		assertEquals("explain ", SlowQueryExplainer.toExplainPrefix("H2"));
+		assertEquals("explain (format json) ", SlowQueryExplainer.toExplainPrefix("PostgreSQL"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUnsupportedDatabase() {
+		SlowQueryExplainer.toExplainPrefix("Oracle");
+	}
+
+}
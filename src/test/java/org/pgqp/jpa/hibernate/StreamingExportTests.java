@@ -0,0 +1,80 @@
+package org.pgqp.jpa.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Hibernate;
+import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.junit.After;
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonQueryHandlerConfig;
+import org.pgqp.jpa.query.PersonSort;
+
+/**
+ * Exports a million-row table through a sort fetch join. The build runs this
+ * test in its own JVM with a heap ceiling far below what the exported
+ * entities would need if they were kept in memory. The database is file based
+ * so that its rows do not count against the heap either.
+ */
+public class StreamingExportTests {
+
+	private static final String DATABASE = "target/h2/streaming-export";
+	private static final int ROWS = 1_000_000;
+	private static final int BUSINESSES = 100;
+
+	private final EntityManagerFactory entityManagerFactory;
+	private final EntityManager entityManager;
+
+	public StreamingExportTests() throws IOException {
+		Files.deleteIfExists(Paths.get(DATABASE + ".mv.db"));
+		Map<String, String> properties = new HashMap<>();
+		properties.put("javax.persistence.jdbc.url", "jdbc:h2:./" + DATABASE);
+		properties.put("hibernate.show-sql", "false");
+		entityManagerFactory = new HibernatePersistenceProvider().createEntityManagerFactory("test", properties);
+		entityManager = entityManagerFactory.createEntityManager();
+		createData();
+	}
+
+	@After
+	public void close() {
+		entityManager.close();
+		entityManagerFactory.close();
+	}
+
+	private void createData() {
+		entityManager.getTransaction().begin();
+		entityManager.createNativeQuery("insert into Business (id, name, address) "
+				+ "select x, 'Business ' || x, null from system_range(1, " + BUSINESSES + ")").executeUpdate();
+		entityManager.createNativeQuery("insert into Person (id, firstName, lastName, employer_id) "
+				+ "select x, 'First ' || x, 'Last ' || x, mod(x, " + BUSINESSES + ") + 1 from system_range(1, " + ROWS
+				+ ")").executeUpdate();
+		entityManager.getTransaction().commit();
+	}
+
+	@Test
+	public void testExport() {
+		StreamingQueryExecutor<Person, PersonCriteria, PersonSort> executor = new StreamingQueryExecutor<>(
+				new PersonQueryHandlerConfig().getPersonQueryHandler(entityManager), entityManager);
+		String[] previous = new String[1];
+		long count = executor.forEach(new QueryDefinition<>(new PersonCriteria(), PersonSort.BUSINESS_NAME), p -> {
+			assertTrue(Hibernate.isInitialized(p.getEmployer()));
+			String name = p.getEmployer().getName();
+			assertTrue(previous[0] == null || previous[0].compareTo(name) <= 0);
+			previous[0] = name;
+		});
+		assertEquals(ROWS, count);
+	}
+
+}
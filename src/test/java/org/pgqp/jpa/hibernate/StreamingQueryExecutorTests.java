@@ -0,0 +1,76 @@
+package org.pgqp.jpa.hibernate;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.hibernate.Hibernate;
+import org.junit.Test;
+import org.pgqp.QueryDefinition;
+import org.pgqp.jpa.AbstractPersonTests;
+import org.pgqp.jpa.QueryMetrics;
+import org.pgqp.jpa.QueryMetrics.ShapeMetrics;
+import org.pgqp.jpa.entity.Person;
+import org.pgqp.jpa.query.PersonCriteria;
+import org.pgqp.jpa.query.PersonSort;
+
+public class StreamingQueryExecutorTests extends AbstractPersonTests {
+
+	@Test
+	public void testStreamFollowsSortsAndFetchesSortJoins() {
+		entityManager.clear();
+		StreamingQueryExecutor<Person, PersonCriteria, PersonSort> executor = new StreamingQueryExecutor<>(
+				queryHandler, entityManager);
+		QueryDefinition<PersonCriteria, PersonSort> queryDefinition = new QueryDefinition<>(
+				new PersonCriteria().setEmployed(true), PersonSort.BUSINESS_NAME, PersonSort.FIRST_NAME);
+		try (Stream<Person> people = executor.stream(queryDefinition)) {
+			assertEquals(asList("Bob", "Suzy", "Ernie", "Bert", "Wendy"), people.peek(
+					p -> assertTrue(Hibernate.isInitialized(p.getEmployer()))).map(Person::getFirstName).collect(toList()));
+		}
+	}
+
+	@Test
+	public void testPersistenceContextIsClearedEveryInterval() {
+		entityManager.clear();
+		StreamingQueryExecutor<Person, PersonCriteria, PersonSort> executor = new StreamingQueryExecutor<>(
+				queryHandler, entityManager);
+		executor.setFetchSize(2);
+		executor.setClearInterval(3);
+		List<Person> people = new ArrayList<>();
+		long count = executor.forEach(new QueryDefinition<>(new PersonCriteria(), PersonSort.NO_MAPPING), p -> {
+			assertTrue(entityManager.contains(p));
+			people.add(p);
+		});
+		assertEquals(8, count);
+		assertFalse(entityManager.contains(people.get(0)));
+		assertFalse(entityManager.contains(people.get(5)));
+		assertTrue(entityManager.contains(people.get(6)));
+	}
+
+	@Test
+	public void testClosedStreamsAreReported() {
+		QueryMetrics metrics = new QueryMetrics();
+		queryHandler.setQueryListener(metrics);
+		StreamingQueryExecutor<Person, PersonCriteria, PersonSort> executor = new StreamingQueryExecutor<>(
+				queryHandler, entityManager);
+		try (Stream<Person> people = executor.stream(new QueryDefinition<>(new PersonCriteria(), PersonSort.ID))) {
+			assertEquals(3, people.limit(3).count());
+			assertEquals(0, metrics.getShapes().get(0).getExecutionCount());
+		}
+		ShapeMetrics shape = metrics.getShapes().get(0);
+		assertEquals(1, shape.getExecutionCount());
+		assertEquals(3, shape.getRowCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFetchSizeMustBePositive() {
+		new StreamingQueryExecutor<>(queryHandler, entityManager).setFetchSize(0);
+	}
+
+}
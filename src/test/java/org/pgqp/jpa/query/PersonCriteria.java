@@ -15,9 +15,13 @@ public class PersonCriteria {
 	private String companyAddress;
 	private String ownerName;
 	private String childName;
+	private String coworkerName;
 	private Boolean underageChildren;
 	private Boolean employed;
 	private Boolean hasChildren;
+	private Integer id;
+	private Integer otherId;
+	private String search;
 	private String notMapped;
 	
 }
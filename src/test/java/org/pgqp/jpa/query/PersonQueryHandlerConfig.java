@@ -2,6 +2,7 @@ package org.pgqp.jpa.query;
 
 import static java.util.Arrays.asList;
 import static org.pgqp.jpa.JpaCriteriaHandlers.CONTAINS_FIELD_HANDLER;
+import static org.pgqp.jpa.JpaCriteriaHandlers.EQ_FIELD_HANDLER;
 import static org.pgqp.jpa.JpaCriteriaHandlers.LIKE_FIELD_HANDLER;
 import static org.pgqp.jpa.JpaCriteriaHandlers.STRING_FIELD_HANDLER;
 import static org.pgqp.jpa.JpaCriteriaHandlers.notNullFieldHandler;
@@ -13,22 +14,32 @@ import static org.pgqp.jpa.entity.Person_.firstName;
 import static org.pgqp.jpa.entity.Person_.lastName;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.CriteriaBuilder.In;
-import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.persistence.criteria.Subquery;
 
-import org.pgqp.QueryHandler;
 import org.pgqp.jpa.AttributeInfo;
 import org.pgqp.jpa.JoinDefinition;
 import org.pgqp.jpa.JpaQueryHandler;
+import org.pgqp.jpa.QueryContext;
 import org.pgqp.jpa.RestrictionDefinition;
+import org.pgqp.jpa.RestrictionGroup;
 import org.pgqp.jpa.RestrictionMapping;
+import org.pgqp.jpa.SemiJoinStrategy;
 import org.pgqp.jpa.SortDefinition;
+import org.pgqp.jpa.SqlFieldHandler;
+import org.pgqp.jpa.SqlMetadata;
+import org.pgqp.jpa.SqlQueryHandler;
 import org.pgqp.jpa.entity.Business;
 import org.pgqp.jpa.entity.Person;
 import org.pgqp.jpa.entity.Business_;
@@ -41,8 +52,52 @@ public class PersonQueryHandlerConfig {
 			PERSON_TABLE, new AttributeInfo<>(Person_.employer));
 	private JoinDefinition<Business, Person> BUSINESS_OWNER_TABLE = new JoinDefinition<>("owner", Person.class,
 			BUSINESS_TABLE, new AttributeInfo<>(Business_.owner));
-	private JoinDefinition<Person, Person> CHILD_TABLE = new JoinDefinition<>("child", Person.class, PERSON_TABLE,
-			new AttributeInfo<>(Person_.children));
+	private JoinDefinition<Business, Person> COWORKER_TABLE = new JoinDefinition<>("coworker", Person.class,
+			BUSINESS_TABLE, new AttributeInfo<>(Business_.employees));
+	private JoinDefinition<Person, Person> CHILD_TABLE;
+
+	private RestrictionDefinition<?, Person, Integer, Boolean> HAS_CHILDREN = new RestrictionDefinition<>(
+			PERSON_TABLE, Person_.id, (context, value) -> {
+				Subquery<Integer> sq = context.getQuery().subquery(Integer.class);
+				Root<Person> root = sq.from(Person.class);
+				sq.select(root.get(Person_.parent).get(Person_.id))
+					.where(root.get(Person_.parent).isNotNull());
+				In<Integer> in = context.getCriteriaBuilder().in(context.getPath()).value(sq);
+				return value ? in : in.not();
+			});
+	private RestrictionDefinition<Person, Person, LocalDate, Boolean> UNDERAGE_CHILDREN;
+	private RestrictionMapping<PersonCriteria, ?, Person, Integer, Integer> ID = new RestrictionMapping<>(
+			PersonCriteria::getId, new RestrictionDefinition<>(PERSON_TABLE, Person_.id, eqFieldHandler(Integer.class)));
+
+	public PersonQueryHandlerConfig() {
+		this(null);
+	}
+
+	public PersonQueryHandlerConfig(SemiJoinStrategy childSemiJoinStrategy) {
+		CHILD_TABLE = new JoinDefinition<>("child", Person.class, PERSON_TABLE, new AttributeInfo<>(Person_.children),
+				childSemiJoinStrategy);
+		UNDERAGE_CHILDREN = new RestrictionDefinition<>(CHILD_TABLE, birthdate,
+				(context, value) -> value
+						? context.getCriteriaBuilder().greaterThan(context.getPath(), LocalDate.now().minusYears(18))
+						: context.getCriteriaBuilder().lessThan(context.getPath(), LocalDate.now().minusYears(18)));
+	}
+
+	public JoinDefinition<?, Person> getPersonTable() {
+		return PERSON_TABLE;
+	}
+
+	public JoinDefinition<Person, Business> getBusinessTable() {
+		return BUSINESS_TABLE;
+	}
+
+	public JoinDefinition<Business, Person> getBusinessOwnerTable() {
+		return BUSINESS_OWNER_TABLE;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <F> BiFunction<QueryContext<?, F>, F, Predicate> eqFieldHandler(Class<F> fieldClass) {
+		return (BiFunction) EQ_FIELD_HANDLER;
+	}
 
 	private List<RestrictionMapping<PersonCriteria, ?, ?, ?, ?>> getRestrictions() {
 		return asList(
@@ -59,25 +114,13 @@ public class PersonQueryHandlerConfig {
 						new RestrictionDefinition<>(BUSINESS_OWNER_TABLE, lastName, LIKE_FIELD_HANDLER)),
 				new RestrictionMapping<>(PersonCriteria::getChildName, 
 						new RestrictionDefinition<>(CHILD_TABLE, firstName, LIKE_FIELD_HANDLER)),
+				new RestrictionMapping<>(PersonCriteria::getCoworkerName, 
+						new RestrictionDefinition<>(COWORKER_TABLE, firstName, LIKE_FIELD_HANDLER)),
 				new RestrictionMapping<>(PersonCriteria::getEmployed, 
 						new RestrictionDefinition<>(PERSON_TABLE, employer, notNullFieldHandler(Business.class))),
-				new RestrictionMapping<>(PersonCriteria::getHasChildren, 
-						new RestrictionDefinition<>(PERSON_TABLE, Person_.id, (context, value) -> {
-							Subquery<Integer> sq = context.getQuery().subquery(Integer.class);
-							Root<Person> root = sq.from(Person.class);
-							sq.select(root.get(Person_.parent).get(Person_.id))
-								.where(root.get(Person_.parent).isNotNull());
-							In<Integer> in = context.getCriteriaBuilder().in(context.getPath()).value(sq);
-							return value ? in : in.not();
-						})),
-				new RestrictionMapping<>(PersonCriteria::getUnderageChildren,
-						new RestrictionDefinition<>(CHILD_TABLE, birthdate,
-								(context, value) -> value
-										? context.getCriteriaBuilder().greaterThan(context.getPath(),
-												LocalDate.now().minusYears(18))
-										: context.getCriteriaBuilder().lessThan(context.getPath(),
-												LocalDate.now().minusYears(18)))
-						));
+				new RestrictionMapping<>(PersonCriteria::getHasChildren, HAS_CHILDREN),
+				new RestrictionMapping<>(PersonCriteria::getUnderageChildren, UNDERAGE_CHILDREN),
+				ID);
 	}
 
 	private Collection<SortDefinition<PersonSort, ?, ?>> getSorts() {
@@ -88,9 +131,78 @@ public class PersonQueryHandlerConfig {
 				new SortDefinition<>(PersonSort.OWNER_LAST_NAME, BUSINESS_OWNER_TABLE, lastName));
 	}
 	
-	public QueryHandler<CriteriaQuery<Person>, CriteriaQuery<Long>, Person, PersonCriteria, PersonSort> getPersonQueryHandler(EntityManager entityManager) {
+	public JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> getPersonQueryHandler(EntityManager entityManager) {
 		return new JpaQueryHandler<>(entityManager, Person.class, Integer.class, PERSON_TABLE, r -> r.get(Person_.id),
 				getRestrictions(), getSorts());
 	}
+
+	public JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> getPersonQueryHandler(
+			EntityManagerFactory entityManagerFactory) {
+		return new JpaQueryHandler<>(entityManagerFactory, Person.class, Integer.class, PERSON_TABLE,
+				r -> r.get(Person_.id), getRestrictions(), getSorts());
+	}
+
+	/**
+	 * Returns a handler whose search matches the first name, the company name
+	 * or the name of a child, and whose id and other id match either id.
+	 */
+	public JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> getQuickSearchQueryHandler(
+			EntityManager entityManager) {
+		RestrictionMapping<PersonCriteria, ?, ?, ?, ?> searchFirstName = new RestrictionMapping<>(
+				PersonCriteria::getSearch, new RestrictionDefinition<>(PERSON_TABLE, firstName, CONTAINS_FIELD_HANDLER));
+		RestrictionMapping<PersonCriteria, ?, ?, ?, ?> searchCompanyName = new RestrictionMapping<>(
+				PersonCriteria::getSearch, new RestrictionDefinition<>(BUSINESS_TABLE, name, CONTAINS_FIELD_HANDLER));
+		RestrictionMapping<PersonCriteria, ?, ?, ?, ?> searchChildName = new RestrictionMapping<>(
+				PersonCriteria::getSearch, new RestrictionDefinition<>(CHILD_TABLE, firstName, CONTAINS_FIELD_HANDLER));
+		RestrictionMapping<PersonCriteria, ?, ?, ?, ?> otherId = new RestrictionMapping<>(PersonCriteria::getOtherId,
+				new RestrictionDefinition<>(PERSON_TABLE, Person_.id, eqFieldHandler(Integer.class)));
+		List<RestrictionMapping<PersonCriteria, ?, ?, ?, ?>> restrictions = new ArrayList<>(getRestrictions());
+		restrictions.addAll(asList(searchFirstName, searchCompanyName, searchChildName, otherId));
+		JpaQueryHandler<Person, Integer, PersonCriteria, PersonSort> queryHandler = new JpaQueryHandler<>(
+				entityManager, Person.class, Integer.class, PERSON_TABLE, r -> r.get(Person_.id), restrictions,
+				getSorts());
+		queryHandler.setRestrictionGroups(asList(
+				RestrictionGroup.anyOf(searchFirstName, searchCompanyName, searchChildName),
+				RestrictionGroup.anyOf(ID, otherId)));
+		return queryHandler;
+	}
+
+	public SqlQueryHandler<Person, PersonCriteria, PersonSort> getSqlQueryHandler() {
+		Map<RestrictionDefinition<?, ?, ?, ?>, SqlFieldHandler<?>> fieldHandlers = new HashMap<>();
+		fieldHandlers.put(HAS_CHILDREN, new SqlFieldHandler<Boolean>() {
+			@Override
+			public int getVariant(Boolean value) {
+				return value ? 1 : 0;
+			}
+
+			@Override
+			public void appendPredicate(StringBuilder sql, String column, int variant) {
+				sql.append(column).append(variant == 1 ? " in " : " not in ")
+						.append("(select p.parent_id from Person p where p.parent_id is not null)");
+			}
+
+			@Override
+			public void bind(Boolean value, List<Object> parameters) {
+			}
+		});
+		fieldHandlers.put(UNDERAGE_CHILDREN, new SqlFieldHandler<Boolean>() {
+			@Override
+			public int getVariant(Boolean value) {
+				return value ? 1 : 0;
+			}
+
+			@Override
+			public void appendPredicate(StringBuilder sql, String column, int variant) {
+				sql.append(column).append(variant == 1 ? " > ?" : " < ?");
+			}
+
+			@Override
+			public void bind(Boolean value, List<Object> parameters) {
+				parameters.add(LocalDate.now().minusYears(18));
+			}
+		});
+		return new SqlQueryHandler<>(Person.class, PERSON_TABLE, getRestrictions(), getSorts(), new SqlMetadata(),
+				fieldHandlers);
+	}
 	
 }
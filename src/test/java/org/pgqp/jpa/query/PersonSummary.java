@@ -0,0 +1,12 @@
+package org.pgqp.jpa.query;
+
+import lombok.Value;
+
+@Value
+public class PersonSummary {
+
+	private String firstName;
+	private String lastName;
+	private String businessName;
+
+}